@@ -1,9 +1,12 @@
 package echopointng;
 
+import java.util.Map;
+
 import nextapp.echo2.app.Component;
 import nextapp.echo2.app.MutableStyleSheet;
 import nextapp.echo2.app.Style;
 import nextapp.echo2.app.StyleSheet;
+import echopointng.util.collections.ConcurrentReaderHashMap;
 
 /* 
  * This file is part of the Echo Point Project.  This project is a collection
@@ -68,9 +71,25 @@ public class EPNG {
 	 * <p>
 	 * However remember it is a static field and hence will affect all EPNG
 	 * components in the same JVM.
+	 * <p>
+	 * The fallback styles are resolved once per component class and their
+	 * property values are remembered as they are read. Changes made via
+	 * DEFAULT_STYLESHEET or by assigning a new stylesheet to this field are
+	 * picked up automatically. If you change a fallback <code>Style</code> or
+	 * another <code>MutableStyleSheet</code> in place, call
+	 * <code>invalidateFallBackStyles()</code> afterwards.
 	 */
 	public static StyleSheet FALLBACK_STYLESHEET;
 
+	/** a marker for component classes that have no fallback style */
+	private static final Object NO_STYLE = new Object();
+
+	/** a map of component class to its ResolvedStyle or NO_STYLE */
+	private static volatile Map resolvedStyles = new ConcurrentReaderHashMap();
+
+	/** the stylesheet that resolvedStyles was built from */
+	private static volatile StyleSheet resolvedStyleSheet;
+
 	/**
 	 * This static helper method can be used to quickly get the Style for a
 	 * given component from the FALLBACK_STYLESHEET. If any of these objects is
@@ -82,18 +101,48 @@ public class EPNG {
 	 * @return a fallback style for the component
 	 */
 	public static Style getFallBackStyle(Component component) {
-		Style style = null;
-		if (EPNG.FALLBACK_STYLESHEET != null && component != null) {
-			style = EPNG.FALLBACK_STYLESHEET.getStyle(component.getClass(), null);
+		StyleSheet styleSheet = EPNG.FALLBACK_STYLESHEET;
+		if (styleSheet == null || component == null) {
+			return null;
+		}
+		Map styles = resolvedStyles;
+		if (resolvedStyleSheet != styleSheet) {
+			synchronized (EPNG.class) {
+				if (resolvedStyleSheet != styleSheet) {
+					resolvedStyles = new ConcurrentReaderHashMap();
+					resolvedStyleSheet = styleSheet;
+				}
+				styles = resolvedStyles;
+			}
+		}
+		Class componentClass = component.getClass();
+		Object style = styles.get(componentClass);
+		if (style == null) {
+			Style fallbackStyle = styleSheet.getStyle(componentClass, null);
+			style = fallbackStyle == null ? NO_STYLE : new ResolvedStyle(fallbackStyle);
+			styles.put(componentClass, style);
+		}
+		return style == NO_STYLE ? null : (Style) style;
+	}
+
+	/**
+	 * Discards the resolved fallback styles so that they are looked up again
+	 * from the FALLBACK_STYLESHEET. This is done automatically when
+	 * DEFAULT_STYLESHEET is changed, but needs to be called if a fallback
+	 * <code>Style</code> or some other fallback stylesheet is changed in
+	 * place.
+	 */
+	public static void invalidateFallBackStyles() {
+		synchronized (EPNG.class) {
+			resolvedStyles = new ConcurrentReaderHashMap();
 		}
-		return style;
 	}
 
 	/**
 	 * This <code>MutableStyleSheet</code> contains the default visual
 	 * representation of the EPNG components.
 	 */
-	public static MutableStyleSheet DEFAULT_STYLESHEET = new MutableStyleSheet();
+	public static MutableStyleSheet DEFAULT_STYLESHEET = new FallBackStyleSheet();
 	static {
 		// keep these in alphabetic order
 		DEFAULT_STYLESHEET.addStyle(AutoLookupTextFieldEx.class, null, AutoLookupTextFieldEx.DEFAULT_STYLE);
@@ -142,6 +191,22 @@ public class EPNG {
 		FALLBACK_STYLESHEET = DEFAULT_STYLESHEET;
 	}
 
+	/**
+	 * A <code>MutableStyleSheet</code> that discards the resolved fallback
+	 * styles whenever it is changed.
+	 */
+	private static class FallBackStyleSheet extends MutableStyleSheet {
+		public void addStyle(Class componentClass, String styleName, Style style) {
+			super.addStyle(componentClass, styleName, style);
+			invalidateFallBackStyles();
+		}
+
+		public void addStyleSheet(MutableStyleSheet styleSheet) {
+			super.addStyleSheet(styleSheet);
+			invalidateFallBackStyles();
+		}
+	}
+
 	/**
 	 * This helper method will look for rendered properties inside the component
 	 * (via getRenderProperty()) and then if it finds null, then it will look in
@@ -178,9 +243,9 @@ public class EPNG {
 			Style style = getFallBackStyle(component);
 			if (style != null) {
 				value = style.getProperty(propertyName);
-				if (value == null) {
-					value = defaultValue;
-				}
+			}
+			if (value == null) {
+				value = defaultValue;
 			}
 		}
 		return value;
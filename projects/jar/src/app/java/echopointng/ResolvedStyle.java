@@ -0,0 +1,116 @@
+package echopointng;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.Iterator;
+import java.util.Map;
+
+import nextapp.echo2.app.Style;
+import echopointng.util.collections.ConcurrentReaderHashMap;
+
+/**
+ * <code>ResolvedStyle</code> is a read-only view of a fallback
+ * <code>Style</code> that remembers each property value once it has been
+ * looked up, so that repeated reads during rendering are a single hash lookup
+ * rather than a search of the underlying style.
+ * <p>
+ * The values are flattened from the underlying style the first time they are
+ * asked for. If that style is changed in place afterwards,
+ * <code>EPNG.invalidateFallBackStyles()</code> must be called for the change
+ * to be seen.
+ */
+class ResolvedStyle implements Style {
+
+	private static final Object NO_VALUE = new Object();
+
+	private Style style;
+
+	private transient Map properties = new ConcurrentReaderHashMap();
+
+	/**
+	 * Constructs a <code>ResolvedStyle</code> over the given style
+	 * 
+	 * @param style -
+	 *            the underlying style
+	 */
+	ResolvedStyle(Style style) {
+		this.style = style;
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#getProperty(java.lang.String)
+	 */
+	public Object getProperty(String propertyName) {
+		if (properties == null) {
+			properties = new ConcurrentReaderHashMap();
+		}
+		Object value = properties.get(propertyName);
+		if (value == null) {
+			value = style.getProperty(propertyName);
+			properties.put(propertyName, value == null ? NO_VALUE : value);
+			return value;
+		}
+		return value == NO_VALUE ? null : value;
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#getIndexedProperty(java.lang.String, int)
+	 */
+	public Object getIndexedProperty(String propertyName, int propertyIndex) {
+		return style.getIndexedProperty(propertyName, propertyIndex);
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#getPropertyIndices(java.lang.String)
+	 */
+	public Iterator getPropertyIndices(String propertyName) {
+		return style.getPropertyIndices(propertyName);
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#getPropertyNames()
+	 */
+	public Iterator getPropertyNames() {
+		return style.getPropertyNames();
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#isIndexedPropertySet(java.lang.String, int)
+	 */
+	public boolean isIndexedPropertySet(String propertyName, int index) {
+		return style.isIndexedPropertySet(propertyName, index);
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Style#isPropertySet(java.lang.String)
+	 */
+	public boolean isPropertySet(String propertyName) {
+		return style.isPropertySet(propertyName);
+	}
+}
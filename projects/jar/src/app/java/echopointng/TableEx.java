@@ -34,7 +34,6 @@ import java.util.EventListener;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import nextapp.echo2.app.Color;
 import nextapp.echo2.app.Component;
@@ -43,6 +42,8 @@ import nextapp.echo2.app.LayoutData;
 import nextapp.echo2.app.Style;
 import nextapp.echo2.app.Table;
 import nextapp.echo2.app.event.ActionListener;
+import nextapp.echo2.app.event.TableModelEvent;
+import nextapp.echo2.app.event.TableModelListener;
 import nextapp.echo2.app.list.ListSelectionModel;
 import nextapp.echo2.app.table.DefaultTableModel;
 import nextapp.echo2.app.table.TableCellRenderer;
@@ -60,6 +61,7 @@ import echopointng.table.PageableTableModel;
 import echopointng.table.TableActionEventEx;
 import echopointng.table.TableCellRendererEx;
 import echopointng.table.TableColumnEx;
+import echopointng.table.TableRowChanges;
 import echopointng.util.ColorKit;
 import echopointng.util.TokenizerKit;
 import echopointng.xhtml.XhtmlFragment;
@@ -83,11 +85,29 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 	 * <p>
 	 * The index of the cell matrix is 0,0 to (rowCount,cellCount) unless there
 	 * is a isHeaderVisible in which case it is 0,-1 to ((rowCount*cellCount)
-	 * 
+	 * <p>
+	 * The content is held in one array per row, which are only allocated when
+	 * a row has content, so no per cell keys or map entries are needed. Rows
+	 * can be inserted, deleted and cleared so that the matrix can be brought
+	 * up to date with model changes without rebuilding it.
 	 */
 	protected class CellMatrix implements Serializable {
 
-		private Map cellContentMap;
+		private Object[][] rows;
+
+		private Object[] headerRow;
+
+		private Object[] footerRow;
+
+		/*
+		 * Cell properties are rare, so they are kept in a parallel structure
+		 * of per cell Maps that is only allocated on demand.
+		 */
+		private Map[][] rowProperties;
+
+		private Map[] headerProperties;
+
+		private Map[] footerProperties;
 
 		private Object cellSpanObject;
 
@@ -95,7 +115,7 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 
 		private int rowCount;
 
-		private Map propertyMap;
+		private boolean rowSpanned;
 
 		/**
 		 * Constructs a <code>CellMatrix</code>
@@ -113,9 +133,7 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 			this.rowCount = rowCount;
 			this.columnCount = columnCount;
 			this.cellSpanObject = cellSpanObject;
-			int cellCount = rowCount * columnCount;
-			cellCount += (isHeaderVisible() ? columnCount : 0);
-			cellContentMap = new HashMap(cellCount);
+			this.rows = new Object[rowCount + 1][];
 		}
 
 		/**
@@ -128,9 +146,23 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		 *         <code>CellMatrix</code>
 		 */
 		public boolean containsCellContent(Object value) {
-			for (Iterator iter = cellContentMap.entrySet().iterator(); iter.hasNext();) {
-				Entry entry = (Entry) iter.next();
-				if (entry.getValue() == value || entry.getValue().equals(value)) {
+			if (rowContains(headerRow, value) || rowContains(footerRow, value)) {
+				return true;
+			}
+			for (int i = 0; i < rows.length; i++) {
+				if (rowContains(rows[i], value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean rowContains(Object[] row, Object value) {
+			if (row == null) {
+				return false;
+			}
+			for (int i = 0; i < row.length; i++) {
+				if (row[i] != null && (row[i] == value || row[i].equals(value))) {
 					return true;
 				}
 			}
@@ -149,9 +181,11 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		 */
 		public Object getCellContent(int column, int row) {
 			validateCoordinate(column, row);
-			String key = getColRowKey(column, row);
-			Object content = cellContentMap.get(key);
-			return content;
+			Object[] rowContent = getRow(row, false);
+			if (rowContent == null || column >= rowContent.length) {
+				return null;
+			}
+			return rowContent[column];
 		}
 
 		/**
@@ -162,14 +196,60 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		}
 
 		/**
-		 * @return a key by col/row
+		 * Returns the content array for a row, optionally creating it.
 		 */
-		private String getColRowKey(int column, int row) {
-			StringBuffer sb = new StringBuffer("col:");
-			sb.append(column);
-			sb.append("row:");
-			sb.append(row);
-			return sb.toString();
+		private Object[] getRow(int row, boolean create) {
+			Object[] rowContent;
+			if (row == HEADER_ROW) {
+				rowContent = headerRow;
+			} else if (row == FOOTER_ROW) {
+				rowContent = footerRow;
+			} else {
+				rowContent = rows[row];
+			}
+			if (rowContent == null && create) {
+				// the column index is allowed to be columnCount
+				rowContent = new Object[columnCount + 1];
+				if (row == HEADER_ROW) {
+					headerRow = rowContent;
+				} else if (row == FOOTER_ROW) {
+					footerRow = rowContent;
+				} else {
+					rows[row] = rowContent;
+				}
+			}
+			return rowContent;
+		}
+
+		/**
+		 * Returns the property Maps for a row, optionally creating them.
+		 */
+		private Map[] getRowProperties(int row, boolean create) {
+			if (rowProperties == null) {
+				if (!create) {
+					return null;
+				}
+				rowProperties = new Map[rows.length][];
+			}
+			Map[] properties;
+			if (row == HEADER_ROW) {
+				properties = headerProperties;
+			} else if (row == FOOTER_ROW) {
+				properties = footerProperties;
+			} else {
+				properties = rowProperties[row];
+			}
+			if (properties == null && create) {
+				properties = new Map[columnCount + 1];
+				if (row == HEADER_ROW) {
+					headerProperties = properties;
+				} else if (row == FOOTER_ROW) {
+					footerProperties = properties;
+				} else {
+					rowProperties[row] = properties;
+				}
+			}
+			return properties;
 		}
 
 		/**
@@ -186,6 +266,13 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 			return rowCount;
 		}
 
+		/**
+		 * @return true if any cell content has been set with a row span
+		 */
+		public boolean isRowSpanned() {
+			return rowSpanned;
+		}
+
 		/**
 		 * Sets the content of the cells at the specified column/row
 		 * co-ordinate.
@@ -226,13 +313,16 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		 */
 		public void setCellContent(Object value, int column, int row, int colSpan, int rowSpan) {
 			validateCoordinate(column, row);
-			String key = getColRowKey(column, row);
-			cellContentMap.put(key, value);
+			Object[] rowContent = getRow(row, value != null);
+			if (rowContent != null) {
+				rowContent[column] = value;
+			}
 			// handle col and row span by setting the content of the
 			// cells that are skipped with the cellSpanObject
 			if (rowSpan > 1 || colSpan > 1) {
 				int maxRows = row;
 				if (rowSpan > 1) {
+					rowSpanned = true;
 					maxRows = Math.min(row + (rowSpan - 1), rowCount - 1);
 				}
 				int maxColumns = column;
@@ -269,27 +359,99 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		 *            a value for that property at that cell
 		 */
 		public void setCellProperties(int column, int row, String propertyName, Object value) {
-			if (propertyMap == null) {
-				propertyMap = new HashMap();
+			validateCoordinate(column, row);
+			Map[] properties = getRowProperties(row, true);
+			if (properties[column] == null) {
+				properties[column] = new HashMap(4);
 			}
-			String key = makePropertyMapKey(column, row, propertyName);
-			propertyMap.put(key, value);
+			properties[column].put(propertyName, value);
 		}
 
 		/**
 		 * 
 		 */
 		public Object getCellProperties(int column, int row, String propertyName) {
-			if (propertyMap == null) {
+			if (rowProperties == null) {
+				return null;
+			}
+			validateCoordinate(column, row);
+			Map[] properties = getRowProperties(row, false);
+			if (properties == null || column >= properties.length || properties[column] == null) {
 				return null;
 			}
-			String key = makePropertyMapKey(column, row, propertyName);
-			return propertyMap.get(key);
+			return properties[column].get(propertyName);
+		}
+
+		/**
+		 * Clears the content and properties of a row
+		 * 
+		 * @param row -
+		 *            the row index, which may be the header or footer row
+		 */
+		public void clearRow(int row) {
+			validateCoordinate(0, row);
+			if (row == HEADER_ROW) {
+				headerRow = null;
+				headerProperties = null;
+			} else if (row == FOOTER_ROW) {
+				footerRow = null;
+				footerProperties = null;
+			} else {
+				rows[row] = null;
+				if (rowProperties != null) {
+					rowProperties[row] = null;
+				}
+			}
+		}
+
+		/**
+		 * Inserts empty rows into the matrix, moving the rows at and after
+		 * <code>firstRow</code> down.
+		 * 
+		 * @param firstRow -
+		 *            the index of the first new row
+		 * @param count -
+		 *            the number of rows to insert
+		 */
+		public void insertRows(int firstRow, int count) {
+			if (firstRow < 0 || firstRow > rowCount) {
+				throw new IllegalArgumentException("The row index [" + firstRow + "] is outside the rowCount [" + rowCount + "]");
+			}
+			rows = (Object[][]) shiftRows(rows, new Object[rows.length + count][], firstRow, count);
+			if (rowProperties != null) {
+				rowProperties = (Map[][]) shiftRows(rowProperties, new Map[rows.length][], firstRow, count);
+			}
+			rowCount += count;
+		}
+
+		/**
+		 * Deletes rows from the matrix, moving the rows after them up.
+		 * 
+		 * @param firstRow -
+		 *            the index of the first row to delete
+		 * @param count -
+		 *            the number of rows to delete
+		 */
+		public void deleteRows(int firstRow, int count) {
+			if (firstRow < 0 || firstRow + count > rowCount) {
+				throw new IllegalArgumentException("The rows [" + firstRow + "] to [" + (firstRow + count - 1) + "] are outside the rowCount ["
+						+ rowCount + "]");
+			}
+			rows = (Object[][]) shiftRows(rows, new Object[rows.length - count][], firstRow, -count);
+			if (rowProperties != null) {
+				rowProperties = (Map[][]) shiftRows(rowProperties, new Map[rows.length][], firstRow, -count);
+			}
+			rowCount -= count;
 		}
 
-		private String makePropertyMapKey(int column, int row, String propertyName) {
-			String key = "r:" + row + "c:" + column + "pn:" + propertyName;
-			return key;
+		private Object[] shiftRows(Object[] source, Object[] target, int firstRow, int shift) {
+			System.arraycopy(source, 0, target, 0, firstRow);
+			if (shift > 0) {
+				System.arraycopy(source, firstRow, target, firstRow + shift, source.length - firstRow);
+			} else {
+				System.arraycopy(source, firstRow - shift, target, firstRow, source.length - firstRow + shift);
+			}
+			return target;
 		}
 
 		private void validateCoordinate(int column, int row) {
@@ -390,6 +552,41 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 	 */
 	protected boolean footerVisible;
 
+	/**
+	 * The row changes made to the model since the <code>TableEx</code> was
+	 * last rendered.
+	 */
+	private TableRowChanges rowChanges = new TableRowChanges();
+
+	/**
+	 * The row changes made to the model since the <code>CellMatrix</code>
+	 * was last brought up to date.
+	 */
+	private TableRowChanges matrixChanges = new TableRowChanges();
+
+	private TableModelListener rowChangeListener = new RowChangeListener();
+
+	/*
+	 * Every model event invalidates the table, so if there have been more
+	 * invalidations than model events then something other than the rows has
+	 * changed and the row changes cannot be relied upon.
+	 */
+	private int pendingInvalidations;
+
+	private int pendingRowEvents;
+
+	/**
+	 * <code>RowChangeListener</code> records model events into the
+	 * <code>TableRowChanges</code>
+	 */
+	private class RowChangeListener implements TableModelListener, Serializable {
+		public void tableChanged(TableModelEvent e) {
+			pendingRowEvents++;
+			rowChanges.tableChanged(e);
+			matrixChanges.tableChanged(e);
+		}
+	}
+
 	/**
 	 * Creates a new <code>TableEx</code> with an empty
 	 * <code>DefaultTableModel</code>.
@@ -433,6 +630,7 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 	 */
 	public TableEx(TableModel model, TableColumnModel columnModel) {
 		super(model, columnModel);
+		getModel().addTableModelListener(rowChangeListener);
 		defaultRenderer = DEFAULT_TABLE_CELL_RENDERER;
 		setFocusTraversalParticipant(false);
 	}
@@ -565,8 +763,59 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		boolean isHeaderVisible = isHeaderVisible();
 		boolean isFooterVisible = isFooterVisible();
 
+		if (pendingInvalidations > pendingRowEvents) {
+			rowChanges.markFull();
+			matrixChanges.markFull();
+		}
+		pendingInvalidations = 0;
+		pendingRowEvents = 0;
+		//
+		// cell renderers may depend on the row index, so rows that have moved
+		// because of an insert or delete are rendered again as well
+		markShiftedRowsUpdated(rowChanges, rowCount);
+		markShiftedRowsUpdated(matrixChanges, rowCount);
+
 		Map encounteredComponentMap = new HashMap();
-		cellMatrix = new CellMatrix(columnCount, rowCount, TableEx.CELL_SPANNER);
+		//
+		// if only rows have changed then we can bring the existing cell
+		// matrix up to date and render just those rows
+		boolean incremental = cellMatrix != null && !matrixChanges.isFull() && !cellMatrix.isRowSpanned()
+				&& cellMatrix.getColumnCount() == columnCount && cellMatrix.getRowCount() + matrixChanges.getRowCountDelta() == rowCount;
+		Map replacedComponentMap = new HashMap();
+		int[] renderRows = null;
+		if (incremental) {
+			for (int i = 0; i < matrixChanges.getOperationCount(); i++) {
+				int firstRow = matrixChanges.getFirstRow(i);
+				int lastRow = matrixChanges.getLastRow(i);
+				int type = matrixChanges.getOperationType(i);
+				if (type == TableRowChanges.INSERT) {
+					cellMatrix.insertRows(firstRow, lastRow - firstRow + 1);
+					continue;
+				}
+				for (int rowIndex = firstRow; rowIndex <= lastRow; rowIndex++) {
+					collectCellComponents(rowIndex, columnCount, replacedComponentMap);
+					cellMatrix.clearRow(rowIndex);
+				}
+				if (type == TableRowChanges.DELETE) {
+					cellMatrix.deleteRows(firstRow, lastRow - firstRow + 1);
+				}
+			}
+			// the header and footer are cheap and are always rendered again
+			if (isHeaderVisible) {
+				collectCellComponents(HEADER_ROW, columnCount, replacedComponentMap);
+				cellMatrix.clearRow(HEADER_ROW);
+			}
+			if (isFooterVisible) {
+				collectCellComponents(FOOTER_ROW, columnCount, replacedComponentMap);
+				cellMatrix.clearRow(FOOTER_ROW);
+			}
+			renderRows = matrixChanges.getChangedRows();
+		} else {
+			cellMatrix = new CellMatrix(columnCount, rowCount, TableEx.CELL_SPANNER);
+			// every cell is new so the client must be given every row
+			rowChanges.markFull();
+		}
+		matrixChanges.clear();
 
 		TableColumn[] tableColumns = new TableColumn[columnCount];
 		TableCellRenderer[] columnRenderers = new TableCellRenderer[columnCount];
@@ -639,7 +888,9 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		}
 		//
 		// data cells next
-		for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+		int renderRowCount = (renderRows == null ? rowCount : renderRows.length);
+		for (int i = 0; i < renderRowCount; ++i) {
+			int rowIndex = (renderRows == null ? i : renderRows[i]);
 			for (int columnIndex = 0; columnIndex < columnCount; ++columnIndex) {
 				int modelColumnIndex = tableColumns[columnIndex].getModelIndex();
 				Object modelValue = model.getValueAt(modelColumnIndex, rowIndex);
@@ -651,8 +902,19 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 				}
 			}
 		}
+		if (incremental && cellMatrix.isRowSpanned()) {
+			// a new row span can reach into rows we have not rendered
+			cellMatrix = null;
+			doRender();
+			return;
+		}
 		// fix up our children that are no longer cells
-		Component[] children = getComponents();
+		Component[] children;
+		if (incremental) {
+			children = (Component[]) replacedComponentMap.keySet().toArray(new Component[replacedComponentMap.size()]);
+		} else {
+			children = getComponents();
+		}
 		for (int i = 0; i < children.length; i++) {
 			Component child = children[i];
 			if (!encounteredComponentMap.containsKey(child)) {
@@ -666,6 +928,30 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		firePropertyChange("repaint", null, model);
 	}
 
+	/**
+	 * Records the rows from the first shifted row to the end of the table as
+	 * updated.
+	 */
+	private static void markShiftedRowsUpdated(TableRowChanges changes, int rowCount) {
+		int firstShiftedRow = changes.getFirstShiftedRow();
+		if (firstShiftedRow != -1 && firstShiftedRow < rowCount) {
+			changes.rowsUpdated(firstShiftedRow, rowCount - 1);
+		}
+	}
+
+	/**
+	 * Puts the <code>Component</code>s that are the content of a row of the
+	 * <code>CellMatrix</code> into the given map.
+	 */
+	private void collectCellComponents(int rowIndex, int columnCount, Map componentMap) {
+		for (int columnIndex = 0; columnIndex < columnCount; ++columnIndex) {
+			Object content = cellMatrix.getCellContent(columnIndex, rowIndex);
+			if (content instanceof Component) {
+				componentMap.put(content, content);
+			}
+		}
+	}
+
 	/**
 	 * Renders the content of a cell, given a specific
 	 * <code>TableCellRenderer</code>. The internal <code>CellMatrix</code>
@@ -714,10 +1000,10 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 				// or selection causing. The default is that they are action
 				// causing.
 				if (!isActionCausing) {
-					cellMatrix.setCellProperties(column, row, "actionCausing", new Boolean(false));
+					cellMatrix.setCellProperties(column, row, "actionCausing", Boolean.FALSE);
 				}
 				if (!isSelectionCausing) {
-					cellMatrix.setCellProperties(column, row, "selectionCausing", new Boolean(false));
+					cellMatrix.setCellProperties(column, row, "selectionCausing", Boolean.FALSE);
 				}
 			} else {
 				// we could do what the old table used to do to be backwards
@@ -744,6 +1030,10 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 		if (layoutDataEx != null) {
 			colSpan = layoutDataEx.getColSpan();
 			rowSpan = layoutDataEx.getRowSpan();
+			if (rowSpan > 1) {
+				// rows that span others cannot be replaced on their own
+				rowChanges.markFull();
+			}
 		}
 		cellMatrix.setCellContent(content, column, row, colSpan, rowSpan);
 		return renderedComponent;
@@ -896,6 +1186,38 @@ public class TableEx extends Table implements Attributeable, Stretchable {
 	 */
 	protected void invalidate() {
 		valid = false;
+		pendingInvalidations++;
+	}
+
+	/**
+	 * This method is intended to be called by the TableEx rendering peer.
+	 * <p>
+	 * It returns the rows that have been inserted, deleted or updated in the
+	 * model since the table was last rendered, so that only those rows need
+	 * to be sent to the client. The peer clears the changes once it has
+	 * rendered the table.
+	 * 
+	 * @return the row changes since the table was last rendered
+	 */
+	public TableRowChanges getRowChanges() {
+		return rowChanges;
+	}
+
+	/**
+	 * @see nextapp.echo2.app.Table#setModel(nextapp.echo2.app.table.TableModel)
+	 */
+	public void setModel(TableModel newValue) {
+		TableModel oldValue = getModel();
+		super.setModel(newValue);
+		// the listener is null while the Table constructor sets the first model
+		if (rowChangeListener != null) {
+			if (oldValue != null) {
+				oldValue.removeTableModelListener(rowChangeListener);
+			}
+			newValue.addTableModelListener(rowChangeListener);
+			rowChanges.markFull();
+			matrixChanges.markFull();
+		}
 	}
 
 	/**
@@ -45,7 +45,9 @@ import java.util.EventListener;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
 import java.util.WeakHashMap;
@@ -62,9 +64,11 @@ import echopointng.tree.DefaultTreeModel;
 import echopointng.tree.DefaultTreeSelectionModel;
 import echopointng.tree.EmptyTreeSelectionModel;
 import echopointng.tree.ExpandVetoException;
+import echopointng.tree.LazyTreeModel;
 import echopointng.tree.RowMapper;
 import echopointng.tree.TreeActionEventEx;
 import echopointng.tree.TreeCellRenderer;
+import echopointng.tree.TreeChildLoader;
 import echopointng.tree.TreeExpansionEvent;
 import echopointng.tree.TreeExpansionListener;
 import echopointng.tree.TreeIcons;
@@ -89,6 +93,13 @@ import echopointng.tree.TreeWillExpandListener;
  * <p>
  * Tree also supports node selection via its TreeSelectionModel.
  * <p>
+ * Nodes with a great many children can be shown a page at a time by setting
+ * a child page size. Only the first page of children is rendered when a node
+ * is expanded, followed by a row that fetches the next page when it is
+ * clicked. If the model is a <code>LazyTreeModel</code>, then the children of
+ * a slow node are loaded on a background thread while a placeholder row is
+ * shown.
+ * <p>
  * The <code>Tree</code> component supports "bubbling up" actions.
  * <p>
  * If the objects placed in the Tree implement <code>TreeNode</code> then an
@@ -125,6 +136,26 @@ public class Tree extends AbleComponent {
 	 */
 	public static final String INPUT_SELECT = "select";
 
+	/**
+	 * Used as an INPUT name to indicate that the next page of a node's
+	 * children is to be shown
+	 */
+	public static final String INPUT_MORE = "more";
+
+	/**
+	 * Used as an INPUT name to indicate that a node's children have finished
+	 * loading in the background and are to be shown
+	 */
+	public static final String INPUT_LOADED = "loaded";
+
+	/**
+	 * Used as an INPUT name to record how many of a node's children the
+	 * client is showing after it has fetched further pages of them itself.
+	 * The value is an Object[] holding the node's TreePath and an Integer
+	 * count.
+	 */
+	public static final String INPUT_SHOWN_CHILD_COUNT = "shownChildCount";
+
 	public final static String PROPERTY_ACTION_COMMAND = "actionCommand";
 
 	public final static String PROPERTY_CELL_RENDERER = "cellRenderer";
@@ -155,6 +186,12 @@ public class Tree extends AbleComponent {
 
 	public final static String PROPERTY_SCROLL_INTO_VIEW_USED = "scrollIntoViewUsed";
 
+	public final static String PROPERTY_CHILD_PAGE_SIZE = "childPageSize";
+
+	public final static String PROPERTY_MORE_CHILDREN_TEXT = "moreChildrenText";
+
+	public final static String PROPERTY_LOADING_CHILDREN_TEXT = "loadingChildrenText";
+
 	public static final String NODE_CHANGED_PROPERTY = "nodeChanged";
 
 	public static final String MODEL_STRUCTURE_CHANGED_PROPERTY = "modelStructureChanged";
@@ -169,6 +206,13 @@ public class Tree extends AbleComponent {
 		 * @see echopointng.tree.TreeExpansionListener#treeCollapsed(TreeExpansionEvent)
 		 */
 		public void treeCollapsed(TreeExpansionEvent e) {
+			shownChildCounts.remove(e.getPath());
+			if (childLoaders != null) {
+				childLoaders.remove(e.getPath());
+			}
+			getRowIndex().pathCollapsed(e.getPath());
+			invalidateRowSelection();
+			markBranchChanged(e.getPath());
 			markPathDirty(e.getPath(), false);
 		}
 
@@ -176,6 +220,10 @@ public class Tree extends AbleComponent {
 		 * @see echopointng.tree.TreeExpansionListener#treeExpanded(TreeExpansionEvent)
 		 */
 		public void treeExpanded(TreeExpansionEvent e) {
+			startLoadingChildren(e.getPath());
+			getRowIndex().pathExpanded(e.getPath());
+			invalidateRowSelection();
+			markBranchChanged(e.getPath());
 			markPathDirty(e.getPath(), false);
 			lastExpandedPaths.add(e.getPath());
 		}
@@ -192,6 +240,11 @@ public class Tree extends AbleComponent {
 		}
 
 		public void treeNodesInserted(TreeModelEvent e) {
+			if (e != null) {
+				getRowIndex().nodesInserted(e.getTreePath(), e.getChildIndices());
+				invalidateRowSelection();
+				markBranchChanged(e.getTreePath());
+			}
 			markPathsDirty(e.getTreePath(), e.getChildren(), true);
 		}
 
@@ -206,6 +259,9 @@ public class Tree extends AbleComponent {
 			if (children == null) {
 				return;
 			}
+			getRowIndex().nodesRemoved(parent, e.getChildIndices());
+			invalidateRowSelection();
+			markBranchChanged(parent);
 
 			TreePath rPath;
 			Vector toRemove = new Vector(Math.max(1, children.length));
@@ -225,6 +281,7 @@ public class Tree extends AbleComponent {
 
 			if (model == null || model.isLeaf(parent.getLastPathComponent())) {
 				expandedState.remove(parent);
+				getRowIndex().pathCollapsed(parent);
 			}
 			
 
@@ -274,6 +331,8 @@ public class Tree extends AbleComponent {
 				}
 			}
 
+			getRowIndex().invalidate();
+			invalidateRowSelection();
 			invalidate();
 			firePropertyChange(MODEL_STRUCTURE_CHANGED_PROPERTY, null, null); // Forces
 			// full
@@ -338,6 +397,9 @@ public class Tree extends AbleComponent {
 	/* Records the last tree path that was expanded */
 	private transient Collection lastExpandedPaths = new ArrayList();
 
+	/* Maps between visible rows and TreePaths, created on demand */
+	private transient TreeRowIndex rowIndex;
+
 	/* Internal watch for expansion events */
 	private TreeExpansionHandler expansionForwarder;
 
@@ -346,8 +408,20 @@ public class Tree extends AbleComponent {
 
 	private TreeModelListener treeModelListener;
 
-	/* List of nodes which have changed since the last render */
-	private ArrayList dirtyPaths = new ArrayList();
+	/* Set of nodes which have changed since the last render */
+	private Set dirtyPaths = new LinkedHashSet();
+
+	/* Set of nodes whose visible descendants have changed since the last render */
+	private Set changedBranchPaths = new LinkedHashSet();
+
+	/* Maps from TreePath to the Integer number of its children that are shown, when paging */
+	private Map shownChildCounts = new HashMap();
+
+	/* Maps from TreePath to the TreeChildLoader loading its children */
+	private transient Map childLoaders;
+
+	/* The TreePaths whose children were still loading when last looked at */
+	private transient Set pendingChildLoads;
 
 	/* indicates whether the Tree is valid or not */
 	private boolean valid;
@@ -362,6 +436,8 @@ public class Tree extends AbleComponent {
 		style.setProperty(PROPERTY_SCROLL_INTO_VIEW_USED, true);
 		style.setProperty(PROPERTY_NULL_ACTION_COMMANDS_RAISE_EVENTS, true);
 		style.setProperty(PROPERTY_TREE_ICONS, new DefaultTreeIcons() );
+		style.setProperty(PROPERTY_MORE_CHILDREN_TEXT, "More...");
+		style.setProperty(PROPERTY_LOADING_CHILDREN_TEXT, "Loading...");
 
 		DEFAULT_STYLE = style;
 	}
@@ -422,6 +498,15 @@ public class Tree extends AbleComponent {
 			return;
 		}
 
+		if (INPUT_SHOWN_CHILD_COUNT.equals(name)) {
+			Object[] shownChildCount = (Object[]) value;
+			TreePath path = (TreePath) shownChildCount[0];
+			if (isExpanded(path)) {
+				setShownChildCount(path, ((Integer) shownChildCount[1]).intValue());
+			}
+			return;
+		}
+
 		TreePath path = (TreePath) value;
 
 		if (name.startsWith(INPUT_TOGGLE)) {
@@ -432,6 +517,17 @@ public class Tree extends AbleComponent {
 				expandPath(path);
 			}
 
+		} else if (name.startsWith(INPUT_MORE)) {
+			if (isExpanded(path)) {
+				showMoreChildren(path);
+			}
+
+		} else if (name.startsWith(INPUT_LOADED)) {
+			if (isExpanded(path) && !isLoadingChildren(path)) {
+				markBranchChanged(path);
+				firePropertyChange(NODE_CHANGED_PROPERTY, null, null);
+			}
+
 		} else if (name.startsWith(INPUT_SELECT)) {
 			TreeSelectionModel selectionModel = getSelectionModel();
 			if (selectionModel != null) {
@@ -796,28 +892,14 @@ public class Tree extends AbleComponent {
 
 	/**
 	 * Returns the row that the TreePath <code>path</code> is being displayed
-	 * at. If the TreePath in <code>path</code> is not valid it will be set to
-	 * -1.
+	 * at. If the TreePath in <code>path</code> is not valid or is not currently
+	 * visible, because one of its ancestors is collapsed, -1 is returned.
 	 */
 	public int getRowForPath(TreePath path) {
-		Object[] nodes = null;
-		if (getModel() != null) {
-			nodes = path.getPath();
-		}
-		//
-		// is it being displayed at all
-		if (nodes.length == 0 || !isExpanded(path))
+		if (getModel() == null) {
 			return -1;
-
-		TreePath rootPath = new TreePath(getModel().getRoot());
-		Enumeration enumeration = getDescendantToggledPaths(rootPath);
-		Vector pathsVec = orderPathEnumeration(rootPath, enumeration);
-		for (int i = 0; i < pathsVec.size(); i++) {
-			TreePath testPath = (TreePath) pathsVec.get(i);
-			if (testPath.equals(path))
-				return i;
 		}
-		return -1;
+		return getRowIndex().getRowForPath(path);
 	}
 
 	/**
@@ -974,30 +1056,10 @@ public class Tree extends AbleComponent {
 	 *         <code>row >= getRowCount()</code>
 	 */
 	public TreePath getPathForRow(final int row) {
-		if (row < 0) {
+		if (row < 0 || getModel() == null) {
 			return null;
 		}
-
-		// a simply call back implementation that stops at the given row.
-		TreePathNavigationListener pathNavigationListener = new TreePathNavigationListener() {
-			TreePath targetPath = null;
-
-			public boolean onTreePath(TreePath path, int pathRow) {
-				if (pathRow == row) {
-					targetPath = path;
-					return false;
-				}
-				return true;
-			}
-
-			public TreePath getLastEncounteredPath() {
-				return targetPath;
-			}
-		};
-		// call the method with the path listener to find the last encountered
-		// path
-		findAllVisibleRows(pathNavigationListener);
-		return pathNavigationListener.getLastEncounteredPath();
+		return getRowIndex().getPathForRow(row);
 	}
 
 	/**
@@ -1015,93 +1077,237 @@ public class Tree extends AbleComponent {
 		if (!isExpanded(rootPath)) {
 			return 1;
 		}
-		rowCount = findAllVisibleRows(null);
+		rowCount = getRowIndex().getRowCountBelowRoot();
+		if (isRootVisible()) {
+			rowCount++;
+		}
 		return rowCount;
 	}
 
 	/**
-	 * <code>TreePathListener</code> is a simply callback interface that is
-	 * callde when a TreePath is encountered during a model navigation.
+	 * Returns the <code>TreeRowIndex</code> that maps between visible rows
+	 * and TreePaths, creating it if need be.
 	 */
-	private interface TreePathNavigationListener {
-		/**
-		 * @return false if the navigation is to be stopped at the current
-		 *         TreePath.
-		 */
-		boolean onTreePath(TreePath path, int pathRow);
+	private TreeRowIndex getRowIndex() {
+		if (rowIndex == null) {
+			rowIndex = new TreeRowIndex(this);
+		}
+		if (pendingChildLoads != null && !pendingChildLoads.isEmpty()) {
+			// nodes that were loading were indexed without children
+			boolean loadFinished = false;
+			for (Iterator iter = pendingChildLoads.iterator(); iter.hasNext();) {
+				TreeChildLoader loader = (TreeChildLoader) childLoaders.get(iter.next());
+				if (loader == null || loader.isDone()) {
+					iter.remove();
+					loadFinished = true;
+				}
+			}
+			if (loadFinished) {
+				rowIndex.invalidate();
+			}
+		}
+		return rowIndex;
+	}
 
-		/**
-		 * @return the TreePath that as last encountered during navigation.
-		 */
-		TreePath getLastEncounteredPath();
+	/**
+	 * Returns the number of children rendered per page beneath an expanded
+	 * node. If this value is 0 or less, then all children are rendered.
+	 * 
+	 * @return the number of children rendered per page
+	 */
+	public int getChildPageSize() {
+		return getProperty(PROPERTY_CHILD_PAGE_SIZE, 0);
 	}
 
 	/**
-	 * This will traverse the Tree in a breath first manner and count all the
-	 * visible rows. If the pathNavigationListener object is non null then it
-	 * will inform it each time it encounters a new TreePath.
-	 * <p>
-	 * If the pathNavigationListener tells it to stop, then -1 is returned as
-	 * the rowCount
+	 * Sets the number of children rendered per page beneath an expanded
+	 * node. Only the first page is rendered when a node is expanded, followed
+	 * by a row that can be clicked to fetch the next page. If this value is 0
+	 * or less, then all children are rendered.
 	 * 
-	 * @param pathNavigationListener -
-	 *            an optional callback interface for indicating when a TreePath
-	 *            has been encountered.
+	 * @param newChildPageSize -
+	 *            the number of children rendered per page
+	 */
+	public void setChildPageSize(int newChildPageSize) {
+		setProperty(PROPERTY_CHILD_PAGE_SIZE, newChildPageSize);
+		shownChildCounts.clear();
+		invalidate();
+	}
+
+	/**
+	 * Returns the text of the row that fetches the next page of children.
+	 * 
+	 * @return the text of the row that fetches the next page of children
+	 */
+	public String getMoreChildrenText() {
+		return (String) getProperty(PROPERTY_MORE_CHILDREN_TEXT);
+	}
+
+	/**
+	 * Sets the text of the row that fetches the next page of children.
 	 * 
-	 * @return a count of all the visible TreePaths or -1 if it is told to stop
+	 * @param newText -
+	 *            the new text
 	 */
-	private int findAllVisibleRows(TreePathNavigationListener pathNavigationListener) {
+	public void setMoreChildrenText(String newText) {
+		setProperty(PROPERTY_MORE_CHILDREN_TEXT, newText);
+	}
+
+	/**
+	 * Returns the text of the placeholder row shown while children are
+	 * loading.
+	 * 
+	 * @return the text of the placeholder row
+	 */
+	public String getLoadingChildrenText() {
+		return (String) getProperty(PROPERTY_LOADING_CHILDREN_TEXT);
+	}
+
+	/**
+	 * Sets the text of the placeholder row shown while children are loading.
+	 * 
+	 * @param newText -
+	 *            the new text
+	 */
+	public void setLoadingChildrenText(String newText) {
+		setProperty(PROPERTY_LOADING_CHILDREN_TEXT, newText);
+	}
+
+	/**
+	 * Returns the number of children of the node identified by the path that
+	 * are shown when it is expanded. This is all of them unless a child page
+	 * size has been set, and none while they are loading or waiting to be
+	 * loaded.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @return the number of children that are shown
+	 */
+	public int getShownChildCount(TreePath path) {
 		TreeModel model = getModel();
-		Object rootNode = model.getRoot();
-		TreePath rootPath = new TreePath(rootNode);
-		int rowCount = 0;
-		if (isRootVisible()) {
-			rowCount++;
-			if (pathNavigationListener != null) {
-				if (!pathNavigationListener.onTreePath(rootPath, rowCount - 1)) {
-					return -1;
-				}
-			}
+		if (model == null || path == null || model.isLeaf(path.getLastPathComponent()) || isLoadingChildren(path) || needsLoadingChildren(path)) {
+			return 0;
 		}
-		if (!model.isLeaf(model.getRoot()) && isExpanded(rootPath)) {
-			int childRowCount = findAllVisibleRows(rootNode, rootPath, pathNavigationListener, rowCount);
-			if (childRowCount == -1) {
-				return -1;
-			}
-			rowCount = childRowCount;
+		int childCount = model.getChildCount(path.getLastPathComponent());
+		int pageSize = getChildPageSize();
+		if (pageSize <= 0) {
+			return childCount;
 		}
-		return rowCount;
+		Integer shownCount = (Integer) shownChildCounts.get(path);
+		if (shownCount != null && shownCount.intValue() > pageSize) {
+			pageSize = shownCount.intValue();
+		}
+		return Math.min(childCount, pageSize);
+	}
+
+	/**
+	 * Records the number of children of the node identified by the path that
+	 * are shown. This does not cause the Tree to be rendered again and is
+	 * intended for rendering code that has already sent the extra children to
+	 * the client. Use <code>showMoreChildren()</code> otherwise.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @param shownCount -
+	 *            the number of children that are shown
+	 */
+	public void setShownChildCount(TreePath path, int shownCount) {
+		if (path != null) {
+			shownChildCounts.put(path, new Integer(shownCount));
+		}
+	}
+
+	/**
+	 * Shows the next page of children of the node identified by the path.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 */
+	public void showMoreChildren(TreePath path) {
+		int pageSize = getChildPageSize();
+		if (path == null || pageSize <= 0) {
+			return;
+		}
+		setShownChildCount(path, getShownChildCount(path) + pageSize);
+		markBranchChanged(path);
+		invalidate();
+		firePropertyChange(NODE_CHANGED_PROPERTY, null, null);
+	}
+
+	/**
+	 * Starts loading the children of the node identified by the path in the
+	 * background, if the model is a <code>LazyTreeModel</code> and the
+	 * node's children are not loaded and not already being loaded. This is
+	 * called when a node is expanded and before its children are rendered.
+	 * <p>
+	 * If a load fails, then the children are asked for directly the next time
+	 * they are needed, until the node is collapsed and expanded again.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @return true if a load was started
+	 */
+	public boolean startLoadingChildren(TreePath path) {
+		if (!needsLoadingChildren(path)) {
+			return false;
+		}
+		if (childLoaders == null) {
+			childLoaders = new HashMap();
+			pendingChildLoads = new LinkedHashSet();
+		}
+		TreeChildLoader loader = new TreeChildLoader((LazyTreeModel) getModel(), path.getLastPathComponent());
+		childLoaders.put(path, loader);
+		pendingChildLoads.add(path);
+		loader.start();
+		return true;
 	}
 
 	/**
-	 * This will navigate down the TreeModel until it is told not to or it finds
-	 * all visible nodes. If the pathNavigationListener tells it to stop, then
-	 * -1 is returned as the rowCount
+	 * Returns true if the children of the node identified by the path have
+	 * to be loaded in the background before they can be shown, and no load
+	 * has been started for them yet.
 	 * 
-	 * @see Tree#findAllVisibleRows(TreePathNavigationListener)
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @return true if <code>startLoadingChildren()</code> would start a load
 	 */
-	private int findAllVisibleRows(Object parentNode, TreePath parentPath, TreePathNavigationListener pathNavigationListener, int currentRowCount) {
+	public boolean needsLoadingChildren(TreePath path) {
 		TreeModel model = getModel();
-		int rowCount = currentRowCount;
-		int cc = model.getChildCount(parentNode);
-		for (int i = 0; i < cc; i++) {
-			Object childNode = model.getChild(parentNode, i);
-			TreePath childPath = new TreePath(parentPath, childNode);
-			rowCount++;
-			if (pathNavigationListener != null) {
-				if (!pathNavigationListener.onTreePath(childPath, rowCount - 1)) {
-					return -1;
-				}
-			}
-			if (!model.isLeaf(childNode) && isExpanded(childPath)) {
-				int childRowCount = findAllVisibleRows(childNode, childPath, pathNavigationListener, rowCount);
-				if (childRowCount == -1) {
-					return -1;
-				}
-				rowCount = childRowCount;
-			}
+		if (!(model instanceof LazyTreeModel) || path == null || getChildLoader(path) != null) {
+			return false;
 		}
-		return rowCount;
+		LazyTreeModel lazyModel = (LazyTreeModel) model;
+		Object node = path.getLastPathComponent();
+		return !lazyModel.isLeaf(node) && !lazyModel.isChildrenLoaded(node);
+	}
+
+	/**
+	 * Returns true if the children of the node identified by the path are
+	 * being loaded in the background.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @return true if the node's children are being loaded
+	 * @see #startLoadingChildren(TreePath)
+	 */
+	public boolean isLoadingChildren(TreePath path) {
+		TreeChildLoader loader = getChildLoader(path);
+		return loader != null && !loader.isDone();
+	}
+
+	/**
+	 * Returns the <code>TreeChildLoader</code> that is loading or has
+	 * loaded the children of the node identified by the path.
+	 * 
+	 * @param path -
+	 *            the TreePath identifying a node
+	 * @return the TreeChildLoader or null if there is none
+	 */
+	public TreeChildLoader getChildLoader(TreePath path) {
+		if (childLoaders == null || path == null) {
+			return null;
+		}
+		return (TreeChildLoader) childLoaders.get(path);
 	}
 
 	/**
@@ -1336,7 +1542,12 @@ public class Tree extends AbleComponent {
 
 				if (descendants != null) {
 					while (descendants.hasMoreElements()) {
-						expandedState.remove(descendants.nextElement());
+						Object descendant = descendants.nextElement();
+						expandedState.remove(descendant);
+						shownChildCounts.remove(descendant);
+						if (childLoaders != null) {
+							childLoaders.remove(descendant);
+						}
 					}
 				}
 			}
@@ -1519,6 +1730,8 @@ public class Tree extends AbleComponent {
 					}
 				}
 			}
+			getRowIndex().invalidate();
+			invalidateRowSelection();
 
 			invalidate();
 		}
@@ -1726,6 +1939,17 @@ public class Tree extends AbleComponent {
 		return new TreeModelHandler();
 	}
 
+	/**
+	 * Tells a <code>DefaultTreeSelectionModel</code> that the rows of the
+	 * selected paths may have changed.
+	 */
+	private void invalidateRowSelection() {
+		TreeSelectionModel selectionModel = getSelectionModel();
+		if (selectionModel instanceof DefaultTreeSelectionModel) {
+			((DefaultTreeSelectionModel) selectionModel).invalidateRowSelection();
+		}
+	}
+
 	/**
 	 * Clears the cache of toggled tree paths. This does NOT send out any
 	 * TreeExpansionListener events.
@@ -1733,6 +1957,12 @@ public class Tree extends AbleComponent {
 	protected void clearToggledPaths() {
 		if (expandedState != null)
 			expandedState.clear();
+		shownChildCounts.clear();
+		if (childLoaders != null) {
+			childLoaders.clear();
+			pendingChildLoads.clear();
+		}
+		getRowIndex().invalidate();
 	}
 
 	/**
@@ -1846,69 +2076,6 @@ public class Tree extends AbleComponent {
 		}
 	}
 
-	/**
-	 * Returns true if the hash table contains the nominated path or equivalent.
-	 */
-	private boolean orderContainsTreePath(Hashtable hash, TreePath path) {
-		for (Enumeration enumeration = hash.elements(); enumeration.hasMoreElements();) {
-			TreePath testPath = (TreePath) enumeration.nextElement();
-			if (testPath.equals(path))
-				return true;
-		}
-		return false;
-	}
-
-	/**
-	 * Orders an enumeration of paths for use within the RowMapper. It makes a
-	 * breadth first descent of the tree and finds each node in the Enumeration
-	 * and its it in an Vector, ordered from the top down starting from parent
-	 * path.
-	 */
-	private Vector orderPathEnumeration(TreePath parentPath, Enumeration enumeration) {
-
-		Hashtable unsortedSet = new Hashtable();
-		Vector sortedSet = new Vector();
-		if (getModel() == null)
-			return sortedSet;
-
-		for (; enumeration.hasMoreElements();) {
-			TreePath path = (TreePath) enumeration.nextElement();
-			unsortedSet.put(path.toString(), path);
-		}
-
-		// down throught the tree please
-		if (orderContainsTreePath(unsortedSet, parentPath))
-			sortedSet.add(parentPath);
-		orderPathSet(parentPath, unsortedSet, sortedSet);
-
-		return sortedSet;
-	}
-
-	/**
-	 * Recursive function to travel down the tree and find tree paths within the
-	 * unsorted set and put them in breathfirst order with the sorted set.
-	 */
-	private void orderPathSet(TreePath parentPath, Hashtable unsortedSet, Vector sortedSet) {
-
-		// now run down the whole tree, starting at parent, and
-		// add any elements we find as we find them.
-		Object node = parentPath.getLastPathComponent();
-		if (!getModel().isLeaf(node) && isExpanded(parentPath)) {
-			int cc = getModel().getChildCount(node);
-			for (int i = 0; i < cc; i++) {
-				Object child = getModel().getChild(node, i);
-
-				TreePath targetPath = parentPath.pathByAddingChild(child);
-				if (orderContainsTreePath(unsortedSet, targetPath))
-					sortedSet.add(targetPath);
-				if (!getModel().isLeaf(child)) {
-					// recurse
-					orderPathSet(targetPath, unsortedSet, sortedSet);
-				}
-			}
-		}
-	}
-
 	/**
 	 * Checks the given node to see if it contains a Component and adds it as a
 	 * child of the Tree. If the cell renderer returns text, then the component
@@ -1977,7 +2144,7 @@ public class Tree extends AbleComponent {
 		boolean isExpanded = isExpanded(path);
 		Object node = path.getLastPathComponent();
 		if (!model.isLeaf(node) && isExpanded) {
-			int cc = model.getChildCount(node);
+			int cc = getShownChildCount(path);
 			for (int i = 0; i < cc; i++) {
 				Object nodeChild = model.getChild(node, i);
 				TreePath childPath = new TreePath(path, nodeChild);
@@ -2068,6 +2235,32 @@ public class Tree extends AbleComponent {
 		return dirtyPaths;
 	}
 
+	/**
+	 * Returns the TreePaths whose visible descendants have changed since the
+	 * last render, because they have been expanded or collapsed or have had
+	 * children inserted or removed. These allow a partial update to re-render
+	 * just the rows beneath those paths rather than the whole Tree.
+	 * 
+	 * @return the collection of pending changed branch paths (needed for
+	 *         partial updates when rendering)
+	 */
+	public Collection getChangedBranchPaths() {
+		return changedBranchPaths;
+	}
+
+	/**
+	 * Registers that the visible descendants of a node have changed and hence
+	 * that all rows beneath it require re-rendering.
+	 * 
+	 * @param path -
+	 *            current path to the node
+	 */
+	private void markBranchChanged(TreePath path) {
+		if (path != null) {
+			changedBranchPaths.add(path);
+		}
+	}
+
 	/**
 	 * Marks an array of nodes as being dirty - ie requiring re-rendering.
 	 * Should be called whenever the state of a node is changed or a node is
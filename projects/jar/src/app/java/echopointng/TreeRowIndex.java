@@ -0,0 +1,466 @@
+package echopointng;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import echopointng.tree.TreeModel;
+import echopointng.tree.TreePath;
+
+/**
+ * <code>TreeRowIndex</code> maps between the visible rows of a
+ * <code>Tree</code> and their <code>TreePath</code>s without walking the
+ * whole visible tree.
+ * <p>
+ * In the spirit of Swing's <code>FixedHeightLayoutCache</code>, it keeps a
+ * record for every expanded and visible node, holding the node's child count
+ * and the total number of visible rows beneath it. Only expanded children are
+ * recorded, so a row lookup descends from the root and binary searches among
+ * the expanded children at each level, which costs O(depth * log(children)).
+ * <p>
+ * The index is kept up to date incrementally from the Tree's expansion and
+ * model events. Anything it cannot follow incrementally simply invalidates
+ * it, and it is rebuilt from the Tree's expanded state on next use.
+ */
+class TreeRowIndex implements Serializable {
+
+	/**
+	 * <code>Entry</code> records an expanded and visible node
+	 */
+	private static class Entry implements Serializable {
+		private TreePath path;
+
+		private Entry parent;
+
+		/** the index of this node within its parent */
+		private int childIndex;
+
+		/** the number of children of this node */
+		private int childCount;
+
+		/** the number of visible rows beneath this node */
+		private int totalRows;
+
+		/** the expanded child Entry's, ordered by childIndex */
+		private List children = new ArrayList(0);
+
+		/**
+		 * prefixRows[i] is the total rows beneath children 0 to i-1, or null
+		 * if it needs to be recalculated
+		 */
+		private int[] prefixRows;
+
+		private Entry(TreePath path, Entry parent, int childIndex, int childCount) {
+			this.path = path;
+			this.parent = parent;
+			this.childIndex = childIndex;
+			this.childCount = childCount;
+			this.totalRows = childCount;
+		}
+
+		private Entry getChild(int i) {
+			return (Entry) children.get(i);
+		}
+
+		private int[] getPrefixRows() {
+			if (prefixRows == null) {
+				int size = children.size();
+				prefixRows = new int[size + 1];
+				for (int i = 0; i < size; i++) {
+					prefixRows[i + 1] = prefixRows[i] + getChild(i).totalRows;
+				}
+			}
+			return prefixRows;
+		}
+
+		/**
+		 * Returns the number of expanded children whose childIndex is less
+		 * than the given index
+		 */
+		private int countChildrenBefore(int index) {
+			int low = 0;
+			int high = children.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (getChild(mid).childIndex < index) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static final Comparator PATH_LENGTH_COMPARATOR = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((TreePath) o1).getPathCount() - ((TreePath) o2).getPathCount();
+		}
+	};
+
+	private Tree tree;
+
+	private Entry rootEntry;
+
+	private Map entries = new HashMap();
+
+	private boolean valid;
+
+	/**
+	 * Constructs a <code>TreeRowIndex</code> for the given Tree
+	 */
+	TreeRowIndex(Tree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Throws away the index so that it is rebuilt on next use
+	 */
+	void invalidate() {
+		valid = false;
+		rootEntry = null;
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of visible rows beneath the root, not counting the
+	 *         root itself
+	 */
+	int getRowCountBelowRoot() {
+		ensureValid();
+		return rootEntry == null ? 0 : rootEntry.totalRows;
+	}
+
+	/**
+	 * Returns the TreePath at the given row or null if there is no such row
+	 */
+	TreePath getPathForRow(int row) {
+		ensureValid();
+		TreeModel model = tree.getModel();
+		if (row < 0 || model == null || model.getRoot() == null) {
+			return null;
+		}
+		if (tree.isRootVisible()) {
+			if (row == 0) {
+				return new TreePath(model.getRoot());
+			}
+			row--;
+		}
+		if (rootEntry == null || row >= rootEntry.totalRows) {
+			return null;
+		}
+		//
+		// row is now relative to the first child row of entry
+		Entry entry = rootEntry;
+		while (true) {
+			int[] prefixRows = entry.getPrefixRows();
+			//
+			// find the last expanded child that starts at or before row
+			int low = 0;
+			int high = entry.children.size() - 1;
+			int found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int start = entry.getChild(mid).childIndex + prefixRows[mid];
+				if (start <= row) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			int index;
+			if (found == -1) {
+				index = row;
+			} else {
+				Entry child = entry.getChild(found);
+				int start = child.childIndex + prefixRows[found];
+				if (row == start) {
+					return child.path;
+				}
+				if (row <= start + child.totalRows) {
+					row = row - start - 1;
+					entry = child;
+					continue;
+				}
+				index = row - prefixRows[found] - child.totalRows;
+			}
+			Object parentNode = entry.path.getLastPathComponent();
+			return entry.path.pathByAddingChild(model.getChild(parentNode, index));
+		}
+	}
+
+	/**
+	 * Returns the row of the given TreePath or -1 if it is not visible
+	 */
+	int getRowForPath(TreePath path) {
+		ensureValid();
+		TreeModel model = tree.getModel();
+		if (path == null || model == null || model.getRoot() == null) {
+			return -1;
+		}
+		TreePath parentPath = path.getParentPath();
+		if (parentPath == null) {
+			if (tree.isRootVisible() && path.getLastPathComponent().equals(model.getRoot())) {
+				return 0;
+			}
+			return -1;
+		}
+		Entry parent = (Entry) entries.get(parentPath);
+		if (parent == null) {
+			return -1;
+		}
+		int index;
+		Entry self = (Entry) entries.get(path);
+		if (self != null) {
+			index = self.childIndex;
+		} else {
+			index = model.getIndexOfChild(parentPath.getLastPathComponent(), path.getLastPathComponent());
+			if (index < 0) {
+				return -1;
+			}
+		}
+		return getRowOfChild(parent, index);
+	}
+
+	/**
+	 * Called when a path has been expanded
+	 */
+	void pathExpanded(TreePath path) {
+		if (!valid || path == null || entries.containsKey(path)) {
+			return;
+		}
+		TreePath parentPath = path.getParentPath();
+		if (parentPath == null) {
+			invalidate();
+			return;
+		}
+		Entry parent = (Entry) entries.get(parentPath);
+		if (parent == null) {
+			// its not visible
+			return;
+		}
+		TreeModel model = tree.getModel();
+		Object node = path.getLastPathComponent();
+		if (model.isLeaf(node) || !tree.isExpanded(path)) {
+			return;
+		}
+		int index = model.getIndexOfChild(parentPath.getLastPathComponent(), node);
+		if (index < 0) {
+			invalidate();
+			return;
+		}
+		Entry entry = new Entry(path, parent, index, getChildCount(path));
+		attach(entry);
+		addExpandedDescendants(entry);
+	}
+
+	/**
+	 * Called when a path has been collapsed
+	 */
+	void pathCollapsed(TreePath path) {
+		if (!valid || path == null) {
+			return;
+		}
+		Entry entry = (Entry) entries.get(path);
+		if (entry != null) {
+			detach(entry);
+		}
+	}
+
+	/**
+	 * Called when children have been inserted under a path
+	 */
+	void nodesInserted(TreePath parentPath, int[] childIndices) {
+		if (!valid || parentPath == null || childIndices == null) {
+			return;
+		}
+		Entry parent = (Entry) entries.get(parentPath);
+		if (parent == null) {
+			// it may have just stopped being a leaf
+			pathExpanded(parentPath);
+			return;
+		}
+		int[] indices = sortedCopy(childIndices);
+		for (int i = 0; i < indices.length; i++) {
+			for (int j = parent.countChildrenBefore(indices[i]); j < parent.children.size(); j++) {
+				parent.getChild(j).childIndex++;
+			}
+		}
+		parent.childCount += indices.length;
+		adjustRows(parent, indices.length);
+	}
+
+	/**
+	 * Called when children have been removed from under a path
+	 */
+	void nodesRemoved(TreePath parentPath, int[] childIndices) {
+		if (!valid || parentPath == null || childIndices == null) {
+			return;
+		}
+		Entry parent = (Entry) entries.get(parentPath);
+		if (parent == null) {
+			return;
+		}
+		int[] indices = sortedCopy(childIndices);
+		for (int i = indices.length - 1; i >= 0; i--) {
+			int j = parent.countChildrenBefore(indices[i]);
+			if (j < parent.children.size() && parent.getChild(j).childIndex == indices[i]) {
+				detach(parent.getChild(j));
+			}
+			for (; j < parent.children.size(); j++) {
+				parent.getChild(j).childIndex--;
+			}
+		}
+		parent.childCount -= indices.length;
+		adjustRows(parent, -indices.length);
+	}
+
+	private int getRowOfChild(Entry parent, int index) {
+		int parentRow;
+		if (parent.parent == null) {
+			parentRow = tree.isRootVisible() ? 0 : -1;
+		} else {
+			parentRow = getRowOfChild(parent.parent, parent.childIndex);
+		}
+		int rowsBefore = parent.getPrefixRows()[parent.countChildrenBefore(index)];
+		return parentRow + 1 + index + rowsBefore;
+	}
+
+	private void ensureValid() {
+		if (valid) {
+			return;
+		}
+		valid = true;
+		rootEntry = null;
+		entries.clear();
+		TreeModel model = tree.getModel();
+		if (model == null || model.getRoot() == null) {
+			return;
+		}
+		Object root = model.getRoot();
+		TreePath rootPath = new TreePath(root);
+		if (!model.isLeaf(root) && tree.isExpanded(rootPath)) {
+			rootEntry = new Entry(rootPath, null, -1, getChildCount(rootPath));
+			entries.put(rootPath, rootEntry);
+			addExpandedDescendants(rootEntry);
+		}
+	}
+
+	/**
+	 * Adds Entry's for all the expanded paths beneath the given Entry. Only
+	 * the Tree's toggled paths are looked at rather than every child node.
+	 */
+	private void addExpandedDescendants(Entry top) {
+		TreeModel model = tree.getModel();
+		List expandedPaths = new ArrayList();
+		Enumeration toggledPaths = tree.getDescendantToggledPaths(top.path);
+		while (toggledPaths != null && toggledPaths.hasMoreElements()) {
+			TreePath path = (TreePath) toggledPaths.nextElement();
+			if (path.getPathCount() > top.path.getPathCount() && tree.isExpanded(path)) {
+				expandedPaths.add(path);
+			}
+		}
+		// parents before children
+		Collections.sort(expandedPaths, PATH_LENGTH_COMPARATOR);
+		for (int i = 0; i < expandedPaths.size(); i++) {
+			TreePath path = (TreePath) expandedPaths.get(i);
+			Entry parent = (Entry) entries.get(path.getParentPath());
+			Object node = path.getLastPathComponent();
+			if (parent == null || entries.containsKey(path) || model.isLeaf(node)) {
+				continue;
+			}
+			int index = model.getIndexOfChild(parent.path.getLastPathComponent(), node);
+			if (index < 0) {
+				continue;
+			}
+			attach(new Entry(path, parent, index, getChildCount(path)));
+		}
+	}
+
+	/**
+	 * Returns the number of children of an expanded node, which is taken to
+	 * be none while they are still loading
+	 */
+	private int getChildCount(TreePath path) {
+		if (tree.isLoadingChildren(path)) {
+			return 0;
+		}
+		return tree.getModel().getChildCount(path.getLastPathComponent());
+	}
+
+	private void attach(Entry entry) {
+		Entry parent = entry.parent;
+		parent.children.add(parent.countChildrenBefore(entry.childIndex), entry);
+		entries.put(entry.path, entry);
+		adjustRows(parent, entry.totalRows);
+	}
+
+	private void detach(Entry entry) {
+		removeEntries(entry);
+		if (entry == rootEntry) {
+			rootEntry = null;
+			return;
+		}
+		Entry parent = entry.parent;
+		parent.children.remove(entry);
+		adjustRows(parent, -entry.totalRows);
+	}
+
+	private void removeEntries(Entry entry) {
+		entries.remove(entry.path);
+		for (int i = 0; i < entry.children.size(); i++) {
+			removeEntries(entry.getChild(i));
+		}
+	}
+
+	/**
+	 * Adds delta rows to the entry and all its ancestors
+	 */
+	private void adjustRows(Entry entry, int delta) {
+		for (; entry != null; entry = entry.parent) {
+			entry.totalRows += delta;
+			entry.prefixRows = null;
+		}
+	}
+
+	private static int[] sortedCopy(int[] values) {
+		int[] copy = new int[values.length];
+		System.arraycopy(values, 0, copy, 0, values.length);
+		java.util.Arrays.sort(copy);
+		return copy;
+	}
+}
@@ -92,12 +92,24 @@ import echopointng.treetable.TreeTableModel;
  * tightly bound to a single table instance, and any attempt to share it with
  * another table (for example, by calling {@link #setModel(TableModel) setModel})
  * will throw an <code>IllegalArgumentException</code>!
+ * <p>
+ * A <code>TreeTable</code> with many rows can be rendered a window of rows at
+ * a time via <code>setRowWindowSize()</code>. Only the rows in the window are
+ * sent to the client and a scrollable <code>TreeTable</code> moves the window
+ * as the user scrolls, in the same way as a <code>LiveTable</code>. The table
+ * row indices, such as those of the table selection model, are then relative
+ * to the start of the window.
  * 
  * @author Philip Milne
  * @author Scott Violet
  * @author Ramesh Gupta
  */
 public class TreeTable extends TableEx {
+
+	public static final String PROPERTY_ROW_WINDOW_SIZE = "rowWindowSize";
+
+	public static final String ROW_WINDOW_START_CHANGED_PROPERTY = "rowWindowStart";
+
 	/**
 	 * ListToTreeSelectionModelWrapper extends DefaultTreeSelectionModel to
 	 * listen for changes in the ListSelectionModel it maintains. Once a change
@@ -168,7 +180,7 @@ public class TreeTable extends TableEx {
 					if (min != -1 && max != -1) {
 						for (int counter = min; counter <= max; counter++) {
 							if (tableSelectionModel.isSelectedIndex(counter)) {
-								TreePath selPath = treeAndTableCellRenderer.getPathForRow(counter);
+								TreePath selPath = getTreeTableModelAdapter().pathForRow(counter);
 
 								if (selPath != null) {
 									addSelectionPath(selPath);
@@ -182,6 +194,33 @@ public class TreeTable extends TableEx {
 			}
 		}
 
+		/**
+		 * Selects the table rows of the selected paths that are within the
+		 * current row window. This is called when the window moves since the
+		 * table rows then refer to different paths.
+		 */
+		protected void updateSelectedRowsFromSelectedPaths() {
+			if (!updatingListSelectionModel) {
+				updatingListSelectionModel = true;
+				try {
+					tableSelectionModel.clearSelection();
+					TreePath[] paths = getSelectionPaths();
+					if (paths != null) {
+						TreeTableModelAdapter adapter = getTreeTableModelAdapter();
+						int firstRow = adapter.getFirstRow();
+						int rowCount = adapter.getRowCount();
+						for (int i = 0; i < paths.length; i++) {
+							int row = treeAndTableCellRenderer.getRowForPath(paths[i]) - firstRow;
+							if (row >= 0 && row < rowCount) {
+								tableSelectionModel.setSelectedIndex(row, true);
+							}
+						}
+					}
+				} finally {
+					updatingListSelectionModel = false;
+				}
+			}
+		}
 	}
 
 	/**
@@ -301,6 +340,8 @@ public class TreeTable extends TableEx {
 
 		private TreeTable treeTable = null; // logically immutable
 
+		private TreePath[] rows; // the visible rows, flattened when needed
+
 		/**
 		 * Maintains a TreeTableModel and a Tree as purely implementation
 		 * details. Developers can plug in any type of custom TreeTableModel
@@ -332,30 +373,36 @@ public class TreeTable extends TableEx {
 			// the event before us.
 			model.addTreeModelListener(new TreeModelListener() {
 				public void treeNodesChanged(TreeModelEvent e) {
+					invalidateRows();
 					delayedFireTableDataChanged(e, 0);
 				}
 
 				public void treeNodesInserted(TreeModelEvent e) {
+					invalidateRows();
 					delayedFireTableDataChanged(e, 1);
 				}
 
 				public void treeNodesRemoved(TreeModelEvent e) {
+					invalidateRows();
 					delayedFireTableDataChanged(e, 2);
 				}
 
 				public void treeStructureChanged(TreeModelEvent e) {
+					invalidateRows();
 					delayedFireTableDataChanged();
 				}
 			});
 
 			tree.addTreeExpansionListener(new TreeExpansionListener() {
 				public void treeCollapsed(TreeExpansionEvent event) {
+					invalidateRows();
 					fireTableDataChanged();
 				}
 
 				// Don't use fireTableRowsInserted() here; the selection model
 				// would get updated twice.
 				public void treeExpanded(TreeExpansionEvent event) {
+					invalidateRows();
 					fireTableDataChanged();
 				}
 			});
@@ -390,40 +437,18 @@ public class TreeTable extends TableEx {
 		}
 
 		/**
-		 * Invokes fireTableDataChanged after all the pending events have been
-		 * processed. SwingUtilities.invokeLater is used to handle this.
+		 * Invokes fireTableDataChanged if the change can be seen in the table.
+		 * <p>
+		 * The change is never reported as a range of rows. Child indices are
+		 * not row offsets once an earlier sibling is expanded, an inserted or
+		 * removed node brings its whole expanded subtree with it, and the
+		 * junction and line images of the siblings change too. A data changed
+		 * event makes the table render all of its rows again.
 		 */
 		private void delayedFireTableDataChanged(final TreeModelEvent tme, final int typeChange) {
-			int indices[] = tme.getChildIndices();
 			TreePath path = tme.getTreePath();
-			if (indices != null) {
-				if (tree.isExpanded(path)) { // Dont bother to update if
-					// the parent
-					// node is collapsed
-					int startingRow = tree.getRowForPath(path) + 1;
-					int min = Integer.MAX_VALUE;
-					int max = Integer.MIN_VALUE;
-					for (int i = 0; i < indices.length; i++) {
-						if (indices[i] < min) {
-							min = indices[i];
-						}
-						if (indices[i] > max) {
-							max = indices[i];
-						}
-					}
-					switch (typeChange) {
-					case 0:
-						fireTableRowsUpdated(startingRow + min, startingRow + max);
-						break;
-					case 1:
-						fireTableRowsInserted(startingRow + min, startingRow + max);
-						break;
-					case 2:
-						fireTableRowsDeleted(startingRow + min, startingRow + max);
-						break;
-					}
-				}
-			} else { // case where the event is fired to identify root.
+			if (isWindowed() || tme.getChildIndices() == null || path == null || tree.isExpanded(path)) {
+				// Dont bother to update if the parent node is collapsed
 				fireTableDataChanged();
 			}
 		}
@@ -453,7 +478,83 @@ public class TreeTable extends TableEx {
 		 * @see nextapp.echo2.app.table.TableModel#getRowCount()
 		 */
 		public int getRowCount() {
-			return tree.getRowCount();
+			int rowCount = getRows().length;
+			if (isWindowed()) {
+				return Math.max(0, Math.min(treeTable.getRowWindowSize(), rowCount - getFirstRow()));
+			}
+			return rowCount;
+		}
+
+		/**
+		 * @return the number of visible rows in the tree, regardless of any
+		 *         row window
+		 */
+		int getTotalRowCount() {
+			return getRows().length;
+		}
+
+		/**
+		 * @return the tree row of the first table row
+		 */
+		int getFirstRow() {
+			if (!isWindowed()) {
+				return 0;
+			}
+			int lastStart = Math.max(0, getRows().length - treeTable.getRowWindowSize());
+			return Math.max(0, Math.min(treeTable.rowWindowStart, lastStart));
+		}
+
+		private boolean isWindowed() {
+			return treeTable != null && treeTable.getRowWindowSize() >= 0;
+		}
+
+		/**
+		 * Throws away the flattened rows so that they are rebuilt the next
+		 * time they are needed.
+		 */
+		void invalidateRows() {
+			rows = null;
+		}
+
+		/**
+		 * Returns the visible rows of the tree as an array of TreePaths. The
+		 * array is built in one walk over the expanded nodes and kept until
+		 * the tree changes or a new render pass starts, so that looking up the
+		 * node of each cell does not go back to the tree.
+		 */
+		private TreePath[] getRows() {
+			if (rows == null) {
+				int rowCount = tree.getRowCount();
+				TreePath[] flatRows = new TreePath[rowCount];
+				Object root = model.getRoot();
+				if (rowCount > 0 && root != null) {
+					TreePath rootPath = new TreePath(root);
+					if (!tree.isExpanded(rootPath)) {
+						flatRows[0] = tree.getPathForRow(0);
+					} else {
+						int row = 0;
+						if (tree.isRootVisible()) {
+							flatRows[row++] = rootPath;
+						}
+						addExpandedChildren(flatRows, row, rootPath);
+					}
+				}
+				rows = flatRows;
+			}
+			return rows;
+		}
+
+		private int addExpandedChildren(TreePath[] flatRows, int row, TreePath parentPath) {
+			Object parent = parentPath.getLastPathComponent();
+			int childCount = model.getChildCount(parent);
+			for (int i = 0; i < childCount && row < flatRows.length; i++) {
+				TreePath childPath = parentPath.pathByAddingChild(model.getChild(parent, i));
+				flatRows[row++] = childPath;
+				if (tree.isExpanded(childPath)) {
+					row = addExpandedChildren(flatRows, row, childPath);
+				}
+			}
+			return row;
 		}
 
 		/**
@@ -501,12 +602,19 @@ public class TreeTable extends TableEx {
 		}
 
 		TreePath pathForRow(int row) {
-			return tree.getPathForRow(row);
+			TreePath[] flatRows = getRows();
+			row += getFirstRow();
+			if (row < 0 || row >= flatRows.length) {
+				return null;
+			}
+			return flatRows[row];
 		}
 	}
 
 	private TreeAndTableCellRenderer treeAndTableCellRenderer = null;
 
+	private int rowWindowStart;
+
 	/**
 	 * Constructs a TreeTable using a
 	 * {@link echopointng.treetable.DefaultTreeTableModel}.
@@ -645,6 +753,30 @@ public class TreeTable extends TableEx {
 		return treeAndTableCellRenderer.getPathForRow(row);
 	}
 
+	/**
+	 * @return the number of rows rendered at a time or -1 if all the rows are
+	 *         rendered
+	 */
+	public int getRowWindowSize() {
+		return ComponentEx.getProperty(this, PROPERTY_ROW_WINDOW_SIZE, -1);
+	}
+
+	/**
+	 * @return the tree row of the first row in the row window, which is 0
+	 *         if all the rows are rendered
+	 */
+	public int getRowWindowStart() {
+		return getTreeTableModelAdapter().getFirstRow();
+	}
+
+	/**
+	 * @return the number of visible rows in the tree, regardless of any row
+	 *         window
+	 */
+	public int getTotalRowCount() {
+		return getTreeTableModelAdapter().getTotalRowCount();
+	}
+
 	/**
 	 * Returns the value of the <code>showsRootHandles</code> property.
 	 * 
@@ -819,6 +951,10 @@ public class TreeTable extends TableEx {
 	 *      java.lang.Object)
 	 */
 	public void processInput(String inputName, Object inputValue) {
+		if (ROW_WINDOW_START_CHANGED_PROPERTY.equals(inputName)) {
+			setRowWindowStart(((Integer) inputValue).intValue());
+			return;
+		}
 		if (inputValue instanceof TreePath) {
 			treeAndTableCellRenderer.processInput(inputName, inputValue);
 		} else {
@@ -921,6 +1057,47 @@ public class TreeTable extends TableEx {
 		treeAndTableCellRenderer.setRootVisible(visible);
 	}
 
+	/**
+	 * Sets the number of rows rendered at a time. Only the rows in the window
+	 * that starts at <code>getRowWindowStart()</code> are sent to the client.
+	 * 
+	 * @param newValue -
+	 *            the number of rows rendered at a time or -1 to render all
+	 *            the rows
+	 */
+	public void setRowWindowSize(int newValue) {
+		ComponentEx.setProperty(this, PROPERTY_ROW_WINDOW_SIZE, newValue);
+		moveRowWindow();
+	}
+
+	/**
+	 * Moves the row window so that it starts at a given tree row. The start is
+	 * kept within the rows of the tree.
+	 * 
+	 * @param newValue -
+	 *            the tree row of the first row in the window
+	 */
+	public void setRowWindowStart(int newValue) {
+		int oldValue = getRowWindowStart();
+		rowWindowStart = Math.max(0, newValue);
+		if (oldValue != getRowWindowStart()) {
+			moveRowWindow();
+			firePropertyChange(ROW_WINDOW_START_CHANGED_PROPERTY, new Integer(oldValue), new Integer(getRowWindowStart()));
+		}
+	}
+
+	/**
+	 * Re-renders the table rows after the row window has moved and selects
+	 * the rows of the selected paths that are now in the window.
+	 */
+	private void moveRowWindow() {
+		getTreeTableModelAdapter().fireTableDataChanged();
+		TreeSelectionModel treeSelectionModel = treeAndTableCellRenderer.getSelectionModel();
+		if (treeSelectionModel instanceof ListToTreeSelectionModelWrapper) {
+			((ListToTreeSelectionModelWrapper) treeSelectionModel).updateSelectedRowsFromSelectedPaths();
+		}
+	}
+
 	/* ========================================================================== */
 	/* ========================================================================== */
 	/* ========================================================================== */
@@ -1008,6 +1185,8 @@ public class TreeTable extends TableEx {
 	 * @see nextapp.echo2.app.Table#validate()
 	 */
 	public void validate() {
+		// take a fresh snapshot of the rows for each render pass
+		getTreeTableModelAdapter().invalidateRows();
 		super.validate();
 	}
 
@@ -0,0 +1,565 @@
+package echopointng.image;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.PixelGrabber;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import nextapp.echo2.webrender.Connection;
+import nextapp.echo2.webrender.WebRenderServlet;
+import echopointng.util.collections.ExpiryCache;
+
+/**
+ * <code>EncodedImageCache</code> is a cache of encoded image bytes that is
+ * shared by all <code>EncodedImageReference</code>s whose content caching is
+ * turned on.
+ * <p>
+ * Entries are keyed by a SHA-1 hash of the image pixels and of the serialized
+ * <code>ImageEncoder</code>, so identical images rendered by different
+ * references, in different sessions, are encoded only once. The key is also
+ * sent as the HTTP ETag of the image, and a request that already has the
+ * image is answered with a 304 status.
+ * <p>
+ * The in memory tier is bounded by a total number of bytes. Optionally a
+ * spill directory can be given, in which case encoded images are also
+ * written to disk and are served from memory mapped files once they have left
+ * the memory tier.  The spill directory is bounded by a total number of bytes
+ * too, and the least recently used files are deleted to stay within it.
+ * <p>
+ * Hashing the pixels of an image is not free, so callers that render the same
+ * image many times, such as <code>EncodedImageReference</code>, should keep
+ * the key from <code>getKey()</code> and pass it to 
+ * <code>render(String, Image, ImageEncoder, OutputStream)</code>.
+ */
+public class EncodedImageCache {
+
+	/** The default maximum number of bytes kept in memory */
+	public static final long DEFAULT_MAXIMUM_BYTES = 4 * 1024 * 1024;
+
+	/** The default maximum number of bytes kept in the spill directory */
+	public static final long DEFAULT_MAXIMUM_SPILL_BYTES = 64 * 1024 * 1024;
+
+	private static final String SPILL_FILE_SUFFIX = ".img";
+
+	/** the size of a typical encoded image, used to size the memory cache */
+	private static final int TYPICAL_ENCODED_BYTES = 4 * 1024;
+
+	private static EncodedImageCache defaultCache = new EncodedImageCache(DEFAULT_MAXIMUM_BYTES);
+
+	private ExpiryCache memoryCache;
+
+	private File spillDirectory;
+
+	private long maximumSpillBytes = DEFAULT_MAXIMUM_SPILL_BYTES;
+
+	/* the sizes of the spilled files keyed by content key, least recently used first */
+	private LinkedHashMap spillFiles = new LinkedHashMap(16, 0.75f, true);
+
+	private long spillBytes;
+
+	private long memoryHitCount;
+
+	private long diskHitCount;
+
+	private long missCount;
+
+	private long notModifiedCount;
+
+	/**
+	 * Returns the <code>EncodedImageCache</code> used by
+	 * <code>EncodedImageReference</code>s.
+	 * 
+	 * @return the default <code>EncodedImageCache</code>
+	 */
+	public static EncodedImageCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Sets the <code>EncodedImageCache</code> used by
+	 * <code>EncodedImageReference</code>s.
+	 * 
+	 * @param cache -
+	 *            the new default cache which must not be null
+	 */
+	public static void setDefault(EncodedImageCache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("The cache must be non null!");
+		}
+		defaultCache = cache;
+	}
+
+	/**
+	 * Constructs an <code>EncodedImageCache</code> that keeps at most
+	 * <code>maximumBytes</code> of encoded images in memory.
+	 * 
+	 * @param maximumBytes -
+	 *            the maximum number of bytes kept in memory
+	 */
+	public EncodedImageCache(long maximumBytes) {
+		memoryCache = new ExpiryCache(-1, -1, false);
+		setMaximumBytes(maximumBytes);
+	}
+
+	/**
+	 * Sets the maximum number of bytes of encoded images kept in memory
+	 * 
+	 * @param maximumBytes -
+	 *            the maximum number of bytes kept in memory
+	 */
+	public void setMaximumBytes(long maximumBytes) {
+		memoryCache.setMaximumWeight(maximumBytes, new ExpiryCache.Weigher() {
+			public int weigh(Object key, Object value) {
+				return value == null ? 0 : ((byte[]) value).length;
+			}
+		}, (int) Math.min(maximumBytes / TYPICAL_ENCODED_BYTES + 1, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @return the maximum number of bytes of encoded images kept in memory
+	 */
+	public long getMaximumBytes() {
+		return memoryCache.getMaximumWeight();
+	}
+
+	/**
+	 * @return the number of bytes of encoded images currently in memory
+	 */
+	public long getMemoryBytes() {
+		return memoryCache.getWeightedSize();
+	}
+
+	/**
+	 * @return the directory encoded images are spilled to or null if there is
+	 *         no disk tier
+	 */
+	public synchronized File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Sets the directory that encoded images are spilled to. The directory is
+	 * created if need be. Passing null turns the disk tier off.
+	 * <p>
+	 * Images already spilled to the directory are counted against the 
+	 * maximum number of spill bytes, and are deleted if need be.
+	 * 
+	 * @param spillDirectory -
+	 *            the directory to spill to or null
+	 */
+	public synchronized void setSpillDirectory(File spillDirectory) {
+		if (spillDirectory != null && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create spill directory : " + spillDirectory);
+		}
+		this.spillDirectory = spillDirectory;
+		spillFiles.clear();
+		spillBytes = 0;
+		if (spillDirectory != null) {
+			indexSpillDirectory();
+		}
+	}
+
+	/**
+	 * @return the maximum number of bytes of encoded images kept in the spill
+	 *         directory
+	 */
+	public synchronized long getMaximumSpillBytes() {
+		return maximumSpillBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of encoded images kept in the spill
+	 * directory. The least recently used files are deleted to stay within it.
+	 * 
+	 * @param maximumSpillBytes -
+	 *            the maximum number of bytes kept on disk
+	 */
+	public synchronized void setMaximumSpillBytes(long maximumSpillBytes) {
+		this.maximumSpillBytes = maximumSpillBytes;
+		trimSpillFiles();
+	}
+
+	/**
+	 * @return the number of bytes of encoded images currently in the spill
+	 *         directory
+	 */
+	public synchronized long getSpillBytes() {
+		return spillBytes;
+	}
+
+	/**
+	 * Returns the content key of an image as it would be encoded by the
+	 * given encoder. This is a hex encoded SHA-1 hash.
+	 * 
+	 * @param image -
+	 *            the image to be encoded
+	 * @param encoder -
+	 *            the encoder to be used
+	 * @return the content key
+	 * @throws IOException -
+	 *             if the image pixels cannot be read or the encoder cannot
+	 *             be serialized
+	 */
+	public String getKey(Image image, ImageEncoder encoder) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available : " + e);
+		}
+		digest.update(encoder.getClass().getName().getBytes("UTF-8"));
+		//
+		// the settings of the encoder are part of the key, so an encoder 
+		// that cannot be serialized cannot be cached by content
+		ByteArrayOutputStream encoderBytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(encoderBytes);
+		oos.writeObject(encoder);
+		oos.close();
+		digest.update(encoderBytes.toByteArray());
+
+		int width = image.getWidth(ImageKit.imageObserver);
+		int height = image.getHeight(ImageKit.imageObserver);
+		byte[] bytes = new byte[8];
+		putInt(bytes, 0, width);
+		putInt(bytes, 4, height);
+		digest.update(bytes);
+
+		int rows = Math.max(1, Math.min(height, 16 * 1024 / Math.max(1, width)));
+		int[] pixels = new int[rows * width];
+		bytes = new byte[pixels.length * 4];
+		for (int y = 0; y < height; y += rows) {
+			int n = Math.min(rows, height - y);
+			readPixels(image, y, width, n, pixels);
+			for (int i = 0; i < n * width; i++) {
+				putInt(bytes, i * 4, pixels[i]);
+			}
+			digest.update(bytes, 0, n * width * 4);
+		}
+		byte[] hash = digest.digest();
+		StringBuffer key = new StringBuffer(hash.length * 2);
+		for (int i = 0; i < hash.length; i++) {
+			key.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+			key.append(Character.forDigit(hash[i] & 0xf, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Writes the encoded bytes of the image to <code>out</code>, taking them
+	 * from the cache if possible and encoding and caching them otherwise.
+	 * <p>
+	 * If called while Echo is servicing a request, the content key is sent
+	 * as the ETag of the response, and nothing is written if the client
+	 * already has the image.
+	 * 
+	 * @param image -
+	 *            the image to render
+	 * @param encoder -
+	 *            the encoder to use
+	 * @param out -
+	 *            the stream to write the encoded image to
+	 * @throws IOException
+	 */
+	public void render(Image image, ImageEncoder encoder, OutputStream out) throws IOException {
+		render(getKey(image, encoder), image, encoder, out);
+	}
+
+	/**
+	 * Writes the encoded bytes of the image to <code>out</code> in the same
+	 * way as <code>render(Image, ImageEncoder, OutputStream)</code>, using a
+	 * content key previously returned by <code>getKey()</code> for the same
+	 * image and encoder.
+	 * 
+	 * @param key -
+	 *            the content key of the image and encoder
+	 * @param image -
+	 *            the image to render
+	 * @param encoder -
+	 *            the encoder to use
+	 * @param out -
+	 *            the stream to write the encoded image to
+	 * @throws IOException
+	 */
+	public void render(String key, Image image, ImageEncoder encoder, OutputStream out) throws IOException {
+		if (renderCached(key, out)) {
+			return;
+		}
+
+		synchronized (this) {
+			missCount++;
+		}
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		encoder.encode(image, encoded);
+		byte[] bytes = encoded.toByteArray();
+		memoryCache.put(key, bytes);
+		File spillFile = getSpillFile(key);
+		if (spillFile != null) {
+			spill(key, spillFile, bytes);
+		}
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes the encoded bytes cached under a content key to
+	 * <code>out</code>, or answers the request with a 304 status if the
+	 * client already has them. Nothing is encoded, so the image is not
+	 * needed.
+	 * 
+	 * @param key -
+	 *            the content key of the image and encoder
+	 * @param out -
+	 *            the stream to write the encoded image to
+	 * @return false if nothing is cached under the key, in which case
+	 *         nothing has been written
+	 * @throws IOException
+	 */
+	public boolean renderCached(String key, OutputStream out) throws IOException {
+		if (handleETag(key)) {
+			synchronized (this) {
+				notModifiedCount++;
+			}
+			return true;
+		}
+
+		byte[] bytes = (byte[]) memoryCache.get(key);
+		if (bytes != null) {
+			synchronized (this) {
+				memoryHitCount++;
+			}
+			out.write(bytes);
+			return true;
+		}
+
+		File spillFile = getSpillFile(key);
+		if (spillFile != null && spillFile.isFile()) {
+			synchronized (this) {
+				diskHitCount++;
+				spillFiles.get(key);
+			}
+			writeMappedFile(spillFile, out);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all encoded images from memory. Spilled files are left on disk.
+	 */
+	public void clear() {
+		memoryCache.clear();
+	}
+
+	/**
+	 * @return the number of renders served from memory
+	 */
+	public synchronized long getMemoryHitCount() {
+		return memoryHitCount;
+	}
+
+	/**
+	 * @return the number of renders served from the spill directory
+	 */
+	public synchronized long getDiskHitCount() {
+		return diskHitCount;
+	}
+
+	/**
+	 * @return the number of renders that had to encode the image
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of renders answered with a 304 status
+	 */
+	public synchronized long getNotModifiedCount() {
+		return notModifiedCount;
+	}
+
+	/**
+	 * Sets the ETag of the current response and returns true if the request
+	 * already has the image.
+	 */
+	private boolean handleETag(String key) {
+		Connection conn = WebRenderServlet.getActiveConnection();
+		if (conn == null) {
+			return false;
+		}
+		String etag = "\"" + key + "\"";
+		HttpServletResponse response = conn.getResponse();
+		response.setHeader("ETag", etag);
+		HttpServletRequest request = conn.getRequest();
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null && ifNoneMatch.indexOf(etag) != -1) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
+	private File getSpillFile(String key) {
+		File directory = getSpillDirectory();
+		return directory == null ? null : new File(directory, key + SPILL_FILE_SUFFIX);
+	}
+
+	/**
+	 * Writes the bytes to a temporary file and then renames it, so that a
+	 * partially written file is never served.
+	 */
+	private void spill(String key, File spillFile, byte[] bytes) {
+		try {
+			File tempFile = File.createTempFile("epng", ".tmp", spillFile.getParentFile());
+			FileOutputStream fos = new FileOutputStream(tempFile);
+			try {
+				fos.write(bytes);
+			} finally {
+				fos.close();
+			}
+			if (!tempFile.renameTo(spillFile)) {
+				tempFile.delete();
+				return;
+			}
+		} catch (IOException e) {
+			// the disk tier is only an optimisation
+			return;
+		}
+		synchronized (this) {
+			if (spillFile.getParentFile().equals(spillDirectory)) {
+				addSpillFile(key, bytes.length);
+				trimSpillFiles();
+			}
+		}
+	}
+
+	/**
+	 * Counts the files already in the spill directory, oldest first.
+	 */
+	private void indexSpillDirectory() {
+		File[] files = spillDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long m1 = ((File) o1).lastModified();
+				long m2 = ((File) o2).lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (files[i].isFile() && name.endsWith(SPILL_FILE_SUFFIX)) {
+				addSpillFile(name.substring(0, name.length() - SPILL_FILE_SUFFIX.length()), files[i].length());
+			}
+		}
+		trimSpillFiles();
+	}
+
+	private void addSpillFile(String key, long size) {
+		Long oldSize = (Long) spillFiles.put(key, new Long(size));
+		if (oldSize != null) {
+			spillBytes -= oldSize.longValue();
+		}
+		spillBytes += size;
+	}
+
+	/**
+	 * Deletes the least recently used spilled files until the spill directory
+	 * is within its maximum size.
+	 */
+	private void trimSpillFiles() {
+		for (Iterator iter = spillFiles.entrySet().iterator(); spillBytes > maximumSpillBytes && iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			iter.remove();
+			spillBytes -= ((Long) entry.getValue()).longValue();
+			getSpillFile((String) entry.getKey()).delete();
+		}
+	}
+
+	private static void writeMappedFile(File file, OutputStream out) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			byte[] chunk = new byte[8192];
+			while (buffer.hasRemaining()) {
+				int n = Math.min(chunk.length, buffer.remaining());
+				buffer.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		} finally {
+			fis.close();
+		}
+	}
+
+	private static void readPixels(Image image, int y, int width, int rows, int[] pixels) throws IOException {
+		if (image instanceof BufferedImage) {
+			((BufferedImage) image).getRGB(0, y, width, rows, pixels, 0, width);
+			return;
+		}
+		PixelGrabber pg = new PixelGrabber(image, 0, y, width, rows, pixels, 0, width);
+		try {
+			pg.grabPixels();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted waiting for pixels");
+		}
+		if ((pg.getStatus() & ImageObserver.ABORT) != 0) {
+			throw new IOException("Image fetch aborted or errored");
+		}
+	}
+
+	private static void putInt(byte[] buffer, int offset, int n) {
+		buffer[offset] = (byte) (n >> 24);
+		buffer[offset + 1] = (byte) (n >> 16);
+		buffer[offset + 2] = (byte) (n >> 8);
+		buffer[offset + 3] = (byte) n;
+	}
+}
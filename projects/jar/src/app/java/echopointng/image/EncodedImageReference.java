@@ -55,6 +55,15 @@ import nextapp.echo2.app.StreamImageReference;
  * If the image data is cached, they are kept in a <code>SoftReference</code> so 
  * they may be reclaimed by the GC if memory gets low.
  * <p>
+ * Alternatively the image can be <b>cached by content</b>, in which case the
+ * encoded bytes are kept in the shared <code>EncodedImageCache</code>, keyed
+ * by a hash of the image pixels and encoder.  References that render the same
+ * image then share a single encoding, and the hash is used as the HTTP ETag
+ * of the image.  The hash is only worked out again once the image is no 
+ * longer valid or <code>update()</code> has been called, and 
+ * <code>getImage()</code> is only called when the cache does not already 
+ * have the encoded bytes.
+ * <p>
  * The AWT Image object that is renderered is by default kept in memory.  You can
  * change this by deriving a new class from <code>EncodedImageReference</code> and then
  * drawing the AWT image on as needed basis during the call to <code>getImage()</code>.
@@ -67,7 +76,9 @@ public class EncodedImageReference extends StreamImageReference implements Seria
 	private transient ImageEncoder encoder;
 	private transient Image internalImage;
 	private 		  boolean keptInMemory;
+	private 		  boolean cachedByContent;
 	private transient SoftReference refEncodedBytes;
+	private transient String contentKey;
 	private 		  boolean valid;
 	private 		  String id = ApplicationInstance.generateSystemId();
 
@@ -169,6 +180,17 @@ public class EncodedImageReference extends StreamImageReference implements Seria
 	}
 	
 
+	/**
+	 * Returns true if the encoded image is kept in the shared
+	 * <code>EncodedImageCache</code>, keyed by the image content.
+	 * 
+	 * @return boolean true if the image is cached by content
+	 * @see EncodedImageCache
+	 */
+	public boolean isCachedByContent() {
+		return cachedByContent;
+	}
+
 	/** 
 	 * This returns whether the AWT Image data is currently valid.  
 	 *    
@@ -201,7 +223,25 @@ public class EncodedImageReference extends StreamImageReference implements Seria
 	 * @see nextapp.echo2.app.StreamImageReference#render(java.io.OutputStream)
 	 */
 	public void render(OutputStream out) throws IOException {
-		if (isKeptInMemory()) {
+		if (isCachedByContent()) {
+			EncodedImageCache cache = EncodedImageCache.getDefault();
+			String key = contentKey;
+			if (key != null && isValid() && cache.renderCached(key, out))
+				return;
+			Image image = getImage();
+			if (image == null)
+				return;
+			if (key == null || ! isValid()) {
+				key = cache.getKey(image, encoder);
+			}
+			if (! isValid()) {
+				setValid(true);
+				update();
+			}
+			// update() forgets the key so it is remembered afterwards
+			contentKey = key;
+			cache.render(key, image, encoder, out);
+		} else if (isKeptInMemory()) {
 			byte[] bytes = (byte[]) refEncodedBytes.get();
 			//
 			// the GC may have reaped out bytes or the image may
@@ -275,6 +315,24 @@ public class EncodedImageReference extends StreamImageReference implements Seria
 		}
 	}
 
+	/**
+	 * If set to true, the encoded image is kept in the shared
+	 * <code>EncodedImageCache</code>, keyed by a hash of the image content, 
+	 * so that identical images are only ever encoded once.  This takes 
+	 * precedence over the <code>keptInMemory</code> property.
+	 * 
+	 * @param b
+	 * @see EncodedImageCache
+	 */
+	public void setCachedByContent(boolean b) {
+		boolean oldValue = this.cachedByContent;
+		cachedByContent = b;
+		if (oldValue != this.cachedByContent) {
+			valid = false;
+			update();
+		}
+	}
+
 	/** 
 	 * This controls whether the AWT Image data is currently valid.
 	 * <p>
@@ -305,8 +363,11 @@ public class EncodedImageReference extends StreamImageReference implements Seria
 	}
 	
 	/**
-	 * Not supported.
+	 * Called when the image has changed.  Any content key worked out for the 
+	 * previous image is forgotten.
 	 */
-	public void update() { }
+	public void update() {
+		contentKey = null;
+	}
 }
 
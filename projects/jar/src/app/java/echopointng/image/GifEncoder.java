@@ -66,1012 +66,1071 @@ package echopointng.image;
  fine Java utilities: http://www.acme.com/java/
 */
 import java.awt.Image;
-import java.awt.image.ColorModel;
-import java.awt.image.ImageConsumer;
-import java.awt.image.ImageProducer;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.PixelGrabber;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.Dictionary;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.NoSuchElementException;
+import java.util.LinkedList;
+
+import echopointng.util.WorkerPool;
 
 /**
- * The <code>BaseImageEncoder</code> class is the ImageConsumer  
+ * <code>GifEncoder</code> implements the <code>ImageEncoder</code> interface
+ * and hence can take a java.awt.Image object and encode it as a GIF
+ * output stream.  It also handles alpha transparency in the source image.
+ * <p>
+ * Images with no more colors than the maximum palette size are encoded
+ * exactly.  Images with more colors are quantized using an octree, and
+ * can optionally be Floyd-Steinberg dithered.  Pixels that are more than
+ * half transparent are encoded as the transparent color.
+ * <p>
+ * The encoder keeps no per image state and so may be shared by many threads.
+ * The LZW compression buffers are pooled between encodings.
+ * <p>
+ * <code>encodeAnimation()</code> can be used to write an animated GIF.  By
+ * default its frames are encoded one after another on the calling thread, but
+ * with <code>setParallelism()</code> they can be quantized and compressed in
+ * parallel on a <code>WorkerPool</code> shared by all encoders.
  */
-abstract class BaseImageEncoder implements ImageConsumer {
-	private static final ColorModel rgbModel = ColorModel.getRGBdefault();
+public class GifEncoder implements ImageEncoder, Serializable {
 
-	private boolean accumulate = false;
-	private int[] accumulator;
-	private boolean encoding;
-	private int height = -1;
-	private int hintflags = 0;
-	private IOException iox;
+	/** The maximum number of colors in a GIF palette */
+	public static final int MAX_COLORS = 256;
 
-	protected OutputStream out;
+	/** Loop count for an animation that repeats forever */
+	public static final int LOOP_FOREVER = 0;
 
-	private ImageProducer producer;
-	private boolean started = false;
-	private int width = -1;
+	/** Loop count for an animation that plays only once */
+	public static final int LOOP_NONE = -1;
 
-	public BaseImageEncoder(Image img, OutputStream out) {
-		this(img.getSource(), out);
-	}
+	private static final int MAX_POOLED_COMPRESSORS = 8;
 
-	public BaseImageEncoder(ImageProducer producer, OutputStream out) {
-		this.producer = producer;
-		this.out = out;
-	}
+	private static final LinkedList compressorPool = new LinkedList();
 
-	public synchronized void encode() throws IOException {
-		encoding = true;
-		iox = null;
-		producer.startProduction(this);
-		while (encoding)
-			try {
-				wait();
-			} catch (InterruptedException e) {
-			}
-		if (iox != null)
-			throw iox;
-	}
+	private static final WorkerPool frameWorkerPool = new WorkerPool("GifEncoder", Runtime.getRuntime().availableProcessors());
 
-	/// Subclasses implement this to finish an encoding.
-	abstract void encodeDone() throws IOException;
+	private boolean dither = false;
 
-	private void encodeFinish() throws IOException {
-		if (accumulate) {
-			encodePixels(0, 0, width, height, accumulator, 0, width);
-			accumulator = null;
-			accumulate = false;
-		}
+	private boolean interlace = false;
+
+	private int maxColors = MAX_COLORS;
+
+	private int parallelism = 1;
+
+	/**
+	 * Constructs a GifEncoder ready to start encoding
+	 */
+	public GifEncoder() {
 	}
 
-	/// Subclasses implement this to actually write out some bits.  They
-	// are guaranteed to be delivered in top-down-left-right order.
-	// One int per pixel, index is row * scansize + off + col,
-	// RGBdefault (AARRGGBB) color model.
-	abstract void encodePixels(int x, int y, int w, int h, int[] rgbPixels, int off, int scansize) throws IOException;
-
-	private void encodePixelsWrapper(int x, int y, int w, int h, int[] rgbPixels, int off, int scansize) throws IOException {
-		if (!started) {
-			started = true;
-			encodeStart(width, height);
-			if ((hintflags & TOPDOWNLEFTRIGHT) == 0) {
-				accumulate = true;
-				accumulator = new int[width * height];
-			}
-		}
-		if (accumulate)
-			for (int row = 0; row < h; ++row)
-				System.arraycopy(rgbPixels, row * scansize + off, accumulator, (y + row) * width + x, w);
-		else
-			encodePixels(x, y, w, h, rgbPixels, off, scansize);
+	/**
+	 * Constructs a GifEncoder with the given settings
+	 * 
+	 * @param maxColors -
+	 *            the maximum number of colors in the palette, from 2 to 256
+	 * @param dither -
+	 *            true if quantized images are to be dithered
+	 */
+	public GifEncoder(int maxColors, boolean dither) {
+		setMaxColors(maxColors);
+		setDither(dither);
 	}
 
-	// Methods that subclasses implement.
-
-	/// Subclasses implement this to initialize an encoding.
-	abstract void encodeStart(int w, int h) throws IOException;
-
-	public void imageComplete(int status) {
-		producer.removeConsumer(this);
-		if (status == ImageConsumer.IMAGEABORTED)
-			iox = new IOException("image aborted");
-		else {
-			try {
-				encodeFinish();
-				encodeDone();
-			} catch (IOException e) {
-				iox = e;
-			}
+	/**
+	 * @see echopointng.image.ImageEncoder#encode(java.awt.Image, java.io.OutputStream)
+	 */
+	public void encode(Image image, OutputStream out) throws IOException {
+		Frame frame = quantize(image);
+
+		writeString(out, "GIF89a");
+		putWord(frame.width, out);
+		putWord(frame.height, out);
+		// global color table, 8 bits of color resolution
+		out.write(0x80 | (7 << 4) | (frame.paletteBits - 1));
+		// background color and 1:1 pixel aspect ratio
+		out.write(0);
+		out.write(0);
+		writeColorTable(out, frame);
+		if (frame.transparentIndex != -1) {
+			writeGraphicControl(out, frame, 0, 0);
 		}
-		stop();
+		writeImageDescriptor(out, frame, false);
+		compress(frame, out);
+		out.write(';');
 	}
 
-	public void setColorModel(ColorModel model) {
-		// Ignore.
-	}
+	/**
+	 * Encodes a series of images as an animated GIF.  Each frame is given its
+	 * own palette.  The frames are quantized and compressed using at most
+	 * <code>getParallelism()</code> threads, and then written in order.
+	 * 
+	 * @param frames -
+	 *            the images of the animation
+	 * @param delay -
+	 *            the delay between frames in hundredths of a second
+	 * @param loopCount -
+	 *            the number of times to repeat the animation,
+	 *            <code>LOOP_FOREVER</code> or <code>LOOP_NONE</code>
+	 * @param out -
+	 *            the stream to write the GIF to
+	 * @throws IOException -
+	 *             if any of the frames cannot be encoded
+	 */
+	public void encodeAnimation(Image[] frames, int delay, int loopCount, OutputStream out) throws IOException {
+		if (frames == null || frames.length == 0) {
+			throw new IllegalArgumentException("There must be at least one frame!");
+		}
+		Frame[] encoded = new FrameBatch(frames).run(getEffectiveParallelism());
 
-	// Methods from ImageConsumer.
+		int width = 0;
+		int height = 0;
+		for (int i = 0; i < encoded.length; i++) {
+			width = Math.max(width, encoded[i].width);
+			height = Math.max(height, encoded[i].height);
+		}
 
-	public void setDimensions(int width, int height) {
-		this.width = width;
-		this.height = height;
+		writeString(out, "GIF89a");
+		putWord(width, out);
+		putWord(height, out);
+		// no global color table, 8 bits of color resolution
+		out.write(7 << 4);
+		out.write(0);
+		out.write(0);
+		if (loopCount >= 0) {
+			out.write(0x21);
+			out.write(0xff);
+			out.write(11);
+			writeString(out, "NETSCAPE2.0");
+			out.write(3);
+			out.write(1);
+			putWord(loopCount, out);
+			out.write(0);
+		}
+		for (int i = 0; i < encoded.length; i++) {
+			Frame frame = encoded[i];
+			// transparent frames restore the background so that earlier
+			// frames do not show through
+			writeGraphicControl(out, frame, frame.transparentIndex != -1 ? 2 : 1, delay);
+			writeImageDescriptor(out, frame, true);
+			writeColorTable(out, frame);
+			out.write(frame.data);
+		}
+		out.write(';');
 	}
 
-	public void setHints(int hintflags) {
-		this.hintflags = hintflags;
+	/**
+	 * @see echopointng.image.ImageEncoder#getContentType()
+	 */
+	public String getContentType() {
+		return "image/gif";
 	}
 
-	public void setPixels(int x, int y, int w, int h, ColorModel model, byte[] pixels, int off, int scansize) {
-		int[] rgbPixels = new int[w];
-		for (int row = 0; row < h; ++row) {
-			int rowOff = off + row * scansize;
-			for (int col = 0; col < w; ++col)
-				rgbPixels[col] = model.getRGB(pixels[rowOff + col] & 0xff);
-			try {
-				encodePixelsWrapper(x, y + row, w, 1, rgbPixels, 0, w);
-			} catch (IOException e) {
-				iox = e;
-				stop();
-				return;
-			}
-		}
+	/**
+	 * @return true if quantized images are dithered
+	 */
+	public boolean isDither() {
+		return dither;
 	}
 
-	public void setPixels(int x, int y, int w, int h, ColorModel model, int[] pixels, int off, int scansize) {
-		if (model == rgbModel) {
-			try {
-				encodePixelsWrapper(x, y, w, h, pixels, off, scansize);
-			} catch (IOException e) {
-				iox = e;
-				stop();
-				return;
-			}
-		} else {
-			int[] rgbPixels = new int[w];
-			for (int row = 0; row < h; ++row) {
-				int rowOff = off + row * scansize;
-				for (int col = 0; col < w; ++col)
-					rgbPixels[col] = model.getRGB(pixels[rowOff + col]);
-				try {
-					encodePixelsWrapper(x, y + row, w, 1, rgbPixels, 0, w);
-				} catch (IOException e) {
-					iox = e;
-					stop();
-					return;
-				}
-			}
-		}
+	/**
+	 * If set to true, images with more colors than the palette can hold are
+	 * Floyd-Steinberg dithered after being quantized.  Images that fit in the
+	 * palette are never dithered.
+	 * 
+	 * @param dither -
+	 *            true if quantized images are to be dithered
+	 */
+	public void setDither(boolean dither) {
+		this.dither = dither;
 	}
 
-	public void setProperties(Hashtable props) {
+	/**
+	 * @return true if the GIF is written interlaced
+	 */
+	public boolean isInterlace() {
+		return interlace;
 	}
 
-	private synchronized void stop() {
-		encoding = false;
-		notifyAll();
+	/**
+	 * If set to true, the GIF is written interlaced so that it can be
+	 * displayed progressively.
+	 * 
+	 * @param interlace -
+	 *            true if the GIF is to be written interlaced
+	 */
+	public void setInterlace(boolean interlace) {
+		this.interlace = interlace;
 	}
-}
-
-/**
- * <code>GifEncoder</code> implements the <code>ImageEncoder</code> interface
- * and hence can take a java.awt.Image object and encode it as a GIF
- * output stream.  It also handles alpha transparency in the source image.
- * <p>
- */
-public class GifEncoder implements ImageEncoder, Serializable {
 
 	/**
-	 * Constructs a GifEncoder ready to start encoding
+	 * @return the maximum number of colors in the palette, including the
+	 *         transparent color
 	 */
-	public GifEncoder() {
+	public int getMaxColors() {
+		return maxColors;
 	}
 
 	/**
-	 * @see echopointng.image.ImageEncoder#encode(java.awt.Image, java.io.OutputStream)
+	 * Sets the maximum number of colors in the palette, including the
+	 * transparent color.  Values outside 2 to 256 are ignored.
+	 * 
+	 * @param maxColors -
+	 *            the maximum number of colors in the palette
 	 */
-	public void encode(Image image, OutputStream out) throws IOException {
-		GifEncoderInternal encoder = new GifEncoderInternal(image, out);
-		encoder.encode();
+	public void setMaxColors(int maxColors) {
+		if (maxColors >= 2 && maxColors <= MAX_COLORS) {
+			this.maxColors = maxColors;
+		}
 	}
 
 	/**
-	 * @see echopointng.image.ImageEncoder#getContentType()
+	 * @return the <code>WorkerPool</code> shared by all encoders to encode
+	 *         animation frames in parallel, whose maximum number of threads
+	 *         defaults to the number of available processors
 	 */
-	public String getContentType() {
-		return "image/gif";
+	public static WorkerPool getFrameWorkerPool() {
+		return frameWorkerPool;
 	}
-}
 
-class GifEncoderHashItem {
-	public int count;
-	public int index;
-	public boolean isTransparent;
+	/**
+	 * @return the maximum number of threads used to encode animation frames,
+	 *         or 0 if this is as many as the shared <code>WorkerPool</code>
+	 *         allows
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
 
-	public int rgb;
+	/**
+	 * Sets the maximum number of threads used to encode animation frames.  The
+	 * default of 1 encodes the frames on the calling thread.  Higher values
+	 * also use threads of the shared <code>WorkerPool</code>, if they are 
+	 * free, and 0 means as many as it allows.
+	 * 
+	 * @param parallelism -
+	 *            the maximum number of threads
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism >= 0) {
+			this.parallelism = parallelism;
+		}
+	}
 
-	public GifEncoderHashItem(int rgb, int count, int index, boolean isTransparent) {
-		this.rgb = rgb;
-		this.count = count;
-		this.index = index;
-		this.isTransparent = isTransparent;
+	private int getEffectiveParallelism() {
+		return parallelism > 0 ? parallelism : frameWorkerPool.getMaximumThreads() + 1;
 	}
 
-}
+	/**
+	 * Quantizes an image and compresses its pixels ready to be written as an
+	 * animation frame.
+	 */
+	private Frame encodeFrame(Image image) throws IOException {
+		Frame frame = quantize(image);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(frame.indices.length / 2 + 64);
+		compress(frame, data);
+		frame.data = data.toByteArray();
+		frame.indices = null;
+		return frame;
+	}
 
-/**
- * The <code>GifEncoderInternal</code> class writes out image data to
- * an output stream in the GIF format.  It also handles alpha
- * transparency in the source image.
- * 
- */
-class GifEncoderInternal extends BaseImageEncoder {
-
-	static final int BITS = 12;
-
-	static final int EOF = -1;
-
-	static final int HSIZE = 5003; // 80% occupancy
-
-	// Number of characters so far in this 'packet'
-	int a_count;
-	// Define the storage for the packet accumulator
-	byte[] accum = new byte[256];
-	// block compression parameters -- after all codes are used up,
-	// and compression rate changes, start over.
-	boolean clear_flg = false;
-
-	int clearCode;
-	int[] codetab = new int[HSIZE];
-	IntHashtable colorHash;
-
-	int countDown;
-	int cur_accum = 0;
-	int cur_bits = 0;
-	int curx, cury;
-	int encodeWidth, encodeHeight;
-	int eofCode;
-	int free_ent = 0; // first unused entry
-	int g_init_bits;
-	int hsize = HSIZE; // for dynamic table sizing
-	int[] htab = new int[HSIZE];
-	private boolean interlace = false;
+	/**
+	 * Reads the pixels of an image and maps them onto a palette of at most
+	 * <code>maxColors</code> colors.
+	 */
+	private Frame quantize(Image image) throws IOException {
+		int width = image.getWidth(null);
+		int height = image.getHeight(null);
+		if (width <= 0 || height <= 0) {
+			throw new IOException("The image does not have a known width and height");
+		}
+		int[] argb = readPixels(image, width, height);
 
-	int masks[] = { 0x0000, 0x0001, 0x0003, 0x0007, 0x000F, 0x001F, 0x003F, 0x007F, 0x00FF, 0x01FF, 0x03FF, 0x07FF, 0x0FFF, 0x1FFF, 0x3FFF, 0x7FFF, 0xFFFF };
-	int maxbits = BITS; // user settable max # bits/code
-	int maxcode; // maximum code, given n_bits
-	int maxmaxcode = 1 << BITS; // should NEVER generate this code
-
-	int n_bits; // number of bits/code
-	int passCount = 0;
-	int[][] rgbPixels;
-	int width, height;
-
-	// Algorithm:  use open addressing double hashing (no chaining) on the
-	// prefix code / next character combination.  We do a variant of Knuth's
-	// algorithm D (vol. 3, sec. 6.4) along with G. Knott's relatively-prime
-	// secondary probe.  Here, the modular division first probe is gives way
-	// to a faster exclusive-or manipulation.  Also do block compression with
-	// an adaptive reset, whereby the code table is cleared when the compression
-	// ratio decreases, but after the table fills.  The variable-length output
-	// codes are re-sized at this point, and a special CLEAR code is generated
-	// for the decompressor.  Late addition:  construct the table according to
-	// file size for noticeable speed improvement on small files.  Please direct
-	// questions about this implementation to ames!jaw.
-
-	// GIF Image compression - modified 'compress'
-	//
-	// Based on: compress.c - File compression ala IEEE Computer, June 1984.
-	//
-	// By Authors:  Spencer W. Thomas      (decvax!harpo!utah-cs!utah-gr!thomas)
-	//              Jim McKie              (decvax!mcvax!jim)
-	//              Steve Davies           (decvax!vax135!petsd!peora!srd)
-	//              Ken Turkowski          (decvax!decwrl!turtlevax!ken)
-	//              James A. Woods         (decvax!ihnp4!ames!jaw)
-	//              Joe Orost              (decvax!vax135!petsd!joe)
+		Frame frame = new Frame(width, height);
+		if (!mapExactly(argb, frame)) {
+			mapQuantized(argb, frame);
+		}
+		int bits = 1;
+		while ((1 << bits) < frame.palette.length) {
+			bits++;
+		}
+		frame.paletteBits = bits;
+		return frame;
+	}
 
 	/**
-	 * Constructs a <code>GifEncoder</code> from an <code>Image</code> object
-	 * with no interlacing in effect.
+	 * Builds the palette directly from the image colors, giving up as soon as
+	 * there are more than <code>maxColors</code> of them.
 	 * 
-	 * @param img The image to encode.
-	 * @param out The stream to write the GIF to.
-	 * @throws IOException if the GIF cann be encoded
+	 * @return true if the image fitted in the palette
 	 */
-	public GifEncoderInternal(Image img, OutputStream out) {
-		super(img, out);
+	private boolean mapExactly(int[] argb, Frame frame) {
+		ColorIndex colors = new ColorIndex();
+		int[] palette = new int[maxColors];
+		int colorCount = 0;
+		int transparentIndex = -1;
+		byte[] indices = frame.indices;
+		for (int i = 0; i < argb.length; i++) {
+			int pixel = argb[i];
+			int index;
+			if (isTransparent(pixel)) {
+				if (transparentIndex == -1) {
+					if (colorCount == maxColors) {
+						return false;
+					}
+					transparentIndex = colorCount++;
+				}
+				index = transparentIndex;
+			} else {
+				int rgb = pixel & 0xffffff;
+				index = colors.get(rgb);
+				if (index == -1) {
+					if (colorCount == maxColors) {
+						return false;
+					}
+					index = colorCount++;
+					palette[index] = rgb;
+					colors.put(rgb, index);
+				}
+			}
+			indices[i] = (byte) index;
+		}
+		frame.palette = new int[Math.max(colorCount, 2)];
+		System.arraycopy(palette, 0, frame.palette, 0, colorCount);
+		frame.transparentIndex = transparentIndex;
+		return true;
 	}
 
 	/**
-	 * Constructs a <code>GifEncoder</code> from an <code>Image</code> object
-	 * with the ability to interlaced to output.
-	 * 
-	 * @param img The image to encode.
-	 * @param out The stream to write the GIF to.
-	 * @param interlace Wether to interlace the output.
-	 * @throws IOException if the GIF cann be encoded
+	 * Reduces the image colors with an octree and maps each pixel onto the
+	 * nearest palette color, dithering if asked to.
 	 */
-	public GifEncoderInternal(Image img, OutputStream out, boolean interlace) {
-		super(img, out);
-		this.interlace = interlace;
+	private void mapQuantized(int[] argb, Frame frame) {
+		boolean hasTransparency = false;
+		for (int i = 0; i < argb.length; i++) {
+			if (isTransparent(argb[i])) {
+				hasTransparency = true;
+				break;
+			}
+		}
+		Octree octree = new Octree(hasTransparency ? maxColors - 1 : maxColors);
+		for (int i = 0; i < argb.length; i++) {
+			if (!isTransparent(argb[i])) {
+				octree.add(argb[i]);
+			}
+		}
+		int[] colors = octree.getPalette();
+		int transparentIndex = hasTransparency ? colors.length : -1;
+		int[] palette = new int[Math.max(colors.length + (hasTransparency ? 1 : 0), 2)];
+		System.arraycopy(colors, 0, palette, 0, colors.length);
+		frame.palette = palette;
+		frame.transparentIndex = transparentIndex;
+
+		if (dither) {
+			ditherPixels(argb, frame, colors);
+			return;
+		}
+		byte[] indices = frame.indices;
+		for (int i = 0; i < argb.length; i++) {
+			int pixel = argb[i];
+			indices[i] = (byte) (isTransparent(pixel) ? transparentIndex : octree.indexOf(pixel));
+		}
 	}
 
-	// Bump the 'curx' and 'cury' to point to the next pixel
-	void bumpPixel() {
-		// Bump the current X position
-		++curx;
-
-		// If we are at the end of a scan line, set curx back to the beginning
-		// If we are interlaced, bump the cury to the appropriate spot,
-		// otherwise, just increment it.
-		if (curx == encodeWidth) {
-			curx = 0;
-
-			if (!interlace)
-				++cury;
-			else {
-				switch (passCount) {
-					case 0 :
-						cury += 8;
-						if (cury >= encodeHeight) {
-							++passCount;
-							cury = 4;
-						}
-						break;
-
-					case 1 :
-						cury += 8;
-						if (cury >= encodeHeight) {
-							++passCount;
-							cury = 2;
-						}
-						break;
-
-					case 2 :
-						cury += 4;
-						if (cury >= encodeHeight) {
-							++passCount;
-							cury = 1;
-						}
-						break;
-
-					case 3 :
-						cury += 2;
-						break;
+	/**
+	 * Maps the pixels onto the palette using Floyd-Steinberg error diffusion.
+	 * The nearest color is cached for each 15 bit color.
+	 */
+	private static void ditherPixels(int[] argb, Frame frame, int[] colors) {
+		int width = frame.width;
+		byte[] indices = frame.indices;
+		int[] nearest = new int[1 << 15];
+		for (int i = 0; i < nearest.length; i++) {
+			nearest[i] = -1;
+		}
+		// errors are kept 16 times too large, with a spare column either side
+		int[] thisRow = new int[(width + 2) * 3];
+		int[] nextRow = new int[(width + 2) * 3];
+		for (int y = 0; y < frame.height; y++) {
+			int[] swap = thisRow;
+			thisRow = nextRow;
+			nextRow = swap;
+			for (int i = 0; i < nextRow.length; i++) {
+				nextRow[i] = 0;
+			}
+			for (int x = 0; x < width; x++) {
+				int offset = y * width + x;
+				int pixel = argb[offset];
+				if (isTransparent(pixel)) {
+					indices[offset] = (byte) frame.transparentIndex;
+					continue;
 				}
+				int e = (x + 1) * 3;
+				int r = clamp(((pixel >> 16) & 0xff) + (thisRow[e] >> 4));
+				int g = clamp(((pixel >> 8) & 0xff) + (thisRow[e + 1] >> 4));
+				int b = clamp((pixel & 0xff) + (thisRow[e + 2] >> 4));
+
+				int key = ((r >> 3) << 10) | ((g >> 3) << 5) | (b >> 3);
+				int index = nearest[key];
+				if (index == -1) {
+					index = nearestColor(colors, r, g, b);
+					nearest[key] = index;
+				}
+				indices[offset] = (byte) index;
+
+				int color = colors[index];
+				diffuse(thisRow, nextRow, e, r - ((color >> 16) & 0xff));
+				diffuse(thisRow, nextRow, e + 1, g - ((color >> 8) & 0xff));
+				diffuse(thisRow, nextRow, e + 2, b - (color & 0xff));
 			}
 		}
 	}
 
-	// Set up the 'byte output' routine
-	void char_init() {
-		a_count = 0;
+	private static void diffuse(int[] thisRow, int[] nextRow, int e, int error) {
+		thisRow[e + 3] += error * 7;
+		nextRow[e - 3] += error * 3;
+		nextRow[e] += error * 5;
+		nextRow[e + 3] += error;
 	}
 
-	// Add a character to the end of the current packet, and if it is 254
-	// characters, flush the packet to disk.
-	void char_out(byte c, OutputStream outs) throws IOException {
-		accum[a_count++] = c;
-		if (a_count >= 254)
-			flush_char(outs);
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
 	}
 
-	// Clear out the hash table
-
-	// table clear for block compress
-	void cl_block(OutputStream outs) throws IOException {
-		cl_hash(hsize);
-		free_ent = clearCode + 2;
-		clear_flg = true;
-
-		output(clearCode, outs);
+	private static int nearestColor(int[] colors, int r, int g, int b) {
+		int best = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < colors.length; i++) {
+			int dr = ((colors[i] >> 16) & 0xff) - r;
+			int dg = ((colors[i] >> 8) & 0xff) - g;
+			int db = (colors[i] & 0xff) - b;
+			int distance = dr * dr + dg * dg + db * db;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		return best;
 	}
 
-	// reset code table
-	void cl_hash(int hsize) {
-		for (int i = 0; i < hsize; ++i)
-			htab[i] = -1;
+	private static boolean isTransparent(int argb) {
+		return (argb >>> 24) < 0x80;
 	}
 
-	void compress(int init_bits, OutputStream outs) throws IOException {
-		int fcode;
-		int i /* = 0 */;
-		int c;
-		int ent;
-		int disp;
-		int hsize_reg;
-		int hshift;
-
-		// Set up the globals:  g_init_bits - initial number of bits
-		g_init_bits = init_bits;
-
-		// Set up the necessary values
-		clear_flg = false;
-		n_bits = g_init_bits;
-		maxcode = maxcode(n_bits);
-
-		clearCode = 1 << (init_bits - 1);
-		eofCode = clearCode + 1;
-		free_ent = clearCode + 2;
-
-		char_init();
-
-		ent = nextPixel();
-
-		hshift = 0;
-		for (fcode = hsize; fcode < 65536; fcode *= 2)
-			++hshift;
-		hshift = 8 - hshift; // set hash code range bound
-
-		hsize_reg = hsize;
-		cl_hash(hsize_reg); // clear hash table
-
-		output(clearCode, outs);
-
-		outer_loop : while ((c = nextPixel()) != EOF) {
-			fcode = (c << maxbits) + ent;
-			i = (c << hshift) ^ ent; // xor hashing
-
-			if (htab[i] == fcode) {
-				ent = codetab[i];
-				continue;
-			} else if (htab[i] >= 0) // non-empty slot
-				{
-				disp = hsize_reg - i; // secondary hash (after G. Knott)
-				if (i == 0)
-					disp = 1;
-				do {
-					if ((i -= disp) < 0)
-						i += hsize_reg;
-
-					if (htab[i] == fcode) {
-						ent = codetab[i];
-						continue outer_loop;
-					}
-				} while (htab[i] >= 0);
-			}
-			output(ent, outs);
-			ent = c;
-			if (free_ent < maxmaxcode) {
-				codetab[i] = free_ent++; // code -> hashtable
-				htab[i] = fcode;
-			} else
-				cl_block(outs);
+	private static int[] readPixels(Image image, int width, int height) throws IOException {
+		int[] argb = new int[width * height];
+		if (image instanceof BufferedImage) {
+			((BufferedImage) image).getRGB(0, 0, width, height, argb, 0, width);
+			return argb;
+		}
+		PixelGrabber pg = new PixelGrabber(image, 0, 0, width, height, argb, 0, width);
+		try {
+			pg.grabPixels();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted waiting for pixels");
+		}
+		if ((pg.getStatus() & ImageObserver.ABORT) != 0) {
+			throw new IOException("Image fetch aborted or errored");
 		}
-		// Put out the final code.
-		output(ent, outs);
-		output(eofCode, outs);
+		return argb;
 	}
 
 	/**
-	 * Call this method to encode the image data out to the
-	 * output stream.  This will result in a GIF89a compliant
-	 * stream being written.
+	 * Writes the LZW compressed pixels of the frame, followed by the zero
+	 * length block that ends the image data.
 	 */
-	public void encode() throws IOException {
-		super.encode();
+	private void compress(Frame frame, OutputStream out) throws IOException {
+		int initCodeSize = Math.max(2, frame.paletteBits);
+		out.write(initCodeSize);
+		LzwCompressor compressor = acquireCompressor();
+		try {
+			compressor.compress(frame.indices, frame.width, rowOrder(frame.height), initCodeSize, out);
+		} finally {
+			releaseCompressor(compressor);
+		}
+		out.write(0);
 	}
 
-	void encodeDone() throws IOException {
-		int transparentIndex = -1;
-		int transparentRgb = -1;
-		// Put all the pixels into a hash table.
-		colorHash = new IntHashtable();
-		int index = 0;
-		for (int row = 0; row < height; ++row) {
-			for (int col = 0; col < width; ++col) {
-				int rgb = rgbPixels[row][col];
-				boolean isTransparent = ((rgb >>> 24) < 0x80);
-				if (isTransparent) {
-					if (transparentIndex < 0) {
-						// First transparent color; remember it.
-						transparentIndex = index;
-						transparentRgb = rgb;
-					} else if (rgb != transparentRgb) {
-						// A second transparent color; replace it with
-						// the first one.
-						rgbPixels[row][col] = rgb = transparentRgb;
-					}
-				}
-				GifEncoderHashItem item = (GifEncoderHashItem) colorHash.get(rgb);
-				if (item == null) {
-					if (index >= 256)
-						throw new IOException("too many colors for a GIF");
-					item = new GifEncoderHashItem(rgb, 1, index, isTransparent);
-					++index;
-					colorHash.put(rgb, item);
-				} else
-					++item.count;
+	/**
+	 * Returns the order in which rows are written, which is top down unless
+	 * the image is interlaced.
+	 */
+	private int[] rowOrder(int height) {
+		int[] rows = new int[height];
+		if (!interlace) {
+			for (int y = 0; y < height; y++) {
+				rows[y] = y;
 			}
+			return rows;
 		}
-
-		// Figure out how many bits to use.
-		int logColors;
-		if (index <= 2)
-			logColors = 1;
-		else if (index <= 4)
-			logColors = 2;
-		else if (index <= 16)
-			logColors = 4;
-		else
-			logColors = 8;
-
-		// Turn colors into colormap entries.
-		int mapSize = 1 << logColors;
-		byte[] reds = new byte[mapSize];
-		byte[] grns = new byte[mapSize];
-		byte[] blus = new byte[mapSize];
-		for (Enumeration e = colorHash.elements(); e.hasMoreElements();) {
-			GifEncoderHashItem item = (GifEncoderHashItem) e.nextElement();
-			reds[item.index] = (byte) ((item.rgb >> 16) & 0xff);
-			grns[item.index] = (byte) ((item.rgb >> 8) & 0xff);
-			blus[item.index] = (byte) (item.rgb & 0xff);
+		int[] starts = { 0, 4, 2, 1 };
+		int[] steps = { 8, 8, 4, 2 };
+		int n = 0;
+		for (int pass = 0; pass < starts.length; pass++) {
+			for (int y = starts[pass]; y < height; y += steps[pass]) {
+				rows[n++] = y;
+			}
 		}
-
-		gifEncode(out, width, height, (byte) 0, transparentIndex, logColors, reds, grns, blus);
+		return rows;
 	}
 
-	void encodePixels(int x, int y, int w, int h, int[] rgbPixels, int off, int scansize) throws IOException {
-		// Save the pixels.
-		for (int row = 0; row < h; ++row)
-			System.arraycopy(rgbPixels, row * scansize + off, this.rgbPixels[y + row], x, w);
-
+	private static LzwCompressor acquireCompressor() {
+		synchronized (compressorPool) {
+			if (!compressorPool.isEmpty()) {
+				return (LzwCompressor) compressorPool.removeLast();
+			}
+		}
+		return new LzwCompressor();
 	}
 
-	void encodeStart(int width, int height) throws IOException {
-		this.width = width;
-		this.height = height;
-		rgbPixels = new int[height][width];
+	private static void releaseCompressor(LzwCompressor compressor) {
+		synchronized (compressorPool) {
+			if (compressorPool.size() < MAX_POOLED_COMPRESSORS) {
+				compressorPool.addLast(compressor);
+			}
+		}
 	}
 
-	// Flush the packet to disk, and reset the accumulator
-	void flush_char(OutputStream outs) throws IOException {
-		if (a_count > 0) {
-			outs.write(a_count);
-			outs.write(accum, 0, a_count);
-			a_count = 0;
+	private static void writeColorTable(OutputStream out, Frame frame) throws IOException {
+		byte[] table = new byte[3 << frame.paletteBits];
+		for (int i = 0; i < frame.palette.length; i++) {
+			int rgb = frame.palette[i];
+			table[i * 3] = (byte) (rgb >> 16);
+			table[i * 3 + 1] = (byte) (rgb >> 8);
+			table[i * 3 + 2] = (byte) rgb;
 		}
+		out.write(table);
 	}
 
-	byte getPixel(int x, int y) throws IOException {
-		GifEncoderHashItem item = (GifEncoderHashItem) colorHash.get(rgbPixels[y][x]);
-		if (item == null)
-			throw new IOException("color not found");
-		return (byte) item.index;
+	private static void writeGraphicControl(OutputStream out, Frame frame, int disposal, int delay) throws IOException {
+		boolean transparent = frame.transparentIndex != -1;
+		out.write(0x21);
+		out.write(0xf9);
+		out.write(4);
+		out.write((disposal << 2) | (transparent ? 1 : 0));
+		putWord(delay, out);
+		out.write(transparent ? frame.transparentIndex : 0);
+		out.write(0);
 	}
 
-	void gifEncode(OutputStream outs, int encodeWidth, int encodeHeight, byte Background, int Transparent, int BitsPerPixel, byte[] Red, byte[] Green, byte[] Blue) throws IOException {
-
-		byte B;
-		int LeftOfs, TopOfs;
-		int ColorMapSize;
-		int InitCodeSize;
-		int i;
-
-		this.encodeWidth = encodeWidth;
-		this.encodeHeight = encodeHeight;
-		ColorMapSize = 1 << BitsPerPixel;
-		LeftOfs = TopOfs = 0;
-
-		// Calculate number of bits we are expecting
-		countDown = encodeWidth * encodeHeight;
-
-		// Indicate which pass we are on (if interlace)
-		passCount = 0;
-
-		// The initial code size
-		if (BitsPerPixel <= 1)
-			InitCodeSize = 2;
-		else
-			InitCodeSize = BitsPerPixel;
-
-		// Set up the current x and y position
-		curx = 0;
-		cury = 0;
-
-		// Write the Magic header
-		writeString(outs, "GIF89a");
-
-		// Write out the screen width and height
-		putWord(encodeWidth, outs);
-		putWord(encodeHeight, outs);
-
-		// Indicate that there is a global colour map
-		B = (byte) 0x80; // Yes, there is a color map
-		// OR in the resolution
-		B |= (byte) ((8 - 1) << 4);
-		// Not sorted
-		// OR in the Bits per Pixel
-		B |= (byte) ((BitsPerPixel - 1));
-
-		// Write it out
-		putByte(B, outs);
-
-		// Write out the Background colour
-		putByte(Background, outs);
-
-		// Pixel aspect ratio - 1:1.
-		//Putbyte( (byte) 49, outs );
-		// Java's GIF reader currently has a bug, if the aspect ratio byte is
-		// not zero it throws an ImageFormatException.  It doesn't know that
-		// 49 means a 1:1 aspect ratio.  Well, whatever, zero works with all
-		// the other decoders I've tried so it probably doesn't hurt.
-		putByte((byte) 0, outs);
-
-		// Write out the Global Colour Map
-		for (i = 0; i < ColorMapSize; ++i) {
-			putByte(Red[i], outs);
-			putByte(Green[i], outs);
-			putByte(Blue[i], outs);
+	private void writeImageDescriptor(OutputStream out, Frame frame, boolean localColorTable) throws IOException {
+		out.write(',');
+		putWord(0, out);
+		putWord(0, out);
+		putWord(frame.width, out);
+		putWord(frame.height, out);
+		int flags = interlace ? 0x40 : 0x00;
+		if (localColorTable) {
+			flags |= 0x80 | (frame.paletteBits - 1);
 		}
+		out.write(flags);
+	}
 
-		// Write out extension for transparent colour index, if necessary.
-		if (Transparent != -1) {
-			putByte((byte) '!', outs);
-			putByte((byte) 0xf9, outs);
-			putByte((byte) 4, outs);
-			putByte((byte) 1, outs);
-			putByte((byte) 0, outs);
-			putByte((byte) 0, outs);
-			putByte((byte) Transparent, outs);
-			putByte((byte) 0, outs);
-		}
+	private static void putWord(int w, OutputStream out) throws IOException {
+		out.write(w & 0xff);
+		out.write((w >> 8) & 0xff);
+	}
 
-		// Write an Image separator
-		putByte((byte) ',', outs);
+	private static void writeString(OutputStream out, String str) throws IOException {
+		out.write(str.getBytes("ISO-8859-1"));
+	}
 
-		// Write the Image header
-		putWord(LeftOfs, outs);
-		putWord(TopOfs, outs);
-		putWord(encodeWidth, outs);
-		putWord(encodeHeight, outs);
+	/**
+	 * <code>Frame</code> is a single image mapped onto its palette.
+	 */
+	private static class Frame {
+		private int width;
 
-		// Write out whether or not the image is interlaced
-		if (interlace)
-			putByte((byte) 0x40, outs);
-		else
-			putByte((byte) 0x00, outs);
+		private int height;
 
-		// Write out the initial code size
-		putByte((byte) InitCodeSize, outs);
+		private byte[] indices;
 
-		// Go and actually compress the data
-		compress(InitCodeSize + 1, outs);
+		private int[] palette;
 
-		// Write out a Zero-length packet (to end the series)
-		putByte((byte) 0, outs);
+		private int paletteBits;
 
-		// Write the GIF file terminator
-		putByte((byte) ';', outs);
-	}
+		private int transparentIndex = -1;
+
+		private byte[] data;
 
-	int maxcode(int n_bits) {
-		return (1 << n_bits) - 1;
+		private Frame(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.indices = new byte[width * height];
+		}
 	}
 
-	// Return the next pixel from the image
-	int nextPixel() throws IOException {
-		byte r;
+	/**
+	 * <code>FrameBatch</code> encodes the frames of an animation, sharing
+	 * them out between the calling thread and threads of the shared
+	 * <code>WorkerPool</code>.  A pool thread that only gets to the batch 
+	 * once all its frames have been taken has nothing to do.
+	 */
+	private class FrameBatch implements Runnable {
+		private Image[] images;
 
-		if (countDown == 0)
-			return EOF;
+		private Frame[] frames;
 
-		--countDown;
+		private int nextFrame;
 
-		r = getPixel(curx, cury);
+		private int finishedFrames;
 
-		bumpPixel();
+		private IOException failure;
 
-		return r & 0xff;
-	}
+		/** a RuntimeException or Error thrown while encoding a frame */
+		private Throwable uncheckedFailure;
 
-	void output(int code, OutputStream outs) throws IOException {
-		cur_accum &= masks[cur_bits];
+		private FrameBatch(Image[] images) {
+			this.images = images;
+			this.frames = new Frame[images.length];
+		}
 
-		if (cur_bits > 0)
-			cur_accum |= (code << cur_bits);
-		else
-			cur_accum = code;
+		private Frame[] run(int threadCount) throws IOException {
+			threadCount = Math.min(threadCount, images.length);
+			for (int i = 1; i < threadCount; i++) {
+				frameWorkerPool.execute(this);
+			}
+			// the calling thread does its share too
+			run();
+			synchronized (this) {
+				try {
+					while (finishedFrames < images.length && failure == null && uncheckedFailure == null) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					fail(new IOException("Interrupted waiting for frames to be encoded"));
+				}
+				if (uncheckedFailure instanceof Error) {
+					throw (Error) uncheckedFailure;
+				}
+				if (uncheckedFailure != null) {
+					throw (RuntimeException) uncheckedFailure;
+				}
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			return frames;
+		}
 
-		cur_bits += n_bits;
+		public void run() {
+			int index;
+			while ((index = takeFrame()) != -1) {
+				try {
+					Frame frame = encodeFrame(images[index]);
+					synchronized (this) {
+						frames[index] = frame;
+						finishedFrames++;
+						notifyAll();
+					}
+				} catch (IOException e) {
+					fail(e);
+				} catch (Throwable t) {
+					// an Error must wake the caller too, or it would wait
+					// for a frame that is never finished
+					synchronized (this) {
+						if (uncheckedFailure == null) {
+							uncheckedFailure = t;
+						}
+						notifyAll();
+					}
+				}
+			}
+		}
 
-		while (cur_bits >= 8) {
-			char_out((byte) (cur_accum & 0xff), outs);
-			cur_accum >>= 8;
-			cur_bits -= 8;
+		private synchronized int takeFrame() {
+			if (failure != null || uncheckedFailure != null || nextFrame == images.length) {
+				return -1;
+			}
+			return nextFrame++;
 		}
 
-		// If the next entry is going to be too big for the code size,
-		// then increase it, if possible.
-		if (free_ent > maxcode || clear_flg) {
-			if (clear_flg) {
-				maxcode = maxcode(n_bits = g_init_bits);
-				clear_flg = false;
-			} else {
-				++n_bits;
-				if (n_bits == maxbits)
-					maxcode = maxmaxcode;
-				else
-					maxcode = maxcode(n_bits);
+		private synchronized void fail(IOException e) {
+			if (failure == null) {
+				failure = e;
 			}
+			notifyAll();
 		}
+	}
+
+	/**
+	 * <code>ColorIndex</code> is an open addressing hash from 24 bit colors to
+	 * palette indices, big enough for a full palette.
+	 */
+	private static class ColorIndex {
+		private static final int SIZE = 1024;
+
+		private int[] keys = new int[SIZE];
+
+		private int[] values = new int[SIZE];
 
-		if (code == eofCode) {
-			// At EOF, write the rest of the buffer.
-			while (cur_bits > 0) {
-				char_out((byte) (cur_accum & 0xff), outs);
-				cur_accum >>= 8;
-				cur_bits -= 8;
+		private ColorIndex() {
+			for (int i = 0; i < SIZE; i++) {
+				keys[i] = -1;
 			}
+		}
 
-			flush_char(outs);
+		private int get(int rgb) {
+			int i = slot(rgb);
+			while (keys[i] != -1) {
+				if (keys[i] == rgb) {
+					return values[i];
+				}
+				i = (i + 1) & (SIZE - 1);
+			}
+			return -1;
 		}
-	}
 
-	// Write out a byte to the GIF file
-	void putByte(byte b, OutputStream outs) throws IOException {
-		outs.write(b);
-	}
+		private void put(int rgb, int index) {
+			int i = slot(rgb);
+			while (keys[i] != -1 && keys[i] != rgb) {
+				i = (i + 1) & (SIZE - 1);
+			}
+			keys[i] = rgb;
+			values[i] = index;
+		}
 
-	// Write out a word to the GIF file
-	void putWord(int w, OutputStream outs) throws IOException {
-		putByte((byte) (w & 0xff), outs);
-		putByte((byte) ((w >> 8) & 0xff), outs);
+		private static int slot(int rgb) {
+			int h = rgb * 0x9e3779b1;
+			return (h ^ (h >>> 16)) & (SIZE - 1);
+		}
 	}
 
-	void writeString(OutputStream out, String str) throws IOException {
-		byte[] buf = str.getBytes();
-		out.write(buf);
-	}
+	/**
+	 * <code>Octree</code> is an octree color quantizer.  Each level of the
+	 * tree splits on one more bit of red, green and blue, and when there are
+	 * too many leaves the deepest nodes are merged into their parents.
+	 */
+	private static class Octree {
+		private static final int MAX_DEPTH = 8;
 
-}
+		private Node root;
 
-class IntHashtable extends Dictionary implements Cloneable {
+		private Node[] reducible = new Node[MAX_DEPTH];
 
-	/// The total number of entries in the hash table.
-	private int count;
+		private int leafCount;
 
-	/// The load factor for the hashtable.
-	private float loadFactor;
-	/// The hash table data.
-	private IntHashtableEntry table[];
+		private int maxLeaves;
 
-	/// Rehashes the table when count exceeds this threshold.
-	private int threshold;
+		private Octree(int maxLeaves) {
+			this.maxLeaves = Math.max(1, maxLeaves);
+			this.root = newNode(0);
+		}
 
-	public IntHashtable() {
-		this(101, 0.75f);
-	}
+		private void add(int rgb) {
+			Node node = root;
+			for (int level = 0; !node.leaf; level++) {
+				int child = childIndex(rgb, level);
+				if (node.children[child] == null) {
+					node.children[child] = newNode(level + 1);
+				}
+				node = node.children[child];
+			}
+			node.pixelCount++;
+			node.red += (rgb >> 16) & 0xff;
+			node.green += (rgb >> 8) & 0xff;
+			node.blue += rgb & 0xff;
+			while (leafCount > maxLeaves) {
+				reduce();
+			}
+		}
 
-	public IntHashtable(int initialCapacity) {
-		this(initialCapacity, 0.75f);
-	}
+		private int[] getPalette() {
+			int[] palette = new int[leafCount];
+			int count = collect(root, palette, 0);
+			if (count < palette.length) {
+				int[] trimmed = new int[count];
+				System.arraycopy(palette, 0, trimmed, 0, count);
+				palette = trimmed;
+			}
+			return palette;
+		}
 
-	public IntHashtable(int initialCapacity, float loadFactor) {
-		if (initialCapacity <= 0 || loadFactor <= 0.0)
-			throw new IllegalArgumentException();
-		this.loadFactor = loadFactor;
-		table = new IntHashtableEntry[initialCapacity];
-		threshold = (int) (initialCapacity * loadFactor);
-	}
+		/**
+		 * Returns the palette index of the leaf a color falls into.  The color
+		 * must have been added to the tree.
+		 */
+		private int indexOf(int rgb) {
+			Node node = root;
+			for (int level = 0; !node.leaf; level++) {
+				node = node.children[childIndex(rgb, level)];
+			}
+			return node.paletteIndex;
+		}
 
-	/// Clears the hash table so that it has no more elements in it.
-	public synchronized void clear() {
-		IntHashtableEntry tab[] = table;
-		for (int index = tab.length; --index >= 0;)
-			tab[index] = null;
-		count = 0;
-	}
+		private int collect(Node node, int[] palette, int count) {
+			if (node.leaf) {
+				if (node.pixelCount > 0) {
+					int n = node.pixelCount;
+					palette[count] = (int) (node.red / n) << 16 | (int) (node.green / n) << 8 | (int) (node.blue / n);
+					node.paletteIndex = count++;
+				}
+				return count;
+			}
+			for (int i = 0; i < 8; i++) {
+				if (node.children[i] != null) {
+					count = collect(node.children[i], palette, count);
+				}
+			}
+			return count;
+		}
 
-	public synchronized Object clone() {
-		try {
-			IntHashtable t = (IntHashtable) super.clone();
-			t.table = new IntHashtableEntry[table.length];
-			for (int i = table.length; i-- > 0;)
-				t.table[i] = (table[i] != null) ? (IntHashtableEntry) table[i].clone() : null;
-			return t;
-		} catch (CloneNotSupportedException e) {
-			// This shouldn't happen, since we are Cloneable.
-			throw new InternalError();
+		private Node newNode(int level) {
+			Node node = new Node();
+			if (level == MAX_DEPTH) {
+				node.leaf = true;
+				leafCount++;
+			} else {
+				node.children = new Node[8];
+				node.nextReducible = reducible[level];
+				reducible[level] = node;
+			}
+			return node;
 		}
-	}
 
-	public synchronized boolean contains(Object value) {
-		if (value == null)
-			throw new NullPointerException();
-		IntHashtableEntry tab[] = table;
-		for (int i = tab.length; i-- > 0;) {
-			for (IntHashtableEntry e = tab[i]; e != null; e = e.next) {
-				if (e.value.equals(value))
-					return true;
+		private void reduce() {
+			int level = MAX_DEPTH - 1;
+			while (reducible[level] == null) {
+				level--;
 			}
+			Node node = reducible[level];
+			reducible[level] = node.nextReducible;
+			int merged = 0;
+			for (int i = 0; i < 8; i++) {
+				Node child = node.children[i];
+				if (child != null) {
+					node.pixelCount += child.pixelCount;
+					node.red += child.red;
+					node.green += child.green;
+					node.blue += child.blue;
+					merged++;
+				}
+			}
+			node.children = null;
+			node.leaf = true;
+			leafCount -= merged - 1;
 		}
-		return false;
-	}
 
-	public synchronized boolean containsKey(int key) {
-		IntHashtableEntry tab[] = table;
-		int hash = key;
-		int index = (hash & 0x7FFFFFFF) % tab.length;
-		for (IntHashtableEntry e = tab[index]; e != null; e = e.next) {
-			if (e.hash == hash && e.key == key)
-				return true;
+		private static int childIndex(int rgb, int level) {
+			int shift = 7 - level;
+			return ((rgb >> (16 + shift)) & 1) << 2 | ((rgb >> (8 + shift)) & 1) << 1 | ((rgb >> shift) & 1);
 		}
-		return false;
-	}
 
-	public synchronized Enumeration elements() {
-		return new IntHashtableEnumerator(table, false);
-	}
+		private static class Node {
+			private boolean leaf;
+
+			private Node[] children;
+
+			private Node nextReducible;
+
+			private int pixelCount;
+
+			private long red;
 
-	public synchronized Object get(int key) {
-		IntHashtableEntry tab[] = table;
-		int hash = key;
-		int index = (hash & 0x7FFFFFFF) % tab.length;
-		for (IntHashtableEntry e = tab[index]; e != null; e = e.next) {
-			if (e.hash == hash && e.key == key)
-				return e.value;
+			private long green;
+
+			private long blue;
+
+			private int paletteIndex;
 		}
-		return null;
 	}
 
-	public Object get(Object okey) {
-		if (!(okey instanceof Integer))
-			throw new InternalError("key is not an Integer");
-		Integer ikey = (Integer) okey;
-		int key = ikey.intValue();
-		return get(key);
-	}
+	/**
+	 * <code>LzwCompressor</code> writes palette indices as GIF LZW data
+	 * sub-blocks.  Its hash tables are reused between images.
+	 * <p>
+	 * Algorithm: use open addressing double hashing (no chaining) on the
+	 * prefix code / next character combination.  We do a variant of Knuth's
+	 * algorithm D (vol. 3, sec. 6.4) along with G. Knott's relatively-prime
+	 * secondary probe.  Here, the modular division first probe is gives way
+	 * to a faster exclusive-or manipulation.  Also do block compression with
+	 * an adaptive reset, whereby the code table is cleared when the compression
+	 * ratio decreases, but after the table fills.  The variable-length output
+	 * codes are re-sized at this point, and a special CLEAR code is generated
+	 * for the decompressor.
+	 * <p>
+	 * Based on: compress.c - File compression ala IEEE Computer, June 1984, by
+	 * Spencer W. Thomas, Jim McKie, Steve Davies, Ken Turkowski, James A.
+	 * Woods and Joe Orost.
+	 */
+	private static class LzwCompressor {
+		private static final int BITS = 12;
 
-	public boolean isEmpty() {
-		return count == 0;
-	}
+		private static final int HSIZE = 5003; // 80% occupancy
 
-	public synchronized Enumeration keys() {
-		return new IntHashtableEnumerator(table, true);
-	}
+		private static final int MAX_MAX_CODE = 1 << BITS;
 
-	public synchronized Object put(int key, Object value) {
-		// Make sure the value is not null.
-		if (value == null)
-			throw new NullPointerException();
-
-		// Makes sure the key is not already in the hashtable.
-		IntHashtableEntry tab[] = table;
-		int hash = key;
-		int index = (hash & 0x7FFFFFFF) % tab.length;
-		for (IntHashtableEntry e = tab[index]; e != null; e = e.next) {
-			if (e.hash == hash && e.key == key) {
-				Object old = e.value;
-				e.value = value;
-				return old;
-			}
-		}
+		private static final int[] MASKS = { 0x0000, 0x0001, 0x0003, 0x0007, 0x000F, 0x001F, 0x003F, 0x007F, 0x00FF, 0x01FF, 0x03FF, 0x07FF, 0x0FFF, 0x1FFF, 0x3FFF, 0x7FFF, 0xFFFF };
 
-		if (count >= threshold) {
-			// Rehash the table if the threshold is exceeded.
-			rehash();
-			return put(key, value);
-		}
+		private int[] htab = new int[HSIZE];
 
-		// Creates the new entry.
-		IntHashtableEntry e = new IntHashtableEntry();
-		e.hash = hash;
-		e.key = key;
-		e.value = value;
-		e.next = tab[index];
-		tab[index] = e;
-		++count;
-		return null;
-	}
+		private int[] codetab = new int[HSIZE];
 
-	public Object put(Object okey, Object value) {
-		if (!(okey instanceof Integer))
-			throw new InternalError("key is not an Integer");
-		Integer ikey = (Integer) okey;
-		int key = ikey.intValue();
-		return put(key, value);
-	}
+		private byte[] accum = new byte[256];
+
+		private int accumCount;
+
+		private int curAccum;
+
+		private int curBits;
+
+		private int nBits;
+
+		private int maxCode;
+
+		private int initBits;
 
-	protected void rehash() {
-		int oldCapacity = table.length;
-		IntHashtableEntry oldTable[] = table;
+		private int clearCode;
 
-		int newCapacity = oldCapacity * 2 + 1;
-		IntHashtableEntry newTable[] = new IntHashtableEntry[newCapacity];
+		private int eofCode;
 
-		threshold = (int) (newCapacity * loadFactor);
-		table = newTable;
+		private int freeEnt;
 
-		for (int i = oldCapacity; i-- > 0;) {
-			for (IntHashtableEntry old = oldTable[i]; old != null;) {
-				IntHashtableEntry e = old;
-				old = old.next;
+		private boolean clearFlag;
 
-				int index = (e.hash & 0x7FFFFFFF) % newCapacity;
-				e.next = newTable[index];
-				newTable[index] = e;
+		private OutputStream out;
+
+		private void compress(byte[] pixels, int width, int[] rows, int initCodeSize, OutputStream out) throws IOException {
+			this.out = out;
+			initBits = initCodeSize + 1;
+			accumCount = 0;
+			curAccum = 0;
+			curBits = 0;
+			clearFlag = false;
+			nBits = initBits;
+			maxCode = maxCode(nBits);
+			clearCode = 1 << (initBits - 1);
+			eofCode = clearCode + 1;
+			freeEnt = clearCode + 2;
+
+			int hshift = 0;
+			for (int fcode = HSIZE; fcode < 65536; fcode *= 2) {
+				++hshift;
 			}
-		}
-	}
+			hshift = 8 - hshift; // set hash code range bound
+
+			clearHash();
+			output(clearCode);
+
+			int ent = -1;
+			for (int row = 0; row < rows.length; row++) {
+				int offset = rows[row] * width;
+				pixels: for (int x = 0; x < width; x++) {
+					int c = pixels[offset + x] & 0xff;
+					if (ent == -1) {
+						ent = c;
+						continue;
+					}
+					int fcode = (c << BITS) + ent;
+					int i = (c << hshift) ^ ent; // xor hashing
 
-	public synchronized Object remove(int key) {
-		IntHashtableEntry tab[] = table;
-		int hash = key;
-		int index = (hash & 0x7FFFFFFF) % tab.length;
-		for (IntHashtableEntry e = tab[index], prev = null; e != null; prev = e, e = e.next) {
-			if (e.hash == hash && e.key == key) {
-				if (prev != null)
-					prev.next = e.next;
-				else
-					tab[index] = e.next;
-				--count;
-				return e.value;
+					if (htab[i] == fcode) {
+						ent = codetab[i];
+						continue;
+					} else if (htab[i] >= 0) { // non-empty slot
+						int disp = HSIZE - i; // secondary hash (after G. Knott)
+						if (i == 0) {
+							disp = 1;
+						}
+						do {
+							if ((i -= disp) < 0) {
+								i += HSIZE;
+							}
+							if (htab[i] == fcode) {
+								ent = codetab[i];
+								continue pixels;
+							}
+						} while (htab[i] >= 0);
+					}
+					output(ent);
+					ent = c;
+					if (freeEnt < MAX_MAX_CODE) {
+						codetab[i] = freeEnt++; // code -> hashtable
+						htab[i] = fcode;
+					} else {
+						// table clear for block compress
+						clearHash();
+						freeEnt = clearCode + 2;
+						clearFlag = true;
+						output(clearCode);
+					}
+				}
 			}
+			// Put out the final code.
+			output(ent);
+			output(eofCode);
+			this.out = null;
 		}
-		return null;
-	}
-
-	public Object remove(Object okey) {
-		if (!(okey instanceof Integer))
-			throw new InternalError("key is not an Integer");
-		Integer ikey = (Integer) okey;
-		int key = ikey.intValue();
-		return remove(key);
-	}
 
-	public int size() {
-		return count;
-	}
+		private void clearHash() {
+			for (int i = 0; i < HSIZE; ++i) {
+				htab[i] = -1;
+			}
+		}
 
-	public synchronized String toString() {
-		int max = size() - 1;
-		StringBuffer buf = new StringBuffer();
-		Enumeration k = keys();
-		Enumeration e = elements();
-		buf.append("{");
-
-		for (int i = 0; i <= max; ++i) {
-			String s1 = k.nextElement().toString();
-			String s2 = e.nextElement().toString();
-			buf.append(s1 + "=" + s2);
-			if (i < max)
-				buf.append(", ");
+		private static int maxCode(int nBits) {
+			return (1 << nBits) - 1;
 		}
-		buf.append("}");
-		return buf.toString();
-	}
-}
 
-class IntHashtableEntry {
-	int hash;
-	int key;
-	IntHashtableEntry next;
-	Object value;
-
-	protected Object clone() {
-		IntHashtableEntry entry = new IntHashtableEntry();
-		entry.hash = hash;
-		entry.key = key;
-		entry.value = value;
-		entry.next = (next != null) ? (IntHashtableEntry) next.clone() : null;
-		return entry;
-	}
-}
+		private void output(int code) throws IOException {
+			curAccum &= MASKS[curBits];
+			if (curBits > 0) {
+				curAccum |= (code << curBits);
+			} else {
+				curAccum = code;
+			}
+			curBits += nBits;
 
-class IntHashtableEnumerator implements Enumeration {
-	IntHashtableEntry entry;
-	int index;
-	boolean keys;
-	IntHashtableEntry table[];
+			while (curBits >= 8) {
+				charOut((byte) (curAccum & 0xff));
+				curAccum >>= 8;
+				curBits -= 8;
+			}
 
-	IntHashtableEnumerator(IntHashtableEntry table[], boolean keys) {
-		this.table = table;
-		this.keys = keys;
-		this.index = table.length;
-	}
+			// If the next entry is going to be too big for the code size,
+			// then increase it, if possible.
+			if (freeEnt > maxCode || clearFlag) {
+				if (clearFlag) {
+					maxCode = maxCode(nBits = initBits);
+					clearFlag = false;
+				} else {
+					++nBits;
+					if (nBits == BITS) {
+						maxCode = MAX_MAX_CODE;
+					} else {
+						maxCode = maxCode(nBits);
+					}
+				}
+			}
 
-	public boolean hasMoreElements() {
-		if (entry != null)
-			return true;
-		while (index-- > 0)
-			if ((entry = table[index]) != null)
-				return true;
-		return false;
-	}
+			if (code == eofCode) {
+				// At EOF, write the rest of the buffer.
+				while (curBits > 0) {
+					charOut((byte) (curAccum & 0xff));
+					curAccum >>= 8;
+					curBits -= 8;
+				}
+				flushChars();
+			}
+		}
 
-	public Object nextElement() {
-		if (entry == null)
-			while ((index-- > 0) && ((entry = table[index]) == null));
-		if (entry != null) {
-			IntHashtableEntry e = entry;
-			entry = e.next;
-			return keys ? new Integer(e.key) : e.value;
+		// Add a character to the end of the current packet, and if it is 254
+		// characters, flush the packet.
+		private void charOut(byte c) throws IOException {
+			accum[accumCount++] = c;
+			if (accumCount >= 254) {
+				flushChars();
+			}
+		}
+
+		private void flushChars() throws IOException {
+			if (accumCount > 0) {
+				out.write(accumCount);
+				out.write(accum, 0, accumCount);
+				accumCount = 0;
+			}
 		}
-		throw new NoSuchElementException("IntHashtableEnumerator");
 	}
 }
@@ -128,19 +128,20 @@ public class ImageKit {
 		String name = "" + backgroundColor.getRgb() + "w:" + width + "h:" + height;
 		
 		SoftReference softRef = (SoftReference) coloredImageCache.get(name); 
-		AwtImageReference awtImageRef = (AwtImageReference) (softRef == null ? null : softRef.get());
+		EncodedImageReference imageRef = (EncodedImageReference) (softRef == null ? null : softRef.get());
 		
-		if (awtImageRef == null) {
+		if (imageRef == null) {
 			BufferedImage image = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
 			Graphics2D g = image.createGraphics();
 			g.setColor(ColorKit.makeAwtColor(backgroundColor,java.awt.Color.lightGray));
 			g.fillRect(0,0,width,height);
 			g.dispose();
 			
-			awtImageRef = new AwtImageReference(image);
-			coloredImageCache.put(name,new SoftReference(awtImageRef));
+			imageRef = new EncodedImageReference(image);
+			imageRef.setCachedByContent(true);
+			coloredImageCache.put(name,new SoftReference(imageRef));
 		}
-		return awtImageRef;
+		return imageRef;
 	}
 	
 	/**
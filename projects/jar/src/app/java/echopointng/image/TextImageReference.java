@@ -106,8 +106,10 @@ import echopointng.util.FontKit;
  * will be substituted, in a round robin fashion, for each Unicode replacement
  * character in the AttributedString. 
  * <p>
- * This class by default does not keep the encoded output image bytes in memory.  
- * You can change this by <code>setKeptInMemory(true).</code>  
+ * This class by default caches the encoded output image bytes by content in 
+ * the shared <code>EncodedImageCache</code>, so the same text drawn by many
+ * references is only encoded once. You can change this by 
+ * <code>setCachedByContent(false).</code>  
  * <p>
  * You should think about loading the background images via 
  * <code>ImageKit.loadCachedImage(...)</code> so that these static
@@ -353,6 +355,10 @@ public class TextImageReference extends EncodedImageReference implements Seriali
 		// will only be called if the image has changed.  So we dont keep it
 		// in memory.
 		super.setKeptInMemory(false);
+		//
+		// however the same text images are often drawn in many places and
+		// sessions, so share their encodings by content.
+		super.setCachedByContent(true);
 		
 		//
 		// okay workout background image size, and maybe scale it!
@@ -29,6 +29,8 @@ package echopointng.stylesheet;
  * the terms of any one of the MPL, the GPL or the LGPL.
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -46,6 +48,11 @@ import echopointng.util.reflect.ReflectionKit;
 /**
  * <code>CssStyleSheetLoader</code> will load a CSS 'like' style sheet source and create
  * a StyleSheet object ready for use.
+ * <p>
+ * Large style sheets are expensive to load, so the <code>load</code> methods
+ * that take a snapshot <code>File</code> keep a <code>CssStyleSheetSnapshot</code>
+ * of the loaded <code>StyleSheet</code> and use that instead while the CSS 
+ * source stays the same.
  */
 public class CssStyleSheetLoader {
 	
@@ -144,6 +151,78 @@ public class CssStyleSheetLoader {
 		}
 	}
 
+	/**
+	 * Returns the <code>StyleSheet</code> for a CSS style sheet, reading it
+	 * from a snapshot if the snapshot was made from the same CSS source and
+	 * otherwise parsing the CSS and writing a new snapshot.
+	 * 
+	 * @param resourceName
+	 *            the name of the resource on the classpath containing the CSS
+	 *            data
+	 * @param classLoader
+	 *            the <code>ClassLoader</code> with which to instantiate
+	 *            property objects
+	 * @param snapshotFile
+	 *            the file holding the snapshot of the style sheet
+	 * @return the created <code>StyleSheet</code>
+	 * @throws CssStyleSheetException
+	 *             if parsing/instantiation errors occur
+	 * @see CssStyleSheetSnapshot
+	 */
+	public static StyleSheet load(String resourceName, ClassLoader classLoader, File snapshotFile)
+			throws CssStyleSheetException {
+		InputStream in = null;
+		try {
+			in = classLoader.getResourceAsStream(resourceName);
+			if (in == null) {
+				throw new CssStyleSheetException("Cannot find style sheet resource: " + resourceName, null, -1);
+			}
+			return load(in, classLoader, snapshotFile);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ex) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the <code>StyleSheet</code> for a CSS style sheet, reading it
+	 * from a snapshot if the snapshot was made from the same CSS source and
+	 * otherwise parsing the CSS and writing a new snapshot.  A snapshot that
+	 * cannot be written, for example because a property value is not 
+	 * serializable, is simply not used.
+	 * 
+	 * @param in
+	 *            the <code>InputStream</code> containing the CSS data
+	 * @param classLoader
+	 *            the <code>ClassLoader</code> with which to instantiate
+	 *            property objects
+	 * @param snapshotFile
+	 *            the file holding the snapshot of the style sheet
+	 * @return the created <code>StyleSheet</code>
+	 * @throws CssStyleSheetException
+	 *             if parsing/instantiation errors occur
+	 * @see CssStyleSheetSnapshot
+	 */
+	public static StyleSheet load(InputStream in, ClassLoader classLoader, File snapshotFile)
+			throws CssStyleSheetException {
+		byte[] cssSource;
+		try {
+			cssSource = CssStyleSheetSnapshot.readFully(in);
+		} catch (IOException ex) {
+			throw new CssStyleSheetException(ex.toString(), ex, -1);
+		}
+		StyleSheet styleSheet = CssStyleSheetSnapshot.read(snapshotFile, cssSource, classLoader);
+		if (styleSheet == null) {
+			styleSheet = load(new ByteArrayInputStream(cssSource), classLoader);
+			CssStyleSheetSnapshot.write(snapshotFile, cssSource, styleSheet);
+		}
+		return styleSheet;
+	}
+
 	/**
 	 * Parses a CSS style sheet and returns a <code>StyleSheet</code>
 	 * instance.
@@ -0,0 +1,240 @@
+package echopointng.stylesheet;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import nextapp.echo2.app.StyleSheet;
+
+/**
+ * <code>CssStyleSheetSnapshot</code> reads and writes snapshots of 
+ * resolved <code>StyleSheet</code>s, so that a CSS style sheet does not 
+ * have to be parsed, class resolved and introspected every time an 
+ * application starts.
+ * <p>
+ * A snapshot file holds a header, the SHA-1 hash of the CSS source it was
+ * made from and the serialized <code>StyleSheet</code>.  A snapshot is only
+ * used while the hash matches the CSS source, so changing the CSS causes it to
+ * be parsed again and the snapshot to be rewritten.
+ * <p>
+ * Snapshots depend on the serialized form of the property value classes, so
+ * they should be kept somewhere that is cleared when the application is 
+ * upgraded, such as the servlet context's temporary directory.  A snapshot 
+ * that can no longer be deserialized is treated as missing.
+ * 
+ * @see CssStyleSheetLoader#load(InputStream, ClassLoader, File)
+ */
+public class CssStyleSheetSnapshot {
+
+	/** "EPSS" */
+	private static final int MAGIC = 0x45505353;
+
+	private static final int FORMAT_VERSION = 1;
+
+	/** not instantiable */
+	private CssStyleSheetSnapshot() {
+	}
+
+	/**
+	 * <code>ClassLoaderObjectInputStream</code> resolves classes with a given
+	 * <code>ClassLoader</code>, which is usually not the one that loaded
+	 * EchoPointNG.
+	 */
+	private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+		private ClassLoader classLoader;
+
+		private ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+		}
+
+		protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try {
+				return Class.forName(desc.getName(), false, classLoader);
+			} catch (ClassNotFoundException e) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+
+	/**
+	 * Returns the hash that identifies the given CSS source in a snapshot.
+	 * 
+	 * @param cssSource -
+	 *            the bytes of the CSS source
+	 * @return the hash of the CSS source
+	 */
+	public static byte[] hash(byte[] cssSource) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(cssSource);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available");
+		}
+	}
+
+	/**
+	 * Reads the <code>StyleSheet</code> from a snapshot file if the file
+	 * exists and was made from the given CSS source.
+	 * 
+	 * @param snapshotFile -
+	 *            the snapshot file
+	 * @param cssSource -
+	 *            the bytes of the CSS source
+	 * @param classLoader -
+	 *            the <code>ClassLoader</code> with which to resolve property
+	 *            classes
+	 * @return the <code>StyleSheet</code> or null if there is no usable
+	 *         snapshot for the CSS source
+	 */
+	public static StyleSheet read(File snapshotFile, byte[] cssSource, ClassLoader classLoader) {
+		if (!snapshotFile.isFile()) {
+			return null;
+		}
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(snapshotFile));
+			DataInputStream dataIn = new DataInputStream(in);
+			if (dataIn.readInt() != MAGIC || dataIn.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			byte[] hash = new byte[dataIn.readUnsignedByte()];
+			dataIn.readFully(hash);
+			if (!Arrays.equals(hash, hash(cssSource))) {
+				return null;
+			}
+			ObjectInputStream objectIn = new ClassLoaderObjectInputStream(in, classLoader);
+			return (StyleSheet) objectIn.readObject();
+		} catch (IOException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ClassCastException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the <code>StyleSheet</code> made from the given
+	 * CSS source. The snapshot is written to a temporary file first and then
+	 * renamed, so that a concurrent reader never sees half a snapshot.
+	 * 
+	 * @param snapshotFile -
+	 *            the snapshot file
+	 * @param cssSource -
+	 *            the bytes of the CSS source
+	 * @param styleSheet -
+	 *            the <code>StyleSheet</code> loaded from the CSS source
+	 * @return true if the snapshot was written, false if it could not be, for
+	 *         example because a property value is not serializable
+	 */
+	public static boolean write(File snapshotFile, byte[] cssSource, StyleSheet styleSheet) {
+		File dir = snapshotFile.getAbsoluteFile().getParentFile();
+		File tempFile = null;
+		FileOutputStream fileOut = null;
+		try {
+			if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+				return false;
+			}
+			tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", dir);
+			fileOut = new FileOutputStream(tempFile);
+			DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(fileOut));
+			dataOut.writeInt(MAGIC);
+			dataOut.writeInt(FORMAT_VERSION);
+			byte[] hash = hash(cssSource);
+			dataOut.writeByte(hash.length);
+			dataOut.write(hash);
+			ObjectOutputStream objectOut = new ObjectOutputStream(dataOut);
+			objectOut.writeObject(styleSheet);
+			objectOut.close();
+			fileOut = null;
+
+			snapshotFile.delete();
+			if (tempFile.renameTo(snapshotFile)) {
+				tempFile = null;
+				return true;
+			}
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			close(fileOut);
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads the whole of an <code>InputStream</code>.
+	 */
+	static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static void close(FileOutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
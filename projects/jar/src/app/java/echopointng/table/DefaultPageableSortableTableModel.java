@@ -29,6 +29,7 @@
 
 package echopointng.table;
 
+import nextapp.echo2.app.event.TableModelEvent;
 import nextapp.echo2.app.table.TableColumnModel;
 import nextapp.echo2.app.table.TableModel;
 
@@ -154,6 +155,36 @@ public class DefaultPageableSortableTableModel extends DefaultSortableTableModel
 		fireTableDataChanged();
 	}
 
+	/**
+	 * Events from the sortable model are in terms of sorted rows. As rows
+	 * come and go the current page is moved back if it no longer exists, and
+	 * updates to a single row are passed on in terms of the current page, or
+	 * dropped if the row is not on the current page. Any other change moves
+	 * rows across the page boundaries and so is passed on as a change to the
+	 * whole page.
+	 * 
+	 * @see nextapp.echo2.app.table.AbstractTableModel#fireTableChanged(nextapp.echo2.app.event.TableModelEvent)
+	 */
+	public void fireTableChanged(TableModelEvent e) {
+		int totalPages = getTotalPages();
+		if (currentPage >= totalPages) {
+			currentPage = Math.max(0, totalPages - 1);
+		}
+		int firstRow = e.getFirstRow();
+		if (e.getType() == TableModelEvent.UPDATE && firstRow >= 0 && firstRow == e.getLastRow()) {
+			int pagedRow = toPagedViewRowIndex(firstRow);
+			if (pagedRow >= 0 && pagedRow < getRowCount()) {
+				super.fireTableChanged(new TableModelEvent(this, e.getColumn(), pagedRow, pagedRow, TableModelEvent.UPDATE));
+			}
+			return;
+		}
+		if (e.getType() == TableModelEvent.INSERT || e.getType() == TableModelEvent.DELETE) {
+			super.fireTableChanged(new TableModelEvent(this));
+			return;
+		}
+		super.fireTableChanged(e);
+	}
+
 	/**
 	 * @see echopointng.table.PageableTableModel#getCurrentPage()
 	 */
@@ -29,7 +29,6 @@
 package echopointng.table;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -61,6 +60,15 @@ import nextapp.echo2.app.table.TableModel;
  * This also makes this decorator <code>TableModel</code> very light weight
  * and if no sorting is specified then no extra sorting information is kept.
  * <p>
+ * When sorting, the values of the sorted columns are read from the underlying
+ * model once and kept as sort keys, and the row mapping is sorted as a
+ * primitive <code>int[]</code>. Very large models can optionally be sorted
+ * using several threads, see <code>setParallelSortThreshold(int)</code>.
+ * <p>
+ * When the underlying model inserts, deletes or updates rows, the sort keys
+ * of just those rows are reloaded and the rows are merged into the existing
+ * row mapping rather than the whole model being sorted again.
+ * <p>
  * This code has been adapted from
  * <pre>
  * http://java.sun.com/docs/books/tutorial/uiswing/components/table.html#sorting
@@ -97,10 +105,14 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 
 	private TableColumnModel columnModel;
 
-	private SortedRow[] viewToModel;
+	private int[] viewToModel;
 
 	private int[] modelToView;
 
+	private RowSorter rowSorter;
+
+	private int parallelSortThreshold = -1;
+
 	private TableModelListener tableModelListener = new TableModelHandler();
 
 	private Map columnComparators = new HashMap();
@@ -141,6 +153,7 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 	private void clearSortingState() {
 		viewToModel = null;
 		modelToView = null;
+		rowSorter = null;
 	}
 
 	/**
@@ -267,20 +280,139 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 		return comparator;
 	}
 
-	private SortedRow[] getViewToModelSortedRows() {
-		if (viewToModel == null) {
-			int tableModelRowCount = 0;
-			if (underlyingTableModel != null) {
-				tableModelRowCount = underlyingTableModel.getRowCount();
-			}
-			viewToModel = new SortedRow[tableModelRowCount];
-			for (int row = 0; row < tableModelRowCount; row++) {
-				viewToModel[row] = new SortedRow(row);
+	/**
+	 * Returns the number of rows at or above which the model will be sorted
+	 * using several threads, or -1 if it is always sorted on the calling
+	 * thread.
+	 * 
+	 * @return the parallel sort threshold
+	 */
+	public int getParallelSortThreshold() {
+		return parallelSortThreshold;
+	}
+
+	/**
+	 * Sets the number of rows at or above which the model will be sorted
+	 * using several threads, one per available processor. The default is -1,
+	 * which means the model is always sorted on the calling thread.
+	 * 
+	 * @param parallelSortThreshold -
+	 *            the row count threshold or -1 to never sort in parallel
+	 */
+	public void setParallelSortThreshold(int parallelSortThreshold) {
+		this.parallelSortThreshold = parallelSortThreshold;
+	}
+
+	/**
+	 * Sorts the underlying model, building both the view to model and model
+	 * to view mappings. The Comparator for each sorted column is looked up
+	 * once per sort.
+	 */
+	private void sortRows() {
+		int[] columns = new int[sortingColumns.size()];
+		boolean[] descending = new boolean[columns.length];
+		Comparator[] comparators = new Comparator[columns.length];
+		int tableColCount = underlyingTableModel.getColumnCount();
+		int keyCount = 0;
+		// the last element is the most significant
+		for (int i = sortingColumns.size() - 1; i >= 0; i--) {
+			Directive directive = (Directive) sortingColumns.get(i);
+			if (directive.column >= 0 && directive.column < tableColCount) {
+				columns[keyCount] = directive.column;
+				descending[keyCount] = directive.direction == DESCENDING;
+				comparators[keyCount] = getComparator(directive.column);
+				keyCount++;
 			}
+		}
+		if (keyCount < columns.length) {
+			int[] validColumns = new int[keyCount];
+			boolean[] validDescending = new boolean[keyCount];
+			Comparator[] validComparators = new Comparator[keyCount];
+			System.arraycopy(columns, 0, validColumns, 0, keyCount);
+			System.arraycopy(descending, 0, validDescending, 0, keyCount);
+			System.arraycopy(comparators, 0, validComparators, 0, keyCount);
+			columns = validColumns;
+			descending = validDescending;
+			comparators = validComparators;
+		}
+		rowSorter = new RowSorter(underlyingTableModel, columns, descending, comparators);
+		viewToModel = rowSorter.sort(parallelSortThreshold);
+		buildModelToView();
+	}
 
-			if (isSorting()) {
-				Arrays.sort(viewToModel);
+	private void buildModelToView() {
+		modelToView = new int[viewToModel.length];
+		for (int i = 0; i < viewToModel.length; i++) {
+			modelToView[viewToModel[i]] = i;
+		}
+	}
+
+	/**
+	 * Keeps the row mapping sorted after rows have been inserted, deleted or
+	 * updated in the underlying model, and fires the matching event in terms
+	 * of sorted view rows.
+	 * 
+	 * @return false if the change could not be applied to the existing row
+	 *         mapping
+	 */
+	private boolean resortChangedRows(TableModelEvent e) {
+		int firstRow = e.getFirstRow();
+		int lastRow = e.getLastRow();
+		if (firstRow < 0 || lastRow < firstRow || lastRow == Integer.MAX_VALUE) {
+			return false;
+		}
+		int count = lastRow - firstRow + 1;
+		int oldViewIndex = -1;
+		int[] newViewToModel;
+		switch (e.getType()) {
+		case TableModelEvent.INSERT:
+			if (firstRow > viewToModel.length || underlyingTableModel.getRowCount() != viewToModel.length + count) {
+				return false;
+			}
+			newViewToModel = rowSorter.insertRows(underlyingTableModel, viewToModel, firstRow, count);
+			break;
+		case TableModelEvent.DELETE:
+			if (lastRow >= viewToModel.length || underlyingTableModel.getRowCount() != viewToModel.length - count) {
+				return false;
 			}
+			oldViewIndex = modelToView[firstRow];
+			newViewToModel = rowSorter.deleteRows(viewToModel, firstRow, count);
+			break;
+		case TableModelEvent.UPDATE:
+			if (lastRow >= viewToModel.length || underlyingTableModel.getRowCount() != viewToModel.length) {
+				return false;
+			}
+			oldViewIndex = modelToView[firstRow];
+			newViewToModel = rowSorter.updateRows(underlyingTableModel, viewToModel, firstRow, count);
+			break;
+		default:
+			return false;
+		}
+		if (newViewToModel == null) {
+			return false;
+		}
+		viewToModel = newViewToModel;
+		buildModelToView();
+
+		if (count == 1 && e.getType() == TableModelEvent.INSERT) {
+			int viewIndex = modelToView[firstRow];
+			fireTableRowsInserted(viewIndex, viewIndex);
+		} else if (count == 1 && e.getType() == TableModelEvent.DELETE) {
+			fireTableRowsDeleted(oldViewIndex, oldViewIndex);
+		} else if (count == 1 && e.getType() == TableModelEvent.UPDATE && modelToView[firstRow] == oldViewIndex) {
+			fireTableChanged(new TableModelEvent(this, e.getColumn(), oldViewIndex, oldViewIndex, TableModelEvent.UPDATE));
+		} else {
+			fireTableDataChanged();
+		}
+		return true;
+	}
+
+	/**
+	 * @return the view to model mapping or null if the rows are not sorted
+	 */
+	private int[] getViewToModelSortedRows() {
+		if (viewToModel == null && isSorting() && underlyingTableModel != null) {
+			sortRows();
 		}
 		return viewToModel;
 	}
@@ -292,22 +424,19 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 		if (viewRowIndex == -1) {
 			return -1; // ROW_OBJECT
 		} else {
-			SortedRow viewToModel[] = getViewToModelSortedRows();
+			int viewToModel[] = getViewToModelSortedRows();
 			if (viewToModel != null && viewRowIndex < viewToModel.length) {
-				return viewToModel[viewRowIndex].modelIndex;
+				return viewToModel[viewRowIndex];
 			}
 			return viewRowIndex;
 		}
 	}
 
+	/**
+	 * @return the model to view mapping or null if the rows are not sorted
+	 */
 	private int[] getModelToViewSortedRows() {
-		if (modelToView == null) {
-			int n = getViewToModelSortedRows().length;
-			modelToView = new int[n];
-			for (int i = 0; i < n; i++) {
-				modelToView[toUnsortedModelRowIndex(i)] = i;
-			}
-		}
+		getViewToModelSortedRows();
 		return modelToView;
 	}
 
@@ -368,47 +497,6 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 
 	// Helper classes
 
-	private class SortedRow implements Comparable {
-		private int modelIndex;
-
-		public SortedRow(int index) {
-			this.modelIndex = index;
-		}
-
-		public int compareTo(Object o) {
-			int row1 = modelIndex;
-			int row2 = ((SortedRow) o).modelIndex;
-
-			int tableColCount = (underlyingTableModel == null) ? -1 : underlyingTableModel.getColumnCount();
-			for (int i = sortingColumns.size() - 1; i >= 0; i--) {
-				Directive directive = (Directive) sortingColumns.get(i);
-
-				int column = directive.column;
-				if (column >= 0 && column < tableColCount) {
-					Object o1 = underlyingTableModel.getValueAt(column, row1);
-					Object o2 = underlyingTableModel.getValueAt(column, row2);
-
-					int comparison = 0;
-					// Define null less than everything, except null.
-					if (o1 == null && o2 == null) {
-						comparison = 0;
-					} else if (o1 == null) {
-						comparison = -1;
-					} else if (o2 == null) {
-						comparison = 1;
-					} else {
-						comparison = getComparator(column).compare(o1, o2);
-					}
-
-					if (comparison != 0) {
-						return directive.direction == DESCENDING ? -comparison : comparison;
-					}
-				}
-			}
-			return 0;
-		}
-	}
-
 	private class TableModelHandler implements TableModelListener {
 		public void tableChanged(TableModelEvent e) {
 			// If we're not sorting by anything, just pass the event along.
@@ -453,9 +541,16 @@ public class DefaultSortableTableModel extends AbstractTableModel implements Sor
 			// clause avoids this problem.
 			int column = e.getColumn();
 			int sortStatus = getSortDirective(column);
-			if (e.getFirstRow() == e.getLastRow() && column != TableModelEvent.ALL_COLUMNS && sortStatus == NOT_SORTED && modelToView != null) {
+			if (e.getFirstRow() == e.getLastRow() && column != TableModelEvent.ALL_COLUMNS && sortStatus == NOT_SORTED && modelToView != null
+					&& e.getType() == TableModelEvent.UPDATE && e.getFirstRow() >= 0 && e.getFirstRow() < modelToView.length) {
 				int viewIndex = getModelToViewSortedRows()[e.getFirstRow()];
-				fireTableChanged(new TableModelEvent(DefaultSortableTableModel.this, viewIndex, viewIndex, column, e.getType()));
+				fireTableChanged(new TableModelEvent(DefaultSortableTableModel.this, column, viewIndex, viewIndex, e.getType()));
+				return;
+			}
+
+			// If the rows are already sorted then just the changed rows need
+			// to be put into their new places.
+			if (viewToModel != null && resortChangedRows(e)) {
 				return;
 			}
 
@@ -0,0 +1,220 @@
+package echopointng.table;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nextapp.echo2.app.Table;
+import nextapp.echo2.app.event.TableModelEvent;
+import nextapp.echo2.app.event.TableModelListener;
+import nextapp.echo2.app.table.TableModel;
+
+import echopointng.LiveTable;
+
+/**
+ * <code>LiveTablePageCache</code> is a small LRU cache of the XHTML fragments
+ * that have been rendered for the pages of a <code>LiveTable</code>.
+ * <p>
+ * The cache listens to the <code>TableModel</code> of the
+ * <code>LiveTable</code> and is cleared whenever a
+ * <code>TableModelEvent</code> is raised or a property of the
+ * <code>LiveTable</code> changes. Each clear bumps a generation number so
+ * that pages rendered against older data are never put into the cache.
+ */
+class LiveTablePageCache implements TableModelListener, PropertyChangeListener {
+
+	private Map pages;
+
+	private int maxPages;
+
+	private int rowsPerPage = -1;
+
+	private long generation;
+
+	/** weak, so that the cache never keeps its LiveTable reachable */
+	private WeakReference modelRef;
+
+	/**
+	 * Constructs a <code>LiveTablePageCache</code> that holds at most
+	 * <code>maxPages</code> rendered pages.
+	 * 
+	 * @param maxPages -
+	 *            the maximum number of pages to keep
+	 */
+	LiveTablePageCache(int maxPages) {
+		this.maxPages = maxPages;
+		this.pages = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > LiveTablePageCache.this.maxPages;
+			}
+		};
+	}
+
+	/**
+	 * Starts listening to the given <code>LiveTable</code> and its
+	 * <code>TableModel</code>.
+	 * 
+	 * @param liveTable -
+	 *            the <code>LiveTable</code> whose pages are cached
+	 */
+	synchronized void attach(LiveTable liveTable) {
+		liveTable.addPropertyChangeListener(this);
+		setModel(liveTable.getModel());
+	}
+
+	/**
+	 * Stops listening to the given <code>LiveTable</code> and its
+	 * <code>TableModel</code> and empties the cache.
+	 * 
+	 * @param liveTable -
+	 *            the <code>LiveTable</code> whose pages are cached
+	 */
+	synchronized void detach(LiveTable liveTable) {
+		liveTable.removePropertyChangeListener(this);
+		setModel(null);
+		clear();
+	}
+
+	/**
+	 * Returns the cached XHTML for a page or null if it is not cached.
+	 * 
+	 * @param page -
+	 *            the page number
+	 * @param rowsPerPage -
+	 *            the number of rows in a page
+	 * @return the cached XHTML or null
+	 */
+	synchronized String get(int page, int rowsPerPage) {
+		if (this.rowsPerPage != rowsPerPage) {
+			return null;
+		}
+		return (String) pages.get(new Integer(page));
+	}
+
+	/**
+	 * Returns true if the page is in the cache, without affecting its LRU
+	 * position.
+	 * 
+	 * @param page -
+	 *            the page number
+	 * @param rowsPerPage -
+	 *            the number of rows in a page
+	 * @return true if the page is cached
+	 */
+	synchronized boolean contains(int page, int rowsPerPage) {
+		return this.rowsPerPage == rowsPerPage && pages.containsKey(new Integer(page));
+	}
+
+	/**
+	 * Puts the rendered XHTML of a page into the cache, as long as the cache
+	 * has not been cleared since <code>generation</code> was obtained.
+	 * 
+	 * @param page -
+	 *            the page number
+	 * @param rowsPerPage -
+	 *            the number of rows in a page
+	 * @param generation -
+	 *            the value of <code>getGeneration()</code> before the page
+	 *            was rendered
+	 * @param xhtml -
+	 *            the rendered XHTML of the page
+	 */
+	synchronized void put(int page, int rowsPerPage, long generation, String xhtml) {
+		if (generation != this.generation || maxPages <= 0) {
+			return;
+		}
+		if (this.rowsPerPage != rowsPerPage) {
+			pages.clear();
+			this.rowsPerPage = rowsPerPage;
+		}
+		pages.put(new Integer(page), xhtml);
+	}
+
+	/**
+	 * @return the current generation of the cache, which changes every time
+	 *         it is cleared
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Sets the maximum number of pages held, discarding the least recently
+	 * used pages if need be.
+	 * 
+	 * @param maxPages -
+	 *            the maximum number of pages to keep
+	 */
+	synchronized void setMaxPages(int maxPages) {
+		this.maxPages = maxPages;
+		if (pages.size() > maxPages) {
+			clear();
+		}
+	}
+
+	/**
+	 * Removes all pages from the cache
+	 */
+	synchronized void clear() {
+		pages.clear();
+		generation++;
+	}
+
+	/**
+	 * @see nextapp.echo2.app.event.TableModelListener#tableChanged(nextapp.echo2.app.event.TableModelEvent)
+	 */
+	public void tableChanged(TableModelEvent e) {
+		clear();
+	}
+
+	/**
+	 * @see java.beans.PropertyChangeListener#propertyChange(java.beans.PropertyChangeEvent)
+	 */
+	public synchronized void propertyChange(PropertyChangeEvent evt) {
+		if (Table.MODEL_CHANGED_PROPERTY.equals(evt.getPropertyName())) {
+			setModel((TableModel) evt.getNewValue());
+		}
+		clear();
+	}
+
+	private void setModel(TableModel newModel) {
+		TableModel model = modelRef == null ? null : (TableModel) modelRef.get();
+		if (model != null) {
+			model.removeTableModelListener(this);
+		}
+		modelRef = newModel == null ? null : new WeakReference(newModel);
+		if (newModel != null) {
+			newModel.addTableModelListener(this);
+		}
+	}
+}
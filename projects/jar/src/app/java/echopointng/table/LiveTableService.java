@@ -30,12 +30,23 @@ package echopointng.table;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
-import nextapp.echo2.app.Style;
+import nextapp.echo2.app.ApplicationInstance;
+import nextapp.echo2.webcontainer.ContainerInstance;
 import nextapp.echo2.webrender.Connection;
 import nextapp.echo2.webrender.ContentType;
 import nextapp.echo2.webrender.Service;
@@ -43,16 +54,25 @@ import nextapp.echo2.webrender.ServiceRegistry;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.HtmlDocument;
 import nextapp.echo2.webrender.output.XmlDocument;
+import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import echopointng.EPNG;
 import echopointng.LiveTable;
+import echopointng.util.ComponentRegistry;
 
 /** 
  * <code>LiveTableService</code> is used to provide page
  * data to a <code>LiveTable</code> component in an asynchronous manner.
+ * <p>
+ * By default the rows are streamed to the response as they are rendered,
+ * rather than being collected into one large DOM document first.  The
+ * rendered pages of each <code>LiveTable</code> are also kept in a small
+ * LRU cache, which is cleared whenever its <code>TableModel</code> changes,
+ * so that scrolling back over a page does not render it again.
  */
 
 public class LiveTableService implements Service {
@@ -80,8 +100,83 @@ public class LiveTableService implements Service {
         return DO_NOT_CACHE;
     }
     
-	private Map interestedParties = new HashMap();
+	private ComponentRegistry interestedParties = new ComponentRegistry();
 	
+	/** a weak map of LiveTable to its LiveTablePageCache */
+	private Map pageCaches = new WeakHashMap();
+	
+	private boolean streamingEnabled = true;
+	
+	private int pageCacheSize = 8;
+	
+	private boolean prefetchEnabled = false;
+	
+	private static Timer prefetchTimer;
+	
+	/**
+	 * @return true if rows are written directly to the response as they
+	 *         are rendered.
+	 */
+	public boolean isStreamingEnabled() {
+		return streamingEnabled;
+	}
+
+	/**
+	 * Controls whether rows are written directly to the response as they
+	 * are rendered or whether a complete DOM document is built first. The
+	 * page cache and prefetching are only used when streaming.
+	 * 
+	 * @param streamingEnabled -
+	 *            true to stream rows to the response
+	 */
+	public void setStreamingEnabled(boolean streamingEnabled) {
+		this.streamingEnabled = streamingEnabled;
+	}
+
+	/**
+	 * @return the maximum number of rendered pages cached per
+	 *         <code>LiveTable</code>.
+	 */
+	public int getPageCacheSize() {
+		return pageCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of rendered pages cached per
+	 * <code>LiveTable</code>. A value of 0 turns page caching off.
+	 * 
+	 * @param pageCacheSize -
+	 *            the maximum number of pages to cache
+	 */
+	public synchronized void setPageCacheSize(int pageCacheSize) {
+		this.pageCacheSize = pageCacheSize;
+		for (Iterator iter = pageCaches.values().iterator(); iter.hasNext();) {
+			((LiveTablePageCache) iter.next()).setMaxPages(pageCacheSize);
+		}
+	}
+
+	/**
+	 * @return true if the page after the ones requested is rendered into the
+	 *         page cache in the background.
+	 */
+	public boolean isPrefetchEnabled() {
+		return prefetchEnabled;
+	}
+
+	/**
+	 * Controls whether the page after the ones requested is speculatively
+	 * rendered into the page cache in the background. The background
+	 * rendering happens outside of the request thread, so only enable this
+	 * when the <code>TableModel</code> and <code>LiveTableRenderer</code>
+	 * of your <code>LiveTable</code>s can be read concurrently.
+	 * 
+	 * @param prefetchEnabled -
+	 *            true to prefetch the next page
+	 */
+	public void setPrefetchEnabled(boolean prefetchEnabled) {
+		this.prefetchEnabled = prefetchEnabled;
+	}
+
 
 	/**
 	 * Registers the <code>LiveTable</code> with the service
@@ -89,8 +184,17 @@ public class LiveTableService implements Service {
 	 * @param liveTable -  a <code>LiveTable</code> to be notified
 	 * of external events.
 	 */
-	public synchronized void register(LiveTable liveTable) {
-		interestedParties.put("c_" + liveTable.getRenderId(),liveTable);
+	public void register(LiveTable liveTable) {
+		interestedParties.register(liveTable);
+		registerPageCache(liveTable);
+	}
+	
+	private synchronized void registerPageCache(LiveTable liveTable) {
+		if (! pageCaches.containsKey(liveTable)) {
+			LiveTablePageCache pageCache = new LiveTablePageCache(pageCacheSize);
+			pageCache.attach(liveTable);
+			pageCaches.put(liveTable, pageCache);
+		}
 	}
 
 	/**
@@ -99,8 +203,29 @@ public class LiveTableService implements Service {
 	 * @param liveTable -  an <code>LiveTable</code> to be removed from
 	 * being notified of external events.
 	 */
-	public synchronized void deregister(LiveTable liveTable) {
-		interestedParties.remove(liveTable);
+	public void deregister(LiveTable liveTable) {
+		interestedParties.deregister(liveTable);
+		deregisterPageCache(liveTable);
+	}
+	
+	private synchronized void deregisterPageCache(LiveTable liveTable) {
+		LiveTablePageCache pageCache = (LiveTablePageCache) pageCaches.remove(liveTable);
+		if (pageCache != null) {
+			pageCache.detach(liveTable);
+		}
+	}
+	
+	/**
+	 * @return the <code>ComponentRegistry</code> of the
+	 *         <code>LiveTable</code>s registered with the service, which
+	 *         can be used to monitor the number of live registrations.
+	 */
+	public ComponentRegistry getRegistry() {
+		return interestedParties;
+	}
+	
+	private synchronized LiveTablePageCache getPageCache(LiveTable liveTable) {
+		return (LiveTablePageCache) pageCaches.get(liveTable);
 	}
     
 
@@ -111,11 +236,25 @@ public class LiveTableService implements Service {
     	HttpServletRequest request = conn.getRequest();
         
         String elementId = request.getParameter("elementId");
-        LiveTable liveTable = (LiveTable) interestedParties.get(elementId);
+        ContainerInstance ci = (ContainerInstance) conn.getUserInstance();
+        if (ci == null) {
+        	//
+        	// the session has expired so there are no rows to send, a normal
+        	// server action deals with that
+        	conn.setContentType(ContentType.TEXT_XML);
+        	conn.getWriter().write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><data xmlns=\"" + HtmlDocument.XHTML_1_0_NAMESPACE_URI + "\"/>");
+        	return;
+        }
+        ApplicationInstance appInstance = ci.getApplicationInstance();
+        LiveTable liveTable = (LiveTable) interestedParties.get(appInstance, elementId);
         if (liveTable == null) {
         	throw new IllegalStateException("The LiveTable " + elementId + " could not be found.");
         }
         LiveTableRenderer liveTableRenderer = (LiveTableRenderer) getRP(liveTable,LiveTable.PROPERTY_RENDERER);
+        if (streamingEnabled) {
+        	serviceStreamed(conn, ci, liveTable, liveTableRenderer);
+        	return;
+        }
 
         XmlDocument xmlDocument = new XmlDocument("data", null, null, HtmlDocument.XHTML_1_0_NAMESPACE_URI);
         Document document = xmlDocument.getDocument();
@@ -140,29 +279,164 @@ public class LiveTableService implements Service {
         xmlDocument.render(out);
     }
     
-    private static Object getRP(LiveTable liveTable, String propertyName) {
-    	Object value = liveTable.getRenderProperty(propertyName);
-    	if (value == null) {
-    		Style style = EPNG.getFallBackStyle(liveTable);
-    		if (style != null) {
-    			value = style.getProperty(propertyName);
-    		}
+    /**
+     * Writes the requested pages to the response one row at a time, taking
+     * them from the page cache where possible.
+     */
+    private void serviceStreamed(Connection conn, ContainerInstance ci, LiveTable liveTable, LiveTableRenderer liveTableRenderer) throws IOException {
+    	HttpServletRequest request = conn.getRequest();
+        int currentPage = Integer.parseInt(request.getParameter("currentPage"));
+        int rowsPerPage = getRP(liveTable,LiveTable.PROPERTY_ROWS_PER_PAGE, 100);
+        int pageFetchSize = getRP(liveTable,LiveTable.PROPERTY_PAGE_FETCH_SIZE, 2);
+        LiveTablePageCache pageCache = pageCacheSize > 0 ? getPageCache(liveTable) : null;
+        
+        conn.setContentType(ContentType.TEXT_XML);
+        PrintWriter out = conn.getWriter();
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.write("<data xmlns=\"");
+        out.write(HtmlDocument.XHTML_1_0_NAMESPACE_URI);
+        out.write("\">");
+        
+        PageWriter pageWriter = null;
+        for (int i = 0; i < pageFetchSize; i++) {
+        	int page = currentPage + i;
+        	String xhtml = pageCache == null ? null : pageCache.get(page, rowsPerPage);
+        	if (xhtml != null) {
+        		out.write(xhtml);
+        		continue;
+        	}
+        	if (pageWriter == null) {
+        		pageWriter = new PageWriter(liveTable, liveTableRenderer);
+        	}
+        	long generation = pageCache == null ? 0 : pageCache.getGeneration();
+        	StringBuffer pageBuffer = pageCache == null ? null : new StringBuffer();
+        	pageWriter.writePage(page, rowsPerPage, out, pageBuffer);
+        	if (pageCache != null) {
+        		pageCache.put(page, rowsPerPage, generation, pageBuffer.toString());
+        	}
+		}
+        out.write("</data>");
+        out.flush();
+        
+        if (prefetchEnabled && pageCache != null) {
+        	prefetch(ci, liveTable, liveTableRenderer, pageCache, currentPage + pageFetchSize, rowsPerPage);
+        }
+    }
+    
+    /**
+     * Renders the given page into the page cache on a background thread,
+     * unless it is already cached. The page is rendered while holding the
+     * lock of the <code>ContainerInstance</code> and with its
+     * <code>ApplicationInstance</code> active, just as the user interface
+     * thread renders the table.
+     */
+    private void prefetch(final ContainerInstance ci, final LiveTable liveTable, final LiveTableRenderer liveTableRenderer, final LiveTablePageCache pageCache, final int page, final int rowsPerPage) {
+    	if (page * rowsPerPage >= liveTable.getModel().getRowCount() || pageCache.contains(page, rowsPerPage)) {
+    		return;
     	}
-    	return value;
+    	TimerTask task = new TimerTask() {
+			public void run() {
+				if (pageCache.contains(page, rowsPerPage)) {
+					return;
+				}
+				long generation;
+				StringBuffer pageBuffer = new StringBuffer();
+				try {
+					synchronized (ci) {
+						generation = pageCache.getGeneration();
+						ApplicationInstance.setActive(ci.getApplicationInstance());
+						try {
+							new PageWriter(liveTable, liveTableRenderer).writePage(page, rowsPerPage, null, pageBuffer);
+						} finally {
+							ApplicationInstance.setActive(null);
+						}
+					}
+				} catch (Throwable t) {
+					// a speculative page is simply not cached, and the shared
+					// timer thread must survive whatever went wrong
+					return;
+				}
+				pageCache.put(page, rowsPerPage, generation, pageBuffer.toString());
+			}
+    	};
+    	getPrefetchTimer().schedule(task, 0);
     }
     
-    private static int getRP(LiveTable liveTable, String propertyName, int fallbackValue) {
-    	Object value = liveTable.getRenderProperty(propertyName);
-    	if (value == null) {
-    		Style style = EPNG.getFallBackStyle(liveTable);
-    		if (style != null) {
-    			value = style.getProperty(propertyName);
-    			if (value == null) {
-    				return fallbackValue;
-    			}
+    private static synchronized Timer getPrefetchTimer() {
+    	if (prefetchTimer == null) {
+    		prefetchTimer = new Timer(true);
+    	}
+    	return prefetchTimer;
+    }
+    
+    /**
+     * <code>PageWriter</code> renders the rows of a page one at a time into
+     * a scratch DOM node and serializes each of them straight away, so that
+     * only a single row is ever held as DOM.
+     */
+    private static class PageWriter {
+    	
+    	private LiveTable liveTable;
+    	private LiveTableRenderer liveTableRenderer;
+    	private Document document;
+    	private Transformer transformer;
+    	private StringWriter rowWriter = new StringWriter();
+    	
+    	private PageWriter(LiveTable liveTable, LiveTableRenderer liveTableRenderer) throws IOException {
+    		this.liveTable = liveTable;
+    		this.liveTableRenderer = liveTableRenderer;
+    		this.document = DomUtil.getDocumentBuilder().newDocument();
+    		try {
+    			transformer = DomUtil.getTransformerFactory().newTransformer();
+    		} catch (TransformerException ex) {
+    			throw new IOException("Unable to create XML transformer: " + ex);
     		}
+    		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
     	}
-    	return ((Integer) value).intValue();
+    	
+    	/**
+    	 * Writes a tbody for the page to <code>out</code> and/or
+    	 * <code>pageBuffer</code>, either of which may be null.
+    	 */
+    	private void writePage(int page, int rowsPerPage, Writer out, StringBuffer pageBuffer) throws IOException {
+            int rowStart = page * rowsPerPage; 
+            int rowEnd = rowStart + rowsPerPage;
+            write("<tbody>", out, pageBuffer);
+            for (int row = rowStart; row < rowEnd; row++) {
+            	Element tbody = document.createElement("tbody");
+            	liveTableRenderer.renderRows(liveTable, tbody, row, row + 1);
+            	
+            	StringBuffer rowBuffer = rowWriter.getBuffer();
+            	rowBuffer.setLength(0);
+            	for (Node child = tbody.getFirstChild(); child != null; child = child.getNextSibling()) {
+            		try {
+            			transformer.transform(new DOMSource(child), new StreamResult(rowWriter));
+            		} catch (TransformerException ex) {
+            			throw new IOException("Unable to render LiveTable row " + row + " : " + ex);
+            		}
+            	}
+            	write(rowBuffer.toString(), out, pageBuffer);
+            }
+            write("</tbody>", out, pageBuffer);
+    	}
+    	
+    	private void write(String text, Writer out, StringBuffer pageBuffer) throws IOException {
+    		if (out != null) {
+    			out.write(text);
+    		}
+    		if (pageBuffer != null) {
+    			pageBuffer.append(text);
+    		}
+    	}
+    }
+    
+    private static Object getRP(LiveTable liveTable, String propertyName) {
+    	return EPNG.getRP(liveTable, propertyName);
+    }
+    
+    private static int getRP(LiveTable liveTable, String propertyName, int fallbackValue) {
+    	return EPNG.getRP(liveTable, propertyName, fallbackValue);
     }
 
 }
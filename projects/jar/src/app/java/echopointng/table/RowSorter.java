@@ -0,0 +1,602 @@
+package echopointng.table;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.lang.reflect.Array;
+import java.util.Comparator;
+
+import nextapp.echo2.app.table.TableModel;
+
+/**
+ * <code>RowSorter</code> sorts the rows of a <code>TableModel</code> into
+ * an <code>int[]</code> permutation of model row indexes.
+ * <p>
+ * The values of each sorted column are read from the model exactly once and
+ * kept as sort keys. Columns of <code>Integer</code>, <code>Long</code>,
+ * <code>Short</code> or <code>Byte</code> values are kept as
+ * <code>long</code> keys and <code>Double</code> or <code>Float</code>
+ * values as <code>double</code> keys whenever they would be compared with
+ * their natural ordering. Lexically compared columns have their
+ * <code>toString()</code> values taken once. The permutation is then sorted
+ * with a stable merge sort that compares keys rather than calling back into
+ * the model.
+ * <p>
+ * Large models can optionally be sorted by several threads, each sorting a
+ * part of the rows before the parts are merged.
+ * <p>
+ * The sort keys are kept so that a sorted mapping can be maintained as rows
+ * are inserted, deleted or updated in the model, without sorting all of the
+ * rows again. A sorted mapping is always ordered by sort key and then by
+ * model row index, so rows that compare equally keep their model order.
+ */
+class RowSorter {
+
+	/** below this many rows an insertion sort is used */
+	private static final int INSERTION_SORT_THRESHOLD = 7;
+
+	/**
+	 * <code>SortKey</code> holds the sort keys of a single column.
+	 */
+	private abstract static class SortKey {
+		protected int column;
+
+		protected boolean descending;
+
+		protected boolean[] nulls;
+
+		protected SortKey(int column, boolean descending, int rowCount) {
+			this.column = column;
+			this.descending = descending;
+			this.nulls = new boolean[rowCount];
+		}
+
+		/**
+		 * Loads the key for the given model row
+		 * 
+		 * @return false if the value cannot be held by this kind of key
+		 */
+		abstract boolean load(TableModel model, int row);
+
+		/**
+		 * @return the array of keys
+		 */
+		abstract Object getKeys();
+
+		abstract void setKeys(Object keys);
+
+		/**
+		 * Opens a gap of count keys at the given row
+		 */
+		void insert(int first, int count, int rowCount) {
+			setKeys(insertGap(getKeys(), first, count, rowCount));
+			nulls = (boolean[]) insertGap(nulls, first, count, rowCount);
+		}
+
+		/**
+		 * Removes count keys from the given row
+		 */
+		void remove(int first, int count, int rowCount) {
+			setKeys(removeRange(getKeys(), first, count, rowCount));
+			nulls = (boolean[]) removeRange(nulls, first, count, rowCount);
+		}
+
+		/**
+		 * Compares the non null keys of two model rows
+		 */
+		abstract int compareValues(int row1, int row2);
+
+		int compare(int row1, int row2) {
+			int comparison;
+			// Define null less than everything, except null.
+			if (nulls[row1]) {
+				comparison = nulls[row2] ? 0 : -1;
+			} else if (nulls[row2]) {
+				comparison = 1;
+			} else {
+				comparison = compareValues(row1, row2);
+			}
+			return descending ? -comparison : comparison;
+		}
+	}
+
+	private static class LongSortKey extends SortKey {
+		private long[] keys;
+
+		private Class valueClass;
+
+		private LongSortKey(int column, boolean descending, int rowCount, Class valueClass) {
+			super(column, descending, rowCount);
+			this.keys = new long[rowCount];
+			this.valueClass = valueClass;
+		}
+
+		boolean load(TableModel model, int row) {
+			Object value = model.getValueAt(column, row);
+			if (value != null && value.getClass() != valueClass) {
+				return false;
+			}
+			nulls[row] = value == null;
+			keys[row] = value == null ? 0 : ((Number) value).longValue();
+			return true;
+		}
+
+		Object getKeys() {
+			return keys;
+		}
+
+		void setKeys(Object keys) {
+			this.keys = (long[]) keys;
+		}
+
+		int compareValues(int row1, int row2) {
+			long key1 = keys[row1];
+			long key2 = keys[row2];
+			return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+		}
+	}
+
+	private static class DoubleSortKey extends SortKey {
+		private double[] keys;
+
+		private Class valueClass;
+
+		private DoubleSortKey(int column, boolean descending, int rowCount, Class valueClass) {
+			super(column, descending, rowCount);
+			this.keys = new double[rowCount];
+			this.valueClass = valueClass;
+		}
+
+		boolean load(TableModel model, int row) {
+			Object value = model.getValueAt(column, row);
+			if (value != null && value.getClass() != valueClass) {
+				return false;
+			}
+			nulls[row] = value == null;
+			keys[row] = value == null ? 0 : ((Number) value).doubleValue();
+			return true;
+		}
+
+		Object getKeys() {
+			return keys;
+		}
+
+		void setKeys(Object keys) {
+			this.keys = (double[]) keys;
+		}
+
+		int compareValues(int row1, int row2) {
+			return Double.compare(keys[row1], keys[row2]);
+		}
+	}
+
+	private static class ObjectSortKey extends SortKey {
+		private Object[] keys;
+
+		private Comparator comparator;
+
+		private boolean lexical;
+
+		private ObjectSortKey(int column, boolean descending, int rowCount, Comparator comparator) {
+			super(column, descending, rowCount);
+			this.keys = new Object[rowCount];
+			this.comparator = comparator;
+			this.lexical = comparator == DefaultSortableTableModel.LEXICAL_COMPARATOR;
+		}
+
+		boolean load(TableModel model, int row) {
+			Object value = model.getValueAt(column, row);
+			nulls[row] = value == null;
+			if (value != null && lexical) {
+				value = value.toString();
+			}
+			keys[row] = value;
+			return true;
+		}
+
+		Object getKeys() {
+			return keys;
+		}
+
+		void setKeys(Object keys) {
+			this.keys = (Object[]) keys;
+		}
+
+		int compareValues(int row1, int row2) {
+			if (lexical) {
+				return ((String) keys[row1]).compareTo((String) keys[row2]);
+			}
+			return comparator.compare(keys[row1], keys[row2]);
+		}
+	}
+
+	private SortKey[] sortKeys;
+
+	private int rowCount;
+
+	/**
+	 * Constructs a <code>RowSorter</code> and loads the sort keys of every
+	 * row from the model.
+	 * 
+	 * @param model -
+	 *            the model to sort
+	 * @param columns -
+	 *            the columns to sort by, most significant first
+	 * @param descending -
+	 *            whether each column is sorted in descending order
+	 * @param comparators -
+	 *            the Comparator to use for each column
+	 */
+	RowSorter(TableModel model, int[] columns, boolean[] descending, Comparator[] comparators) {
+		rowCount = model.getRowCount();
+		sortKeys = new SortKey[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			sortKeys[i] = createSortKey(model, columns[i], descending[i], comparators[i]);
+			for (int row = 0; row < rowCount; row++) {
+				sortKeys[i].load(model, row);
+			}
+		}
+	}
+
+	/**
+	 * Chooses the most compact key representation for a column. Primitive
+	 * keys are only used when every value in the column is of the same
+	 * primitive wrapper class and would be compared with its natural
+	 * ordering, so the ordering is exactly that of the Comparator.
+	 */
+	private SortKey createSortKey(TableModel model, int column, boolean descending, Comparator comparator) {
+		if (comparator == DefaultSortableTableModel.COMPARABLE_COMPARATOR) {
+			Class valueClass = null;
+			for (int row = 0; row < rowCount; row++) {
+				Object value = model.getValueAt(column, row);
+				if (value == null) {
+					continue;
+				}
+				if (valueClass == null) {
+					valueClass = value.getClass();
+				} else if (valueClass != value.getClass()) {
+					valueClass = null;
+					break;
+				}
+			}
+			if (valueClass == Integer.class || valueClass == Long.class || valueClass == Short.class || valueClass == Byte.class) {
+				return new LongSortKey(column, descending, rowCount, valueClass);
+			}
+			if (valueClass == Double.class || valueClass == Float.class) {
+				return new DoubleSortKey(column, descending, rowCount, valueClass);
+			}
+		}
+		return new ObjectSortKey(column, descending, rowCount, comparator);
+	}
+
+	/**
+	 * Returns a copy of the array with a gap of count elements at first
+	 */
+	private static Object insertGap(Object array, int first, int count, int length) {
+		Object newArray = Array.newInstance(array.getClass().getComponentType(), length + count);
+		System.arraycopy(array, 0, newArray, 0, first);
+		System.arraycopy(array, first, newArray, first + count, length - first);
+		return newArray;
+	}
+
+	/**
+	 * Returns a copy of the array without the count elements at first
+	 */
+	private static Object removeRange(Object array, int first, int count, int length) {
+		Object newArray = Array.newInstance(array.getClass().getComponentType(), length - count);
+		System.arraycopy(array, 0, newArray, 0, first);
+		System.arraycopy(array, first + count, newArray, first, length - first - count);
+		return newArray;
+	}
+
+	/**
+	 * Returns true if the given column is one of the sorted columns
+	 */
+	boolean isSortColumn(int column) {
+		for (int i = 0; i < sortKeys.length; i++) {
+			if (sortKeys[i].column == column) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called when rows have been inserted into the model. The sort keys of
+	 * the new rows are loaded and they are merged into the sorted mapping.
+	 * 
+	 * @param model -
+	 *            the model the rows were inserted into
+	 * @param viewToModel -
+	 *            the current sorted mapping
+	 * @param first -
+	 *            the first inserted model row
+	 * @param count -
+	 *            the number of inserted model rows
+	 * @return the new sorted mapping or null if the rows must be sorted afresh
+	 */
+	int[] insertRows(TableModel model, int[] viewToModel, int first, int count) {
+		for (int i = 0; i < sortKeys.length; i++) {
+			sortKeys[i].insert(first, count, rowCount);
+		}
+		rowCount += count;
+		if (!loadRows(model, first, count)) {
+			return null;
+		}
+		for (int i = 0; i < viewToModel.length; i++) {
+			if (viewToModel[i] >= first) {
+				viewToModel[i] += count;
+			}
+		}
+		int[] rows = new int[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = first + i;
+		}
+		return mergeRows(viewToModel, rows);
+	}
+
+	/**
+	 * Called when rows have been deleted from the model. The rows are
+	 * removed from the sorted mapping, which otherwise keeps its order.
+	 * 
+	 * @param viewToModel -
+	 *            the current sorted mapping
+	 * @param first -
+	 *            the first deleted model row
+	 * @param count -
+	 *            the number of deleted model rows
+	 * @return the new sorted mapping
+	 */
+	int[] deleteRows(int[] viewToModel, int first, int count) {
+		for (int i = 0; i < sortKeys.length; i++) {
+			sortKeys[i].remove(first, count, rowCount);
+		}
+		rowCount -= count;
+		int last = first + count - 1;
+		int[] newViewToModel = new int[viewToModel.length - count];
+		int j = 0;
+		for (int i = 0; i < viewToModel.length; i++) {
+			int row = viewToModel[i];
+			if (row < first) {
+				newViewToModel[j++] = row;
+			} else if (row > last) {
+				newViewToModel[j++] = row - count;
+			}
+		}
+		return newViewToModel;
+	}
+
+	/**
+	 * Called when rows have been updated in the model. The sort keys of the
+	 * rows are reloaded and the rows are moved to their new positions in the
+	 * sorted mapping.
+	 * 
+	 * @param model -
+	 *            the model the rows were updated in
+	 * @param viewToModel -
+	 *            the current sorted mapping
+	 * @param first -
+	 *            the first updated model row
+	 * @param count -
+	 *            the number of updated model rows
+	 * @return the new sorted mapping or null if the rows must be sorted afresh
+	 */
+	int[] updateRows(TableModel model, int[] viewToModel, int first, int count) {
+		if (!loadRows(model, first, count)) {
+			return null;
+		}
+		int last = first + count - 1;
+		int[] otherRows = new int[viewToModel.length - count];
+		int j = 0;
+		for (int i = 0; i < viewToModel.length; i++) {
+			int row = viewToModel[i];
+			if (row < first || row > last) {
+				otherRows[j++] = row;
+			}
+		}
+		int[] rows = new int[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = first + i;
+		}
+		return mergeRows(otherRows, rows);
+	}
+
+	/**
+	 * Loads the sort keys of the given rows
+	 * 
+	 * @return false if a key could not be loaded
+	 */
+	private boolean loadRows(TableModel model, int first, int count) {
+		for (int i = 0; i < sortKeys.length; i++) {
+			for (int row = first; row < first + count; row++) {
+				if (!sortKeys[i].load(model, row)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the given rows and merges them into an already sorted mapping
+	 */
+	private int[] mergeRows(int[] sortedRows, int[] rows) {
+		if (rows.length > 1) {
+			mergeSort(rows, (int[]) rows.clone(), 0, rows.length);
+		}
+		int[] merged = new int[sortedRows.length + rows.length];
+		int p = 0;
+		int q = 0;
+		for (int i = 0; i < merged.length; i++) {
+			if (q >= rows.length || p < sortedRows.length && compareRows(sortedRows[p], rows[q]) <= 0) {
+				merged[i] = sortedRows[p++];
+			} else {
+				merged[i] = rows[q++];
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Compares two model rows by their sort keys and then by their index
+	 */
+	private int compareRows(int row1, int row2) {
+		int comparison = compare(row1, row2);
+		return comparison != 0 ? comparison : row1 - row2;
+	}
+
+	/**
+	 * Compares two model rows by their sort keys
+	 */
+	int compare(int row1, int row2) {
+		for (int i = 0; i < sortKeys.length; i++) {
+			int comparison = sortKeys[i].compare(row1, row2);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the model row indexes in sorted order. Rows that compare
+	 * equally keep their model order.
+	 * 
+	 * @param parallelThreshold -
+	 *            the number of rows at or above which several threads are
+	 *            used to sort, or -1 to always sort on the calling thread
+	 * @return the sorted view to model mapping
+	 */
+	int[] sort(int parallelThreshold) {
+		int[] rows = new int[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			rows[i] = i;
+		}
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		if (parallelThreshold < 0 || rowCount < parallelThreshold || threadCount < 2) {
+			mergeSort(rows, (int[]) rows.clone(), 0, rowCount);
+		} else {
+			parallelSort(rows, threadCount);
+		}
+		return rows;
+	}
+
+	/**
+	 * Sorts equal sized parts of the rows on their own threads and then
+	 * merges the sorted parts on the calling thread.
+	 */
+	private void parallelSort(final int[] rows, int threadCount) {
+		final int[] aux = (int[]) rows.clone();
+		final int[] bounds = new int[threadCount + 1];
+		for (int i = 0; i <= threadCount; i++) {
+			bounds[i] = (int) ((long) rowCount * i / threadCount);
+		}
+		final RuntimeException[] failure = new RuntimeException[1];
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int low = bounds[i];
+			final int high = bounds[i + 1];
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						mergeSort(rows, aux, low, high);
+					} catch (RuntimeException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			}, "RowSorter");
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < threadCount; i++) {
+			while (threads[i].isAlive()) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+		//
+		// merge the sorted parts together, left to right to keep it stable
+		for (int i = 1; i < threadCount; i++) {
+			System.arraycopy(rows, 0, aux, 0, bounds[i + 1]);
+			merge(aux, rows, 0, bounds[i], bounds[i + 1]);
+		}
+	}
+
+	/**
+	 * Stable merge sort of dest[low, high). src must hold the same values as
+	 * dest over that range on entry.
+	 */
+	private void mergeSort(int[] dest, int[] src, int low, int high) {
+		int length = high - low;
+		if (length < INSERTION_SORT_THRESHOLD) {
+			for (int i = low + 1; i < high; i++) {
+				for (int j = i; j > low && compare(dest[j - 1], dest[j]) > 0; j--) {
+					int t = dest[j];
+					dest[j] = dest[j - 1];
+					dest[j - 1] = t;
+				}
+			}
+			return;
+		}
+		int mid = (low + high) >>> 1;
+		mergeSort(src, dest, low, mid);
+		mergeSort(src, dest, mid, high);
+		if (compare(src[mid - 1], src[mid]) <= 0) {
+			System.arraycopy(src, low, dest, low, length);
+			return;
+		}
+		merge(src, dest, low, mid, high);
+	}
+
+	/**
+	 * Merges the sorted runs src[low, mid) and src[mid, high) into dest
+	 */
+	private void merge(int[] src, int[] dest, int low, int mid, int high) {
+		for (int i = low, p = low, q = mid; i < high; i++) {
+			if (q >= high || p < mid && compare(src[p], src[q]) <= 0) {
+				dest[i] = src[p++];
+			} else {
+				dest[i] = src[q++];
+			}
+		}
+	}
+}
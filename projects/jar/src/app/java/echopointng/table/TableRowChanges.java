@@ -0,0 +1,361 @@
+package echopointng.table;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.Serializable;
+
+import nextapp.echo2.app.event.TableModelEvent;
+
+/**
+ * <code>TableRowChanges</code> records the rows that have been inserted,
+ * deleted or updated in a table model since the table was last rendered, so
+ * that a rendering peer can replace only those rows rather than the whole
+ * table.
+ * <p>
+ * The operations are kept in the order they happened, each in the row
+ * co-ordinates that were current at the time, which is how
+ * <code>TableModelEvent</code>s express them. Changes that cannot be
+ * expressed as row operations, such as structure changes, mark the changes
+ * as needing a full render, as does building up more than
+ * <code>MAX_OPERATIONS</code> operations.
+ */
+public class TableRowChanges implements Serializable {
+
+	/** Operation type for deleted rows */
+	public static final int DELETE = TableModelEvent.DELETE;
+
+	/** Operation type for inserted rows */
+	public static final int INSERT = TableModelEvent.INSERT;
+
+	/** Operation type for updated rows */
+	public static final int UPDATE = TableModelEvent.UPDATE;
+
+	/** The number of operations after which a full render is preferred */
+	public static final int MAX_OPERATIONS = 64;
+
+	private int[] types = new int[8];
+
+	private int[] firstRows = new int[8];
+
+	private int[] lastRows = new int[8];
+
+	private int count;
+
+	private boolean full;
+
+	/**
+	 * Constructs an empty <code>TableRowChanges</code>
+	 */
+	public TableRowChanges() {
+	}
+
+	/**
+	 * Records the changes described by a <code>TableModelEvent</code>.
+	 * 
+	 * @param e -
+	 *            the event to record, which may be null
+	 */
+	public void tableChanged(TableModelEvent e) {
+		if (e == null) {
+			markFull();
+			return;
+		}
+		int firstRow = e.getFirstRow();
+		int lastRow = e.getLastRow();
+		if (firstRow < 0 || lastRow < firstRow || lastRow == Integer.MAX_VALUE) {
+			markFull();
+			return;
+		}
+		switch (e.getType()) {
+		case TableModelEvent.INSERT:
+			rowsInserted(firstRow, lastRow);
+			break;
+		case TableModelEvent.DELETE:
+			rowsDeleted(firstRow, lastRow);
+			break;
+		case TableModelEvent.UPDATE:
+			rowsUpdated(firstRow, lastRow);
+			break;
+		default:
+			markFull();
+		}
+	}
+
+	/**
+	 * Records that rows have been inserted
+	 * 
+	 * @param firstRow -
+	 *            the index of the first inserted row
+	 * @param lastRow -
+	 *            the index of the last inserted row
+	 */
+	public void rowsInserted(int firstRow, int lastRow) {
+		add(INSERT, firstRow, lastRow);
+	}
+
+	/**
+	 * Records that rows have been deleted
+	 * 
+	 * @param firstRow -
+	 *            the index the first deleted row had
+	 * @param lastRow -
+	 *            the index the last deleted row had
+	 */
+	public void rowsDeleted(int firstRow, int lastRow) {
+		add(DELETE, firstRow, lastRow);
+	}
+
+	/**
+	 * Records that rows have been updated
+	 * 
+	 * @param firstRow -
+	 *            the index of the first updated row
+	 * @param lastRow -
+	 *            the index of the last updated row
+	 */
+	public void rowsUpdated(int firstRow, int lastRow) {
+		if (count > 0 && types[count - 1] == UPDATE && firstRow <= lastRows[count - 1] + 1 && lastRow >= firstRows[count - 1] - 1) {
+			// overlaps or touches the previous update so widen it
+			firstRows[count - 1] = Math.min(firstRow, firstRows[count - 1]);
+			lastRows[count - 1] = Math.max(lastRow, lastRows[count - 1]);
+			return;
+		}
+		add(UPDATE, firstRow, lastRow);
+	}
+
+	/**
+	 * Marks the changes as needing the whole table to be rendered again.
+	 */
+	public void markFull() {
+		full = true;
+		count = 0;
+	}
+
+	/**
+	 * @return true if the whole table must be rendered again
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * @return true if there have been no changes
+	 */
+	public boolean isEmpty() {
+		return !full && count == 0;
+	}
+
+	/**
+	 * Forgets all changes, typically because the table has been rendered.
+	 */
+	public void clear() {
+		full = false;
+		count = 0;
+	}
+
+	/**
+	 * @return the number of row operations recorded
+	 */
+	public int getOperationCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the type of a recorded operation
+	 * 
+	 * @param index -
+	 *            the index of the operation
+	 * @return one of <code>INSERT</code>, <code>DELETE</code> or
+	 *         <code>UPDATE</code>
+	 */
+	public int getOperationType(int index) {
+		checkIndex(index);
+		return types[index];
+	}
+
+	/**
+	 * Returns the first row of a recorded operation
+	 * 
+	 * @param index -
+	 *            the index of the operation
+	 * @return the first row of the operation
+	 */
+	public int getFirstRow(int index) {
+		checkIndex(index);
+		return firstRows[index];
+	}
+
+	/**
+	 * Returns the last row of a recorded operation
+	 * 
+	 * @param index -
+	 *            the index of the operation
+	 * @return the last row of the operation
+	 */
+	public int getLastRow(int index) {
+		checkIndex(index);
+		return lastRows[index];
+	}
+
+	/**
+	 * @return the number of rows inserted less the number of rows deleted
+	 */
+	public int getRowCountDelta() {
+		int delta = 0;
+		for (int i = 0; i < count; i++) {
+			int rows = lastRows[i] - firstRows[i] + 1;
+			if (types[i] == INSERT) {
+				delta += rows;
+			} else if (types[i] == DELETE) {
+				delta -= rows;
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * Returns the lowest row whose index may have been shifted by an insert
+	 * or delete, or -1 if no rows have been inserted or deleted. Every row
+	 * from this one to the end of the table may now be at a different index
+	 * than when it was last rendered.
+	 * 
+	 * @return the first shifted row or -1
+	 */
+	public int getFirstShiftedRow() {
+		int firstShiftedRow = -1;
+		for (int i = 0; i < count; i++) {
+			if (types[i] != UPDATE && (firstShiftedRow == -1 || firstRows[i] < firstShiftedRow)) {
+				firstShiftedRow = firstRows[i];
+			}
+		}
+		return firstShiftedRow;
+	}
+
+	/**
+	 * Returns the rows, in their current co-ordinates, that have been
+	 * inserted or updated and hence need to be rendered. The rows are in
+	 * ascending order. Rows that were updated and then deleted are not
+	 * included.
+	 * 
+	 * @return the rows that need to be rendered
+	 */
+	public int[] getChangedRows() {
+		int[] rows = new int[0];
+		for (int i = 0; i < count; i++) {
+			int first = firstRows[i];
+			int last = lastRows[i];
+			int shift = last - first + 1;
+			if (types[i] == INSERT) {
+				for (int j = 0; j < rows.length; j++) {
+					if (rows[j] >= first) {
+						rows[j] += shift;
+					}
+				}
+				rows = addRange(rows, first, last);
+			} else if (types[i] == DELETE) {
+				int kept = 0;
+				for (int j = 0; j < rows.length; j++) {
+					if (rows[j] < first) {
+						rows[kept++] = rows[j];
+					} else if (rows[j] > last) {
+						rows[kept++] = rows[j] - shift;
+					}
+				}
+				int[] trimmed = new int[kept];
+				System.arraycopy(rows, 0, trimmed, 0, kept);
+				rows = trimmed;
+			} else {
+				rows = addRange(rows, first, last);
+			}
+		}
+		return rows;
+	}
+
+	private void add(int type, int firstRow, int lastRow) {
+		if (full) {
+			return;
+		}
+		if (firstRow < 0 || lastRow < firstRow) {
+			markFull();
+			return;
+		}
+		if (count == MAX_OPERATIONS) {
+			markFull();
+			return;
+		}
+		if (count == types.length) {
+			types = grow(types);
+			firstRows = grow(firstRows);
+			lastRows = grow(lastRows);
+		}
+		types[count] = type;
+		firstRows[count] = firstRow;
+		lastRows[count] = lastRow;
+		count++;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Operation index out of range : " + index);
+		}
+	}
+
+	private static int[] grow(int[] array) {
+		int[] newArray = new int[array.length * 2];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	/**
+	 * Merges the range first..last into the sorted array of rows
+	 */
+	private static int[] addRange(int[] rows, int first, int last) {
+		int[] merged = new int[rows.length + (last - first + 1)];
+		int n = 0;
+		int j = 0;
+		while (j < rows.length && rows[j] < first) {
+			merged[n++] = rows[j++];
+		}
+		for (int row = first; row <= last; row++) {
+			merged[n++] = row;
+		}
+		while (j < rows.length && rows[j] <= last) {
+			j++;
+		}
+		while (j < rows.length) {
+			merged[n++] = rows[j++];
+		}
+		if (n == merged.length) {
+			return merged;
+		}
+		int[] trimmed = new int[n];
+		System.arraycopy(merged, 0, trimmed, 0, n);
+		return trimmed;
+	}
+}
@@ -0,0 +1,357 @@
+package echopointng.text;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import echopointng.text.AutoLookupModel.Entry;
+import echopointng.util.collections.ExpiryCache;
+
+/**
+ * <code>AutoLookupResultCache</code> is a server side cache of the results of
+ * <code>AutoLookupModel.searchEntries()</code>.
+ * <p>
+ * There is one cache per <code>AutoLookupModel</code> instance and so a model
+ * shared by many users, say via a static field, shares its cached results
+ * between all of them.
+ * <p>
+ * The cache has its own limits, which by default let results live for
+ * <code>DEFAULT_MAXIMUM_AGE</code> milliseconds and keep at most
+ * <code>DEFAULT_MAXIMUM_SIZE</code> entries. The hints the model gives for
+ * the client side cache can only tighten these limits, so a model that asks
+ * for an unlimited client cache still has its server side results expire.
+ * If either the limit or the hint is 0, then nothing is cached.
+ * <p>
+ * For an <code>IndexedAutoLookupModel</code> without a maximum number of
+ * results the cache is also prefix aware. Its results are a complete list of
+ * the entries whose values match, and hence the results for "abc" are the
+ * results for "ab" that also match "abc". So when a user types another
+ * character the results are taken from the previous ones without asking the
+ * model at all. Other models may cap or otherwise shape their results, so they
+ * are always asked about every search value that is not in the cache.
+ */
+public class AutoLookupResultCache {
+
+	/** the default maximum age of cached results in milliseconds */
+	public static final int DEFAULT_MAXIMUM_AGE = 60 * 1000;
+
+	/** the default maximum number of cached entries */
+	public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+	private static final Map modelCaches = new WeakHashMap();
+
+	/**
+	 * <code>Result</code> is a cached search result, which also holds the
+	 * rendered XML of its entries once it has been rendered.
+	 */
+	static class Result {
+		private Entry[] entries;
+
+		private String xml;
+
+		Result(Entry[] entries) {
+			this.entries = entries;
+		}
+
+		Entry[] getEntries() {
+			return entries;
+		}
+
+		synchronized String getXml() {
+			return xml;
+		}
+
+		synchronized void setXml(String xml) {
+			this.xml = xml;
+		}
+	}
+
+	private static final ExpiryCache.Weigher ENTRY_COUNT_WEIGHER = new ExpiryCache.Weigher() {
+		public int weigh(Object key, Object value) {
+			return Math.max(1, ((Result) value).getEntries().length);
+		}
+	};
+
+	private ExpiryCache cache;
+
+	private int maximumCacheAge = Integer.MIN_VALUE;
+
+	private int maximumCacheSize = Integer.MIN_VALUE;
+
+	private int maximumAge = DEFAULT_MAXIMUM_AGE;
+
+	private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+	/**
+	 * Returns the <code>AutoLookupResultCache</code> for an
+	 * <code>AutoLookupModel</code>, creating it if need be.
+	 * 
+	 * @param model -
+	 *            the model in question
+	 * @return the cache of results for the model
+	 */
+	public static AutoLookupResultCache forModel(AutoLookupModel model) {
+		synchronized (modelCaches) {
+			AutoLookupResultCache resultCache = (AutoLookupResultCache) modelCaches.get(model);
+			if (resultCache == null) {
+				resultCache = new AutoLookupResultCache();
+				modelCaches.put(model, resultCache);
+			}
+			return resultCache;
+		}
+	}
+
+	/**
+	 * Throws away any cached results of an <code>AutoLookupModel</code>.
+	 * This should be called when the entries of the model change.
+	 * 
+	 * @param model -
+	 *            the model in question
+	 */
+	public static void invalidate(AutoLookupModel model) {
+		AutoLookupResultCache resultCache;
+		synchronized (modelCaches) {
+			resultCache = (AutoLookupResultCache) modelCaches.get(model);
+		}
+		if (resultCache != null) {
+			resultCache.clear();
+		}
+	}
+
+	/**
+	 * Constructs a <code>AutoLookupResultCache</code>
+	 */
+	protected AutoLookupResultCache() {
+		cache = new ExpiryCache(-1, -1, true);
+	}
+
+	/**
+	 * Throws away all the cached results
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * @return the maximum age of cached results in milliseconds or -1 if
+	 *         only the hint of the model limits it
+	 */
+	public synchronized int getMaximumAge() {
+		return maximumAge;
+	}
+
+	/**
+	 * Sets the maximum age of cached results. The
+	 * <code>getMaximumCacheAge()</code> hint of the model is used instead if
+	 * it is smaller.
+	 * 
+	 * @param maximumAge -
+	 *            the maximum age in milliseconds, 0 to cache nothing or -1
+	 *            to leave it to the model
+	 */
+	public synchronized void setMaximumAge(int maximumAge) {
+		this.maximumAge = maximumAge;
+	}
+
+	/**
+	 * @return the maximum number of cached entries or -1 if only the hint of
+	 *         the model limits it
+	 */
+	public synchronized int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Sets the maximum number of cached entries. The
+	 * <code>getMaximumCacheSize()</code> hint of the model is used instead if
+	 * it is smaller.
+	 * 
+	 * @param maximumSize -
+	 *            the maximum number of entries, 0 to cache nothing or -1 to
+	 *            leave it to the model
+	 */
+	public synchronized void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @return the underlying <code>ExpiryCache</code>, which can be used to
+	 *         inspect its statistics.
+	 */
+	public ExpiryCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Searches the model for entries that match the partial search value,
+	 * using cached results where possible.
+	 * 
+	 * @param model -
+	 *            the model to search
+	 * @param searchValue -
+	 *            the partial search value
+	 * @param matchOptions -
+	 *            the match options in play
+	 * @return a NON-NULL array of <code>AutoLookupModel.Entry</code>'s
+	 */
+	public Entry[] searchEntries(AutoLookupModel model, String searchValue, int matchOptions) {
+		return search(model, searchValue, matchOptions).getEntries();
+	}
+
+	/**
+	 * Does the search and returns the cached <code>Result</code>. The
+	 * results of a cancelled search are never cached.
+	 */
+	Result search(AutoLookupModel model, String searchValue, int matchOptions) {
+		if (searchValue == null) {
+			searchValue = "";
+		}
+		if (!configure(model)) {
+			return new Result(callModel(model, searchValue, matchOptions));
+		}
+		Object key = toKey(searchValue, matchOptions);
+		Result result = (Result) cache.get(key);
+		if (result != null) {
+			return result;
+		}
+		int prefixLength = isPrefixComplete(model) ? searchValue.length() - 1 : 0;
+		for (int length = prefixLength; length > 0; length--) {
+			Result prefixResult = (Result) cache.get(toKey(searchValue.substring(0, length), matchOptions));
+			if (prefixResult != null) {
+				result = new Result(filterEntries(prefixResult.getEntries(), searchValue, matchOptions));
+				cache.put(key, result);
+				return result;
+			}
+		}
+		long started = System.currentTimeMillis();
+		result = new Result(callModel(model, searchValue, matchOptions));
+		if (!AutoLookupSearch.isCurrentCancelled()) {
+			cache.recordLoad(System.currentTimeMillis() - started);
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the cache in line with its limits and the hints of the model.
+	 * 
+	 * @return false if the model does not allow caching
+	 */
+	private synchronized boolean configure(AutoLookupModel model) {
+		int age = limit(model.getMaximumCacheAge(), maximumAge);
+		int size = limit(model.getMaximumCacheSize(), maximumSize);
+		if (age == 0 || size == 0) {
+			return false;
+		}
+		if (age != maximumCacheAge) {
+			maximumCacheAge = age;
+			cache.setTimeToLive(age < 0 ? -1 : age);
+			cache.clear();
+		}
+		if (size != maximumCacheSize) {
+			maximumCacheSize = size;
+			cache.setMaximumWeight(size < 0 ? -1 : size, ENTRY_COUNT_WEIGHER);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the smaller of a model hint and a cache limit, either of which
+	 * may be negative for no limit
+	 */
+	private static int limit(int hint, int limit) {
+		if (limit < 0) {
+			return hint;
+		}
+		if (hint < 0) {
+			return limit;
+		}
+		return Math.min(hint, limit);
+	}
+
+	/**
+	 * Returns true if the results of the model for a search value can be
+	 * derived from its results for a prefix of that value, which is only
+	 * known to be true if the model returns every matching entry.
+	 */
+	private static boolean isPrefixComplete(AutoLookupModel model) {
+		return model instanceof IndexedAutoLookupModel && ((IndexedAutoLookupModel) model).getMaximumResults() < 0;
+	}
+
+	private static Entry[] callModel(AutoLookupModel model, String searchValue, int matchOptions) {
+		Entry[] entries = model.searchEntries(searchValue, matchOptions);
+		return entries == null ? new Entry[0] : entries;
+	}
+
+	private static Object toKey(String searchValue, int matchOptions) {
+		return matchOptions + ":" + foldCase(searchValue, matchOptions);
+	}
+
+	/**
+	 * Returns the entries whose values match the partial search value
+	 */
+	static Entry[] filterEntries(Entry[] entries, String searchValue, int matchOptions) {
+		String foldedSearchValue = foldCase(searchValue, matchOptions);
+		List matches = new ArrayList();
+		for (int i = 0; i < entries.length; i++) {
+			if (matches(foldCase(entries[i].getValue(), matchOptions), foldedSearchValue, matchOptions)) {
+				matches.add(entries[i]);
+			}
+		}
+		return (Entry[]) matches.toArray(new Entry[matches.size()]);
+	}
+
+	/**
+	 * Returns true if a value matches a partial search value, both of which
+	 * have already been passed through <code>foldCase()</code>
+	 */
+	static boolean matches(String foldedValue, String foldedSearchValue, int matchOptions) {
+		if (foldedValue == null) {
+			return false;
+		}
+		if ((matchOptions & AutoLookupModel.MATCH_ONLY_FROM_START) == AutoLookupModel.MATCH_ONLY_FROM_START) {
+			return foldedValue.startsWith(foldedSearchValue);
+		}
+		return foldedValue.indexOf(foldedSearchValue) != -1;
+	}
+
+	/**
+	 * Folds the case of a value in the same way as the client does, unless the
+	 * matching is case sensitive
+	 */
+	static String foldCase(String value, int matchOptions) {
+		if (value == null || (matchOptions & AutoLookupModel.MATCH_IS_CASE_SENSITIVE) == AutoLookupModel.MATCH_IS_CASE_SENSITIVE) {
+			return value;
+		}
+		return value.toUpperCase();
+	}
+}
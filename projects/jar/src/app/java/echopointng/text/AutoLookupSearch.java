@@ -0,0 +1,123 @@
+package echopointng.text;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+/**
+ * <code>AutoLookupSearch</code> represents a search of an
+ * <code>AutoLookupModel</code> made on behalf of an
+ * <code>AutoLookupTextFieldEx</code>.
+ * <p>
+ * When the user types another key before a search has finished, the
+ * <code>AutoLookupService</code> cancels the older search, since its results
+ * are no longer wanted. An <code>AutoLookupModel</code> that takes a while to
+ * search can call <code>AutoLookupSearch.isCurrentCancelled()</code> from
+ * within <code>searchEntries()</code> and give up early if it returns true.
+ * The results of a cancelled search are thrown away.
+ */
+public class AutoLookupSearch {
+
+	private static final ThreadLocal currentSearch = new ThreadLocal();
+
+	private String searchValue;
+
+	private int matchOptions;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructs a <code>AutoLookupSearch</code>
+	 * 
+	 * @param searchValue -
+	 *            the partial search value
+	 * @param matchOptions -
+	 *            the match options in play
+	 */
+	public AutoLookupSearch(String searchValue, int matchOptions) {
+		this.searchValue = searchValue;
+		this.matchOptions = matchOptions;
+	}
+
+	/**
+	 * @return the partial search value
+	 */
+	public String getSearchValue() {
+		return searchValue;
+	}
+
+	/**
+	 * @return the match options in play
+	 */
+	public int getMatchOptions() {
+		return matchOptions;
+	}
+
+	/**
+	 * Cancels the search
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the search has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the <code>AutoLookupSearch</code> being made on the current
+	 * thread, if any.
+	 * 
+	 * @return the current search or null
+	 */
+	public static AutoLookupSearch getCurrent() {
+		return (AutoLookupSearch) currentSearch.get();
+	}
+
+	/**
+	 * Sets the <code>AutoLookupSearch</code> being made on the current
+	 * thread.
+	 * 
+	 * @param search -
+	 *            the current search or null if there is none
+	 */
+	public static void setCurrent(AutoLookupSearch search) {
+		currentSearch.set(search);
+	}
+
+	/**
+	 * @return true if the search being made on the current thread has been
+	 *         cancelled. This is always false if there is no current search.
+	 */
+	public static boolean isCurrentCancelled() {
+		AutoLookupSearch search = getCurrent();
+		return search != null && search.isCancelled();
+	}
+}
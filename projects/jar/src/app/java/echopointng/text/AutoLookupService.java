@@ -30,20 +30,20 @@ package echopointng.text;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
+import nextapp.echo2.app.ApplicationInstance;
 import nextapp.echo2.app.Component;
-import nextapp.echo2.app.Style;
+import nextapp.echo2.webcontainer.ContainerInstance;
 import nextapp.echo2.webrender.Connection;
 import nextapp.echo2.webrender.ContentType;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.ServiceRegistry;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.HtmlDocument;
-import nextapp.echo2.webrender.output.XmlDocument;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -51,12 +51,17 @@ import org.w3c.dom.Element;
 import echopointng.AutoLookupTextFieldEx;
 import echopointng.EPNG;
 import echopointng.text.AutoLookupModel.Entry;
+import echopointng.util.ComponentRegistry;
 import echopointng.util.HtmlKit;
 import echopointng.xhtml.XhtmlFragment;
 
 /**
  * <code>AutoLookupService</code> is used to provide data to a
  * <code>AutoLookupTextFieldEx</code> component in an asynchronous manner.
+ * <p>
+ * Searches go via the <code>AutoLookupResultCache</code> of the model and a
+ * search that is still running when a newer one arrives for the same
+ * <code>AutoLookupTextFieldEx</code> is cancelled.
  */
 
 public class AutoLookupService implements Service {
@@ -85,7 +90,19 @@ public class AutoLookupService implements Service {
 		return DO_NOT_CACHE;
 	}
 
-	private Map interestedParties = new HashMap();
+	private ComponentRegistry interestedParties = new ComponentRegistry();
+
+	private Map runningSearches = new WeakHashMap();
+
+	/**
+	 * @return the <code>ComponentRegistry</code> of the
+	 *         <code>AutoLookupTextFieldEx</code>s registered with the
+	 *         service, which can be used to monitor the number of live
+	 *         registrations.
+	 */
+	public ComponentRegistry getRegistry() {
+		return interestedParties;
+	}
 
 	/**
 	 * Registers the <code>AutoLookupTextFieldEx</code> with the service
@@ -94,8 +111,8 @@ public class AutoLookupService implements Service {
 	 *            a <code>AutoLookupTextFieldEx</code> to be notified of
 	 *            external events.
 	 */
-	public synchronized void register(AutoLookupTextFieldEx textFieldEx) {
-		interestedParties.put("c_" + textFieldEx.getRenderId(), textFieldEx);
+	public void register(AutoLookupTextFieldEx textFieldEx) {
+		interestedParties.register(textFieldEx);
 	}
 
 	/**
@@ -105,8 +122,8 @@ public class AutoLookupService implements Service {
 	 *            an <code>AutoLookupTextFieldEx</code> to be removed from
 	 *            being notified of external events.
 	 */
-	public synchronized void deregister(AutoLookupTextFieldEx textFieldEx) {
-		interestedParties.remove("c_" + textFieldEx.getRenderId());
+	public void deregister(AutoLookupTextFieldEx textFieldEx) {
+		interestedParties.deregister(textFieldEx);
 	}
 
 	/**
@@ -117,7 +134,16 @@ public class AutoLookupService implements Service {
 
 		String elementId = request.getParameter("elementId");
 		String searchValue = request.getParameter("searchValue");
-		AutoLookupTextFieldEx textFieldEx = (AutoLookupTextFieldEx) interestedParties.get(elementId);
+		ContainerInstance ci = (ContainerInstance) conn.getUserInstance();
+		if (ci == null) {
+			//
+			// the session has expired so there is nothing to look up, a
+			// normal server action deals with that
+			writeData(conn, "");
+			return;
+		}
+		ApplicationInstance appInstance = ci.getApplicationInstance();
+		AutoLookupTextFieldEx textFieldEx = (AutoLookupTextFieldEx) interestedParties.get(appInstance, elementId);
 		if (textFieldEx == null) {
 			throw new IllegalStateException("The TextFieldEx " + elementId + " could not be found.");
 		}
@@ -126,23 +152,86 @@ public class AutoLookupService implements Service {
 			return; // nothing to do
 		}
 
-		XmlDocument xmlDocument = new XmlDocument("data", null, null, HtmlDocument.XHTML_1_0_NAMESPACE_URI);
-		Document doc = xmlDocument.getDocument();
-		Element dataElement = doc.getDocumentElement();
-		Element autoLookupModelE = doc.createElement("autoLookupModel");
+		AutoLookupSearch search = new AutoLookupSearch(searchValue, autoLookupModel.getMatchOptions());
+		AutoLookupSearch previousSearch;
+		synchronized (runningSearches) {
+			previousSearch = (AutoLookupSearch) runningSearches.put(textFieldEx, search);
+		}
+		if (previousSearch != null) {
+			previousSearch.cancel();
+		}
+		AutoLookupResultCache.Result result;
+		AutoLookupSearch.setCurrent(search);
+		try {
+			result = AutoLookupResultCache.forModel(autoLookupModel).search(autoLookupModel, searchValue, search.getMatchOptions());
+		} finally {
+			AutoLookupSearch.setCurrent(null);
+			synchronized (runningSearches) {
+				if (runningSearches.get(textFieldEx) == search) {
+					runningSearches.remove(textFieldEx);
+				}
+			}
+		}
 
-		Entry[] entries = autoLookupModel.searchEntries(searchValue, autoLookupModel.getMatchOptions());
-		if (entries != null) {
-			for (int i = 0; i < entries.length; i++) {
-				Element entryE = createEntryXml(doc,entries[i]);
-				autoLookupModelE.appendChild(entryE);
+		StringBuffer xml = new StringBuffer();
+		// a cancelled search has been superseded so its results are not wanted
+		if (!search.isCancelled()) {
+			String entriesXml = result.getXml();
+			if (entriesXml == null) {
+				StringBuffer sb = new StringBuffer();
+				Entry[] entries = result.getEntries();
+				for (int i = 0; i < entries.length; i++) {
+					appendEntryXml(sb, entries[i]);
+				}
+				entriesXml = sb.toString();
+				result.setXml(entriesXml);
 			}
+			xml.append("<autoLookupModel>").append(entriesXml).append("</autoLookupModel>");
 		}
-		dataElement.appendChild(autoLookupModelE);
+		writeData(conn, xml.toString());
+	}
+
+	/**
+	 * Writes the "data" XML document that answers a lookup request.
+	 * 
+	 * @param conn -
+	 *            the connection to write to
+	 * @param contentXml -
+	 *            the XML content of the data element
+	 */
+	private static void writeData(Connection conn, String contentXml) throws IOException {
+		StringBuffer xml = new StringBuffer();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<data xmlns=\"").append(HtmlDocument.XHTML_1_0_NAMESPACE_URI).append("\">");
+		xml.append(contentXml);
+		xml.append("</data>");
 
 		conn.setContentType(ContentType.TEXT_XML);
 		PrintWriter out = conn.getWriter();
-		xmlDocument.render(out);
+		out.write(xml.toString());
+	}
+
+	/**
+	 * Appends the "entry" XML message that represents this Entry. This is the
+	 * text form of <code>createEntryXml()</code>.
+	 * 
+	 * @param sb -
+	 *            the StringBuffer to append to
+	 * @param entry -
+	 *            the lookup entry
+	 */
+	public static void appendEntryXml(StringBuffer sb, Entry entry) {
+		String value = entry.getValue();
+		String sortValue = entry.getSortValue();
+		XhtmlFragment xhtmlFrag = entry.getXhtmlFragment();
+		String xhtml = xhtmlFrag == null ? value : xhtmlFrag.toString();
+
+		sortValue = (sortValue != null ? sortValue : value);
+
+		sb.append("<entry><value><![CDATA[").append(HtmlKit.encode(value));
+		sb.append("]]></value><sortValue><![CDATA[").append(HtmlKit.encode(sortValue));
+		sb.append("]]></sortValue><xhtml><![CDATA[").append(HtmlKit.encode(xhtml));
+		sb.append("]]></xhtml></entry>");
 	}
 
 	/**
@@ -182,13 +271,6 @@ public class AutoLookupService implements Service {
 	}
 
 	private static Object getRP(Component component, String propertyName) {
-		Object value = component.getRenderProperty(propertyName);
-		if (value == null) {
-			Style style = EPNG.getFallBackStyle(component);
-			if (style != null) {
-				value = style.getProperty(propertyName);
-			}
-		}
-		return value;
+		return EPNG.getRP(component, propertyName);
 	}
 }
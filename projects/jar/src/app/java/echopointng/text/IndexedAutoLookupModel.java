@@ -0,0 +1,338 @@
+package echopointng.text;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <code>IndexedAutoLookupModel</code> is an <code>AutoLookupModel</code>
+ * that keeps all of its entries in memory on the server and searches them
+ * via an index.
+ * <p>
+ * This suits models that would otherwise send all their entries to the client
+ * via <code>prePopulate()</code>, which is not practical once there are many
+ * thousands of them. Instead the entries are sorted by value and searches that
+ * match from the start of the value are found with a binary search. Searches
+ * that match anywhere in the value scan the sorted values, and stop early if
+ * the search is cancelled by a newer one.
+ * <p>
+ * By default no entries are pre-populated on the client and every search
+ * returns all of the matching entries.  A maximum number of results can be set
+ * but note that the client cache assumes that the results of a search are
+ * complete, so a model with a maximum number of results should have a maximum
+ * cache age of 0.
+ */
+public class IndexedAutoLookupModel implements AutoLookupModel {
+
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	private Entry[] entries;
+
+	private int matchOptions;
+
+	private int maximumCacheAge = -1;
+
+	private int maximumCacheSize = -1;
+
+	private int maximumResults = -1;
+
+	private boolean prePopulated;
+
+	/*
+	 * the sorted, case folded values and the entries they belong to, one for
+	 * case sensitive and one for case insensitive matching. They are built
+	 * when first needed.
+	 */
+	private Index caseSensitiveIndex;
+
+	private Index caseInsensitiveIndex;
+
+	private static class Index {
+		private String[] values;
+
+		private Entry[] entries;
+	}
+
+	/**
+	 * Constructs a <code>IndexedAutoLookupModel</code> with no entries
+	 */
+	public IndexedAutoLookupModel() {
+		this(new Entry[0]);
+	}
+
+	/**
+	 * Constructs a <code>IndexedAutoLookupModel</code> that matches anywhere
+	 * in the value and ignores case
+	 * 
+	 * @param entries -
+	 *            the entries of the model
+	 */
+	public IndexedAutoLookupModel(Entry[] entries) {
+		this(entries, 0);
+	}
+
+	/**
+	 * Constructs a <code>IndexedAutoLookupModel</code>
+	 * 
+	 * @param entries -
+	 *            the entries of the model
+	 * @param matchOptions -
+	 *            the match options of the model
+	 */
+	public IndexedAutoLookupModel(Entry[] entries, int matchOptions) {
+		this.matchOptions = matchOptions;
+		setEntries(entries);
+	}
+
+	/**
+	 * @return a copy of the entries of the model
+	 */
+	public synchronized Entry[] getEntries() {
+		Entry[] copy = new Entry[entries.length];
+		System.arraycopy(entries, 0, copy, 0, entries.length);
+		return copy;
+	}
+
+	/**
+	 * Sets the entries of the model. Any cached search results of the model
+	 * are thrown away.
+	 * 
+	 * @param entries -
+	 *            the new entries of the model
+	 */
+	public void setEntries(Entry[] entries) {
+		if (entries == null) {
+			throw new IllegalArgumentException("entries must be non null");
+		}
+		Entry[] copy = new Entry[entries.length];
+		System.arraycopy(entries, 0, copy, 0, entries.length);
+		synchronized (this) {
+			this.entries = copy;
+			caseSensitiveIndex = null;
+			caseInsensitiveIndex = null;
+		}
+		AutoLookupResultCache.invalidate(this);
+	}
+
+	/**
+	 * @see echopointng.text.AutoLookupModel#getMatchOptions()
+	 */
+	public int getMatchOptions() {
+		return matchOptions;
+	}
+
+	/**
+	 * Sets the match options of the model. Any cached search results of the
+	 * model are thrown away.
+	 * 
+	 * @param matchOptions -
+	 *            the new match options
+	 */
+	public void setMatchOptions(int matchOptions) {
+		this.matchOptions = matchOptions;
+		AutoLookupResultCache.invalidate(this);
+	}
+
+	/**
+	 * @see echopointng.text.AutoLookupModel#getMaximumCacheAge()
+	 */
+	public int getMaximumCacheAge() {
+		return maximumCacheAge;
+	}
+
+	/**
+	 * Sets the maximum age in milliseconds of cached entries
+	 * 
+	 * @param maximumCacheAge -
+	 *            the new maximum cache age or -1 for no limit
+	 */
+	public void setMaximumCacheAge(int maximumCacheAge) {
+		this.maximumCacheAge = maximumCacheAge;
+	}
+
+	/**
+	 * @see echopointng.text.AutoLookupModel#getMaximumCacheSize()
+	 */
+	public int getMaximumCacheSize() {
+		return maximumCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of cached entries
+	 * 
+	 * @param maximumCacheSize -
+	 *            the new maximum cache size or -1 for no limit
+	 */
+	public void setMaximumCacheSize(int maximumCacheSize) {
+		this.maximumCacheSize = maximumCacheSize;
+	}
+
+	/**
+	 * @return the maximum number of entries returned by a search or -1 if
+	 *         there is no limit
+	 */
+	public int getMaximumResults() {
+		return maximumResults;
+	}
+
+	/**
+	 * Sets the maximum number of entries returned by a search. Any cached
+	 * search results of the model are thrown away.
+	 * 
+	 * @param maximumResults -
+	 *            the new maximum number of results or -1 for no limit
+	 */
+	public void setMaximumResults(int maximumResults) {
+		this.maximumResults = maximumResults;
+		AutoLookupResultCache.invalidate(this);
+	}
+
+	/**
+	 * @return true if all the entries are sent to the client via
+	 *         <code>prePopulate()</code>
+	 */
+	public boolean isPrePopulated() {
+		return prePopulated;
+	}
+
+	/**
+	 * Sets whether all the entries are sent to the client via
+	 * <code>prePopulate()</code>. This is only sensible for small models.
+	 * 
+	 * @param prePopulated -
+	 *            true if all the entries are pre-populated
+	 */
+	public void setPrePopulated(boolean prePopulated) {
+		this.prePopulated = prePopulated;
+	}
+
+	/**
+	 * @see echopointng.text.AutoLookupModel#prePopulate()
+	 */
+	public Entry[] prePopulate() {
+		return prePopulated ? getEntries() : new Entry[0];
+	}
+
+	/**
+	 * @see echopointng.text.AutoLookupModel#searchEntries(java.lang.String,
+	 *      int)
+	 */
+	public Entry[] searchEntries(String partialSearchValue, int matchOptions) {
+		if (partialSearchValue == null || partialSearchValue.length() == 0) {
+			return new Entry[0];
+		}
+		Index index = getIndex(matchOptions);
+		String searchValue = AutoLookupResultCache.foldCase(partialSearchValue, matchOptions);
+		List matches = new ArrayList();
+		if ((matchOptions & MATCH_ONLY_FROM_START) == MATCH_ONLY_FROM_START) {
+			for (int i = lowerBound(index.values, searchValue); i < index.values.length; i++) {
+				if (!index.values[i].startsWith(searchValue) || isFull(matches)) {
+					break;
+				}
+				matches.add(index.entries[i]);
+			}
+		} else {
+			for (int i = 0; i < index.values.length; i++) {
+				if (i % CANCEL_CHECK_INTERVAL == 0 && AutoLookupSearch.isCurrentCancelled()) {
+					break;
+				}
+				if (index.values[i].indexOf(searchValue) != -1) {
+					if (isFull(matches)) {
+						break;
+					}
+					matches.add(index.entries[i]);
+				}
+			}
+		}
+		return (Entry[]) matches.toArray(new Entry[matches.size()]);
+	}
+
+	private boolean isFull(List matches) {
+		return maximumResults >= 0 && matches.size() >= maximumResults;
+	}
+
+	/**
+	 * Returns the index of the first value that is not less than the search
+	 * value
+	 */
+	private static int lowerBound(String[] values, String searchValue) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid].compareTo(searchValue) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index for the case sensitivity of the match options,
+	 * building it if need be
+	 */
+	private synchronized Index getIndex(int matchOptions) {
+		boolean caseSensitive = (matchOptions & MATCH_IS_CASE_SENSITIVE) == MATCH_IS_CASE_SENSITIVE;
+		Index index = caseSensitive ? caseSensitiveIndex : caseInsensitiveIndex;
+		if (index != null) {
+			return index;
+		}
+		final String[] foldedValues = new String[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			String value = entries[i].getValue();
+			foldedValues[i] = value == null ? "" : AutoLookupResultCache.foldCase(value, matchOptions);
+			order[i] = new Integer(i);
+		}
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return foldedValues[((Integer) o1).intValue()].compareTo(foldedValues[((Integer) o2).intValue()]);
+			}
+		});
+		index = new Index();
+		index.values = new String[order.length];
+		index.entries = new Entry[order.length];
+		for (int i = 0; i < order.length; i++) {
+			int entryIndex = order[i].intValue();
+			index.values[i] = foldedValues[entryIndex];
+			index.entries[i] = entries[entryIndex];
+		}
+		if (caseSensitive) {
+			caseSensitiveIndex = index;
+		} else {
+			caseInsensitiveIndex = index;
+		}
+		return index;
+	}
+}
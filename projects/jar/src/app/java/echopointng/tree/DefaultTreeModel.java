@@ -37,8 +37,6 @@ package echopointng.tree;
  *
  */
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 import nextapp.echo2.app.event.EventListenerList;
 
@@ -65,9 +63,11 @@ public class DefaultTreeModel implements TreeModel, java.io.Serializable {
 	 */
 	protected boolean asksAllowsChildren;
 
-	/** Map of Node identifiers keyed by the Nodes themselves */
+	/** Map of Node identifiers keyed by the Nodes themselves, kept by nodeIdIndex */
 	protected HashMap nodeIds = new HashMap();
-	private int nextNodeId = 0;
+	
+	/** Index of Node identifiers, pruned as Nodes are removed */
+	protected NodeIdIndex nodeIdIndex = new NodeIdIndex(nodeIds);
 	
 	/**
 	 * Creates a tree in which any node can have children.
@@ -416,6 +416,11 @@ public class DefaultTreeModel implements TreeModel, java.io.Serializable {
 	public void nodesWereRemoved(TreeNode node, int[] childIndices, Object[] removedChildren) {
 		if (node != null && childIndices != null) {
 			fireTreeNodesRemoved(this, getPathToRoot(node), childIndices, removedChildren);
+			if (removedChildren != null) {
+				for (int i = 0; i < removedChildren.length; i++) {
+					nodeIdIndex.removeSubtree(this, removedChildren[i]);
+				}
+			}
 		}
 	}
 
@@ -482,6 +487,7 @@ public class DefaultTreeModel implements TreeModel, java.io.Serializable {
 		if (root == null)
 			throw new IllegalArgumentException("Root of tree is not allowed to be null");
 		this.root = root;
+		nodeIdIndex.clear();
 		nodeStructureChanged(root);
 	}
 
@@ -502,26 +508,14 @@ public class DefaultTreeModel implements TreeModel, java.io.Serializable {
 	 * @see echopointng.tree.TreeModel#getNodeId(java.lang.Object)
 	 */
 	public String getNodeId(Object node) {
-		Integer nodeId = (Integer) nodeIds.get(node);
-		if (nodeId == null) {
-			nodeId = new Integer(nextNodeId++);
-			nodeIds.put(node, nodeId);
-		}
-		return String.valueOf(nodeId);
+		return nodeIdIndex.getNodeId(node);
 	}
 	
 	/**
 	 * @see echopointng.tree.TreeModel#getNodeById(java.lang.String)
 	 */
 	public Object getNodeById(String id) {
-		Iterator iter = nodeIds.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry entry = (Entry) iter.next();
-			if (String.valueOf(entry.getValue()).equals(id)) {
-				return entry.getKey();
-			}
-		}
-		return null;
+		return nodeIdIndex.getNodeById(id);
 	}
 
 }
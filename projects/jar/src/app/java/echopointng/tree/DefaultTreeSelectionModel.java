@@ -39,12 +39,27 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.Serializable;
 import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.Vector;
 
 import nextapp.echo2.app.event.EventListenerList;
 
 /**
- * A default implementation of <code>TreeSelectionModel</code>.  
+ * A default implementation of <code>TreeSelectionModel</code>.
+ * <p>
+ * The selected paths are indexed in a <code>LinkedHashSet</code> that keeps
+ * them in selection order, and the rows they are displayed at are held in a
+ * <code>BitSet</code> that is recalculated through the <code>RowMapper</code>
+ * whenever the selection changes. Membership tests are therefore constant
+ * time and bulk changes are linear in the number of paths involved. When the
+ * rows themselves change, because nodes are expanded, collapsed, inserted or
+ * removed, the owner of the <code>RowMapper</code> calls
+ * <code>invalidateRowSelection()</code> and the rows are recalculated the
+ * next time they are asked for. Each
+ * call that changes the selection fires a single
+ * <code>TreeSelectionEvent</code> describing all of the changed paths.
  */
 public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializable {
 
@@ -77,9 +92,19 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	/** Event listener list. */
 	protected EventListenerList listenerList = new EventListenerList();
 
-	/** Handles maintaining the list selection model. */
+	/** Handles maintaining the list selection model.  The selected rows
+	 * are now held in <code>selectedRows</code> and this is no longer updated. */
 	protected TreeListSelectionModel listSelectionModel;
 
+	/** The rows of the selected paths, as last reported by the RowMapper. */
+	protected BitSet selectedRows;
+
+	/* true if the rows have changed since selectedRows was calculated */
+	private boolean rowSelectionInvalid;
+
+	/** The selected paths in selection order, used for membership tests. */
+	protected LinkedHashSet selectedPaths;
+
 	/** Provides a row for a given path. */
 	transient protected RowMapper rowMapper;
 
@@ -98,6 +123,8 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	 */
 	public DefaultTreeSelectionModel() {
 		listSelectionModel = new TreeListSelectionModel();
+		selectedRows = new BitSet();
+		selectedPaths = new LinkedHashSet();
 		selectionMode = DISCONTIGUOUS_TREE_SELECTION;
 		leadIndex = leadRow = -1;
 	}
@@ -152,42 +179,15 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 					setSelectionPaths(newPaths);
 				}
 			} else {
-				boolean didCopyPaths, inSelection;
-				int counter, validCount;
-				int oldCount, oldCounter;
 				TreePath beginLeadPath = leadPath;
 				Vector cPaths = null;
 
-				if (selection == null)
-					oldCount = 0;
-				else
-					oldCount = selection.length;
-				didCopyPaths = false;
 				leadPath = null;
 				/* Determine the paths that aren't currently in the
 				   selection. */
-				for (counter = 0, validCount = 0; counter < paths.length; counter++) {
+				for (int counter = 0; counter < paths.length; counter++) {
 					if (paths[counter] != null) {
-						inSelection = false;
-						for (oldCounter = 0; oldCounter < oldCount; oldCounter++) {
-							if (paths[counter].equals(selection[oldCounter])) {
-								oldCounter = oldCount;
-								if (!didCopyPaths) {
-									/* Copy the paths so that we can mess with
-									   the array. */
-									TreePath[] copiedPaths;
-
-									copiedPaths = new TreePath[paths.length];
-									System.arraycopy(paths, 0, copiedPaths, 0, paths.length);
-									paths = copiedPaths;
-									didCopyPaths = true;
-								}
-								paths[counter] = null;
-								inSelection = true;
-							}
-						}
-						if (!inSelection) {
-							validCount++;
+						if (selectedPaths.add(paths[counter])) {
 							if (cPaths == null)
 								cPaths = new Vector();
 							cPaths.addElement(new TreeSpot(paths[counter], true));
@@ -200,27 +200,8 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 				if (leadPath == null)
 					leadPath = beginLeadPath;
 
-				if (validCount > 0) {
-					TreePath newSelection[] = new TreePath[oldCount + validCount];
-
-					/* And build the new selection. */
-					if (oldCount > 0)
-						System.arraycopy(selection, 0, newSelection, 0, oldCount);
-					if (validCount != paths.length) {
-						/* Some of the paths in paths are already in
-						   the selection. */
-						int validCounter;
-
-						for (counter = validCounter = 0; counter < paths.length; counter++) {
-							if (paths[counter] != null)
-								newSelection[oldCount + validCounter++] = paths[counter];
-						}
-					} else
-						System.arraycopy(paths, 0, newSelection, oldCount, validCount);
-
-					selection = newSelection;
-
-					insureUniqueness();
+				if (cPaths != null) {
+					updateSelectionArray();
 
 					updateLeadIndex();
 
@@ -252,14 +233,12 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 			int anIndex, counter, min;
 			int pathCount = paths.length;
 			int validCount = 0;
-			TreePath[] tempPath = new TreePath[1];
+			int[] rows = getRowsForPaths(paths);
 
-			tempPath[0] = paths[0];
-			min = rowMapper.getRowsForPaths(tempPath)[0];
+			min = rows[0];
 			for (counter = 0; counter < pathCount; counter++) {
 				if (paths[counter] != null) {
-					tempPath[0] = paths[counter];
-					anIndex = rowMapper.getRowsForPaths(tempPath)[0];
+					anIndex = rows[counter];
 					if (anIndex == -1 || anIndex < (min - pathCount) || anIndex > (min + pathCount))
 						return false;
 					if (anIndex < min)
@@ -286,26 +265,19 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 		if (paths == null || paths.length == 0 || rowMapper == null || selection == null || selectionMode == TreeSelectionModel.DISCONTIGUOUS_TREE_SELECTION)
 			return true;
 		else {
-			BitSet bitSet = new BitSet();
+			BitSet bitSet = (BitSet) getSelectedRows().clone();
 			int anIndex;
 			int counter;
-			int min = listSelectionModel.getMinSelectedIndex();
-			int max = listSelectionModel.getMaxSelectedIndex();
-			TreePath[] tempPath = new TreePath[1];
+			int min = getMinSelectionRow();
+			int max = getMaxSelectionRow();
+			int[] rows = getRowsForPaths(paths);
 
-			if (min != -1) {
-				for (counter = min; counter <= max; counter++) {
-					if (listSelectionModel.isSelectedIndex(min))
-						bitSet.set(counter);
-				}
-			} else {
-				tempPath[0] = paths[0];
-				min = max = rowMapper.getRowsForPaths(tempPath)[0];
+			if (min == -1) {
+				min = max = rows[0];
 			}
 			for (counter = paths.length - 1; counter >= 0; counter--) {
 				if (paths[counter] != null) {
-					tempPath[0] = paths[counter];
-					anIndex = rowMapper.getRowsForPaths(tempPath)[0];
+					anIndex = rows[counter];
 					min = Math.min(anIndex, min);
 					max = Math.max(anIndex, max);
 					if (anIndex == -1)
@@ -328,38 +300,35 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 		if (rowMapper == null || selection == null || selectionMode == TreeSelectionModel.DISCONTIGUOUS_TREE_SELECTION)
 			return true;
 		else {
-			boolean found;
 			BitSet bitSet = new BitSet();
-			int counter, rCounter;
-			int pathCount = paths.length;
+			int counter;
 			int anIndex;
 			int min = -1;
 			int validCount = 0;
-			TreePath[] tPaths = new TreePath[pathCount];
-			TreePath[] tempPath = new TreePath[1];
-
-			/* Determine the rows for the removed entries. */
-			System.arraycopy(paths, 0, tPaths, 0, pathCount);
-			for (counter = selection.length - 1; counter >= 0; counter--) {
-				found = false;
-				for (rCounter = 0; rCounter < pathCount; rCounter++) {
-					if (tPaths[rCounter] != null && selection[counter].equals(tPaths[rCounter])) {
-						tPaths[rCounter] = null;
-						found = true;
-						break;
-					}
-				}
-				if (!found) {
-					tempPath[0] = selection[counter];
-					anIndex = rowMapper.getRowsForPaths(tempPath)[0];
-					if (anIndex != -1 && !bitSet.get(anIndex)) {
-						validCount++;
-						if (min == -1)
-							min = anIndex;
-						else
-							min = Math.min(min, anIndex);
-						bitSet.set(anIndex);
-					}
+			Set removed = new HashSet();
+			Vector remaining = new Vector(selection.length);
+
+			/* Determine the rows for the remaining entries. */
+			for (counter = 0; counter < paths.length; counter++) {
+				if (paths[counter] != null)
+					removed.add(paths[counter]);
+			}
+			for (counter = 0; counter < selection.length; counter++) {
+				if (!removed.contains(selection[counter]))
+					remaining.addElement(selection[counter]);
+			}
+			TreePath[] remainingPaths = new TreePath[remaining.size()];
+			remaining.copyInto(remainingPaths);
+			int[] rows = rowMapper.getRowsForPaths(remainingPaths);
+			for (counter = 0; counter < rows.length; counter++) {
+				anIndex = rows[counter];
+				if (anIndex != -1 && !bitSet.get(anIndex)) {
+					validCount++;
+					if (min == -1)
+						min = anIndex;
+					else
+						min = Math.min(min, anIndex);
+					bitSet.set(anIndex);
 				}
 			}
 			/* Make sure they are contiguous. */
@@ -388,6 +357,7 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 			leadPath = null;
 			leadIndex = leadRow = -1;
 			selection = null;
+			selectedPaths.clear();
 			resetRowSelection();
 			fireValueChanged(event);
 		}
@@ -414,19 +384,20 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	 * added.
 	 */
 	public int getLeadSelectionRow() {
+		getSelectedRows();
 		return leadRow;
 	}
 	/**
 	  * Gets the last selected row.
 	  */
 	public int getMaxSelectionRow() {
-		return listSelectionModel.getMaxSelectedIndex();
+		return getSelectedRows().length() - 1;
 	}
 	/**
 	  * Gets the first selected row.
 	  */
 	public int getMinSelectionRow() {
-		return listSelectionModel.getMinSelectedIndex();
+		return getSelectedRows().nextSetBit(0);
 	}
 	/**
 	 * Returns the RowMapper instance that is able to map a path to a
@@ -435,6 +406,32 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	public RowMapper getRowMapper() {
 		return rowMapper;
 	}
+	/**
+	 * Returns the rows for the given paths in a single call to the
+	 * RowMapper.  Null entries in <code>paths</code> are given a row of -1.
+	 */
+	private int[] getRowsForPaths(TreePath[] paths) {
+		int pathCount = paths.length;
+		int validCount = 0;
+		for (int counter = 0; counter < pathCount; counter++) {
+			if (paths[counter] != null)
+				validCount++;
+		}
+		if (validCount == pathCount)
+			return rowMapper.getRowsForPaths(paths);
+
+		TreePath[] validPaths = new TreePath[validCount];
+		for (int counter = 0, validCounter = 0; counter < pathCount; counter++) {
+			if (paths[counter] != null)
+				validPaths[validCounter++] = paths[counter];
+		}
+		int[] validRows = rowMapper.getRowsForPaths(validPaths);
+		int[] rows = new int[pathCount];
+		for (int counter = 0, validCounter = 0; counter < pathCount; counter++) {
+			rows[counter] = (paths[counter] == null) ? -1 : validRows[validCounter++];
+		}
+		return rows;
+	}
 	/**
 	 * Returns the number of paths that are selected.
 	 */
@@ -485,11 +482,11 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	 */
 	protected void insureRowContinuity() {
 		if (selectionMode == TreeSelectionModel.CONTIGUOUS_TREE_SELECTION && selection != null && rowMapper != null) {
-			int min = listSelectionModel.getMinSelectedIndex();
+			int min = getMinSelectionRow();
 
 			if (min != -1) {
-				for (int counter = min, maxCounter = listSelectionModel.getMaxSelectedIndex(); counter <= maxCounter; counter++) {
-					if (!listSelectionModel.isSelectedIndex(counter)) {
+				for (int counter = min, maxCounter = getMaxSelectionRow(); counter <= maxCounter; counter++) {
+					if (!getSelectedRows().get(counter)) {
 						if (counter == min) {
 							clearSelection();
 						} else {
@@ -508,49 +505,30 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	}
 	/**
 	  * Insures that all the elements in path are unique.  This does not
-	  * check for a null selection!
+	  * check for a null selection!  The path index is rebuilt from the
+	  * selection array, so subclasses that modify <code>selection</code>
+	  * directly should call this afterwards.
 	  */
 	protected void insureUniqueness() {
-		int compareCounter;
-		int dupCount = 0;
-		int indexCounter;
-
-		for (compareCounter = 0; compareCounter < selection.length; compareCounter++) {
-			if (selection[compareCounter] != null) {
-				for (indexCounter = compareCounter + 1; indexCounter < selection.length; indexCounter++) {
-					if (selection[indexCounter] != null && selection[compareCounter].equals(selection[indexCounter])) {
-						dupCount++;
-						selection[indexCounter] = null;
-					}
-				}
-			}
-		}
-		if (dupCount > 0) {
-			/* Squash the duplicates. */
-			TreePath[] newSelection = new TreePath[selection.length - dupCount];
-
-			for (int counter = 0, validCounter = 0; counter < selection.length; counter++)
-				if (selection[counter] != null)
-					newSelection[validCounter++] = selection[counter];
-			selection = newSelection;
+		selectedPaths.clear();
+		for (int counter = 0; counter < selection.length; counter++) {
+			if (selection[counter] != null)
+				selectedPaths.add(selection[counter]);
 		}
+		if (selectedPaths.size() != selection.length)
+			updateSelectionArray();
 	}
 	/**
 	  * Returns true if the path, path, is in the current selection.
 	  */
 	public boolean isPathSelected(TreePath path) {
-		if (selection != null) {
-			for (int counter = 0; counter < selection.length; counter++)
-				if (selection[counter].equals(path))
-					return true;
-		}
-		return false;
+		return path != null && selectedPaths.contains(path);
 	}
 	/**
 	  * Returns true if the row identitifed by row is selected.
 	  */
 	public boolean isRowSelected(int row) {
-		return listSelectionModel.isSelectedIndex(row);
+		return row >= 0 && getSelectedRows().get(row);
 	}
 	/**
 	  * Returns true if the selection is currently empty.
@@ -618,44 +596,23 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 			if (!canPathsBeRemoved(paths)) {
 				clearSelection();
 			} else {
-				int oldCount, oldCounter;
-				int removeCount, removeCounter;
 				TreePath beginLeadPath = leadPath;
 				Vector pathsToRemove = null;
 
-				oldCount = selection.length;
-
 				/* Find the paths that can be removed. */
-				for (removeCounter = 0; removeCounter < paths.length; removeCounter++) {
-					if (paths[removeCounter] != null) {
-						if (leadPath != null && leadPath.equals(paths[removeCounter]))
+				for (int counter = 0; counter < paths.length; counter++) {
+					if (paths[counter] != null) {
+						if (leadPath != null && leadPath.equals(paths[counter]))
 							leadPath = null;
-						for (oldCounter = 0; oldCounter < oldCount; oldCounter++) {
-							if (paths[removeCounter].equals(selection[oldCounter])) {
-								selection[oldCounter] = null;
-								oldCounter = oldCount;
-								if (pathsToRemove == null)
-									pathsToRemove = new Vector(paths.length);
-								if (!pathsToRemove.contains(paths[removeCounter]))
-									pathsToRemove.addElement(new TreeSpot(paths[removeCounter], false));
-							}
+						if (selectedPaths.remove(paths[counter])) {
+							if (pathsToRemove == null)
+								pathsToRemove = new Vector(paths.length);
+							pathsToRemove.addElement(new TreeSpot(paths[counter], false));
 						}
 					}
 				}
 				if (pathsToRemove != null) {
-					removeCount = pathsToRemove.size();
-					if (removeCount == selection.length)
-						selection = null;
-					else {
-						int validCount = 0;
-						TreePath[] newSelection;
-
-						newSelection = new TreePath[selection.length - removeCount];
-						for (oldCounter = 0; oldCounter < oldCount; oldCounter++)
-							if (selection[oldCounter] != null)
-								newSelection[validCount++] = selection[oldCounter];
-						selection = newSelection;
-					}
+					updateSelectionArray();
 
 					if (leadPath == null && selection != null)
 						leadPath = selection[0];
@@ -665,7 +622,8 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 					resetRowSelection();
 
 					notifyPathChange(pathsToRemove, beginLeadPath);
-				}
+				} else
+					leadPath = beginLeadPath;
 			}
 		}
 	}
@@ -683,15 +641,16 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 	 * row for each path.
 	 */
 	public void resetRowSelection() {
-		listSelectionModel.clearSelection();
+		rowSelectionInvalid = false;
+		selectedRows.clear();
 		if (selection != null && rowMapper != null) {
 			int aRow;
 			int[] rows = rowMapper.getRowsForPaths(selection);
 
 			for (int counter = 0, maxCounter = selection.length; counter < maxCounter; counter++) {
 				aRow = rows[counter];
-				if (aRow != -1);
-				//listSelectionModel.addSelectionInterval(aRow, aRow);
+				if (aRow != -1)
+					selectedRows.set(aRow);
 			}
 			if (leadIndex != -1)
 				leadRow = rows[leadIndex];
@@ -700,6 +659,27 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 		} else
 			leadRow = -1;
 	}
+	/**
+	 * Marks the selected rows as out of date because rows have been expanded,
+	 * collapsed, inserted or removed.  They are recalculated by 
+	 * <code>resetRowSelection()</code> the next time they are asked for, so 
+	 * many row changes in a row only cost one recalculation.
+	 */
+	public void invalidateRowSelection() {
+		rowSelectionInvalid = true;
+	}
+
+	/**
+	 * Returns <code>selectedRows</code>, recalculating it first if the rows
+	 * have changed since.
+	 */
+	private BitSet getSelectedRows() {
+		if (rowSelectionInvalid) {
+			resetRowSelection();
+		}
+		return selectedRows;
+	}
+
 	/**
 	 * Sets the RowMapper instance.  This instance is used to determine
 	 * what row corresponds to what path.
@@ -781,25 +761,15 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 				}
 			}
 
-			boolean found;
-			int validCount = 0;
 			TreePath beginLeadPath = leadPath;
+			LinkedHashSet newPaths = new LinkedHashSet();
 			Vector cPaths = new Vector(newCount + oldCount);
 
 			leadPath = null;
 			/* Find the paths that are new. */
 			for (newCounter = 0; newCounter < newCount; newCounter++) {
-				found = false;
 				if (paths[newCounter] != null) {
-					validCount++;
-					for (oldCounter = 0; oldCounter < oldCount; oldCounter++) {
-						if (selection[oldCounter] != null && selection[oldCounter].equals(paths[newCounter])) {
-							selection[oldCounter] = null;
-							oldCounter = oldCount;
-							found = true;
-						}
-					}
-					if (!found)
+					if (newPaths.add(paths[newCounter]) && !selectedPaths.contains(paths[newCounter]))
 						cPaths.addElement(new TreeSpot(paths[newCounter], true));
 					if (leadPath == null)
 						leadPath = paths[newCounter];
@@ -808,27 +778,11 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 
 			/* Get the paths that were selected but no longer selected. */
 			for (oldCounter = 0; oldCounter < oldCount; oldCounter++)
-				if (selection[oldCounter] != null)
+				if (!newPaths.contains(selection[oldCounter]))
 					cPaths.addElement(new TreeSpot(selection[oldCounter], false));
 
-			/* If the validCount isn't equal to newCount it means there
-			   are some null in paths, remove them and set selection to
-			   the new path. */
-			if (validCount == 0)
-				selection = null;
-			else if (validCount != newCount) {
-				selection = new TreePath[validCount];
-
-				for (newCounter = 0, validCount = 0; newCounter < newCount; newCounter++)
-					if (paths[newCounter] != null)
-						selection[validCount++] = paths[newCounter];
-			} else {
-				selection = new TreePath[paths.length];
-				System.arraycopy(paths, 0, selection, 0, paths.length);
-			}
-
-			if (selection != null)
-				insureUniqueness();
+			selectedPaths = newPaths;
+			updateSelectionArray();
 
 			updateLeadIndex();
 
@@ -863,6 +817,16 @@ public class DefaultTreeSelectionModel implements TreeSelectionModel, Serializab
 		retBuffer.append("]");
 		return retBuffer.toString();
 	}
+	/**
+	 * Rebuilds the selection array from the selected path index.
+	 */
+	private void updateSelectionArray() {
+		if (selectedPaths.isEmpty()) {
+			selection = null;
+		} else {
+			selection = (TreePath[]) selectedPaths.toArray(new TreePath[selectedPaths.size()]);
+		}
+	}
 	/**
 	 * Updates the leadIndex instance variable.
 	 */
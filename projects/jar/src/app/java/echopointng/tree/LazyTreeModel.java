@@ -0,0 +1,75 @@
+package echopointng.tree;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+/**
+ * <code>LazyTreeModel</code> is a <code>TreeModel</code> whose children may
+ * be expensive to obtain, for example because they come from a remote
+ * directory or a slow database query.
+ * <p>
+ * When a node of a <code>LazyTreeModel</code> is expanded and its children
+ * are not yet loaded, the <code>Tree</code> calls
+ * <code>loadChildren()</code> on a background thread and shows a placeholder
+ * row in the meantime. The children are fetched and rendered once the load
+ * has completed, so a slow node does not hold up the rest of the user
+ * interface.
+ * <p>
+ * <code>isLeaf()</code> and <code>isChildrenLoaded()</code> must be cheap,
+ * since they are called while rendering. <code>getChildCount()</code> and
+ * <code>getChild()</code> are not called for a node until
+ * <code>isChildrenLoaded()</code> returns true or a load has finished.
+ * 
+ * @see echopointng.Tree#isLoadingChildren(TreePath)
+ */
+public interface LazyTreeModel extends TreeModel {
+
+	/**
+	 * Returns true if the children of <i>parent</i> are available without
+	 * delay.
+	 * 
+	 * @param parent -
+	 *            a node in the tree, obtained from this data source
+	 * @return true if the children of <i>parent</i> are loaded
+	 */
+	public boolean isChildrenLoaded(Object parent);
+
+	/**
+	 * Loads the children of <i>parent</i> so that they can be obtained
+	 * without delay afterwards.
+	 * <p>
+	 * This is called on a background thread, so it must not touch any
+	 * <code>Component</code>s or fire any <code>TreeModelEvent</code>s,
+	 * and it must be safe to call while other nodes of the model are being
+	 * read.
+	 * 
+	 * @param parent -
+	 *            a node in the tree, obtained from this data source
+	 */
+	public void loadChildren(Object parent);
+}
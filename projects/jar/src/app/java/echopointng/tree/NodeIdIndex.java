@@ -0,0 +1,284 @@
+package echopointng.tree;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <code>NodeIdIndex</code> maps tree nodes to unique identifiers and back
+ * again, both in constant time.
+ * <p>
+ * A node is given the next free integer identifier the first time it is
+ * asked for. The node to identifier side is a <code>HashMap</code> and the
+ * identifier to node side is an open addressed table keyed by primitive
+ * <code>int</code>s, so that finding a node from a client side identifier
+ * does not need to look at every node in the index.
+ * <p>
+ * Identifiers are never reused, so a node that is removed from the index and
+ * later added back gets a new identifier.
+ * <p>
+ * The index is serializable as long as the nodes in it are.
+ */
+public class NodeIdIndex implements Serializable {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private Map nodeToId;
+
+	private int[] ids;
+
+	private Object[] nodes;
+
+	private int size;
+
+	private int nextNodeId;
+
+	/**
+	 * Constructs an empty <code>NodeIdIndex</code>
+	 */
+	public NodeIdIndex() {
+		this(new HashMap());
+	}
+
+	/**
+	 * Constructs a <code>NodeIdIndex</code> whose node to identifier side is
+	 * the given <code>Map</code> of <code>Integer</code> identifiers keyed by
+	 * node. Any nodes already in the map are indexed, and the map is kept up
+	 * to date from then on, so it can still be read by code that expects
+	 * such a map. It must only be changed through the index.
+	 * 
+	 * @param nodeToId -
+	 *            the Map of Integer identifiers keyed by node
+	 */
+	public NodeIdIndex(Map nodeToId) {
+		this.nodeToId = nodeToId;
+		ids = new int[INITIAL_CAPACITY];
+		nodes = new Object[INITIAL_CAPACITY];
+		for (Iterator iter = nodeToId.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			int nodeId = ((Integer) entry.getValue()).intValue();
+			if (entry.getKey() != null) {
+				put(nodeId, entry.getKey());
+			}
+			if (nodeId >= nextNodeId) {
+				nextNodeId = nodeId + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the identifier of a node, giving it one if it has none yet.
+	 * 
+	 * @param node -
+	 *            the node in question
+	 * @return the identifier of the node
+	 */
+	public String getNodeId(Object node) {
+		Integer nodeId = (Integer) nodeToId.get(node);
+		if (nodeId == null) {
+			nodeId = new Integer(nextNodeId++);
+			nodeToId.put(node, nodeId);
+			if (node != null) {
+				put(nodeId.intValue(), node);
+			}
+		}
+		return String.valueOf(nodeId);
+	}
+
+	/**
+	 * Returns the node with a given identifier
+	 * 
+	 * @param id -
+	 *            the identifier of the node
+	 * @return the node or null if there is no node with that identifier
+	 */
+	public Object getNodeById(String id) {
+		if (id == null) {
+			return null;
+		}
+		int nodeId;
+		try {
+			nodeId = Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return getNodeById(nodeId);
+	}
+
+	/**
+	 * Returns the node with a given identifier
+	 * 
+	 * @param nodeId -
+	 *            the identifier of the node
+	 * @return the node or null if there is no node with that identifier
+	 */
+	public Object getNodeById(int nodeId) {
+		if (nodeId < 0) {
+			return null;
+		}
+		int mask = nodes.length - 1;
+		for (int i = indexFor(nodeId, mask); nodes[i] != null; i = (i + 1) & mask) {
+			if (ids[i] == nodeId) {
+				return nodes[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the node has an identifier
+	 */
+	public boolean contains(Object node) {
+		return nodeToId.containsKey(node);
+	}
+
+	/**
+	 * Removes a node and its identifier from the index
+	 * 
+	 * @param node -
+	 *            the node to remove
+	 * @return true if the node was in the index
+	 */
+	public boolean remove(Object node) {
+		Integer nodeId = (Integer) nodeToId.remove(node);
+		if (nodeId == null) {
+			return false;
+		}
+		removeId(nodeId.intValue());
+		return true;
+	}
+
+	/**
+	 * Removes a node and all of its descendants, as given by the
+	 * <code>TreeModel</code>, from the index. Since a node is only given an
+	 * identifier along with its ancestors, the children of a node that is not
+	 * in the index are not visited.
+	 * 
+	 * @param model -
+	 *            the model the node belongs to
+	 * @param node -
+	 *            the node to remove
+	 */
+	public void removeSubtree(TreeModel model, Object node) {
+		if (nodeToId.isEmpty() || !remove(node)) {
+			return;
+		}
+		int childCount = model.getChildCount(node);
+		for (int i = 0; i < childCount; i++) {
+			removeSubtree(model, model.getChild(node, i));
+		}
+	}
+
+	/**
+	 * Removes all nodes from the index. Identifiers are still not reused.
+	 */
+	public void clear() {
+		nodeToId.clear();
+		ids = new int[INITIAL_CAPACITY];
+		nodes = new Object[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * @return the number of nodes in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static int indexFor(int nodeId, int mask) {
+		int h = nodeId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void put(int nodeId, Object node) {
+		if ((size + 1) * 4 > nodes.length * 3) {
+			resize(nodes.length * 2);
+		}
+		int mask = nodes.length - 1;
+		int i = indexFor(nodeId, mask);
+		while (nodes[i] != null) {
+			i = (i + 1) & mask;
+		}
+		ids[i] = nodeId;
+		nodes[i] = node;
+		size++;
+	}
+
+	private void resize(int capacity) {
+		int[] oldIds = ids;
+		Object[] oldNodes = nodes;
+		ids = new int[capacity];
+		nodes = new Object[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldNodes.length; j++) {
+			if (oldNodes[j] != null) {
+				int i = indexFor(oldIds[j], mask);
+				while (nodes[i] != null) {
+					i = (i + 1) & mask;
+				}
+				ids[i] = oldIds[j];
+				nodes[i] = oldNodes[j];
+			}
+		}
+	}
+
+	/**
+	 * Removes an identifier, shifting back any entries that follow it in its
+	 * probe sequence so that no tombstones are needed
+	 */
+	private void removeId(int nodeId) {
+		int mask = nodes.length - 1;
+		int i = indexFor(nodeId, mask);
+		while (nodes[i] != null && ids[i] != nodeId) {
+			i = (i + 1) & mask;
+		}
+		if (nodes[i] == null) {
+			return;
+		}
+		nodes[i] = null;
+		size--;
+		int j = (i + 1) & mask;
+		while (nodes[j] != null) {
+			int home = indexFor(ids[j], mask);
+			// move the entry at j into the hole at i if i lies cyclically
+			// between its home slot and j
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				ids[i] = ids[j];
+				nodes[i] = nodes[j];
+				nodes[j] = null;
+				i = j;
+			}
+			j = (j + 1) & mask;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package echopointng.tree;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import echopointng.util.WorkerPool;
+
+/**
+ * <code>TreeChildLoader</code> loads the children of a node of a
+ * <code>LazyTreeModel</code> on a background thread.
+ * <p>
+ * All loaders share a bounded <code>WorkerPool</code>, so a few slow nodes
+ * do not hold up the loading of every other node, and a load that fails, even
+ * with an <code>Error</code>, does not stop any further loads.
+ */
+public class TreeChildLoader {
+
+	private static final WorkerPool workerPool = new WorkerPool("TreeChildLoader", 4);
+
+	private LazyTreeModel model;
+
+	private Object node;
+
+	private boolean done;
+
+	private Throwable error;
+
+	/**
+	 * Constructs a <code>TreeChildLoader</code> for the children of the
+	 * given node. Call <code>start()</code> to begin loading them.
+	 * 
+	 * @param model -
+	 *            the model containing the node
+	 * @param node -
+	 *            the node whose children are to be loaded
+	 */
+	public TreeChildLoader(LazyTreeModel model, Object node) {
+		this.model = model;
+		this.node = node;
+	}
+
+	/**
+	 * @return the node whose children are loaded
+	 */
+	public Object getNode() {
+		return node;
+	}
+
+	/**
+	 * @return the <code>WorkerPool</code> shared by all loaders, whose
+	 *         maximum number of threads can be changed
+	 */
+	public static WorkerPool getWorkerPool() {
+		return workerPool;
+	}
+
+	/**
+	 * Queues the children to be loaded on a background thread.
+	 */
+	public void start() {
+		workerPool.execute(new Runnable() {
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	/**
+	 * Loads the children on the calling thread.
+	 */
+	void load() {
+		Throwable failure = null;
+		try {
+			model.loadChildren(node);
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			synchronized (this) {
+				error = failure;
+				done = true;
+				notifyAll();
+			}
+		}
+		if (failure instanceof ThreadDeath) {
+			throw (ThreadDeath) failure;
+		}
+	}
+
+	/**
+	 * @return true if the load has finished, successfully or not
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the exception thrown by the load or null if it succeeded or
+	 *         has not yet finished
+	 */
+	public synchronized Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Waits for the load to finish.
+	 * 
+	 * @param timeout -
+	 *            the maximum number of milliseconds to wait
+	 * @return true if the load has finished
+	 */
+	public synchronized boolean waitFor(long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		try {
+			while (!done) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			// give up waiting
+		}
+		return done;
+	}
+}
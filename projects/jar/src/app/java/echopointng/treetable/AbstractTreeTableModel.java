@@ -40,11 +40,10 @@
 package echopointng.treetable;
 
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 import nextapp.echo2.app.event.EventListenerList;
 import echopointng.tree.TreeModelEvent;
+import echopointng.tree.NodeIdIndex;
 import echopointng.tree.TreeModelListener;
 import echopointng.tree.TreeNode;
 import echopointng.tree.TreePath;
@@ -72,9 +71,11 @@ public abstract class AbstractTreeTableModel implements TreeTableModel {
 	 */
 	protected EventListenerList listenerList = new EventListenerList();
 
-	/** Map of Node identifiers keyed by the Nodes themselves */
+	/** Map of Node identifiers keyed by the Nodes themselves, kept by nodeIdIndex */
 	protected HashMap nodeIds = new HashMap();
-	private int nextNodeId = 0;
+	
+	/** Index of Node identifiers, pruned as Nodes are removed */
+	protected NodeIdIndex nodeIdIndex = new NodeIdIndex(nodeIds);
 	
 	
 	/**
@@ -343,7 +344,9 @@ public abstract class AbstractTreeTableModel implements TreeTableModel {
 	/**
 	 * Notify all listeners that have registered interest for notification on
 	 * this event type. The event instance is lazily created using the
-	 * parameters passed into the fire method.
+	 * parameters passed into the fire method. Once the listeners have been
+	 * notified, the removed children and their descendants are dropped from
+	 * the node identifier index.
 	 * 
 	 * @see EventListenerList
 	 */
@@ -360,6 +363,11 @@ public abstract class AbstractTreeTableModel implements TreeTableModel {
 			}
 			((TreeModelListener) listeners[i]).treeNodesRemoved(e);
 		}
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				nodeIdIndex.removeSubtree(this, children[i]);
+			}
+		}
 	}
 
 	/**
@@ -392,26 +400,14 @@ public abstract class AbstractTreeTableModel implements TreeTableModel {
 	 * @return  immutable identifier for a specific node
 	 */
 	public String getNodeId(Object node) {
-		Integer nodeId = (Integer) nodeIds.get(node);
-		if (nodeId == null) {
-			nodeId = new Integer(nextNodeId++);
-			nodeIds.put(node, nodeId);
-		}
-		return String.valueOf(nodeId);
+		return nodeIdIndex.getNodeId(node);
 	}
 	
 	/**
 	 * @see echopointng.tree.TreeModel#getNodeById(java.lang.String)
 	 */
 	public Object getNodeById(String id) {
-		Iterator iter = nodeIds.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry entry = (Entry) iter.next();
-			if (String.valueOf(entry.getValue()).equals(id)) {
-				return entry.getKey();
-			}
-		}
-		return null;
+		return nodeIdIndex.getNodeById(id);
 	}
 	
 	
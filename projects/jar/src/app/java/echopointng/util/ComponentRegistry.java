@@ -0,0 +1,271 @@
+package echopointng.util;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import nextapp.echo2.app.ApplicationInstance;
+import nextapp.echo2.app.Component;
+import echopointng.util.collections.ConcurrentReaderHashMap;
+
+/**
+ * <code>ComponentRegistry</code> is used by the asynchronous services (such
+ * as those behind <code>LiveTable</code> and
+ * <code>AutoLookupTextFieldEx</code>) to find the component that a client
+ * request is aimed at.
+ * <p>
+ * Components are kept per <code>ApplicationInstance</code> and keyed by their
+ * client side element id, <code>"c_" + renderId</code>. Both the application
+ * instances and the components are only weakly referenced, so a session that
+ * goes away without disposing its components does not leave them behind.
+ * <p>
+ * Lookups do not lock. Both the application instances and their components
+ * are held in <code>ConcurrentReaderHashMap</code>s, so only registration,
+ * deregistration and purging synchronize.
+ */
+public class ComponentRegistry {
+
+	/**
+	 * <code>InstanceKey</code> weakly references an application instance and
+	 * is equal to any other <code>InstanceKey</code> for the same instance.
+	 */
+	private static class InstanceKey extends WeakReference {
+		private int hash;
+
+		private InstanceKey(ApplicationInstance appInstance, ReferenceQueue queue) {
+			super(appInstance, queue);
+			hash = System.identityHashCode(appInstance);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof InstanceKey)) {
+				return false;
+			}
+			Object appInstance = get();
+			return appInstance != null && appInstance == ((InstanceKey) obj).get();
+		}
+	}
+
+	/** a map of InstanceKey to its map of element ids */
+	private Map instanceMap = new ConcurrentReaderHashMap();
+
+	private ReferenceQueue queue = new ReferenceQueue();
+
+	private long registrationCount;
+
+	private long deregistrationCount;
+
+	private long reclaimedCount;
+
+	/**
+	 * Returns the client side element id of a component
+	 * 
+	 * @param component -
+	 *            the component in question
+	 * @return the element id of the component
+	 */
+	public static String getElementId(Component component) {
+		return "c_" + component.getRenderId();
+	}
+
+	/**
+	 * Registers a component with the registry. The component must be
+	 * registered with an <code>ApplicationInstance</code>.
+	 * 
+	 * @param component -
+	 *            the component to register
+	 */
+	public void register(Component component) {
+		ApplicationInstance appInstance = component.getApplicationInstance();
+		if (appInstance == null) {
+			throw new IllegalStateException("The component is not registered with an ApplicationInstance");
+		}
+		Map components;
+		synchronized (this) {
+			expungeStaleInstances();
+			components = (Map) instanceMap.get(new InstanceKey(appInstance, null));
+			if (components == null) {
+				components = new ConcurrentReaderHashMap();
+				instanceMap.put(new InstanceKey(appInstance, queue), components);
+			}
+			registrationCount++;
+		}
+		components.put(getElementId(component), new WeakReference(component));
+	}
+
+	/**
+	 * Deregisters a component from the registry.
+	 * 
+	 * @param component -
+	 *            the component to deregister
+	 */
+	public void deregister(Component component) {
+		String elementId = getElementId(component);
+		ApplicationInstance appInstance = component.getApplicationInstance();
+		List candidates = new ArrayList();
+		if (appInstance != null) {
+			Object components = instanceMap.get(new InstanceKey(appInstance, null));
+			if (components != null) {
+				candidates.add(components);
+			}
+		} else {
+			candidates.addAll(instanceMap.values());
+		}
+		for (Iterator iter = candidates.iterator(); iter.hasNext();) {
+			Map components = (Map) iter.next();
+			WeakReference ref = (WeakReference) components.get(elementId);
+			if (ref != null && ref.get() == component) {
+				components.remove(elementId);
+				synchronized (this) {
+					deregistrationCount++;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the component registered under the element id for the given
+	 * <code>ApplicationInstance</code> or null if there is none. An entry
+	 * whose component has been garbage collected is left for
+	 * <code>purge()</code> to reclaim.
+	 * 
+	 * @param appInstance -
+	 *            the ApplicationInstance making the request
+	 * @param elementId -
+	 *            the client side element id of the component
+	 * @return the registered component or null
+	 */
+	public Component get(ApplicationInstance appInstance, String elementId) {
+		if (appInstance == null || elementId == null) {
+			return null;
+		}
+		Map components = (Map) instanceMap.get(new InstanceKey(appInstance, null));
+		if (components == null) {
+			return null;
+		}
+		WeakReference ref = (WeakReference) components.get(elementId);
+		return ref == null ? null : (Component) ref.get();
+	}
+
+	/**
+	 * Removes the entries of application instances that have been garbage
+	 * collected. Must be called while synchronized on the registry.
+	 */
+	private void expungeStaleInstances() {
+		Reference staleKey;
+		while ((staleKey = queue.poll()) != null) {
+			instanceMap.remove(staleKey);
+		}
+	}
+
+	/**
+	 * Removes the entries of components that have been garbage collected
+	 * without being deregistered.
+	 */
+	public void purge() {
+		List maps;
+		synchronized (this) {
+			expungeStaleInstances();
+			maps = new ArrayList(instanceMap.values());
+		}
+		int reclaimed = 0;
+		for (Iterator iter = maps.iterator(); iter.hasNext();) {
+			Map components = (Map) iter.next();
+			for (Iterator iterator = components.values().iterator(); iterator.hasNext();) {
+				WeakReference ref = (WeakReference) iterator.next();
+				if (ref.get() == null) {
+					iterator.remove();
+					reclaimed++;
+				}
+			}
+		}
+		synchronized (this) {
+			reclaimedCount += reclaimed;
+		}
+	}
+
+	/**
+	 * @return the number of components currently registered and not yet
+	 *         garbage collected
+	 */
+	public int getLiveRegistrationCount() {
+		purge();
+		List maps = new ArrayList(instanceMap.values());
+		int count = 0;
+		for (Iterator iter = maps.iterator(); iter.hasNext();) {
+			count += ((Map) iter.next()).size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of <code>ApplicationInstance</code>s that have
+	 *         components registered
+	 */
+	public synchronized int getApplicationInstanceCount() {
+		expungeStaleInstances();
+		return instanceMap.size();
+	}
+
+	/**
+	 * @return the total number of registrations made
+	 */
+	public synchronized long getRegistrationCount() {
+		return registrationCount;
+	}
+
+	/**
+	 * @return the total number of deregistrations made
+	 */
+	public synchronized long getDeregistrationCount() {
+		return deregistrationCount;
+	}
+
+	/**
+	 * @return the total number of entries removed because their component
+	 *         was garbage collected without being deregistered
+	 */
+	public synchronized long getReclaimedCount() {
+		return reclaimedCount;
+	}
+}
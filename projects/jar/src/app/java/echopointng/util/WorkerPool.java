@@ -0,0 +1,171 @@
+package echopointng.util;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.LinkedList;
+
+/**
+ * <code>WorkerPool</code> runs tasks on a bounded number of reused daemon
+ * threads.
+ * <p>
+ * Threads are only started when a task is queued and no thread is idle, up to
+ * the maximum number of threads, and they stop again once they have been idle
+ * for a while. A task that throws, even an <code>Error</code>, does not take
+ * its thread or the pool down with it.
+ */
+public class WorkerPool {
+
+	/** how long an idle thread waits for a task before it stops */
+	private static final long IDLE_TIMEOUT = 60000;
+
+	private String name;
+
+	private int maximumThreads;
+
+	private LinkedList queue = new LinkedList();
+
+	private int threadCount;
+
+	private int idleCount;
+
+	private long threadNumber;
+
+	/**
+	 * Constructs a <code>WorkerPool</code>
+	 * 
+	 * @param name -
+	 *            the name given to the threads of the pool
+	 * @param maximumThreads -
+	 *            the maximum number of threads, at least 1
+	 */
+	public WorkerPool(String name, int maximumThreads) {
+		this.name = name;
+		setMaximumThreads(maximumThreads);
+	}
+
+	/**
+	 * @return the maximum number of threads
+	 */
+	public synchronized int getMaximumThreads() {
+		return maximumThreads;
+	}
+
+	/**
+	 * Sets the maximum number of threads. Threads beyond the new maximum stop
+	 * once there are no more tasks queued.
+	 * 
+	 * @param maximumThreads -
+	 *            the maximum number of threads, at least 1
+	 */
+	public synchronized void setMaximumThreads(int maximumThreads) {
+		if (maximumThreads < 1) {
+			throw new IllegalArgumentException("maximumThreads must be at least 1");
+		}
+		this.maximumThreads = maximumThreads;
+	}
+
+	/**
+	 * @return the number of threads currently running
+	 */
+	public synchronized int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Queues a task to be run on one of the threads of the pool.
+	 * 
+	 * @param task -
+	 *            the task to run
+	 */
+	public synchronized void execute(Runnable task) {
+		if (task == null) {
+			throw new IllegalArgumentException("task must not be null");
+		}
+		queue.addLast(task);
+		if (idleCount > 0) {
+			notify();
+		} else if (threadCount < maximumThreads) {
+			threadCount++;
+			Thread thread = new Thread(new Worker(), name + "-" + (threadNumber++));
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns the next task, or null if the calling thread should stop
+	 */
+	private synchronized Runnable nextTask() {
+		long idleUntil = System.currentTimeMillis() + IDLE_TIMEOUT;
+		while (queue.isEmpty()) {
+			long remaining = idleUntil - System.currentTimeMillis();
+			if (remaining <= 0 || threadCount > maximumThreads) {
+				threadCount--;
+				return null;
+			}
+			idleCount++;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				// check the queue again
+			} finally {
+				idleCount--;
+			}
+		}
+		return (Runnable) queue.removeFirst();
+	}
+
+	private synchronized void workerDied() {
+		threadCount--;
+	}
+
+	/**
+	 * <code>Worker</code> runs queued tasks until it has been idle for too
+	 * long.
+	 */
+	private class Worker implements Runnable {
+		public void run() {
+			try {
+				Runnable task;
+				while ((task = nextTask()) != null) {
+					try {
+						task.run();
+					} catch (ThreadDeath e) {
+						throw e;
+					} catch (Throwable t) {
+						// the task is responsible for reporting its own failures
+					}
+				}
+			} catch (ThreadDeath e) {
+				workerDied();
+				throw e;
+			}
+		}
+	}
+}
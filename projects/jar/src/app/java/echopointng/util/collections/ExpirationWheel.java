@@ -0,0 +1,223 @@
+package echopointng.util.collections;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>ExpirationWheel</code> is a hashed timing wheel used to find the
+ * cache keys that are due to expire.
+ * <p>
+ * The wheel is made up of a ring of buckets, each covering one tick of time.
+ * A key is placed in the bucket for the tick of its deadline, along with the
+ * number of full turns of the wheel that must pass before it is due. Advancing
+ * the wheel only visits the buckets for the ticks that have elapsed, so the
+ * cost of a sweep depends on how many keys are due rather than on how many
+ * keys are being tracked.
+ * <p>
+ * Each bucket has its own lock, so scheduling a key never blocks on a sweep of
+ * some other part of the wheel. Only one schedule is kept per key. Because
+ * deadlines only move later as a cache entry is accessed, an existing schedule
+ * is left alone and the owner re-schedules the key when it turns out not to
+ * have expired yet.
+ */
+class ExpirationWheel {
+
+	/**
+	 * <code>Timeout</code> records the deadline of a scheduled key
+	 */
+	private static class Timeout {
+		private Object key;
+
+		private long deadline;
+
+		private long remainingRounds;
+
+		private volatile boolean cancelled;
+
+		private Timeout(Object key, long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tickDuration;
+
+	private final List[] buckets;
+
+	private final int mask;
+
+	private final long startTime;
+
+	private volatile long currentTick;
+
+	private final Map timeouts = new ConcurrentReaderHashMap();
+
+	/**
+	 * Constructs a <code>ExpirationWheel</code>
+	 * 
+	 * @param tickDuration -
+	 *            the time in milliseconds covered by each bucket
+	 * @param ticksPerWheel -
+	 *            the number of buckets, rounded up to a power of two
+	 */
+	ExpirationWheel(long tickDuration, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be > 0");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.tickDuration = tickDuration;
+		this.buckets = new List[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList();
+		}
+		this.mask = size - 1;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Schedules a key to be returned from <code>advance()</code> once its
+	 * deadline has passed. If the key is already scheduled at or before the
+	 * deadline then nothing is done.
+	 * 
+	 * @param key -
+	 *            the key to schedule
+	 * @param deadline -
+	 *            the time at which the key is due
+	 */
+	void schedule(Object key, long deadline) {
+		Timeout existing = (Timeout) timeouts.get(key);
+		if (existing != null && !existing.cancelled && existing.deadline <= deadline) {
+			return;
+		}
+		Timeout timeout = new Timeout(key, deadline);
+		existing = (Timeout) timeouts.put(key, timeout);
+		if (existing != null) {
+			existing.cancelled = true;
+		}
+		long wantedTick = (deadline - startTime) / tickDuration;
+		while (true) {
+			long deadlineTick = Math.max(wantedTick, currentTick + 1);
+			List bucket = buckets[(int) (deadlineTick & mask)];
+			synchronized (bucket) {
+				//
+				// advance() moves currentTick on while holding the lock of
+				// the bucket for that tick, so if the wheel has not reached
+				// the deadline tick now it cannot pass it until we are done
+				long tick = currentTick;
+				if (tick < deadlineTick) {
+					timeout.remainingRounds = (deadlineTick - tick - 1) / buckets.length;
+					bucket.add(timeout);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops tracking a key
+	 * 
+	 * @param key -
+	 *            the key to stop tracking
+	 */
+	void cancel(Object key) {
+		Timeout timeout = (Timeout) timeouts.remove(key);
+		if (timeout != null) {
+			timeout.cancelled = true;
+		}
+	}
+
+	/**
+	 * Stops tracking all keys
+	 */
+	void clear() {
+		for (int i = 0; i < buckets.length; i++) {
+			synchronized (buckets[i]) {
+				buckets[i].clear();
+			}
+		}
+		timeouts.clear();
+	}
+
+	/**
+	 * @return the number of keys being tracked
+	 */
+	int size() {
+		return timeouts.size();
+	}
+
+	/**
+	 * Moves the wheel forward to the given time, returning the keys that have
+	 * become due. The returned keys are no longer tracked. This must only be
+	 * called from one thread at a time.
+	 * 
+	 * @param now -
+	 *            the current time
+	 * @return a List of the keys whose deadline has passed
+	 */
+	List advance(long now) {
+		List due = new ArrayList();
+		long targetTick = (now - startTime) / tickDuration;
+		//
+		// if we have fallen more than a full turn behind then one
+		// pass over every bucket is enough
+		long fromTick = Math.max(currentTick + 1, targetTick - mask);
+		for (long tick = fromTick; tick <= targetTick; tick++) {
+			List bucket = buckets[(int) (tick & mask)];
+			synchronized (bucket) {
+				int kept = 0;
+				for (int i = 0, size = bucket.size(); i < size; i++) {
+					Timeout timeout = (Timeout) bucket.get(i);
+					if (timeout.cancelled) {
+						continue;
+					}
+					if (timeout.remainingRounds <= 0 || timeout.deadline <= now) {
+						if (timeouts.get(timeout.key) == timeout) {
+							timeouts.remove(timeout.key);
+						}
+						due.add(timeout.key);
+					} else {
+						timeout.remainingRounds--;
+						bucket.set(kept++, timeout);
+					}
+				}
+				for (int i = bucket.size() - 1; i >= kept; i--) {
+					bucket.remove(i);
+				}
+				currentTick = tick;
+			}
+		}
+		return due;
+	}
+}
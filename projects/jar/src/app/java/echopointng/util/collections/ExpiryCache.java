@@ -34,6 +34,7 @@ import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -69,6 +70,24 @@ import java.util.Set;
  * <p>
  * Under the cover this class uses a ConcurrentReaderHashMap and hence is thread
  * safe for writes to the cache.
+ * <p>
+ * By default the cache is unbounded. A maximum number of entries can be set
+ * via <code>setMaximumSize()</code>, or a maximum total weight via
+ * <code>setMaximumWeight()</code> along with a <code>Weigher</code> that
+ * decides how "heavy" each cached object is. Once a bounded cache is full, a
+ * frequency aware policy (W-TinyLFU) evicts the entries least likely to be
+ * used again.
+ * <p>
+ * The cache also keeps hit, miss, eviction and load time statistics which can
+ * be used to size it under real traffic. The hit and miss counts are kept
+ * without locking and so may miss the odd <code>get()</code> under heavy
+ * contention.
+ * <p>
+ * A <code>get()</code> never takes a lock. The reads of a bounded cache are
+ * recorded in a small buffer that is handed to the eviction policy when it
+ * fills up or when the cache is next written to. Reads that race each other
+ * for the buffer may be dropped, which only makes the frequencies the policy
+ * works with a little less exact.
  */
 public class ExpiryCache implements Map {
 
@@ -78,6 +97,15 @@ public class ExpiryCache implements Map {
 	/** the default cache access time out 5 minutes */
 	public static final long DEFAULT_ACCESS_TIMEOUT = 5 * 60 * 1000;
 
+	/**
+	 * the number of entries a cache bounded by weight is expected to hold
+	 * when there is nothing to estimate it from
+	 */
+	public static final int DEFAULT_EXPECTED_ENTRIES = 1024;
+
+	/** the number of reads buffered before they are given to the policy */
+	private static final int READ_BUFFER_SIZE = 64;
+
 	private Map cacheMap = new ConcurrentReaderHashMap();
 
 	private long ttl = DEFAULT_TIME_TO_LIVE;
@@ -86,6 +114,48 @@ public class ExpiryCache implements Map {
 
 	private boolean softReferences;
 
+	private long maximumWeight = -1;
+
+	private Weigher weigher;
+
+	private volatile WindowTinyLfuPolicy evictionPolicy;
+
+	private final Object evictionLock = new Object();
+
+	private final Object statisticsLock = new Object();
+
+	private final Object[] readBuffer = new Object[READ_BUFFER_SIZE];
+
+	private volatile int readBufferIndex;
+
+	private volatile long hitCount;
+
+	private volatile long missCount;
+
+	private long evictionCount;
+
+	private long loadCount;
+
+	private long totalLoadTime;
+
+	/**
+	 * <code>Weigher</code> is used to calculate the weight of a cached object
+	 * when the cache is bounded by a maximum weight.
+	 */
+	public static interface Weigher {
+		/**
+		 * Returns the weight of a cached object. The weight is calculated
+		 * once when the object is put into the cache.
+		 * 
+		 * @param key -
+		 *            the key of the cached object
+		 * @param value -
+		 *            the cached object, which may be null
+		 * @return the weight of the object which must be >= 0
+		 */
+		public int weigh(Object key, Object value);
+	}
+
 	/**
 	 * <code>CacheEntry</code> is used to wrap cached objects and can track
 	 * their time-to-live, last access time and access count.
@@ -126,6 +196,13 @@ public class ExpiryCache implements Map {
 			return cachedData;
 		}
 
+		private Object peekCachedData() {
+			if (cachedData instanceof SoftReference) {
+				return ((SoftReference) cachedData).get();
+			}
+			return cachedData;
+		}
+
 		private boolean hasExpired(long now) {
 			long usedTTL = customTimes ? objTTL : ExpiryCache.this.ttl;
 			long usedATO = customTimes ? objATO : ExpiryCache.this.ato;
@@ -142,6 +219,21 @@ public class ExpiryCache implements Map {
 			return false;
 		}
 
+		private long expiresAt() {
+			long usedTTL = customTimes ? objTTL : ExpiryCache.this.ttl;
+			long usedATO = customTimes ? objATO : ExpiryCache.this.ato;
+			long when = -1;
+			if (usedTTL != -1) {
+				when = timeCached + usedTTL;
+			}
+			if (usedATO != -1) {
+				long atoWhen = timeAccessedLast + usedATO;
+				if (when == -1 || atoWhen < when)
+					when = atoWhen;
+			}
+			return when;
+		}
+
 		public String toString() {
 			long now = System.currentTimeMillis();
 			long usedTTL = customTimes ? objTTL : ExpiryCache.this.ttl;
@@ -203,6 +295,24 @@ public class ExpiryCache implements Map {
 		this.softReferences = softReferences;
 	}
 
+	/**
+	 * Constructs a <code>ExpiryCache</code> that holds at most
+	 * <code>maximumSize</code> entries
+	 * 
+	 * @param timeToLive -
+	 *            the default time-to-live for a cache entry
+	 * @param accessTimeout -
+	 *            the default access timeout for a cache entry
+	 * @param softReferences -
+	 *            whether <code>SoftReference</code>s are used to cached data
+	 * @param maximumSize -
+	 *            the maximum number of entries or -1 for no limit
+	 */
+	public ExpiryCache(long timeToLive, long accessTimeout, boolean softReferences, long maximumSize) {
+		this(timeToLive, accessTimeout, softReferences);
+		setMaximumSize(maximumSize);
+	}
+
 	/**
 	 * Sets the default 'time-to-live' for a cache entry
 	 * 
@@ -223,6 +333,206 @@ public class ExpiryCache implements Map {
 		ato = milliSecs;
 	}
 
+	/**
+	 * Sets the maximum number of entries the cache can hold. Entries are
+	 * evicted as needed to keep within this limit.
+	 * 
+	 * @param maximumSize -
+	 *            the maximum number of entries or -1 for no limit
+	 */
+	public void setMaximumSize(long maximumSize) {
+		setMaximumWeight(maximumSize, null);
+	}
+
+	/**
+	 * Sets the maximum total weight of the entries in the cache, as calculated
+	 * by the <code>Weigher</code>. Entries are evicted as needed to keep
+	 * within this limit.
+	 * 
+	 * @param maximumWeight -
+	 *            the maximum total weight or -1 for no limit
+	 * @param weigher -
+	 *            the <code>Weigher</code> to use or null to give every entry
+	 *            a weight of 1
+	 */
+	public void setMaximumWeight(long maximumWeight, Weigher weigher) {
+		setMaximumWeight(maximumWeight, weigher, -1);
+	}
+
+	/**
+	 * Sets the maximum total weight of the entries in the cache in the same
+	 * way as <code>setMaximumWeight(long, Weigher)</code>, along with the
+	 * number of entries the cache is expected to hold when full. This sizes
+	 * the frequency information kept by the eviction policy.
+	 * <p>
+	 * If <code>expectedEntries</code> is negative it is estimated. Without a
+	 * <code>Weigher</code> it is the maximum weight. Otherwise it is worked
+	 * out from the average weight of the entries already in the cache, or is
+	 * <code>DEFAULT_EXPECTED_ENTRIES</code> if the cache is empty.
+	 * 
+	 * @param maximumWeight -
+	 *            the maximum total weight or -1 for no limit
+	 * @param weigher -
+	 *            the <code>Weigher</code> to use or null to give every entry
+	 *            a weight of 1
+	 * @param expectedEntries -
+	 *            the number of entries expected when the cache is full or -1
+	 *            to estimate it
+	 */
+	public void setMaximumWeight(long maximumWeight, Weigher weigher, int expectedEntries) {
+		List evicted = null;
+		synchronized (evictionLock) {
+			this.maximumWeight = maximumWeight < 0 ? -1 : maximumWeight;
+			this.weigher = weigher;
+			clearReadBuffer();
+			if (this.maximumWeight == -1) {
+				evictionPolicy = null;
+				return;
+			}
+			if (expectedEntries < 0) {
+				expectedEntries = estimateEntries(this.maximumWeight);
+			}
+			WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(this.maximumWeight, expectedEntries);
+			for (Iterator iter = cacheMap.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				CacheEntry ce = (CacheEntry) entry.getValue();
+				policy.recordPut(entry.getKey(), weigh(entry.getKey(), ce.peekCachedData())).clear();
+			}
+			evictionPolicy = policy;
+			evicted = policy.evict();
+			removeEvicted(evicted);
+		}
+		recordEvictions(evicted.size());
+	}
+
+	/**
+	 * Returns the maximum total weight of the cache entries or -1 if the cache
+	 * is unbounded. When no <code>Weigher</code> is in use this is the
+	 * maximum number of entries.
+	 * 
+	 * @return the maximum total weight of the cache entries
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @return the <code>Weigher</code> in use or null if every entry has a
+	 *         weight of 1
+	 */
+	public Weigher getWeigher() {
+		return weigher;
+	}
+
+	/**
+	 * Returns the total weight of the entries in the cache. If the cache is
+	 * unbounded this is the same as <code>size()</code>.
+	 * 
+	 * @return the total weight of the entries in the cache
+	 */
+	public long getWeightedSize() {
+		synchronized (evictionLock) {
+			if (evictionPolicy == null) {
+				return cacheMap.size();
+			}
+			return evictionPolicy.getWeightedSize();
+		}
+	}
+
+	/**
+	 * @return the number of times a <code>get()</code> returned a cached
+	 *         object
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of times a <code>get()</code> returned null because
+	 *         the object was missing, expired, versioned out or reclaimed
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the ratio of hits to the total number of <code>get()</code>
+	 *         calls or 1.0 if there have been no calls
+	 */
+	public double getHitRate() {
+		long hits = hitCount;
+		long requestCount = hits + missCount;
+		return requestCount == 0 ? 1.0 : (double) hits / requestCount;
+	}
+
+	/**
+	 * @return the number of entries evicted because the cache was over its
+	 *         maximum size or weight
+	 */
+	public long getEvictionCount() {
+		synchronized (statisticsLock) {
+			return evictionCount;
+		}
+	}
+
+	/**
+	 * @return the number of loads reported via <code>recordLoad()</code>
+	 */
+	public long getLoadCount() {
+		synchronized (statisticsLock) {
+			return loadCount;
+		}
+	}
+
+	/**
+	 * @return the total time in milliseconds of all loads reported via
+	 *         <code>recordLoad()</code>
+	 */
+	public long getTotalLoadTime() {
+		synchronized (statisticsLock) {
+			return totalLoadTime;
+		}
+	}
+
+	/**
+	 * @return the average time in milliseconds of the loads reported via
+	 *         <code>recordLoad()</code> or 0 if there have been none
+	 */
+	public double getAverageLoadTime() {
+		synchronized (statisticsLock) {
+			return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+		}
+	}
+
+	/**
+	 * Records that a cache miss caused an object to be loaded (or compiled or
+	 * read) before being put into the cache. The cache does not load objects
+	 * itself so callers report this to make load times part of the
+	 * statistics.
+	 * 
+	 * @param loadTime -
+	 *            how long the load took in milliseconds
+	 */
+	public void recordLoad(long loadTime) {
+		synchronized (statisticsLock) {
+			loadCount++;
+			totalLoadTime += loadTime;
+		}
+	}
+
+	/**
+	 * Resets all the cache statistics back to zero
+	 */
+	public void resetStatistics() {
+		synchronized (statisticsLock) {
+			hitCount = 0;
+			missCount = 0;
+			evictionCount = 0;
+			loadCount = 0;
+			totalLoadTime = 0;
+		}
+	}
+
 	/**
 	 * Returns the time when the object was cached under a given key
 	 * 
@@ -267,6 +577,22 @@ public class ExpiryCache implements Map {
 		return ce.objVersion;
 	}
 
+	/**
+	 * Returns the time when the object under a given key will expire, if it is
+	 * not accessed again in the meantime.
+	 * 
+	 * @param key -
+	 *            the key to the cached object
+	 * @return the time when the object will expire, -1 if it never expires or
+	 *         0 if it is not in the cache
+	 */
+	public long whenExpires(Object key) {
+		CacheEntry ce = (CacheEntry) cacheMap.get(key);
+		if (ce == null)
+			return 0;
+		return ce.expiresAt();
+	}
+
 	/**
 	 * Returns the number of times the object was accessed under a given key
 	 * 
@@ -305,7 +631,13 @@ public class ExpiryCache implements Map {
 	 * @see java.util.Map#clear()
 	 */
 	public void clear() {
-		cacheMap.clear();
+		synchronized (evictionLock) {
+			cacheMap.clear();
+			clearReadBuffer();
+			if (evictionPolicy != null) {
+				evictionPolicy.clear();
+			}
+		}
 	}
 
 	/**
@@ -319,7 +651,7 @@ public class ExpiryCache implements Map {
 	 * @see java.util.Map#remove(java.lang.Object)
 	 */
 	public Object remove(Object key) {
-		CacheEntry ce = (CacheEntry) cacheMap.remove(key);
+		CacheEntry ce = removeCacheEntry(key);
 		if (ce != null)
 			return dereferenceCacheEntry(ce);
 		return null;
@@ -481,6 +813,7 @@ public class ExpiryCache implements Map {
 					// Number of accesses is not reset because object is the
 					// same
 					ce.timeCached = ce.timeAccessedLast = System.currentTimeMillis();
+					recordPolicyAccess(key);
 					return null;
 				} else {
 					putCacheEntry(key, objToCache, timeToLive, accessTimeout, objVersion);
@@ -490,6 +823,7 @@ public class ExpiryCache implements Map {
 				// Avoids creating unnecessary new CacheEntry
 				// Number of accesses is not reset because object is the same
 				ce.timeCached = ce.timeAccessedLast = System.currentTimeMillis();
+				recordPolicyAccess(key);
 				return null;
 			} else {
 				putCacheEntry(key, objToCache, timeToLive, accessTimeout, objVersion);
@@ -534,6 +868,7 @@ public class ExpiryCache implements Map {
 		if (ce == null) {
 			// TODO - remove this
 			logMessage("miss",key);
+			recordMiss();
 			return null;
 		} else {
 			//
@@ -545,6 +880,7 @@ public class ExpiryCache implements Map {
 			long now = System.currentTimeMillis();
 			if (ce.hasExpired(now)) {
 				onExpiredObject(key);
+				recordMiss();
 				return null;
 			}
 			//
@@ -552,11 +888,18 @@ public class ExpiryCache implements Map {
 			// we have
 			if (useVersioning && ce.objVersion < objVersion) {
 				onExpiredObject(key);
+				recordMiss();
 				return null;
 			}
 			Object value = dereferenceCacheEntry(ce);
-			if (value == null && isSoftReferences()) {
-				logMessage("null value possible memory reclaim",key);
+			if (value == null) {
+				if (isSoftReferences()) {
+					logMessage("null value possible memory reclaim",key);
+				}
+				recordMiss();
+			} else {
+				recordPolicyAccess(key);
+				recordHit();
 			}
 			return value;
 		}
@@ -570,11 +913,23 @@ public class ExpiryCache implements Map {
 	 *            the key to the object
 	 */
 	protected void onExpiredObject(Object key) {
-		cacheMap.remove(key);
+		removeCacheEntry(key);
 		// TODO - remove this
 		logMessage("expired",key);
 	}
 	
+	/**
+	 * Called when an object has been evicted because the cache was over its
+	 * maximum size or weight. Subclasses can use this to stop tracking the
+	 * object.  This is called while the cache is locked, so it must not call
+	 * back into the cache.
+	 * 
+	 * @param key -
+	 *            the key to the object
+	 */
+	protected void onEvictedObject(Object key) {
+	}
+
 	private void logMessage(String message, Object key) {
 		if (true) return;
 		StringBuffer sb = new StringBuffer();
@@ -605,6 +960,49 @@ public class ExpiryCache implements Map {
 		return true;
 	}
 
+	/**
+	 * Removes the object under a given key if it has expired at the given
+	 * point in time. Unlike calling <code>hasExpired()</code> and then
+	 * <code>remove()</code>, an object that is put again in the meantime is
+	 * left alone.
+	 * 
+	 * @param key -
+	 *            the key to the cached object
+	 * @param when -
+	 *            the time to do the comparision against
+	 * @return true if the object was removed
+	 */
+	public boolean removeIfExpired(Object key, long when) {
+		CacheEntry ce = (CacheEntry) cacheMap.get(key);
+		if (ce == null || !ce.hasExpired(when))
+			return false;
+		//
+		// ConcurrentReaderHashMap synchronizes its writes on itself so
+		// this makes the check and remove atomic with respect to puts
+		// and bounded caches make all their writes under the eviction lock
+		boolean bounded = evictionPolicy != null;
+		synchronized (bounded ? evictionLock : (Object) cacheMap) {
+			if (cacheMap.get(key) != ce)
+				return false;
+			if (bounded && evictionPolicy != null)
+				evictionPolicy.recordRemove(key);
+			cacheMap.remove(key);
+		}
+		logMessage("expired",key);
+		return true;
+	}
+
+	/**
+	 * Called after a new object has been placed into the cache. Subclasses
+	 * can use this to track when it will expire via
+	 * <code>whenExpires(key)</code>.
+	 * 
+	 * @param key -
+	 *            the key to the cached object
+	 */
+	protected void onCachedObject(Object key) {
+	}
+
 	/**
 	 * Called to dereference a CacheEntry's reference to an object, depending on
 	 * whether soft references have been used.
@@ -623,10 +1021,157 @@ public class ExpiryCache implements Map {
 	 */
 	private void putCacheEntry(Object key, Object objToCache, long timeToLive, long accessTimeout, long objVersion) {
 		logMessage("put",key);
+		CacheEntry ce;
 		if (isSoftReferences())
-			cacheMap.put(key, new CacheEntry(new SoftReference(objToCache), timeToLive, accessTimeout, objVersion));
+			ce = new CacheEntry(new SoftReference(objToCache), timeToLive, accessTimeout, objVersion);
 		else
-			cacheMap.put(key, new CacheEntry(objToCache, timeToLive, accessTimeout, objVersion));
+			ce = new CacheEntry(objToCache, timeToLive, accessTimeout, objVersion);
+		if (evictionPolicy == null) {
+			cacheMap.put(key, ce);
+			onCachedObject(key);
+			return;
+		}
+		//
+		// bounded caches keep the map and the eviction policy in step
+		// under the eviction lock
+		List evicted = null;
+		synchronized (evictionLock) {
+			cacheMap.put(key, ce);
+			if (evictionPolicy != null) {
+				drainReadBuffer();
+				evicted = evictionPolicy.recordPut(key, weigh(key, objToCache));
+				removeEvicted(evicted);
+			}
+		}
+		onCachedObject(key);
+		if (evicted != null) {
+			recordEvictions(evicted.size());
+		}
+	}
+
+	/**
+	 * Called to remove a CacheEntry from the cache, keeping any eviction
+	 * policy informed.
+	 */
+	private CacheEntry removeCacheEntry(Object key) {
+		if (evictionPolicy == null) {
+			return (CacheEntry) cacheMap.remove(key);
+		}
+		synchronized (evictionLock) {
+			if (evictionPolicy != null) {
+				evictionPolicy.recordRemove(key);
+			}
+			return (CacheEntry) cacheMap.remove(key);
+		}
+	}
+
+	/**
+	 * Removes the evicted keys from the cache map. Must be called while
+	 * holding the eviction lock.
+	 */
+	private void removeEvicted(List evicted) {
+		for (int i = 0; i < evicted.size(); i++) {
+			Object key = evicted.get(i);
+			logMessage("evicted",key);
+			cacheMap.remove(key);
+			onEvictedObject(key);
+		}
+	}
+
+	/**
+	 * Buffers a read for the eviction policy without locking. The read that
+	 * fills the buffer hands it to the policy. The unsynchronized index may
+	 * lose reads that race each other, which the policy can live with.
+	 */
+	private void recordPolicyAccess(Object key) {
+		if (evictionPolicy == null) {
+			return;
+		}
+		int index = readBufferIndex++;
+		if (index < READ_BUFFER_SIZE) {
+			readBuffer[index] = key;
+		}
+		if (index >= READ_BUFFER_SIZE - 1) {
+			synchronized (evictionLock) {
+				drainReadBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Hands the buffered reads to the eviction policy. Must be called while
+	 * holding the eviction lock.
+	 */
+	private void drainReadBuffer() {
+		for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+			Object key = readBuffer[i];
+			if (key != null) {
+				readBuffer[i] = null;
+				if (evictionPolicy != null) {
+					evictionPolicy.recordAccess(key);
+				}
+			}
+		}
+		readBufferIndex = 0;
+	}
+
+	/**
+	 * Forgets the buffered reads. Must be called while holding the eviction
+	 * lock.
+	 */
+	private void clearReadBuffer() {
+		for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+			readBuffer[i] = null;
+		}
+		readBufferIndex = 0;
+	}
+
+	/**
+	 * Estimates how many entries fit within the maximum weight. Must be called
+	 * while holding the eviction lock.
+	 */
+	private int estimateEntries(long maximum) {
+		if (weigher == null) {
+			return (int) Math.min(maximum, Integer.MAX_VALUE);
+		}
+		long count = 0;
+		long totalWeight = 0;
+		for (Iterator iter = cacheMap.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			totalWeight += weigh(entry.getKey(), ((CacheEntry) entry.getValue()).peekCachedData());
+			count++;
+		}
+		if (count == 0 || totalWeight == 0) {
+			return (int) Math.min(maximum, DEFAULT_EXPECTED_ENTRIES);
+		}
+		return (int) Math.min(maximum * count / totalWeight, Integer.MAX_VALUE);
+	}
+
+	private long weigh(Object key, Object value) {
+		if (weigher == null) {
+			return 1;
+		}
+		int weight = weigher.weigh(key, value);
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weigher returned a negative weight for key : " + key);
+		}
+		return weight;
+	}
+
+	private void recordHit() {
+		hitCount++;
+	}
+
+	private void recordMiss() {
+		missCount++;
+	}
+
+	private void recordEvictions(int count) {
+		if (count > 0) {
+			synchronized (statisticsLock) {
+				evictionCount += count;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,145 @@
+package echopointng.util.collections;
+/*
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+/**
+ * <code>FrequencySketch</code> is a small count-min sketch that estimates how
+ * often a key has been seen recently.
+ * <p>
+ * Each key is hashed onto four counters and its frequency is the smallest of
+ * them. Counters saturate at 15 and all of them are halved once enough
+ * increments have been recorded, so that old popularity fades away over time.
+ * <p>
+ * This class is not thread safe and must be guarded by its owner.
+ */
+class FrequencySketch {
+
+	private static final int MAX_COUNT = 15;
+
+	private static final int[] SEEDS = new int[] { 0x97cb3127, 0xb1e4e03d, 0x6b43a9b5, 0x3c6ef372 };
+
+	private int[] table;
+
+	private int tableMask;
+
+	private int additions;
+
+	private int sampleSize;
+
+	/**
+	 * Constructs a <code>FrequencySketch</code> able to track roughly the
+	 * given number of keys. The sketch is sized once and never grows, so the
+	 * frequencies it records are only ever aged, never discarded.
+	 *
+	 * @param expectedKeys -
+	 *            the expected number of distinct keys
+	 */
+	FrequencySketch(int expectedKeys) {
+		int size = 16;
+		while (size < expectedKeys && size < (1 << 30)) {
+			size <<= 1;
+		}
+		table = new int[size];
+		tableMask = size - 1;
+		sampleSize = size * 10;
+	}
+
+	/**
+	 * Returns the estimated frequency of the key, from 0 to 15
+	 *
+	 * @param key -
+	 *            the key to estimate
+	 * @return the estimated frequency of the key
+	 */
+	int frequency(Object key) {
+		int hash = spread(key);
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int count = table[indexOf(hash, i)];
+			if (count < frequency) {
+				frequency = count;
+			}
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an occurrence of the key, aging the sketch if the sample size
+	 * has been reached.
+	 *
+	 * @param key -
+	 *            the key to record
+	 */
+	void increment(Object key) {
+		int hash = spread(key);
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Clears all recorded frequencies
+	 */
+	void clear() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = 0;
+		}
+		additions = 0;
+	}
+
+	/**
+	 * Halves every counter so that past popularity decays
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		additions >>>= 1;
+	}
+
+	private int indexOf(int hash, int i) {
+		int h = (hash ^ SEEDS[i]) * SEEDS[i];
+		h ^= h >>> 16;
+		return h & tableMask;
+	}
+
+	private static int spread(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+}
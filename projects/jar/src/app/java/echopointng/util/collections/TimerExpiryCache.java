@@ -29,10 +29,7 @@ package echopointng.util.collections;
  */
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -40,7 +37,7 @@ import java.util.TimerTask;
 /**
  * <code>TimerExpiryCache</code> is an a implementation
  * of <code>ExpiryCache</code> that can contain
- * objects that "expire".  A <b>shared</b> background task will 
+ * objects that "expire".  A background task will 
  * periodically "reap" objects that have "expired". 
  * <p>
  * By default, soft references are used to the cached data so that they can 
@@ -61,28 +58,39 @@ import java.util.TimerTask;
  * <p>
  * If both the time-to-live and access-timeout is -1, then the object
  * will never expire from the cache.
+ * <p>
+ * Each cache keeps its keys in a timing wheel ordered by when they are
+ * due to expire, so a sweep only looks at the keys that are due rather
+ * than at every key in the cache, and it never locks the cache as a whole.
+ * Keys whose access timeout has been pushed back since they were scheduled
+ * are simply re-scheduled.
+ * <p>
+ * By default all caches are swept by a shared daemon <code>Timer</code>
+ * but a <code>Timer</code> can be provided to each cache if need be.
  */
 public class TimerExpiryCache extends ExpiryCache {
 
 	/** 
 	 * The reaper interval is 2 minutes.  Therefore the cached object 
-	 * life span granulairty is +/- 1 minute. 
+	 * life span granulairty is +/- 1 minute.  A shorter interval can be
+	 * given to the constructor.
 	 */
 	public static final long DEFAULT_REAPER_INTERVAL = 2 * 60 * 1000;
 
-	/** This is an array of all ExpiryCaches that are to be reaped */
-	private static List allExpiryCaches;
-	
+	/** The number of sweep intervals covered by one turn of the timing wheel */
+	private static final int TICKS_PER_WHEEL = 512;
+
 	/** 
-	 * The TimerExpiryCache reaper runs as a TimerTask under this static Timer.  
-	 * All TimerExpiryCache instances share this common reaper.
+	 * The shared Timer that sweeps all TimerExpiryCache instances that have
+	 * not been given their own Timer.
 	 */
-	private static Timer reaperTimer;
-	static {
-		allExpiryCaches = new ArrayList();
-		reaperTimer = new Timer(true);
-		reaperTimer.schedule(new ReaperTimerTask(), DEFAULT_REAPER_INTERVAL, DEFAULT_REAPER_INTERVAL);
-	}
+	private static Timer sharedSweepTimer;
+
+	private ExpirationWheel expirationWheel;
+
+	private TimerTask sweepTask;
+
+	private final Object sweepLock = new Object();
 
 	/**
 	 * Constructs a default <code>TimerExpiryCache</code>
@@ -109,55 +117,134 @@ public class TimerExpiryCache extends ExpiryCache {
 	 * @param softReferences - whether soft refernces are used to cached data
 	 */
 	public TimerExpiryCache(long timeToLive, long accessTimeout, boolean softReferences) {
+		this(timeToLive,accessTimeout,softReferences,null,DEFAULT_REAPER_INTERVAL);
+	}
+
+	/**
+	 * Constructs a <code>TimerExpiryCache</code> that is swept by the given
+	 * <code>Timer</code>
+	 * 
+	 * @param timeToLive - the default time-to-live for a cache entry
+	 * @param accessTimeout - the default access timeout for a cache entry
+	 * @param softReferences - whether soft refernces are used to cached data
+	 * @param sweepTimer - the Timer used to sweep the cache or null to use the shared Timer
+	 * @param sweepInterval - how often in milliseconds expired objects are swept from the cache
+	 */
+	public TimerExpiryCache(long timeToLive, long accessTimeout, boolean softReferences, Timer sweepTimer, long sweepInterval) {
 		super(timeToLive,accessTimeout,softReferences);
-		// add ourselves to the queue of TimerExpiryCaches for the reaper
-		synchronized (allExpiryCaches) {
-			allExpiryCaches.add(new WeakReference(this));
+		if (sweepInterval <= 0) {
+			throw new IllegalArgumentException("sweepInterval must be > 0");
+		}
+		expirationWheel = new ExpirationWheel(sweepInterval, TICKS_PER_WHEEL);
+		if (sweepTimer == null) {
+			sweepTimer = getSharedSweepTimer();
+		}
+		sweepTask = new SweepTimerTask(this);
+		sweepTimer.schedule(sweepTask, sweepInterval, sweepInterval);
+	}
+
+	private static synchronized Timer getSharedSweepTimer() {
+		if (sharedSweepTimer == null) {
+			sharedSweepTimer = new Timer(true);
+		}
+		return sharedSweepTimer;
+	}
+
+	/**
+	 * Removes all the objects that have expired from the cache.  This is 
+	 * called periodically by the sweep Timer but can be called at any time.
+	 */
+	public void sweep() {
+		synchronized (sweepLock) {
+			long now = System.currentTimeMillis();
+			List dueKeys = expirationWheel.advance(now);
+			for (int i = 0; i < dueKeys.size(); i++) {
+				Object key = dueKeys.get(i);
+				if (! removeIfExpired(key,now)) {
+					//
+					// its been accessed or put again since it was
+					// scheduled so work out when its due now
+					scheduleExpiry(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the background sweeping of this cache.  Expired objects are
+	 * still removed as they are encountered via <code>get()</code>.
+	 */
+	public void dispose() {
+		sweepTask.cancel();
+	}
+
+	/**
+	 * @see echopointng.util.collections.ExpiryCache#onCachedObject(java.lang.Object)
+	 */
+	protected void onCachedObject(Object key) {
+		scheduleExpiry(key);
+	}
+
+	/**
+	 * @see echopointng.util.collections.ExpiryCache#onExpiredObject(java.lang.Object)
+	 */
+	protected void onExpiredObject(Object key) {
+		expirationWheel.cancel(key);
+		super.onExpiredObject(key);
+	}
+
+	/**
+	 * @see echopointng.util.collections.ExpiryCache#onEvictedObject(java.lang.Object)
+	 */
+	protected void onEvictedObject(Object key) {
+		expirationWheel.cancel(key);
+	}
+
+	/**
+	 * @see echopointng.util.collections.ExpiryCache#remove(java.lang.Object)
+	 */
+	public Object remove(Object key) {
+		expirationWheel.cancel(key);
+		return super.remove(key);
+	}
+
+	/**
+	 * @see echopointng.util.collections.ExpiryCache#clear()
+	 */
+	public void clear() {
+		super.clear();
+		expirationWheel.clear();
+	}
+
+	private void scheduleExpiry(Object key) {
+		long when = whenExpires(key);
+		if (when > 0) {
+			expirationWheel.schedule(key,when);
 		}
 	}
 
-	/** A shared TimrTask that reapers all of the various ExpiryCaches */
-	private static class ReaperTimerTask extends TimerTask {
+	/** 
+	 * A TimerTask that sweeps a single TimerExpiryCache.  It only weakly
+	 * refers to the cache and cancels itself once the cache has gone.
+	 */
+	private static class SweepTimerTask extends TimerTask {
+		
+		private WeakReference cacheRef;
+		
+		private SweepTimerTask(TimerExpiryCache expiryCache) {
+			cacheRef = new WeakReference(expiryCache);
+		}
 		
 		public void run() {
-			//System.err.println("Cleanup");
+			TimerExpiryCache expiryCache = (TimerExpiryCache) cacheRef.get();
+			if (expiryCache == null) {
+				cancel();
+				return;
+			}
 			Thread currentThread = Thread.currentThread();
 			if (currentThread.getPriority() != Thread.MIN_PRIORITY)
 				currentThread.setPriority(Thread.MIN_PRIORITY);
-			
-			synchronized (allExpiryCaches) {
-				for (Iterator iter = allExpiryCaches.iterator(); iter.hasNext();) {
-					WeakReference weakRef = (WeakReference) iter.next();
-					TimerExpiryCache expiryCache = (TimerExpiryCache) (weakRef == null ? null : weakRef.get());
-					//
-					// our global list is weakly referenced to the ExpiryCaches.  If
-					// its gone, then no one else was interested in the cache
-					// and neither are we
-					//
-					if (expiryCache == null) {
-						iter.remove();
-						continue;
-					}
-	
-					List list = new ArrayList();
-					synchronized (expiryCache) { 
-						long now = System.currentTimeMillis();
-						Set keys = expiryCache.keySet();
-						Iterator itr = keys.iterator(); // Must be in synchronized block
-						while (itr.hasNext()) {
-							Object key = itr.next();
-							if (expiryCache.hasExpired(key,now)) {
-								list.add(key);
-							}
-						}
-						for (Iterator iter2 = list.iterator(); iter2.hasNext();) {
-							//System.err.println("Removing :" + key);
-							Object key = iter2.next();
-							expiryCache.put(key,null);
-						}
-					}
-				}	
-			}				
+			expiryCache.sweep();
 		}
-	};
+	}
 }
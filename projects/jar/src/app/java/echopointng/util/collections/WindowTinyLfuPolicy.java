@@ -0,0 +1,257 @@
+package echopointng.util.collections;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>WindowTinyLfuPolicy</code> decides which keys a bounded
+ * <code>ExpiryCache</code> should evict once it grows past its maximum weight.
+ * <p>
+ * New keys enter a small LRU "window" that holds about 1% of the maximum
+ * weight. Keys falling out of the window must then compete with the least
+ * recently used key of the "main" LRU area, and only the one that a
+ * <code>FrequencySketch</code> says has been used more often is kept. This
+ * lets recently added keys settle in, while stopping one-off keys from pushing
+ * popular ones out of the cache.
+ * <p>
+ * This class is not thread safe and must be guarded by its owner.
+ */
+class WindowTinyLfuPolicy {
+
+	/**
+	 * <code>Node</code> records the weight of a key being tracked
+	 */
+	private static class Node {
+		private Object key;
+
+		private long weight;
+
+		private Node(Object key, long weight) {
+			this.key = key;
+			this.weight = weight;
+		}
+	}
+
+	private long maximum;
+
+	private long windowMaximum;
+
+	private long mainMaximum;
+
+	private long windowWeight;
+
+	private long mainWeight;
+
+	private LinkedHashMap window = new LinkedHashMap(16, 0.75f, true);
+
+	private LinkedHashMap main = new LinkedHashMap(16, 0.75f, true);
+
+	/** the most keys the sketch is sized for */
+	private static final int MAXIMUM_SKETCH_KEYS = 1 << 20;
+
+	private FrequencySketch sketch;
+
+	/**
+	 * Constructs a <code>WindowTinyLfuPolicy</code>. The frequency sketch is
+	 * sized once from the number of keys expected to be tracked.
+	 * 
+	 * @param maximum -
+	 *            the maximum total weight of tracked keys
+	 * @param expectedKeys -
+	 *            the number of keys expected when the maximum is reached
+	 */
+	WindowTinyLfuPolicy(long maximum, int expectedKeys) {
+		setMaximum(maximum);
+		sketch = new FrequencySketch(Math.min(expectedKeys, MAXIMUM_SKETCH_KEYS));
+	}
+
+	/**
+	 * @return the maximum total weight of tracked keys
+	 */
+	long getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Changes the maximum total weight. Call <code>evict()</code> afterwards to
+	 * find the keys that no longer fit.
+	 * 
+	 * @param maximum -
+	 *            the new maximum total weight
+	 */
+	void setMaximum(long maximum) {
+		if (maximum < 0) {
+			throw new IllegalArgumentException("maximum must be >= 0");
+		}
+		this.maximum = maximum;
+		this.windowMaximum = Math.max(1, maximum / 100);
+		this.mainMaximum = Math.max(0, maximum - windowMaximum);
+	}
+
+	/**
+	 * @return the total weight of all tracked keys
+	 */
+	long getWeightedSize() {
+		return windowWeight + mainWeight;
+	}
+
+	/**
+	 * Records that a key has been put into the cache.
+	 * 
+	 * @param key -
+	 *            the key that was put
+	 * @param weight -
+	 *            the weight of its value
+	 * @return a List of the keys that must now be evicted, which may include
+	 *         the key that was just put
+	 */
+	List recordPut(Object key, long weight) {
+		sketch.increment(key);
+		Node node = (Node) window.get(key);
+		if (node != null) {
+			windowWeight += weight - node.weight;
+			node.weight = weight;
+		} else {
+			node = (Node) main.get(key);
+			if (node != null) {
+				mainWeight += weight - node.weight;
+				node.weight = weight;
+			} else {
+				window.put(key, new Node(key, weight));
+				windowWeight += weight;
+			}
+		}
+		return evict();
+	}
+
+	/**
+	 * Records that a key has been read from the cache.
+	 * 
+	 * @param key -
+	 *            the key that was read
+	 */
+	void recordAccess(Object key) {
+		sketch.increment(key);
+		if (window.get(key) == null) {
+			main.get(key);
+		}
+	}
+
+	/**
+	 * Records that a key has been removed from the cache.
+	 * 
+	 * @param key -
+	 *            the key that was removed
+	 */
+	void recordRemove(Object key) {
+		Node node = (Node) window.remove(key);
+		if (node != null) {
+			windowWeight -= node.weight;
+			return;
+		}
+		node = (Node) main.remove(key);
+		if (node != null) {
+			mainWeight -= node.weight;
+		}
+	}
+
+	/**
+	 * Forgets all tracked keys
+	 */
+	void clear() {
+		window.clear();
+		main.clear();
+		windowWeight = 0;
+		mainWeight = 0;
+		sketch.clear();
+	}
+
+	/**
+	 * Moves keys out of the window into the main area and evicts keys until
+	 * the total weight is within the maximum.
+	 * 
+	 * @return a List of the keys that have been evicted
+	 */
+	List evict() {
+		List evicted = new ArrayList();
+		while (windowWeight > windowMaximum && !window.isEmpty()) {
+			Node candidate = removeFirst(window);
+			windowWeight -= candidate.weight;
+			admit(candidate, evicted);
+		}
+		while (windowWeight + mainWeight > maximum) {
+			Node victim;
+			if (!main.isEmpty()) {
+				victim = removeFirst(main);
+				mainWeight -= victim.weight;
+			} else {
+				victim = removeFirst(window);
+				windowWeight -= victim.weight;
+			}
+			evicted.add(victim.key);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Lets a candidate that has left the window into the main area if it is
+	 * used more often than the keys it would displace.
+	 */
+	private void admit(Node candidate, List evicted) {
+		if (candidate.weight > maximum) {
+			evicted.add(candidate.key);
+			return;
+		}
+		int candidateFrequency = sketch.frequency(candidate.key);
+		while (mainWeight + candidate.weight > mainMaximum && !main.isEmpty()) {
+			Node victim = (Node) main.values().iterator().next();
+			if (candidateFrequency <= sketch.frequency(victim.key)) {
+				evicted.add(candidate.key);
+				return;
+			}
+			main.remove(victim.key);
+			mainWeight -= victim.weight;
+			evicted.add(victim.key);
+		}
+		main.put(candidate.key, candidate);
+		mainWeight += candidate.weight;
+	}
+
+	private static Node removeFirst(Map map) {
+		Iterator it = map.values().iterator();
+		Node node = (Node) it.next();
+		it.remove();
+		return node;
+	}
+}
@@ -29,14 +29,61 @@
 package echopointng.util.reflect;
 
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The BeanKit provides methods to help when working with Java Bean compliant
  * objects and their properties.
+ * <p>
+ * The getter and setter methods of each class are looked up once and then
+ * cached by property name.
  * 
  */
 public class BeanKit {
 
+	private static final Object[] NO_ARGS = new Object[0];
+
+	/** a cache of Class to its BeanAccessors */
+	private static ClassCache accessorCache = new ClassCache();
+
+	/**
+	 * <code>BeanAccessors</code> holds the getter and setter methods of a
+	 * class keyed by property name.
+	 */
+	private static class BeanAccessors {
+		private Map getters = new HashMap();
+
+		private Map setters = new HashMap();
+
+		private BeanAccessors(Class beanClass) {
+			// the first method found for a property name wins
+			Method[] methods = ReflectionKit.getAllBeanGetterMethods(beanClass, Object.class);
+			for (int i = 0; i < methods.length; i++) {
+				String propertyName = ReflectionKit.decapitalize(methods[i].getName());
+				if (!getters.containsKey(propertyName)) {
+					getters.put(propertyName, methods[i]);
+				}
+			}
+			methods = ReflectionKit.getAllBeanSetterMethods(beanClass, Object.class);
+			for (int i = 0; i < methods.length; i++) {
+				String propertyName = ReflectionKit.decapitalize(methods[i].getName());
+				if (!setters.containsKey(propertyName)) {
+					setters.put(propertyName, methods[i]);
+				}
+			}
+		}
+	}
+
+	private static BeanAccessors getAccessors(Class beanClass) {
+		BeanAccessors accessors = (BeanAccessors) accessorCache.get(beanClass);
+		if (accessors == null) {
+			accessors = new BeanAccessors(beanClass);
+			accessorCache.put(beanClass, accessors);
+		}
+		return accessors;
+	}
+
 	/**
 	 * A wrapper Exception that can be throw during BeanKit operations
 	 * 
@@ -68,29 +115,24 @@ public class BeanKit {
 	}
 
 	private static Method findGetter(Object obj, String propertyName) throws BeanKitException {
-		Method[] methods = ReflectionKit.getAllBeanGetterMethods(obj.getClass(), Object.class);
-		for (int i = 0; i < methods.length; i++) {
-			String getterPropertyName = ReflectionKit.decapitalize(methods[i].getName());
-			if (getterPropertyName.equals(propertyName)) {
-				return methods[i];
-			}
+		Method getter = (Method) getAccessors(obj.getClass()).getters.get(propertyName);
+		if (getter != null) {
+			return getter;
 		}
 		throw new BeanKitException("No getter found for propertyName - " + propertyName + " within " + obj.getClass().getName());
 	}
 
 	private static Method findSetter(Object obj, String propertyName) throws BeanKitException {
-		Method[] methods = ReflectionKit.getAllBeanSetterMethods(obj.getClass(), Object.class);
-		for (int i = 0; i < methods.length; i++) {
-			if (ReflectionKit.decapitalize(methods[i].getName()).equals(propertyName)) {
-				return methods[i];
-			}
+		Method setter = (Method) getAccessors(obj.getClass()).setters.get(propertyName);
+		if (setter != null) {
+			return setter;
 		}
 		throw new BeanKitException("No setter found for propertyName - " + propertyName + " within " + obj.getClass().getName());
 	}
 
 	private static Object invokeGetter(Object obj, Method getter) throws BeanKitException {
 		try {
-			Object rc = getter.invoke(obj, new Object[] {});
+			Object rc = getter.invoke(obj, NO_ARGS);
 			return rc;
 		} catch (java.lang.Exception e) {
 			throw new BeanKitException("Could not invoke getter - " + getter.getName(), e);
@@ -0,0 +1,111 @@
+package echopointng.util.reflect;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+import echopointng.util.collections.ConcurrentReaderHashMap;
+
+/**
+ * <code>ClassCache</code> holds reflection metadata on a per class basis.
+ * <p>
+ * The classes are weakly referenced and the metadata softly referenced, so
+ * that the cache never stops a class (or its class loader) from being
+ * unloaded, even though the metadata typically refers back to its class.
+ * <p>
+ * The entries are kept in a <code>ConcurrentReaderHashMap</code>, so lookups
+ * do not lock and only adding metadata is synchronized.  Entries whose class
+ * has been unloaded are removed when metadata is next added.
+ */
+class ClassCache {
+
+	/**
+	 * <code>ClassKey</code> weakly references a class and is equal to any
+	 * other <code>ClassKey</code> for the same class.
+	 */
+	private static class ClassKey extends WeakReference {
+		private int hash;
+
+		private ClassKey(Class targetClass, ReferenceQueue queue) {
+			super(targetClass, queue);
+			hash = System.identityHashCode(targetClass);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof ClassKey)) {
+				return false;
+			}
+			Object targetClass = get();
+			return targetClass != null && targetClass == ((ClassKey) obj).get();
+		}
+	}
+
+	private Map map = new ConcurrentReaderHashMap();
+
+	private ReferenceQueue queue = new ReferenceQueue();
+
+	/**
+	 * Returns the metadata cached for a class or null if there is none
+	 * 
+	 * @param targetClass -
+	 *            the class in question
+	 * @return the cached metadata or null
+	 */
+	Object get(Class targetClass) {
+		SoftReference ref = (SoftReference) map.get(new ClassKey(targetClass, null));
+		return ref == null ? null : ref.get();
+	}
+
+	/**
+	 * Caches the metadata for a class
+	 * 
+	 * @param targetClass -
+	 *            the class in question
+	 * @param metadata -
+	 *            the metadata to cache
+	 */
+	synchronized void put(Class targetClass, Object metadata) {
+		Reference staleKey;
+		while ((staleKey = queue.poll()) != null) {
+			map.remove(staleKey);
+		}
+		map.put(new ClassKey(targetClass, queue), new SoftReference(metadata));
+	}
+}
@@ -37,14 +37,20 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <code>ReflectionKit</code> provides methods that help when using reflection
  * on Java code.
+ * <p>
+ * The sorted declared methods of each class, the bean methods of each class
+ * and the methods found by <code>hasMethod</code> and
+ * <code>invokeIfPresent</code> are cached per class, so repeated calls do not
+ * walk and sort the class hierarchy again.
  */
 public class ReflectionKit {
 
@@ -429,6 +435,146 @@ public class ReflectionKit {
 	private ReflectionKit() {
 	}
 
+	private static final int BEAN_GETTERS = 0;
+
+	private static final int BEAN_SETTERS = 1;
+
+	private static final int BEAN_METHODS = 2;
+
+	private static final Object NO_METHOD = new Object();
+
+	/** a cache of Class to its declared methods in ClassMethodComparator order */
+	private static ClassCache declaredMethodCache = new ClassCache();
+
+	/** a cache of Class to a Map of stopClass to its bean Method[][] */
+	private static ClassCache beanMethodCache = new ClassCache();
+
+	/** a cache of Class to a Map of SignatureKey to Method */
+	private static ClassCache signatureMethodCache = new ClassCache();
+
+	/**
+	 * <code>SignatureKey</code> identifies a method by its name, parameter
+	 * types and return type. The types are compared as <code>Class</code>
+	 * objects and not by name, since classes with the same name can come from
+	 * different class loaders.
+	 */
+	private static final class SignatureKey {
+		private String methodName;
+
+		private Class[] paramTypes;
+
+		private Class returnType;
+
+		private int hash;
+
+		private SignatureKey(String methodName, Class[] paramTypes, Class returnType) {
+			this.methodName = methodName;
+			this.paramTypes = (Class[]) paramTypes.clone();
+			this.returnType = returnType;
+			int h = methodName.hashCode() * 31 + System.identityHashCode(returnType);
+			for (int i = 0; i < paramTypes.length; i++) {
+				h = h * 31 + System.identityHashCode(paramTypes[i]);
+			}
+			this.hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof SignatureKey)) {
+				return false;
+			}
+			SignatureKey other = (SignatureKey) obj;
+			if (hash != other.hash || returnType != other.returnType || paramTypes.length != other.paramTypes.length
+					|| !methodName.equals(other.methodName)) {
+				return false;
+			}
+			for (int i = 0; i < paramTypes.length; i++) {
+				if (paramTypes[i] != other.paramTypes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the declared methods of a class sorted using the
+	 * ClassMethodComparator. The returned array is shared and must not be
+	 * modified.
+	 */
+	private static Method[] getSortedDeclaredMethods(Class targetClass) {
+		Method[] methods = (Method[]) declaredMethodCache.get(targetClass);
+		if (methods == null) {
+			methods = targetClass.getDeclaredMethods();
+			Arrays.sort(methods, new ClassMethodComparator());
+			declaredMethodCache.put(targetClass, methods);
+		}
+		return methods;
+	}
+
+	/**
+	 * Returns a copy of the cached bean methods of the given kind, finding
+	 * them if they have not been cached yet.
+	 */
+	private static Method[] getCachedBeanMethods(Class targetClass, Class stopClass, int kind) {
+		if (targetClass == null || stopClass == null)
+			return new Method[0];
+
+		Map stopClassMap;
+		synchronized (beanMethodCache) {
+			stopClassMap = (Map) beanMethodCache.get(targetClass);
+			if (stopClassMap == null) {
+				stopClassMap = new HashMap();
+				beanMethodCache.put(targetClass, stopClassMap);
+			}
+		}
+		Method[][] beanMethods;
+		synchronized (stopClassMap) {
+			beanMethods = (Method[][]) stopClassMap.get(stopClass);
+			if (beanMethods == null) {
+				beanMethods = new Method[3][];
+				stopClassMap.put(stopClass, beanMethods);
+			}
+			if (beanMethods[kind] == null) {
+				beanMethods[kind] = findBeanMethods(targetClass, stopClass, kind);
+			}
+		}
+		return (Method[]) beanMethods[kind].clone();
+	}
+
+	private static Method[] findBeanMethods(Class targetClass, Class stopClass, int kind) {
+		Method[] methods;
+		if (kind == BEAN_GETTERS) {
+			methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
+				public boolean isMethodOK(Class methodClass, Method method) {
+					return isGetter(method);
+				}
+			});
+			Arrays.sort(methods, new ClassMethodComparator());
+		} else if (kind == BEAN_SETTERS) {
+			methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
+				public boolean isMethodOK(Class methodClass, Method method) {
+					return isSetter(method);
+				}
+			});
+			Arrays.sort(methods, new ClassMethodComparator());
+		} else {
+			methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
+				public boolean isMethodOK(Class methodClass, Method method) {
+					return isSetter(method) || isGetter(method);
+				}
+			});
+			Arrays.sort(methods, new MethodClassComparator());
+		}
+		return methods;
+	}
+
 	/**
 	 * Returns true if the method is in fact a Java Bean getter method. ie is
 	 * starts with 'get' or 'is' and takes no parameters and returns a value and
@@ -550,21 +696,14 @@ public class ReflectionKit {
 		Class currentClass = targetClass;
 		List methodList = new ArrayList();
 		do {
-			methods = currentClass.getDeclaredMethods();
-			List subMethodList = new ArrayList();
-			if (methods.length > 0) {
-				for (int i = 0; i < methods.length; i++) {
-					Method m = methods[i];
-					// does it meet our matching criteria
-					if (methodSearchCriteria.isMethodOK(currentClass, m)) {
-						subMethodList.add(m);
-						methodCount++;
-					}
-				}
-				// sort the methods and add to the master list
-				Collections.sort(subMethodList, new ClassMethodComparator());
-				for (Iterator iter = subMethodList.iterator(); iter.hasNext();) {
-					methodList.add(iter.next());
+			// the declared methods are already sorted, so the ones that
+			// meet our matching criteria are added in sorted order
+			methods = getSortedDeclaredMethods(currentClass);
+			for (int i = 0; i < methods.length; i++) {
+				Method m = methods[i];
+				if (methodSearchCriteria.isMethodOK(currentClass, m)) {
+					methodList.add(m);
+					methodCount++;
 				}
 			}
 			if (currentClass == stopClass)
@@ -664,13 +803,7 @@ public class ReflectionKit {
 	 * @return and array of Methods or Method[0] if there are none
 	 */
 	public static Method[] getAllBeanGetterMethods(Class targetClass, Class stopClass) {
-		Method[] methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
-			public boolean isMethodOK(Class methodClass, Method method) {
-				return isGetter(method);
-			}
-		});
-		Arrays.sort(methods, new ClassMethodComparator());
-		return methods;
+		return getCachedBeanMethods(targetClass, stopClass, BEAN_GETTERS);
 	}
 
 	/**
@@ -692,13 +825,7 @@ public class ReflectionKit {
 	 * @return and array of Methods or Method[0] if there are none
 	 */
 	public static Method[] getAllBeanSetterMethods(Class targetClass, Class stopClass) {
-		Method[] methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
-			public boolean isMethodOK(Class methodClass, Method method) {
-				return isSetter(method);
-			}
-		});
-		Arrays.sort(methods, new ClassMethodComparator());
-		return methods;
+		return getCachedBeanMethods(targetClass, stopClass, BEAN_SETTERS);
 	}
 
 	/**
@@ -721,13 +848,7 @@ public class ReflectionKit {
 	 * @return and array of Methods or Method[0] if there are none
 	 */
 	public static Method[] getAllBeanMethods(Class targetClass, Class stopClass) {
-		Method[] methods = getMethods(targetClass, stopClass, new MethodSearchCriteria() {
-			public boolean isMethodOK(Class methodClass, Method method) {
-				return isSetter(method) || isGetter(method);
-			}
-		});
-		Arrays.sort(methods, new MethodClassComparator());
-		return methods;
+		return getCachedBeanMethods(targetClass, stopClass, BEAN_METHODS);
 	}
 
 	/**
@@ -834,34 +955,7 @@ public class ReflectionKit {
 		if (returnType == null)
 			returnType = Void.TYPE;
 
-		final String testMethodName = methodName;
-		final Class[] testParamTypes = paramTypes;
-		final Class testReturnType = returnType;
-		Method[] methods = getMethods(targetObj.getClass(), Object.class, new MethodSearchCriteria() {
-			/**
-			 * @see echopointng.util.reflect.ReflectionKit.MethodSearchCriteria#isMethodOK(java.lang.Class,
-			 *      java.lang.reflect.Method)
-			 */
-			public boolean isMethodOK(Class methodClass, Method method) {
-				if (method.getName().equals(testMethodName)) {
-					if (method.getReturnType().equals(testReturnType)) {
-						Class[] paramTypes = method.getParameterTypes();
-						if (paramTypes.length == testParamTypes.length) {
-							for (int i = 0; i < paramTypes.length; i++) {
-								if (!testParamTypes[i].equals(paramTypes[i]))
-									return false;
-							}
-							return true;
-						}
-					}
-				}
-				return false;
-			}
-		});
-		if (methods.length > 0) {
-			return true;
-		}
-		return false;
+		return findMethod(methodName, paramTypes, returnType, targetObj.getClass()) != null;
 	}
 
 	/**
@@ -900,33 +994,10 @@ public class ReflectionKit {
 		if (returnType == null)
 			returnType = Void.TYPE;
 
-		final String testMethodName = methodName;
-		final Class[] testParamTypes = paramTypes;
-		final Class testReturnType = returnType;
-		Method[] methods = getMethods(targetObj.getClass(), Object.class, new MethodSearchCriteria() {
-			/**
-			 * @see echopointng.util.reflect.ReflectionKit.MethodSearchCriteria#isMethodOK(java.lang.Class,
-			 *      java.lang.reflect.Method)
-			 */
-			public boolean isMethodOK(Class methodClass, Method method) {
-				if (method.getName().equals(testMethodName)) {
-					if (method.getReturnType().equals(testReturnType)) {
-						Class[] paramTypes = method.getParameterTypes();
-						if (paramTypes.length == testParamTypes.length) {
-							for (int i = 0; i < paramTypes.length; i++) {
-								if (!testParamTypes[i].equals(paramTypes[i]))
-									return false;
-							}
-							return true;
-						}
-					}
-				}
-				return false;
-			}
-		});
-		if (methods.length > 0) {
+		Method method = findMethod(methodName, paramTypes, returnType, targetObj.getClass());
+		if (method != null) {
 			try {
-				return methods[0].invoke(targetObj, params);
+				return method.invoke(targetObj, params);
 			} catch (IllegalArgumentException e) {
 				throw new RuntimeException(e);
 			} catch (IllegalAccessException e) {
@@ -937,4 +1008,60 @@ public class ReflectionKit {
 		}
 		return null;
 	}
+
+	/**
+	 * Finds the method with the given name, parameter types and return type
+	 * in the class hierarchy of <code>targetClass</code>, caching the result.
+	 * 
+	 * @return the method or null if there is no such method
+	 */
+	private static Method findMethod(String methodName, Class[] paramTypes, Class returnType, Class targetClass) {
+		SignatureKey key = new SignatureKey(methodName, paramTypes, returnType);
+
+		Map signatureMap = (Map) signatureMethodCache.get(targetClass);
+		if (signatureMap == null) {
+			synchronized (signatureMethodCache) {
+				signatureMap = (Map) signatureMethodCache.get(targetClass);
+				if (signatureMap == null) {
+					signatureMap = new HashMap();
+					signatureMethodCache.put(targetClass, signatureMap);
+				}
+			}
+		}
+		Object method;
+		synchronized (signatureMap) {
+			method = signatureMap.get(key);
+		}
+		if (method == null) {
+			final String testMethodName = methodName;
+			final Class[] testParamTypes = paramTypes;
+			final Class testReturnType = returnType;
+			Method[] methods = getMethods(targetClass, Object.class, new MethodSearchCriteria() {
+				/**
+				 * @see echopointng.util.reflect.ReflectionKit.MethodSearchCriteria#isMethodOK(java.lang.Class,
+				 *      java.lang.reflect.Method)
+				 */
+				public boolean isMethodOK(Class methodClass, Method method) {
+					if (method.getName().equals(testMethodName)) {
+						if (method.getReturnType().equals(testReturnType)) {
+							Class[] paramTypes = method.getParameterTypes();
+							if (paramTypes.length == testParamTypes.length) {
+								for (int i = 0; i < paramTypes.length; i++) {
+									if (!testParamTypes[i].equals(paramTypes[i]))
+										return false;
+								}
+								return true;
+							}
+						}
+					}
+					return false;
+				}
+			});
+			method = methods.length > 0 ? (Object) methods[0] : NO_METHOD;
+			synchronized (signatureMap) {
+				signatureMap.put(key, method);
+			}
+		}
+		return method == NO_METHOD ? null : (Method) method;
+	}
 }
@@ -0,0 +1,87 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.general.test;
+
+import echopointng.EPNG;
+import echopointng.LabelEx;
+import junit.framework.TestCase;
+import nextapp.echo2.app.MutableStyle;
+import nextapp.echo2.app.MutableStyleSheet;
+import nextapp.echo2.app.Style;
+import nextapp.echo2.app.StyleSheet;
+
+public class FallBackStyleTest extends TestCase {
+
+	private static class TestLabel extends LabelEx {
+	}
+
+	private StyleSheet savedStyleSheet;
+
+	protected void setUp() throws Exception {
+		savedStyleSheet = EPNG.FALLBACK_STYLESHEET;
+	}
+
+	protected void tearDown() throws Exception {
+		EPNG.FALLBACK_STYLESHEET = savedStyleSheet;
+	}
+
+	public void testDefaultStyleSheetChanges() {
+		TestLabel label = new TestLabel();
+		assertEquals("d", EPNG.getRP(label, "testProperty", "d"));
+
+		MutableStyle style = new MutableStyle();
+		style.setProperty("testProperty", "a");
+		EPNG.DEFAULT_STYLESHEET.addStyle(TestLabel.class, null, style);
+		assertEquals("a", EPNG.getRP(label, "testProperty"));
+		assertEquals(7, EPNG.getRP(label, "otherProperty", 7));
+
+		label.setProperty("testProperty", "b");
+		assertEquals("b", EPNG.getRP(label, "testProperty"));
+	}
+
+	public void testStyleSheetReplaced() {
+		TestLabel label = new TestLabel();
+		MutableStyle style = new MutableStyle();
+		style.setProperty("testProperty", "x");
+		MutableStyleSheet styleSheet = new MutableStyleSheet();
+		styleSheet.addStyle(TestLabel.class, null, style);
+
+		EPNG.FALLBACK_STYLESHEET = styleSheet;
+		Style fallbackStyle = EPNG.getFallBackStyle(label);
+		assertEquals("x", fallbackStyle.getProperty("testProperty"));
+		assertSame(fallbackStyle, EPNG.getFallBackStyle(label));
+
+		style.setProperty("testProperty", "y");
+		EPNG.invalidateFallBackStyles();
+		assertEquals("y", EPNG.getFallBackStyle(label).getProperty("testProperty"));
+
+		EPNG.FALLBACK_STYLESHEET = null;
+		assertNull(EPNG.getFallBackStyle(label));
+	}
+}
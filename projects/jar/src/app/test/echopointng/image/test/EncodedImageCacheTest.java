@@ -0,0 +1,234 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.image.test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.Image;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+
+import junit.framework.TestCase;
+import echopointng.image.EncodedImageCache;
+import echopointng.image.EncodedImageReference;
+import echopointng.image.ImageEncoder;
+import echopointng.image.PngEncoder;
+
+/**
+ * Tests for <code>EncodedImageCache</code>
+ */
+public class EncodedImageCacheTest extends TestCase {
+
+	private static BufferedImage makeImage(Color color) {
+		BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(color);
+		g.fillRect(0, 0, 20, 10);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * An EncodedImageCache that counts the keys it works out
+	 */
+	private static class CountingCache extends EncodedImageCache {
+		private int keyCount;
+
+		private CountingCache() {
+			super(1024 * 1024);
+		}
+
+		public String getKey(Image image, ImageEncoder encoder) throws IOException {
+			keyCount++;
+			return super.getKey(image, encoder);
+		}
+	}
+
+	/**
+	 * A PngEncoder with settings that cannot be serialized
+	 */
+	private static class UnserializableEncoder extends PngEncoder {
+		private Object settings = new Object();
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		dir.delete();
+	}
+
+	public void testKeyIsContentBased() throws Exception {
+		EncodedImageCache cache = new EncodedImageCache(1024 * 1024);
+		PngEncoder encoder = new PngEncoder();
+		String key1 = cache.getKey(makeImage(Color.red), encoder);
+		String key2 = cache.getKey(makeImage(Color.red), encoder);
+		String key3 = cache.getKey(makeImage(Color.blue), encoder);
+		String key4 = cache.getKey(makeImage(Color.red), new PngEncoder(false, 9, PngEncoder.FILTER_NONE));
+		assertEquals(40, key1.length());
+		assertEquals(key1, key2);
+		assertFalse(key1.equals(key3));
+		assertFalse(key1.equals(key4));
+	}
+
+	public void testRenderSharesEncoding() throws Exception {
+		EncodedImageCache cache = new EncodedImageCache(1024 * 1024);
+		PngEncoder encoder = new PngEncoder();
+
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		cache.render(makeImage(Color.green), encoder, out1);
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		cache.render(makeImage(Color.green), new PngEncoder(), out2);
+
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getMemoryHitCount());
+		assertTrue(out1.size() > 0);
+		assertTrue(java.util.Arrays.equals(out1.toByteArray(), out2.toByteArray()));
+		assertEquals(out1.size(), cache.getMemoryBytes());
+	}
+
+	public void testSpillDirectory() throws Exception {
+		File dir = File.createTempFile("epng", "spill");
+		dir.delete();
+		EncodedImageCache cache = new EncodedImageCache(1024 * 1024);
+		cache.setSpillDirectory(dir);
+		try {
+			PngEncoder encoder = new PngEncoder();
+			ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+			cache.render(makeImage(Color.yellow), encoder, out1);
+			cache.clear();
+
+			ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+			cache.render(makeImage(Color.yellow), encoder, out2);
+			assertEquals(1, cache.getDiskHitCount());
+			assertTrue(java.util.Arrays.equals(out1.toByteArray(), out2.toByteArray()));
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	public void testSpillDirectoryIsBounded() throws Exception {
+		File dir = File.createTempFile("epng", "spill");
+		dir.delete();
+		EncodedImageCache cache = new EncodedImageCache(1024 * 1024);
+		cache.setSpillDirectory(dir);
+		try {
+			PngEncoder encoder = new PngEncoder();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			cache.render(makeImage(Color.red), encoder, out);
+			long fileSize = cache.getSpillBytes();
+			assertTrue(fileSize > 0);
+			cache.setMaximumSpillBytes(fileSize * 2);
+
+			cache.render(makeImage(Color.green), encoder, new ByteArrayOutputStream());
+			cache.render(makeImage(Color.blue), encoder, new ByteArrayOutputStream());
+			cache.render(makeImage(Color.white), encoder, new ByteArrayOutputStream());
+			assertTrue(cache.getSpillBytes() <= fileSize * 2);
+			assertTrue(dir.listFiles().length <= 2);
+
+			// the files already on disk are counted by a new cache
+			EncodedImageCache other = new EncodedImageCache(1024 * 1024);
+			other.setMaximumSpillBytes(fileSize);
+			other.setSpillDirectory(dir);
+			assertTrue(other.getSpillBytes() <= fileSize);
+			assertTrue(dir.listFiles().length <= 1);
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	public void testUnserializableEncoderFails() throws Exception {
+		EncodedImageCache cache = new EncodedImageCache(1024 * 1024);
+		try {
+			cache.getKey(makeImage(Color.red), new UnserializableEncoder());
+			fail("the encoder settings cannot be part of the key");
+		} catch (NotSerializableException e) {
+		}
+	}
+
+	public void testReferenceKeepsKey() throws Exception {
+		EncodedImageCache defaultCache = EncodedImageCache.getDefault();
+		CountingCache cache = new CountingCache();
+		EncodedImageCache.setDefault(cache);
+		try {
+			EncodedImageReference ref = new EncodedImageReference(makeImage(Color.red));
+			ref.setCachedByContent(true);
+			ref.render(new ByteArrayOutputStream());
+			ref.render(new ByteArrayOutputStream());
+			assertEquals(1, cache.keyCount);
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getMemoryHitCount());
+
+			ref.setImage(makeImage(Color.blue));
+			ref.render(new ByteArrayOutputStream());
+			assertEquals(2, cache.keyCount);
+			assertEquals(2, cache.getMissCount());
+		} finally {
+			EncodedImageCache.setDefault(defaultCache);
+		}
+	}
+
+	public void testUpdateForgetsKey() throws Exception {
+		EncodedImageCache defaultCache = EncodedImageCache.getDefault();
+		CountingCache cache = new CountingCache();
+		EncodedImageCache.setDefault(cache);
+		try {
+			final BufferedImage[] painted = new BufferedImage[] { makeImage(Color.red) };
+			final int[] paintCount = new int[1];
+			EncodedImageReference ref = new EncodedImageReference() {
+				public Image getImage() {
+					paintCount[0]++;
+					return painted[0];
+				}
+			};
+			ref.setCachedByContent(true);
+			ref.render(new ByteArrayOutputStream());
+			assertEquals(1, paintCount[0]);
+
+			// a hit needs neither a new key nor the image
+			ref.render(new ByteArrayOutputStream());
+			assertEquals(1, paintCount[0]);
+			assertEquals(1, cache.keyCount);
+
+			// a change made through update() is picked up
+			painted[0] = makeImage(Color.blue);
+			ref.update();
+			ref.render(new ByteArrayOutputStream());
+			assertEquals(2, paintCount[0]);
+			assertEquals(2, cache.keyCount);
+			assertEquals(2, cache.getMissCount());
+		} finally {
+			EncodedImageCache.setDefault(defaultCache);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.image.test;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import echopointng.image.GifEncoder;
+import junit.framework.TestCase;
+
+public class GifEncoderTest extends TestCase {
+
+	private static BufferedImage createPaletteImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] colors = { 0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffffff, 0x00000000, 0x40123456 };
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, colors[(x * 7 + y * 3) % colors.length]);
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage createGradientImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x + y) & 0xff));
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage roundTrip(GifEncoder encoder, Image image) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.encode(image, out);
+		return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static int distance(int rgb1, int rgb2) {
+		int dr = ((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff);
+		int dg = ((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff);
+		int db = (rgb1 & 0xff) - (rgb2 & 0xff);
+		return Math.max(Math.abs(dr), Math.max(Math.abs(dg), Math.abs(db)));
+	}
+
+	public void testExactPalette() throws Exception {
+		BufferedImage image = createPaletteImage(37, 23);
+		GifEncoder encoder = new GifEncoder();
+		for (int pass = 0; pass < 2; pass++) {
+			encoder.setInterlace(pass == 1);
+			BufferedImage decoded = roundTrip(encoder, image);
+			assertEquals(37, decoded.getWidth());
+			assertEquals(23, decoded.getHeight());
+			for (int y = 0; y < 23; y++) {
+				for (int x = 0; x < 37; x++) {
+					int expected = image.getRGB(x, y);
+					int actual = decoded.getRGB(x, y);
+					if ((expected >>> 24) < 0x80) {
+						assertEquals("pixel " + x + "," + y, 0, actual >>> 24);
+					} else {
+						assertEquals("pixel " + x + "," + y, expected, actual);
+					}
+				}
+			}
+		}
+	}
+
+	public void testQuantizedImage() throws Exception {
+		BufferedImage image = createGradientImage(200, 150);
+		GifEncoder encoder = new GifEncoder();
+		for (int pass = 0; pass < 2; pass++) {
+			encoder.setDither(pass == 1);
+			BufferedImage decoded = roundTrip(encoder, image);
+			assertEquals(200, decoded.getWidth());
+			assertEquals(150, decoded.getHeight());
+			long total = 0;
+			for (int y = 0; y < 150; y++) {
+				for (int x = 0; x < 200; x++) {
+					total += distance(image.getRGB(x, y), decoded.getRGB(x, y));
+				}
+			}
+			assertTrue("average error " + total / 30000, total / 30000 < 16);
+		}
+	}
+
+	public void testSmallPalette() throws Exception {
+		GifEncoder encoder = new GifEncoder(4, false);
+		BufferedImage decoded = roundTrip(encoder, createGradientImage(64, 64));
+		java.util.HashSet colors = new java.util.HashSet();
+		for (int y = 0; y < 64; y++) {
+			for (int x = 0; x < 64; x++) {
+				colors.add(new Integer(decoded.getRGB(x, y)));
+			}
+		}
+		assertTrue(colors.size() <= 4);
+	}
+
+	/**
+	 * An image that fails with an Error when it is encoded
+	 */
+	private static class BrokenImage extends BufferedImage {
+		private BrokenImage() {
+			super(10, 10, BufferedImage.TYPE_INT_RGB);
+		}
+
+		public int getWidth(java.awt.image.ImageObserver observer) {
+			throw new Error("broken frame");
+		}
+	}
+
+	public void testFrameErrorDoesNotHang() throws Exception {
+		final Image[] frames = new Image[] { createGradientImage(40, 30), new BrokenImage(), createGradientImage(40, 30),
+				createPaletteImage(40, 30) };
+		final GifEncoder encoder = new GifEncoder();
+		encoder.setParallelism(3);
+		final Throwable[] thrown = new Throwable[1];
+		Thread encoding = new Thread() {
+			public void run() {
+				try {
+					encoder.encodeAnimation(frames, 10, GifEncoder.LOOP_FOREVER, new ByteArrayOutputStream());
+				} catch (Throwable t) {
+					thrown[0] = t;
+				}
+			}
+		};
+		encoding.start();
+		encoding.join(10000);
+		assertFalse(encoding.isAlive());
+		assertNotNull(thrown[0]);
+		assertEquals("broken frame", thrown[0].getMessage());
+	}
+
+	public void testAnimation() throws Exception {
+		Image[] frames = new Image[5];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = i % 2 == 0 ? createGradientImage(40 + i, 30) : createPaletteImage(40, 30 + i);
+		}
+		GifEncoder encoder = new GifEncoder();
+		assertEquals(1, encoder.getParallelism());
+		ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+		encoder.encodeAnimation(frames, 10, GifEncoder.LOOP_FOREVER, sequential);
+		encoder.setParallelism(3);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.encodeAnimation(frames, 10, GifEncoder.LOOP_FOREVER, out);
+		assertTrue(java.util.Arrays.equals(sequential.toByteArray(), out.toByteArray()));
+		assertTrue(GifEncoder.getFrameWorkerPool().getThreadCount() <= GifEncoder.getFrameWorkerPool().getMaximumThreads());
+
+		ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(out.toByteArray()));
+		Iterator readers = ImageIO.getImageReaders(iis);
+		ImageReader reader = (ImageReader) readers.next();
+		reader.setInput(iis);
+		assertEquals(frames.length, reader.getNumImages(true));
+		for (int i = 0; i < frames.length; i++) {
+			BufferedImage frame = reader.read(i);
+			assertEquals(frames[i].getWidth(null), frame.getWidth());
+			assertEquals(frames[i].getHeight(null), frame.getHeight());
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.image.test;
+
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MemoryImageSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import echopointng.image.PngEncoder;
+import junit.framework.TestCase;
+
+public class PngEncoderTest extends TestCase {
+
+	private static BufferedImage createImage(int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Random random = new Random(width * 31 + height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				// mix smooth gradients with noise so every filter gets used
+				int rgb = random.nextInt(8) == 0 ? random.nextInt() : ((x * 4) << 16) | ((y * 3) << 8) | ((x + y) & 0xff) | (((x * y) & 0xff) << 24);
+				image.setRGB(x, y, rgb);
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage roundTrip(PngEncoder encoder, Image image) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.encode(image, out);
+		return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static void assertSameRGB(BufferedImage expected, BufferedImage actual, boolean alpha) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int e = expected.getRGB(x, y);
+				int a = actual.getRGB(x, y);
+				if (!alpha) {
+					e |= 0xff000000;
+					a |= 0xff000000;
+				}
+				assertEquals("pixel " + x + "," + y, e, a);
+			}
+		}
+	}
+
+	public void testFilters() throws Exception {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_ARGB, 67, 300);
+		for (int filter = PngEncoder.FILTER_NONE; filter <= PngEncoder.FILTER_ADAPTIVE; filter++) {
+			PngEncoder encoder = new PngEncoder(true, 6, filter);
+			assertSameRGB(image, roundTrip(encoder, image), true);
+		}
+		PngEncoder fast = new PngEncoder();
+		assertTrue(fast.isFastMode());
+		assertEquals(PngEncoder.FAST_COMPRESSION_LEVEL, fast.getCompressionLevel());
+		assertSameRGB(image, roundTrip(fast, image), true);
+		fast.setFastMode(false);
+		assertFalse(fast.isFastMode());
+		assertEquals(PngEncoder.FILTER_ADAPTIVE, fast.getFilter());
+		assertTrue(fast.getCompressionLevel() >= 0 && fast.getCompressionLevel() <= 9);
+		assertSameRGB(image, roundTrip(fast, image), true);
+	}
+
+	public void testImageTypes() throws Exception {
+		PngEncoder encoder = new PngEncoder();
+		BufferedImage rgb = createImage(BufferedImage.TYPE_INT_RGB, 20, 10);
+		assertSameRGB(rgb, roundTrip(encoder, rgb), false);
+		BufferedImage bgr = createImage(BufferedImage.TYPE_3BYTE_BGR, 20, 10);
+		assertSameRGB(bgr, roundTrip(encoder, bgr), false);
+		encoder.setEncodeAlpha(false);
+		BufferedImage argb = createImage(BufferedImage.TYPE_INT_ARGB, 20, 10);
+		assertSameRGB(argb, roundTrip(encoder, argb), false);
+	}
+
+	public void testIndexedImage() throws Exception {
+		byte[] r = { 0, (byte) 255, 0, 0 };
+		byte[] g = { 0, 0, (byte) 255, 0 };
+		byte[] b = { 0, 0, 0, (byte) 255 };
+		byte[] a = { 0, (byte) 255, (byte) 255, (byte) 128 };
+		IndexColorModel icm = new IndexColorModel(8, 4, r, g, b, a);
+		BufferedImage image = new BufferedImage(9, 5, BufferedImage.TYPE_BYTE_INDEXED, icm);
+		for (int y = 0; y < 5; y++) {
+			for (int x = 0; x < 9; x++) {
+				image.getRaster().setSample(x, y, 0, (x + y) % 4);
+			}
+		}
+		assertSameRGB(image, roundTrip(new PngEncoder(), image), true);
+	}
+
+	public void testPlainImage() throws Exception {
+		BufferedImage source = createImage(BufferedImage.TYPE_INT_ARGB, 30, 40);
+		int[] pixels = source.getRGB(0, 0, 30, 40, null, 0, 30);
+		Image image = Toolkit.getDefaultToolkit().createImage(new MemoryImageSource(30, 40, pixels, 0, 30));
+		assertSameRGB(source, roundTrip(new PngEncoder(), image), true);
+	}
+}
@@ -0,0 +1,152 @@
+package echopointng.stylesheet.test;
+
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.Button;
+import nextapp.echo2.app.Color;
+import nextapp.echo2.app.Component;
+import nextapp.echo2.app.Style;
+import nextapp.echo2.app.StyleSheet;
+import echopointng.TemplatePanel;
+import echopointng.stylesheet.CssStyleSheetException;
+import echopointng.stylesheet.CssStyleSheetLoader;
+import echopointng.stylesheet.CssStyleSheetSnapshot;
+import echopointng.template.TemplateDataSource;
+
+/**
+ * <code>CssStyleSheetSnapshotTest</code>
+ */
+public class CssStyleSheetSnapshotTest extends TestCase {
+
+	private File snapshotFile;
+
+	protected void setUp() throws Exception {
+		snapshotFile = File.createTempFile("stylesheet", ".snapshot");
+		snapshotFile.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		snapshotFile.delete();
+	}
+
+	private static ClassLoader getClassLoader() {
+		return Thread.currentThread().getContextClassLoader();
+	}
+
+	private static byte[] readSource(String sheetName) throws IOException {
+		InputStream in = getClassLoader().getResourceAsStream("echopointng/stylesheet/test/" + sheetName);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) {
+				bytes.write(b);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void assertStyleSheet2(StyleSheet styleSheet) {
+		assertNotNull(styleSheet);
+		Style style = styleSheet.getStyle(Button.class, "modern");
+		assertNotNull(style);
+		assertEquals(Color.RED, style.getProperty("foreground"));
+		assertEquals(Boolean.FALSE, style.getProperty("rolloverEnabled"));
+		assertEquals(Locale.US, style.getProperty("locale"));
+
+		style = styleSheet.getStyle(Component.class, "light");
+		assertNotNull(style);
+		assertEquals(Color.WHITE, style.getProperty("background"));
+	}
+
+	public void testLoadWritesAndReusesSnapshot() throws CssStyleSheetException {
+		StyleSheet styleSheet = CssStyleSheetLoader.load("echopointng/stylesheet/test/stylesheet2.css", getClassLoader(), snapshotFile);
+		assertStyleSheet2(styleSheet);
+		assertTrue(snapshotFile.isFile());
+
+		long modified = snapshotFile.lastModified();
+		styleSheet = CssStyleSheetLoader.load("echopointng/stylesheet/test/stylesheet2.css", getClassLoader(), snapshotFile);
+		assertStyleSheet2(styleSheet);
+		assertEquals(modified, snapshotFile.lastModified());
+	}
+
+	public void testSnapshotIsKeyedByContent() throws IOException {
+		byte[] source = readSource("stylesheet2.css");
+		StyleSheet styleSheet;
+		try {
+			styleSheet = CssStyleSheetLoader.load(new ByteArrayInputStream(source), getClassLoader());
+		} catch (CssStyleSheetException e) {
+			fail(e.toString());
+			return;
+		}
+		assertNull(CssStyleSheetSnapshot.read(snapshotFile, source, getClassLoader()));
+		assertTrue(CssStyleSheetSnapshot.write(snapshotFile, source, styleSheet));
+		assertStyleSheet2(CssStyleSheetSnapshot.read(snapshotFile, source, getClassLoader()));
+
+		byte[] changedSource = new byte[source.length + 1];
+		System.arraycopy(source, 0, changedSource, 0, source.length);
+		changedSource[source.length] = '\n';
+		assertNull(CssStyleSheetSnapshot.read(snapshotFile, changedSource, getClassLoader()));
+	}
+
+	public void testCorruptSnapshotFallsBackToParse() throws IOException, CssStyleSheetException {
+		FileOutputStream out = new FileOutputStream(snapshotFile);
+		out.write(new byte[] { 'E', 'P', 'S', 'S', 0, 0, 0, 1, 3, 1, 2 });
+		out.close();
+
+		StyleSheet styleSheet = CssStyleSheetLoader.load("echopointng/stylesheet/test/stylesheet2.css", getClassLoader(), snapshotFile);
+		assertStyleSheet2(styleSheet);
+		assertStyleSheet2(CssStyleSheetSnapshot.read(snapshotFile, readSource("stylesheet2.css"), getClassLoader()));
+	}
+
+	public void testCompoundPropertiesSnapshot() throws IOException, CssStyleSheetException {
+		byte[] source = readSource("stylesheetCompound1.css");
+		StyleSheet styleSheet = CssStyleSheetLoader.load(new ByteArrayInputStream(source), getClassLoader());
+		assertTrue(CssStyleSheetSnapshot.write(snapshotFile, source, styleSheet));
+
+		styleSheet = CssStyleSheetSnapshot.read(snapshotFile, source, getClassLoader());
+		assertNotNull(styleSheet);
+		Style style = styleSheet.getStyle(TemplatePanel.class, "inst1");
+		assertNotNull(style);
+		assertEquals(Color.RED, style.getProperty("foreground"));
+		TemplateDataSource tds = (TemplateDataSource) style.getProperty("templateDataSource");
+		assertTrue(tds.getCanonicalName().indexOf("/jsp/test1.jsp") != -1);
+		assertEquals(10000, tds.getCachingHints().getAccessTimeout());
+	}
+}
@@ -0,0 +1,193 @@
+package echopointng.table.test;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.table.DefaultTableModel;
+import echopointng.table.DefaultPageableSortableTableModel;
+import echopointng.table.DefaultSortableTableModel;
+import echopointng.table.PageableTableModel;
+import echopointng.table.SortableTableModel;
+
+/**
+ * <code>DefaultSortableTableModelTest</code>
+ */
+public class DefaultSortableTableModelTest extends TestCase {
+
+	private static final int ROWS = 2000;
+
+	private DefaultTableModel createModel(Random random) {
+		DefaultTableModel model = new DefaultTableModel() {
+			public Class getColumnClass(int column) {
+				switch (column) {
+				case 0:
+					return Integer.class;
+				case 1:
+					return Double.class;
+				case 2:
+					return String.class;
+				default:
+					return Object.class;
+				}
+			}
+		};
+		model.setColumnCount(4);
+		for (int row = 0; row < ROWS; row++) {
+			model.addRow(new Object[] { random.nextInt(10) == 0 ? null : new Integer(random.nextInt(50)), new Double(random.nextInt(20) / 4.0),
+					"s" + random.nextInt(30), new StringBuffer("b" + random.nextInt(40)) });
+		}
+		return model;
+	}
+
+	/**
+	 * Checks the sorted model against a stable sort of the model rows
+	 */
+	private void assertSorted(final DefaultTableModel model, DefaultSortableTableModel sortableModel, final int[] columns, final int[] directions) {
+		List rows = new ArrayList();
+		for (int row = 0; row < model.getRowCount(); row++) {
+			rows.add(new Integer(row));
+		}
+		Collections.sort(rows, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				int row1 = ((Integer) o1).intValue();
+				int row2 = ((Integer) o2).intValue();
+				for (int i = 0; i < columns.length; i++) {
+					Object v1 = model.getValueAt(columns[i], row1);
+					Object v2 = model.getValueAt(columns[i], row2);
+					int comparison;
+					if (v1 == null || v2 == null) {
+						comparison = v1 == null ? (v2 == null ? 0 : -1) : 1;
+					} else if (v1 instanceof Comparable) {
+						comparison = ((Comparable) v1).compareTo(v2);
+					} else {
+						comparison = v1.toString().compareTo(v2.toString());
+					}
+					if (directions[i] == SortableTableModel.DESCENDING) {
+						comparison = -comparison;
+					}
+					if (comparison != 0) {
+						return comparison;
+					}
+				}
+				return 0;
+			}
+		});
+		if (sortableModel instanceof PageableTableModel) {
+			assertEquals(rows.size(), ((PageableTableModel) sortableModel).getTotalRows());
+		} else {
+			assertEquals(rows.size(), sortableModel.getRowCount());
+		}
+		for (int i = 0; i < rows.size(); i++) {
+			int modelRow = ((Integer) rows.get(i)).intValue();
+			assertEquals(modelRow, sortableModel.toUnsortedModelRowIndex(i));
+			assertEquals(i, sortableModel.toSortedViewRowIndex(modelRow));
+		}
+	}
+
+	public void testSingleColumnSorts() {
+		DefaultTableModel model = createModel(new Random(1));
+		DefaultSortableTableModel sortableModel = new DefaultSortableTableModel(model);
+		for (int column = 0; column < 4; column++) {
+			sortableModel.setSortDirective(column, SortableTableModel.ASCENDING);
+			assertSorted(model, sortableModel, new int[] { column }, new int[] { SortableTableModel.ASCENDING });
+			sortableModel.setSortDirective(column, SortableTableModel.DESCENDING);
+			assertSorted(model, sortableModel, new int[] { column }, new int[] { SortableTableModel.DESCENDING });
+			sortableModel.setSortDirective(column, SortableTableModel.NOT_SORTED);
+		}
+		assertEquals(7, sortableModel.toUnsortedModelRowIndex(7));
+	}
+
+	public void testMultiColumnSort() {
+		DefaultTableModel model = createModel(new Random(2));
+		DefaultSortableTableModel sortableModel = new DefaultSortableTableModel(model);
+		sortableModel.setSortDirective(2, SortableTableModel.DESCENDING);
+		sortableModel.setSortDirective(0, SortableTableModel.ASCENDING);
+		// the most recent sort directive is the most significant
+		assertSorted(model, sortableModel, new int[] { 0, 2 }, new int[] { SortableTableModel.ASCENDING, SortableTableModel.DESCENDING });
+	}
+
+	public void testParallelSort() {
+		DefaultTableModel model = createModel(new Random(3));
+		DefaultSortableTableModel sortableModel = new DefaultSortableTableModel(model);
+		sortableModel.setParallelSortThreshold(100);
+		sortableModel.setSortDirective(1, SortableTableModel.ASCENDING);
+		assertSorted(model, sortableModel, new int[] { 1 }, new int[] { SortableTableModel.ASCENDING });
+	}
+
+	public void testIncrementalResort() {
+		Random random = new Random(4);
+		DefaultTableModel model = createModel(random);
+		DefaultSortableTableModel sortableModel = new DefaultSortableTableModel(model);
+		sortableModel.setSortDirective(2, SortableTableModel.ASCENDING);
+		sortableModel.setSortDirective(0, SortableTableModel.DESCENDING);
+		int[] columns = new int[] { 0, 2 };
+		int[] directions = new int[] { SortableTableModel.DESCENDING, SortableTableModel.ASCENDING };
+		assertSorted(model, sortableModel, columns, directions);
+
+		for (int i = 0; i < 200; i++) {
+			int row = random.nextInt(model.getRowCount());
+			switch (random.nextInt(4)) {
+			case 0:
+				model.insertRow(row, new Object[] { new Integer(random.nextInt(50)), new Double(0), "s" + random.nextInt(30), "b" });
+				break;
+			case 1:
+				model.deleteRow(row);
+				break;
+			case 2:
+				model.setValueAt(random.nextBoolean() ? null : new Integer(random.nextInt(50)), 0, row);
+				break;
+			case 3:
+				model.setValueAt(new Double(random.nextInt(20)), 1, row);
+				break;
+			}
+			assertSorted(model, sortableModel, columns, directions);
+		}
+	}
+
+	public void testPageableDeletes() {
+		DefaultTableModel model = createModel(new Random(5));
+		DefaultPageableSortableTableModel pageableModel = new DefaultPageableSortableTableModel(model);
+		pageableModel.setSortDirective(0, SortableTableModel.ASCENDING);
+		pageableModel.setRowsPerPage(100);
+		pageableModel.setCurrentPage(pageableModel.getTotalPages() - 1);
+		assertEquals(100, pageableModel.getRowCount());
+		for (int i = 0; i < 150; i++) {
+			model.deleteRow(0);
+		}
+		assertEquals(pageableModel.getTotalPages() - 1, pageableModel.getCurrentPage());
+		assertEquals(50, pageableModel.getRowCount());
+		assertSorted(model, pageableModel, new int[] { 0 }, new int[] { SortableTableModel.ASCENDING });
+	}
+}
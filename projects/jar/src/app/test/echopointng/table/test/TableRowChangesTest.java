@@ -0,0 +1,165 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.table.test;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.Component;
+import nextapp.echo2.app.Label;
+import nextapp.echo2.app.Table;
+import nextapp.echo2.app.event.TableModelEvent;
+import nextapp.echo2.app.table.DefaultTableModel;
+import nextapp.echo2.app.table.TableCellRenderer;
+import echopointng.TableEx;
+import echopointng.table.TableRowChanges;
+
+/**
+ * <code>TableRowChangesTest</code>
+ */
+public class TableRowChangesTest extends TestCase {
+
+	private static void assertRows(int[] expected, int[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+	}
+
+	public void testChangedRows() {
+		TableRowChanges changes = new TableRowChanges();
+		assertTrue(changes.isEmpty());
+
+		changes.rowsUpdated(5, 5);
+		changes.rowsUpdated(6, 7);
+		assertEquals(1, changes.getOperationCount());
+		assertRows(new int[] { 5, 6, 7 }, changes.getChangedRows());
+
+		// inserting above moves the updated rows down
+		changes.rowsInserted(2, 3);
+		assertRows(new int[] { 2, 3, 7, 8, 9 }, changes.getChangedRows());
+
+		// deleting drops the deleted rows and moves the later ones up
+		changes.rowsDeleted(8, 8);
+		assertRows(new int[] { 2, 3, 7, 8 }, changes.getChangedRows());
+		assertEquals(1, changes.getRowCountDelta());
+		assertEquals(3, changes.getOperationCount());
+		assertEquals(TableRowChanges.DELETE, changes.getOperationType(2));
+		assertEquals(8, changes.getFirstRow(2));
+
+		changes.clear();
+		assertTrue(changes.isEmpty());
+		assertEquals(0, changes.getChangedRows().length);
+	}
+
+	public void testFull() {
+		TableRowChanges changes = new TableRowChanges();
+		changes.tableChanged(new TableModelEvent(new DefaultTableModel()));
+		assertTrue(changes.isFull());
+		changes.rowsInserted(0, 0);
+		assertTrue(changes.isFull());
+		assertEquals(0, changes.getOperationCount());
+
+		changes.clear();
+		for (int i = 0; i < TableRowChanges.MAX_OPERATIONS; i++) {
+			changes.rowsInserted(0, 0);
+		}
+		assertFalse(changes.isFull());
+		changes.rowsDeleted(0, 0);
+		assertTrue(changes.isFull());
+	}
+
+	public void testTableEx() {
+		DefaultTableModel model = new DefaultTableModel(2, 10);
+		TableEx table = new TableEx(model);
+		table.validate();
+		table.getRowChanges().clear();
+
+		model.insertRow(4, new Object[] { "a", "b" });
+		model.setValueAt("c", 1, 8);
+		table.validate();
+		assertFalse(table.getRowChanges().isFull());
+		// the rows after the insert have moved and are rendered again
+		assertRows(new int[] { 4, 5, 6, 7, 8, 9, 10 }, table.getRowChanges().getChangedRows());
+		assertEquals(1, table.getRowChanges().getRowCountDelta());
+
+		table.getRowChanges().clear();
+		model.setValueAt("d", 1, 2);
+		table.validate();
+		assertRows(new int[] { 2 }, table.getRowChanges().getChangedRows());
+
+		table.getRowChanges().clear();
+		table.setModel(new DefaultTableModel(2, 3));
+		table.validate();
+		assertTrue(table.getRowChanges().isFull());
+	}
+
+	public void testFirstShiftedRow() {
+		TableRowChanges changes = new TableRowChanges();
+		changes.rowsUpdated(2, 2);
+		assertEquals(-1, changes.getFirstShiftedRow());
+		changes.rowsDeleted(7, 8);
+		changes.rowsInserted(5, 5);
+		assertEquals(5, changes.getFirstShiftedRow());
+	}
+
+	public void testIncrementalCellMatrix() {
+		TableCellRenderer labelRenderer = new TableCellRenderer() {
+			public Component getTableCellRendererComponent(Table table, Object value, int column, int row) {
+				return new Label(String.valueOf(value));
+			}
+		};
+		DefaultTableModel model = new DefaultTableModel(2, 0);
+		for (int row = 0; row < 20; row++) {
+			model.addRow(new Object[] { "a" + row, "b" + row });
+		}
+		TableEx table = new TableEx(model);
+		table.setDefaultRenderer(Object.class, labelRenderer);
+		table.validate();
+		Object keptCell = table.getCellContent(1, 5);
+		Object shiftedCell = table.getCellContent(1, 15);
+		assertEquals(40, table.getComponentCount());
+
+		model.deleteRow(13);
+		model.insertRow(10, new Object[] { "new", "row" });
+		model.setValueAt("changed", 0, 2);
+		table.validate();
+
+		assertEquals(40, table.getComponentCount());
+		// untouched rows before the first insert or delete keep their
+		// components while the rows that moved are rendered again
+		assertSame(keptCell, table.getCellContent(1, 5));
+		assertNotSame(shiftedCell, table.getCellContent(1, 15));
+		for (int row = 0; row < model.getRowCount(); row++) {
+			for (int column = 0; column < 2; column++) {
+				Label label = (Label) table.getCellContent(column, row);
+				assertEquals(model.getValueAt(column, row), label.getText());
+				assertSame(table, label.getParent());
+			}
+		}
+	}
+}
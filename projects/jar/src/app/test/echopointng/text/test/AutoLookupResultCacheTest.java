@@ -0,0 +1,207 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.text.test;
+
+import junit.framework.TestCase;
+import echopointng.text.AutoLookupModel;
+import echopointng.text.AutoLookupResultCache;
+import echopointng.text.AutoLookupSearch;
+import echopointng.text.IndexedAutoLookupModel;
+import echopointng.text.AutoLookupModel.Entry;
+
+/**
+ * <code>AutoLookupResultCacheTest</code>
+ */
+public class AutoLookupResultCacheTest extends TestCase {
+
+	private static final String[] VALUES = new String[] { "Melbourne", "Sydney", "Brisbane", "Perth", "Adelaide", "Hobart", "Darwin",
+			"Canberra", "Ballarat", "Bendigo" };
+
+	/**
+	 * Counts the number of times the model is asked to search
+	 */
+	private static class CountingModel extends IndexedAutoLookupModel {
+		int searchCount;
+
+		CountingModel(int matchOptions) {
+			super(createEntries(), matchOptions);
+		}
+
+		public Entry[] searchEntries(String partialSearchValue, int matchOptions) {
+			searchCount++;
+			return super.searchEntries(partialSearchValue, matchOptions);
+		}
+	}
+
+	private static Entry[] createEntries() {
+		Entry[] entries = new Entry[VALUES.length];
+		for (int i = 0; i < VALUES.length; i++) {
+			entries[i] = new AutoLookupModel.DefaultEntry(VALUES[i]);
+		}
+		return entries;
+	}
+
+	private static String values(Entry[] entries) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < entries.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(entries[i].getValue());
+		}
+		return sb.toString();
+	}
+
+	public void testIndexedSearch() {
+		IndexedAutoLookupModel model = new IndexedAutoLookupModel(createEntries());
+		assertEquals("Ballarat,Bendigo,Brisbane", values(model.searchEntries("b", AutoLookupModel.MATCH_ONLY_FROM_START)));
+		assertEquals("", values(model.searchEntries("b", AutoLookupModel.MATCH_ONLY_FROM_START | AutoLookupModel.MATCH_IS_CASE_SENSITIVE)));
+		assertEquals("Ballarat,Canberra", values(model.searchEntries("ra", 0)));
+		assertEquals("", values(model.searchEntries("ra", AutoLookupModel.MATCH_ONLY_FROM_START)));
+		assertEquals(0, model.prePopulate().length);
+
+		model.setMaximumResults(2);
+		assertEquals("Ballarat,Bendigo", values(model.searchEntries("B", AutoLookupModel.MATCH_ONLY_FROM_START)));
+	}
+
+	public void testPrefixRefinement() {
+		CountingModel model = new CountingModel(AutoLookupModel.MATCH_ONLY_FROM_START);
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		assertSame(cache, AutoLookupResultCache.forModel(model));
+
+		assertEquals("Ballarat,Bendigo,Brisbane", values(cache.searchEntries(model, "b", model.getMatchOptions())));
+		assertEquals(1, model.searchCount);
+		assertEquals("Ballarat,Bendigo,Brisbane", values(cache.searchEntries(model, "B", model.getMatchOptions())));
+		assertEquals("Ballarat", values(cache.searchEntries(model, "Bal", model.getMatchOptions())));
+		assertEquals(1, model.searchCount);
+
+		model.setEntries(new Entry[] { new AutoLookupModel.DefaultEntry("Bairnsdale") });
+		assertEquals("Bairnsdale", values(cache.searchEntries(model, "Ba", model.getMatchOptions())));
+		assertEquals(2, model.searchCount);
+	}
+
+	/**
+	 * Returns at most 2 of the entries that match from the start
+	 */
+	private static class CappedModel implements AutoLookupModel {
+		int searchCount;
+		private IndexedAutoLookupModel entries = new IndexedAutoLookupModel(createEntries(), getMatchOptions());
+
+		CappedModel() {
+			entries.setMaximumResults(2);
+		}
+
+		public int getMaximumCacheAge() {
+			return -1;
+		}
+
+		public int getMaximumCacheSize() {
+			return -1;
+		}
+
+		public int getMatchOptions() {
+			return AutoLookupModel.MATCH_ONLY_FROM_START;
+		}
+
+		public Entry[] prePopulate() {
+			return new Entry[0];
+		}
+
+		public Entry[] searchEntries(String partialSearchValue, int matchOptions) {
+			searchCount++;
+			return entries.searchEntries(partialSearchValue, matchOptions);
+		}
+	}
+
+	public void testCappedResultsNotRefined() {
+		CappedModel model = new CappedModel();
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		assertEquals("Ballarat,Bendigo", values(cache.searchEntries(model, "b", model.getMatchOptions())));
+		assertEquals("Brisbane", values(cache.searchEntries(model, "br", model.getMatchOptions())));
+		assertEquals(2, model.searchCount);
+		assertEquals("Brisbane", values(cache.searchEntries(model, "br", model.getMatchOptions())));
+		assertEquals(2, model.searchCount);
+
+		CountingModel indexedModel = new CountingModel(AutoLookupModel.MATCH_ONLY_FROM_START);
+		indexedModel.setMaximumResults(2);
+		cache = AutoLookupResultCache.forModel(indexedModel);
+		assertEquals("Ballarat,Bendigo", values(cache.searchEntries(indexedModel, "b", indexedModel.getMatchOptions())));
+		assertEquals("Brisbane", values(cache.searchEntries(indexedModel, "br", indexedModel.getMatchOptions())));
+		assertEquals(2, indexedModel.searchCount);
+	}
+
+	public void testNoCaching() {
+		CountingModel model = new CountingModel(0);
+		model.setMaximumCacheAge(0);
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		cache.searchEntries(model, "a", 0);
+		cache.searchEntries(model, "a", 0);
+		assertEquals(2, model.searchCount);
+	}
+
+	public void testServerLimits() {
+		CountingModel model = new CountingModel(0);
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		cache.searchEntries(model, "a", 0);
+		assertEquals(AutoLookupResultCache.DEFAULT_MAXIMUM_SIZE, cache.getCache().getMaximumWeight());
+
+		model.setMaximumCacheSize(5);
+		cache.searchEntries(model, "a", 0);
+		assertEquals(5, cache.getCache().getMaximumWeight());
+
+		cache.setMaximumAge(0);
+		cache.searchEntries(model, "a", 0);
+		cache.searchEntries(model, "a", 0);
+		assertEquals(3, model.searchCount);
+	}
+
+	public void testMatchOptionsInvalidate() {
+		CountingModel model = new CountingModel(0);
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		cache.searchEntries(model, "a", 0);
+		model.setMatchOptions(AutoLookupModel.MATCH_ONLY_FROM_START);
+		cache.searchEntries(model, "a", 0);
+		assertEquals(2, model.searchCount);
+	}
+
+	public void testCancelledSearchNotCached() {
+		CountingModel model = new CountingModel(0);
+		AutoLookupResultCache cache = AutoLookupResultCache.forModel(model);
+		AutoLookupSearch search = new AutoLookupSearch("a", 0);
+		search.cancel();
+		AutoLookupSearch.setCurrent(search);
+		try {
+			assertEquals(0, cache.searchEntries(model, "a", 0).length);
+		} finally {
+			AutoLookupSearch.setCurrent(null);
+		}
+		assertEquals(6, cache.searchEntries(model, "a", 0).length);
+		assertEquals(2, model.searchCount);
+	}
+}
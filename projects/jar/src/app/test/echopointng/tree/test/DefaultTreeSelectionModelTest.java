@@ -0,0 +1,198 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.tree.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import echopointng.Tree;
+import echopointng.tree.DefaultMutableTreeNode;
+import echopointng.tree.DefaultTreeModel;
+import echopointng.tree.DefaultTreeSelectionModel;
+import echopointng.tree.RowMapper;
+import echopointng.tree.TreePath;
+import echopointng.tree.TreeSelectionEvent;
+import echopointng.tree.TreeSelectionListener;
+
+/**
+ * <code>DefaultTreeSelectionModelTest</code>
+ */
+public class DefaultTreeSelectionModelTest extends TestCase {
+
+	private static final int PATH_COUNT = 5000;
+
+	private TreePath root;
+
+	private TreePath[] paths;
+
+	private List events;
+
+	private DefaultTreeSelectionModel model;
+
+	protected void setUp() throws Exception {
+		root = new TreePath("root");
+		paths = new TreePath[PATH_COUNT];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = root.pathByAddingChild(new Integer(i));
+		}
+		events = new ArrayList();
+		model = new DefaultTreeSelectionModel();
+		model.setRowMapper(new RowMapper() {
+			public int[] getRowsForPaths(TreePath[] rowPaths) {
+				int[] rows = new int[rowPaths.length];
+				for (int i = 0; i < rowPaths.length; i++) {
+					rows[i] = ((Integer) rowPaths[i].getLastPathComponent()).intValue();
+				}
+				return rows;
+			}
+		});
+		model.addTreeSelectionListener(new TreeSelectionListener() {
+			public void valueChanged(TreeSelectionEvent e) {
+				events.add(e);
+			}
+		});
+	}
+
+	public void testBulkAdd() {
+		model.addSelectionPaths(paths);
+		assertEquals(1, events.size());
+		assertEquals(PATH_COUNT, ((TreeSelectionEvent) events.get(0)).getPaths().length);
+		assertEquals(PATH_COUNT, model.getSelectionCount());
+		assertSame(paths[0], model.getLeadSelectionPath());
+		assertEquals(0, model.getMinSelectionRow());
+		assertEquals(PATH_COUNT - 1, model.getMaxSelectionRow());
+		for (int i = 0; i < paths.length; i++) {
+			assertTrue(model.isPathSelected(root.pathByAddingChild(new Integer(i))));
+			assertTrue(model.isRowSelected(i));
+		}
+
+		// adding already selected paths changes nothing
+		model.addSelectionPaths(new TreePath[] { paths[3], null, paths[7] });
+		assertEquals(1, events.size());
+		assertEquals(PATH_COUNT, model.getSelectionCount());
+	}
+
+	public void testDuplicatesIgnored() {
+		model.setSelectionPaths(new TreePath[] { paths[1], paths[2], paths[1], null, paths[2] });
+		assertEquals(1, events.size());
+		assertEquals(2, ((TreeSelectionEvent) events.get(0)).getPaths().length);
+		TreePath[] selection = model.getSelectionPaths();
+		assertEquals(2, selection.length);
+		assertSame(paths[1], selection[0]);
+		assertSame(paths[2], selection[1]);
+		int[] rows = model.getSelectionRows();
+		assertEquals(1, rows[0]);
+		assertEquals(2, rows[1]);
+	}
+
+	public void testBulkRemove() {
+		model.addSelectionPaths(paths);
+		TreePath[] evenPaths = new TreePath[PATH_COUNT / 2];
+		for (int i = 0; i < evenPaths.length; i++) {
+			evenPaths[i] = paths[i * 2];
+		}
+		model.removeSelectionPaths(evenPaths);
+		assertEquals(2, events.size());
+		TreeSelectionEvent e = (TreeSelectionEvent) events.get(1);
+		assertEquals(evenPaths.length, e.getPaths().length);
+		assertFalse(e.isAddedPath(evenPaths[0]));
+		assertEquals(PATH_COUNT - evenPaths.length, model.getSelectionCount());
+		assertSame(paths[1], model.getLeadSelectionPath());
+		assertEquals(1, model.getLeadSelectionRow());
+		for (int i = 0; i < paths.length; i++) {
+			assertEquals(i % 2 == 1, model.isPathSelected(paths[i]));
+			assertEquals(i % 2 == 1, model.isRowSelected(i));
+		}
+
+		// removing unselected paths changes nothing
+		model.removeSelectionPaths(evenPaths);
+		assertEquals(2, events.size());
+		assertSame(paths[1], model.getLeadSelectionPath());
+	}
+
+	public void testSetSelectionReportsDifferences() {
+		model.setSelectionPaths(new TreePath[] { paths[1], paths[2], paths[3] });
+		model.setSelectionPaths(new TreePath[] { paths[3], paths[4] });
+		assertEquals(2, events.size());
+		TreeSelectionEvent e = (TreeSelectionEvent) events.get(1);
+		assertEquals(3, e.getPaths().length);
+		assertTrue(e.isAddedPath(paths[4]));
+		assertFalse(e.isAddedPath(paths[1]));
+		assertFalse(e.isAddedPath(paths[2]));
+		assertFalse(model.isPathSelected(paths[1]));
+		assertTrue(model.isPathSelected(paths[3]));
+		assertSame(paths[3], model.getLeadSelectionPath());
+		assertEquals(3, model.getMinSelectionRow());
+		assertEquals(4, model.getMaxSelectionRow());
+
+		model.clearSelection();
+		assertEquals(3, events.size());
+		assertTrue(model.isSelectionEmpty());
+		assertFalse(model.isPathSelected(paths[3]));
+		assertFalse(model.isRowSelected(3));
+		assertEquals(-1, model.getMinSelectionRow());
+		assertEquals(-1, model.getMaxSelectionRow());
+	}
+
+	public void testRowsFollowExpansion() {
+		DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode("root");
+		DefaultMutableTreeNode folder = new DefaultMutableTreeNode("folder");
+		folder.add(new DefaultMutableTreeNode("file0"));
+		folder.add(new DefaultMutableTreeNode("file1"));
+		rootNode.add(folder);
+		DefaultMutableTreeNode last = new DefaultMutableTreeNode("last");
+		rootNode.add(last);
+		DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
+		Tree tree = new Tree(treeModel);
+		TreePath folderPath = new TreePath(new TreePath(rootNode), folder);
+		TreePath lastPath = new TreePath(new TreePath(rootNode), last);
+
+		tree.setSelectionPath(lastPath);
+		DefaultTreeSelectionModel selectionModel = (DefaultTreeSelectionModel) tree.getSelectionModel();
+		int row = tree.getRowForPath(lastPath);
+		assertEquals(row, selectionModel.getMinSelectionRow());
+		assertEquals(row, selectionModel.getLeadSelectionRow());
+
+		tree.expandPath(folderPath);
+		assertEquals(row + 2, tree.getRowForPath(lastPath));
+		assertEquals(row + 2, selectionModel.getMinSelectionRow());
+		assertEquals(row + 2, selectionModel.getMaxSelectionRow());
+		assertEquals(row + 2, selectionModel.getLeadSelectionRow());
+		assertTrue(selectionModel.isRowSelected(row + 2));
+		assertFalse(selectionModel.isRowSelected(row));
+
+		treeModel.insertNodeInto(new DefaultMutableTreeNode("file2"), folder, 0);
+		assertEquals(row + 3, selectionModel.getMinSelectionRow());
+
+		tree.collapsePath(folderPath);
+		assertEquals(row, selectionModel.getMinSelectionRow());
+		assertTrue(selectionModel.isRowSelected(row));
+	}
+}
@@ -0,0 +1,137 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.tree.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import echopointng.Tree;
+import echopointng.tree.DefaultMutableTreeNode;
+import echopointng.tree.DefaultTreeModel;
+import echopointng.tree.NodeIdIndex;
+
+/**
+ * <code>NodeIdIndexTest</code>
+ */
+public class NodeIdIndexTest extends TestCase {
+
+	public void testLookups() {
+		NodeIdIndex index = new NodeIdIndex();
+		Object[] nodes = new Object[1000];
+		String[] ids = new String[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new Object();
+			ids[i] = index.getNodeId(nodes[i]);
+		}
+		assertEquals(nodes.length, index.size());
+		assertEquals(ids[10], index.getNodeId(nodes[10]));
+		for (int i = 0; i < nodes.length; i++) {
+			assertSame(nodes[i], index.getNodeById(ids[i]));
+		}
+		assertNull(index.getNodeById("-1"));
+		assertNull(index.getNodeById("x"));
+		assertNull(index.getNodeById((String) null));
+
+		for (int i = 0; i < nodes.length; i += 2) {
+			assertTrue(index.remove(nodes[i]));
+		}
+		assertFalse(index.remove(nodes[0]));
+		assertEquals(nodes.length / 2, index.size());
+		for (int i = 0; i < nodes.length; i++) {
+			if (i % 2 == 0) {
+				assertNull(index.getNodeById(ids[i]));
+			} else {
+				assertSame(nodes[i], index.getNodeById(ids[i]));
+			}
+		}
+		String newId = index.getNodeId(nodes[0]);
+		assertFalse(newId.equals(ids[0]));
+		assertSame(nodes[0], index.getNodeById(newId));
+	}
+
+	public void testPrunedOnRemoval() {
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		DefaultMutableTreeNode branch = new DefaultMutableTreeNode("branch");
+		DefaultMutableTreeNode leaf = new DefaultMutableTreeNode("leaf");
+		DefaultMutableTreeNode other = new DefaultMutableTreeNode("other");
+		root.add(branch);
+		root.add(other);
+		branch.add(leaf);
+		DefaultTreeModel model = new DefaultTreeModel(root);
+
+		String branchId = model.getNodeId(branch);
+		String leafId = model.getNodeId(leaf);
+		String otherId = model.getNodeId(other);
+		assertSame(leaf, model.getNodeById(leafId));
+
+		model.removeNodeFromParent(branch);
+		assertNull(model.getNodeById(branchId));
+		assertNull(model.getNodeById(leafId));
+		assertSame(other, model.getNodeById(otherId));
+	}
+
+	public void testIndexesExistingMap() {
+		HashMap nodeToId = new HashMap();
+		Object node = new Object();
+		nodeToId.put(node, new Integer(7));
+		NodeIdIndex index = new NodeIdIndex(nodeToId);
+		assertSame(node, index.getNodeById("7"));
+		assertEquals("8", index.getNodeId(new Object()));
+		assertEquals(2, nodeToId.size());
+	}
+
+	private static Object serialize(Object object) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	public void testSerializable() throws Exception {
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		DefaultMutableTreeNode child = new DefaultMutableTreeNode("child");
+		root.add(child);
+		DefaultTreeModel model = new DefaultTreeModel(root);
+		String childId = model.getNodeId(child);
+
+		DefaultTreeModel copy = (DefaultTreeModel) serialize(model);
+		DefaultMutableTreeNode copyRoot = (DefaultMutableTreeNode) copy.getRoot();
+		assertSame(copyRoot.getChildAt(0), copy.getNodeById(childId));
+		assertEquals(childId, copy.getNodeId(copyRoot.getChildAt(0)));
+
+		Tree tree = new Tree(model);
+		assertNotNull(serialize(tree));
+	}
+}
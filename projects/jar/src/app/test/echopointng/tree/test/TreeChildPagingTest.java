@@ -0,0 +1,179 @@
+package echopointng.tree.test;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import echopointng.Tree;
+import echopointng.tree.DefaultMutableTreeNode;
+import echopointng.tree.DefaultTreeModel;
+import echopointng.tree.LazyTreeModel;
+import echopointng.tree.TreeChildLoader;
+import echopointng.tree.TreePath;
+
+/**
+ * <code>TreeChildPagingTest</code> tests the paging of children and the
+ * background loading of <code>LazyTreeModel</code> children.
+ */
+public class TreeChildPagingTest extends TestCase {
+
+	/**
+	 * A LazyTreeModel whose loads block until they are released 
+	 */
+	private static class SlowTreeModel extends DefaultTreeModel implements LazyTreeModel {
+		private Set loaded = new HashSet();
+		private boolean released;
+
+		private SlowTreeModel(DefaultMutableTreeNode root) {
+			super(root);
+			loaded.add(root);
+		}
+
+		public synchronized boolean isChildrenLoaded(Object parent) {
+			return loaded.contains(parent);
+		}
+
+		public void loadChildren(Object parent) {
+			synchronized (this) {
+				try {
+					while (!released) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				loaded.add(parent);
+			}
+		}
+
+		private synchronized void release() {
+			released = true;
+			notifyAll();
+		}
+	}
+
+	private static DefaultMutableTreeNode createNode(String name, int childCount) {
+		DefaultMutableTreeNode node = new DefaultMutableTreeNode(name);
+		for (int i = 0; i < childCount; i++) {
+			node.add(new DefaultMutableTreeNode(name + i));
+		}
+		return node;
+	}
+
+	public void testShownChildCount() {
+		DefaultMutableTreeNode root = createNode("child", 25);
+		Tree tree = new Tree(new DefaultTreeModel(root));
+		TreePath rootPath = new TreePath(root);
+		assertTrue(tree.isExpanded(rootPath));
+		assertEquals(25, tree.getShownChildCount(rootPath));
+
+		tree.setChildPageSize(10);
+		assertEquals(10, tree.getShownChildCount(rootPath));
+		tree.showMoreChildren(rootPath);
+		assertEquals(20, tree.getShownChildCount(rootPath));
+		tree.showMoreChildren(rootPath);
+		assertEquals(25, tree.getShownChildCount(rootPath));
+
+		// collapsing forgets the extra pages
+		tree.collapsePath(rootPath);
+		tree.expandPath(rootPath);
+		assertEquals(10, tree.getShownChildCount(rootPath));
+
+		tree.processInput(Tree.INPUT_SHOWN_CHILD_COUNT, new Object[] { rootPath, new Integer(20) });
+		assertEquals(20, tree.getShownChildCount(rootPath));
+
+		tree.setShownChildCount(rootPath, 15);
+		assertEquals(15, tree.getShownChildCount(rootPath));
+		tree.setChildPageSize(5);
+		assertEquals(5, tree.getShownChildCount(rootPath));
+
+		DefaultMutableTreeNode leaf = (DefaultMutableTreeNode) root.getChildAt(0);
+		assertEquals(0, tree.getShownChildCount(new TreePath(rootPath, leaf)));
+	}
+
+	public void testBackgroundLoading() {
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		DefaultMutableTreeNode folder = createNode("file", 3);
+		root.add(folder);
+		root.add(new DefaultMutableTreeNode("other"));
+		SlowTreeModel model = new SlowTreeModel(root);
+		Tree tree = new Tree(model);
+		TreePath rootPath = new TreePath(root);
+		TreePath folderPath = new TreePath(rootPath, folder);
+
+		assertFalse(tree.isLoadingChildren(rootPath));
+		assertEquals(3, tree.getRowCount());
+
+		tree.expandPath(folderPath);
+		assertTrue(tree.isLoadingChildren(folderPath));
+		assertEquals(0, tree.getShownChildCount(folderPath));
+		assertEquals(3, tree.getRowCount());
+
+		TreeChildLoader loader = tree.getChildLoader(folderPath);
+		assertNotNull(loader);
+		assertFalse(loader.waitFor(50));
+
+		model.release();
+		assertTrue(loader.waitFor(5000));
+		assertNull(loader.getError());
+		assertFalse(tree.isLoadingChildren(folderPath));
+		assertEquals(3, tree.getShownChildCount(folderPath));
+		assertEquals(6, tree.getRowCount());
+
+		tree.collapsePath(folderPath);
+		assertNull(tree.getChildLoader(folderPath));
+		tree.expandPath(folderPath);
+		assertFalse(tree.isLoadingChildren(folderPath));
+		assertNull(tree.getChildLoader(folderPath));
+	}
+
+	public void testLoadingStartsOnlyWhenAsked() {
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		DefaultMutableTreeNode folder = createNode("file", 3);
+		root.add(folder);
+		SlowTreeModel model = new SlowTreeModel(root);
+		Tree tree = new Tree(model);
+		TreePath folderPath = new TreePath(new TreePath(root), folder);
+
+		assertFalse(tree.isLoadingChildren(folderPath));
+		assertNull(tree.getChildLoader(folderPath));
+		assertTrue(tree.needsLoadingChildren(folderPath));
+		assertEquals(0, tree.getShownChildCount(folderPath));
+
+		assertTrue(tree.startLoadingChildren(folderPath));
+		assertFalse(tree.needsLoadingChildren(folderPath));
+		assertFalse(tree.startLoadingChildren(folderPath));
+		assertTrue(tree.isLoadingChildren(folderPath));
+
+		model.release();
+		assertTrue(tree.getChildLoader(folderPath).waitFor(5000));
+		assertFalse(tree.isLoadingChildren(folderPath));
+	}
+}
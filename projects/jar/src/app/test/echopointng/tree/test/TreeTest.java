@@ -27,6 +27,10 @@ package echopointng.tree.test;
  * the provisions above, a recipient may use your version of this file under
  * the terms of any one of the MPL, the GPL or the LGPL.
  */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import junit.framework.TestCase;
 import echopointng.Tree;
 import echopointng.tree.DefaultMutableTreeNode;
@@ -163,5 +167,90 @@ public class TreeTest extends TestCase {
 		
 		
 		
+	}
+
+	public void testRowIndex() {
+		Random random = new Random(1234);
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		List nodes = new ArrayList();
+		nodes.add(root);
+		for (int i = 0; i < 200; i++) {
+			DefaultMutableTreeNode parent = (DefaultMutableTreeNode) nodes.get(random.nextInt(nodes.size()));
+			DefaultMutableTreeNode child = new DefaultMutableTreeNode("node" + i);
+			parent.add(child);
+			nodes.add(child);
+		}
+		DefaultTreeModel model = new DefaultTreeModel(root);
+		Tree tree = new Tree(model);
+		assertRowsMatch(tree);
+
+		for (int i = 0; i < 500; i++) {
+			DefaultMutableTreeNode node = (DefaultMutableTreeNode) nodes.get(random.nextInt(nodes.size()));
+			TreePath path = new TreePath(node.getPath());
+			switch (random.nextInt(5)) {
+			case 0:
+			case 1:
+				tree.expandPath(path);
+				break;
+			case 2:
+				tree.collapsePath(path);
+				break;
+			case 3:
+				DefaultMutableTreeNode child = new DefaultMutableTreeNode("new" + i);
+				model.insertNodeInto(child, node, random.nextInt(node.getChildCount() + 1));
+				nodes.add(child);
+				break;
+			case 4:
+				if (node != root) {
+					model.removeNodeFromParent(node);
+					nodes.clear();
+					for (java.util.Enumeration e = root.preorderEnumeration(); e.hasMoreElements();) {
+						nodes.add(e.nextElement());
+					}
+				}
+				break;
+			}
+			if (i % 50 == 0) {
+				tree.setRootVisible(!tree.isRootVisible());
+			}
+			assertRowsMatch(tree);
+		}
+	}
+
+	/**
+	 * Checks the Tree's row mapping against a walk of all its visible rows
+	 */
+	private void assertRowsMatch(Tree tree) {
+		List visiblePaths = new ArrayList();
+		Object root = tree.getModel().getRoot();
+		TreePath rootPath = new TreePath(root);
+		if (tree.isRootVisible()) {
+			visiblePaths.add(rootPath);
+		}
+		if (tree.isExpanded(rootPath)) {
+			addVisiblePaths(tree, rootPath, visiblePaths);
+		} else {
+			// getRowCount() always counts an unexpanded root
+			return;
+		}
+		assertEquals(visiblePaths.size(), tree.getRowCount());
+		for (int row = 0; row < visiblePaths.size(); row++) {
+			TreePath path = (TreePath) visiblePaths.get(row);
+			assertEquals(path, tree.getPathForRow(row));
+			assertEquals(row, tree.getRowForPath(path));
+		}
+		assertNull(tree.getPathForRow(visiblePaths.size()));
+	}
+
+	private void addVisiblePaths(Tree tree, TreePath parentPath, List visiblePaths) {
+		Object parent = parentPath.getLastPathComponent();
+		int cc = tree.getModel().getChildCount(parent);
+		for (int i = 0; i < cc; i++) {
+			TreePath childPath = parentPath.pathByAddingChild(tree.getModel().getChild(parent, i));
+			visiblePaths.add(childPath);
+			if (!tree.getModel().isLeaf(childPath.getLastPathComponent()) && tree.isExpanded(childPath)) {
+				addVisiblePaths(tree, childPath, visiblePaths);
+			}
+		}
 	}
 }
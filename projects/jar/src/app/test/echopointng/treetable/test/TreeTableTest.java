@@ -0,0 +1,103 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.treetable.test;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.table.TableModel;
+import echopointng.TreeTable;
+import echopointng.tree.DefaultMutableTreeNode;
+import echopointng.tree.TreePath;
+import echopointng.treetable.DefaultTreeTableModel;
+
+/**
+ * <code>TreeTableTest</code>
+ */
+public class TreeTableTest extends TestCase {
+
+	private DefaultMutableTreeNode root;
+
+	private TreeTable treeTable;
+
+	protected void setUp() throws Exception {
+		root = new DefaultMutableTreeNode("root");
+		for (int i = 0; i < 5; i++) {
+			DefaultMutableTreeNode child = new DefaultMutableTreeNode("child" + i);
+			root.add(child);
+			for (int j = 0; j < 3; j++) {
+				child.add(new DefaultMutableTreeNode("grandchild" + i + "." + j));
+			}
+		}
+		treeTable = new TreeTable(new DefaultTreeTableModel(root));
+	}
+
+	private void assertRowsMatchTree() {
+		TableModel tableModel = treeTable.getModel();
+		int firstRow = treeTable.getRowWindowStart();
+		for (int row = 0; row < tableModel.getRowCount(); row++) {
+			TreePath path = treeTable.getPathForRow(firstRow + row);
+			assertEquals(path.getLastPathComponent() + "@column 1", tableModel.getValueAt(1, row));
+		}
+	}
+
+	public void testRowsFollowExpansion() {
+		TableModel tableModel = treeTable.getModel();
+		assertEquals(treeTable.getTree().getRowCount(), tableModel.getRowCount());
+		assertRowsMatchTree();
+
+		treeTable.expandRow(2);
+		assertEquals(9, tableModel.getRowCount());
+		assertRowsMatchTree();
+
+		treeTable.collapseRow(2);
+		assertEquals(6, tableModel.getRowCount());
+		assertRowsMatchTree();
+	}
+
+	public void testRowWindow() {
+		treeTable.expandAll();
+		int totalRows = treeTable.getTotalRowCount();
+		assertEquals(21, totalRows);
+		assertEquals(-1, treeTable.getRowWindowSize());
+		assertEquals(0, treeTable.getRowWindowStart());
+
+		treeTable.setRowWindowSize(5);
+		treeTable.setRowWindowStart(7);
+		assertEquals(5, treeTable.getModel().getRowCount());
+		assertEquals(7, treeTable.getRowWindowStart());
+		assertRowsMatchTree();
+
+		treeTable.setRowWindowStart(1000);
+		assertEquals(totalRows - 5, treeTable.getRowWindowStart());
+		assertRowsMatchTree();
+
+		treeTable.setRowWindowSize(-1);
+		assertEquals(0, treeTable.getRowWindowStart());
+		assertEquals(totalRows, treeTable.getModel().getRowCount());
+	}
+}
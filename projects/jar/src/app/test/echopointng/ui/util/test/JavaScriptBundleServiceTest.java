@@ -0,0 +1,63 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.ui.util.test;
+
+import junit.framework.TestCase;
+import nextapp.echo2.webrender.util.Resource;
+import echopointng.ui.util.JavaScriptBundleService;
+
+/**
+ * <code>JavaScriptBundleServiceTest</code>
+ */
+public class JavaScriptBundleServiceTest extends TestCase {
+
+	private static final String EP_JS = "/echopointng/ui/resource/js/ep.js";
+
+	private static final String DRAG_JS = "/echopointng/ui/resource/js/epdrag.js";
+
+	public void testIdFollowsContent() {
+		JavaScriptBundleService single = JavaScriptBundleService.forResource("Test.EP", EP_JS);
+		JavaScriptBundleService again = JavaScriptBundleService.forResource("Test.EP", EP_JS);
+		JavaScriptBundleService bundle = JavaScriptBundleService.forResources("Test.EP", new String[] { EP_JS, DRAG_JS });
+
+		assertTrue(single.getId().startsWith("Test.EP."));
+		assertEquals(single.getId(), again.getId());
+		assertEquals(single.getETag(), again.getETag());
+		assertFalse(single.getId().equals(bundle.getId()));
+		assertFalse(single.getETag().equals(bundle.getETag()));
+		assertTrue(single.getETag().startsWith("\"") && single.getETag().endsWith("\""));
+	}
+
+	public void testCompressed() {
+		JavaScriptBundleService bundle = JavaScriptBundleService.forResources("Test.EP", new String[] { EP_JS, DRAG_JS });
+		int sourceLength = Resource.getResourceAsString(EP_JS).length() + Resource.getResourceAsString(DRAG_JS).length();
+		assertTrue(bundle.getContentLength() > 0);
+		assertTrue(bundle.getContentLength() < sourceLength);
+	}
+}
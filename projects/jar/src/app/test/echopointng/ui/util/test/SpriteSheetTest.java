@@ -0,0 +1,78 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.ui.util.test;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.Extent;
+import nextapp.echo2.app.ResourceImageReference;
+import echopointng.ui.util.SpriteSheet;
+import echopointng.ui.util.StaticImageService;
+
+/**
+ * <code>SpriteSheetTest</code>
+ */
+public class SpriteSheetTest extends TestCase {
+
+	private static final String PLUS = "/echopointng/resource/images/tree/tree_plus.gif";
+
+	private static final String MINUS = "/echopointng/resource/images/tree/tree_minus.gif";
+
+	public void testSpriteOffsets() throws Exception {
+		ResourceImageReference plus = new ResourceImageReference(PLUS);
+		ResourceImageReference minus = new ResourceImageReference(MINUS);
+		SpriteSheet sheet = new SpriteSheet("Test.Sprites", new ResourceImageReference[] { plus, new ResourceImageReference(PLUS), minus });
+
+		SpriteSheet.Sprite plusSprite = sheet.getSprite(plus);
+		SpriteSheet.Sprite minusSprite = sheet.getSprite(minus);
+		assertNotNull(plusSprite);
+		assertNotNull(minusSprite);
+		assertSame(plusSprite, sheet.getSprite(new ResourceImageReference(PLUS)));
+		assertEquals(0, plusSprite.getX());
+		assertEquals(plusSprite.getWidth(), minusSprite.getX());
+		assertTrue(sheet.getHeight() >= plusSprite.getHeight());
+	}
+
+	public void testUnknownImages() throws Exception {
+		SpriteSheet sheet = new SpriteSheet("Test.SingleSprite", new ResourceImageReference[] { new ResourceImageReference(PLUS) });
+		assertNull(sheet.getSprite(null));
+		assertNull(sheet.getSprite(new ResourceImageReference(MINUS)));
+		assertNull(sheet.getSprite(new ResourceImageReference(PLUS, new Extent(1000), new Extent(1000))));
+		assertNull(sheet.getSprite(new ResourceImageReference(PLUS) {
+		}));
+	}
+
+	public void testFingerprint() {
+		StaticImageService plus = new StaticImageService("Test.Plus", new ResourceImageReference(PLUS));
+		StaticImageService plusAgain = new StaticImageService("Test.Plus", new ResourceImageReference(PLUS));
+		StaticImageService minus = new StaticImageService("Test.Minus", new ResourceImageReference(MINUS));
+		assertEquals(plus.getFingerprint(), plusAgain.getFingerprint());
+		assertFalse(plus.getFingerprint().equals(minus.getFingerprint()));
+		assertSame(StaticImageService.forImage(new ResourceImageReference(PLUS)), StaticImageService.forImage(new ResourceImageReference(PLUS)));
+	}
+}
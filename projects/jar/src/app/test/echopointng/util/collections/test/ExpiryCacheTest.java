@@ -0,0 +1,183 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.util.collections.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+
+import echopointng.util.collections.ExpiryCache;
+import echopointng.util.collections.TimerExpiryCache;
+import junit.framework.TestCase;
+
+public class ExpiryCacheTest extends TestCase {
+
+	public void testGetAndVersioning() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false);
+		cache.put("a", "A", -1, -1, 10);
+		assertEquals("A", cache.get("a", 10));
+		assertNull(cache.get("a", 11));
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testMaximumSize() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false, 10);
+		for (int i = 0; i < 100; i++) {
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		assertTrue(cache.size() <= 10);
+		assertEquals(cache.size(), cache.getWeightedSize());
+		assertEquals(90, cache.getEvictionCount());
+	}
+
+	public void testEvictionIsReported() {
+		final List evictedKeys = new ArrayList();
+		ExpiryCache cache = new ExpiryCache(-1, -1, false, 10) {
+			protected void onEvictedObject(Object key) {
+				evictedKeys.add(key);
+			}
+		};
+		for (int i = 0; i < 100; i++) {
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		assertEquals(90, evictedKeys.size());
+		for (int i = 0; i < evictedKeys.size(); i++) {
+			assertFalse(cache.containsKey(evictedKeys.get(i)));
+		}
+	}
+
+	public void testFrequentEntriesSurvive() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false, 10);
+		Integer hot = new Integer(-1);
+		cache.put(hot, "hot");
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("hot", cache.get(hot));
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		assertEquals("hot", cache.get(hot));
+	}
+
+	public void testFrequencyKeptWhileFilling() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false, 1000);
+		Integer hot = new Integer(-1);
+		cache.put(hot, "hot");
+		for (int i = 0; i < 20; i++) {
+			cache.get(hot);
+		}
+		for (int i = 0; i < 1200; i++) {
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		assertEquals("hot", cache.get(hot));
+	}
+
+	public void testBufferedReadsKeepWeightedEntries() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false);
+		cache.setMaximumWeight(1000, new ExpiryCache.Weigher() {
+			public int weigh(Object key, Object value) {
+				return ((String) value).length();
+			}
+		}, 100);
+		cache.put("hot", "0123456789");
+		for (int i = 0; i < 200; i++) {
+			assertEquals("0123456789", cache.get("hot"));
+		}
+		assertEquals(200, cache.getHitCount());
+		for (int i = 0; i < 500; i++) {
+			cache.put(new Integer(i), "0123456789");
+		}
+		assertEquals("0123456789", cache.get("hot"));
+		assertTrue(cache.getWeightedSize() <= 1000);
+	}
+
+	public void testMaximumWeight() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false);
+		cache.setMaximumWeight(100, new ExpiryCache.Weigher() {
+			public int weigh(Object key, Object value) {
+				return ((String) value).length();
+			}
+		});
+		for (int i = 0; i < 50; i++) {
+			cache.put(new Integer(i), "0123456789");
+		}
+		assertTrue(cache.getWeightedSize() <= 100);
+		cache.put("big", new String(new char[101]));
+		assertNull(cache.get("big"));
+	}
+
+	public void testRemoveAndClear() {
+		ExpiryCache cache = new ExpiryCache(-1, -1, false, 5);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		assertEquals("A", cache.remove("a"));
+		assertEquals(1, cache.getWeightedSize());
+		cache.clear();
+		assertEquals(0, cache.getWeightedSize());
+		assertEquals(0, cache.size());
+	}
+
+	public void testLoadStatistics() {
+		ExpiryCache cache = new ExpiryCache();
+		cache.recordLoad(10);
+		cache.recordLoad(20);
+		assertEquals(2, cache.getLoadCount());
+		assertEquals(30, cache.getTotalLoadTime());
+		assertEquals(15.0, cache.getAverageLoadTime(), 0.001);
+		cache.resetStatistics();
+		assertEquals(0, cache.getLoadCount());
+	}
+
+	public void testTimerSweep() throws Exception {
+		Timer timer = new Timer(true);
+		TimerExpiryCache cache = new TimerExpiryCache(-1, -1, false, timer, 10);
+		try {
+			cache.put("short", "S", 20, -1);
+			cache.put("accessed", "A", -1, 200);
+			cache.put("forever", "F");
+			cache.put("forever", "F", -1, -1);
+			assertEquals(3, cache.size());
+			Thread.sleep(120);
+			cache.sweep();
+			assertFalse(cache.containsKey("short"));
+			assertEquals("A", cache.get("accessed"));
+			Thread.sleep(120);
+			cache.sweep();
+			assertTrue(cache.containsKey("accessed"));
+			assertTrue(cache.containsKey("forever"));
+			Thread.sleep(300);
+			cache.sweep();
+			assertFalse(cache.containsKey("accessed"));
+			assertTrue(cache.containsKey("forever"));
+		} finally {
+			cache.dispose();
+			timer.cancel();
+		}
+	}
+}
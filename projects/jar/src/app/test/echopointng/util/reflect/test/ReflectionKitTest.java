@@ -0,0 +1,179 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.util.reflect.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import echopointng.util.reflect.BeanKit;
+import echopointng.util.reflect.ReflectionKit;
+import junit.framework.TestCase;
+
+public class ReflectionKitTest extends TestCase {
+
+	public static class TestBean {
+		private String name;
+
+		private int count;
+
+		private boolean enabled;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+	}
+
+	public static class SubBean extends TestBean {
+		public String getName() {
+			return "sub";
+		}
+	}
+
+	public static class BeanHolder {
+		public void setBean(TestBean bean) {
+		}
+	}
+
+	/**
+	 * Loads its own copy of a single class, so that the copy has the same
+	 * name as the original but is a different class
+	 */
+	private static class IsolatingClassLoader extends ClassLoader {
+		private String isolatedName;
+
+		private IsolatingClassLoader(String isolatedName) {
+			super(IsolatingClassLoader.class.getClassLoader());
+			this.isolatedName = isolatedName;
+		}
+
+		protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(isolatedName)) {
+				return super.loadClass(name, resolve);
+			}
+			Class loaded = findLoadedClass(name);
+			if (loaded == null) {
+				try {
+					InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buffer = new byte[4096];
+					int n;
+					while ((n = in.read(buffer)) != -1) {
+						bytes.write(buffer, 0, n);
+					}
+					in.close();
+					loaded = defineClass(name, bytes.toByteArray(), 0, bytes.size());
+				} catch (java.io.IOException e) {
+					throw new ClassNotFoundException(name);
+				}
+			}
+			if (resolve) {
+				resolveClass(loaded);
+			}
+			return loaded;
+		}
+	}
+
+	public void testSignaturesUseClassesNotNames() throws Exception {
+		Class otherBeanClass = new IsolatingClassLoader(TestBean.class.getName()).loadClass(TestBean.class.getName());
+		assertEquals(TestBean.class.getName(), otherBeanClass.getName());
+		assertNotSame(TestBean.class, otherBeanClass);
+
+		BeanHolder holder = new BeanHolder();
+		assertTrue(ReflectionKit.hasMethod("setBean", new Class[] { TestBean.class }, Void.TYPE, holder));
+		assertFalse(ReflectionKit.hasMethod("setBean", new Class[] { otherBeanClass }, Void.TYPE, holder));
+	}
+
+	public void testBeanKit() throws Exception {
+		TestBean bean = new TestBean();
+		for (int i = 0; i < 3; i++) {
+			BeanKit.setString("name", bean, "n" + i);
+			BeanKit.setInteger("count", bean, i);
+			BeanKit.setBoolean("enabled", bean, i % 2 == 0);
+			assertEquals("n" + i, BeanKit.getString("name", bean));
+			assertEquals(i, BeanKit.getInteger("count", bean));
+			assertEquals(i % 2 == 0, BeanKit.getBoolean("enabled", bean));
+		}
+		assertEquals("sub", BeanKit.getString("name", new SubBean()));
+
+		try {
+			BeanKit.getString("missing", bean);
+			fail("expected a BeanKitException");
+		} catch (BeanKit.BeanKitException e) {
+		}
+		try {
+			BeanKit.getString("count", bean);
+			fail("expected a BeanKitException");
+		} catch (BeanKit.BeanKitException e) {
+		}
+	}
+
+	public void testCachedMethodsAreCopies() {
+		Method[] getters = ReflectionKit.getAllBeanGetterMethods(TestBean.class, Object.class);
+		assertEquals(4, getters.length); // includes getClass()
+		getters[0] = null;
+		Method[] again = ReflectionKit.getAllBeanGetterMethods(TestBean.class, Object.class);
+		assertNotNull(again[0]);
+		assertEquals(3, ReflectionKit.getAllBeanSetterMethods(TestBean.class, Object.class).length);
+		assertEquals(7, ReflectionKit.getAllBeanMethods(TestBean.class, Object.class).length);
+		assertTrue(Arrays.equals(ReflectionKit.getAllBeanMethods(TestBean.class, Object.class), ReflectionKit.getAllBeanMethods(TestBean.class, Object.class)));
+	}
+
+	public void testInvokeIfPresent() {
+		TestBean bean = new TestBean();
+		bean.setName("x");
+		assertTrue(ReflectionKit.hasMethod("getName", null, String.class, bean));
+		assertFalse(ReflectionKit.hasMethod("getName", null, Integer.TYPE, bean));
+		assertEquals("x", ReflectionKit.invokeIfPresent("getName", null, String.class, bean, null));
+		assertNull(ReflectionKit.invokeIfPresent("getMissing", null, String.class, bean, null));
+		ReflectionKit.invokeIfPresent("setName", new Class[] { String.class }, null, bean, new Object[] { "y" });
+		assertEquals("y", bean.getName());
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.util.test;
+
+import junit.framework.TestCase;
+import nextapp.echo2.app.ApplicationInstance;
+import nextapp.echo2.app.Label;
+import nextapp.echo2.app.Window;
+import echopointng.util.ComponentRegistry;
+
+public class ComponentRegistryTest extends TestCase {
+
+	private static class TestApp extends ApplicationInstance {
+		public Window init() {
+			return new Window();
+		}
+	}
+
+	private static TestApp createApp() {
+		TestApp app = new TestApp();
+		ApplicationInstance.setActive(app);
+		app.doInit();
+		return app;
+	}
+
+	protected void tearDown() throws Exception {
+		ApplicationInstance.setActive(null);
+	}
+
+	public void testRegisterAndDeregister() {
+		ComponentRegistry registry = new ComponentRegistry();
+		TestApp app = createApp();
+		Label label = new Label("a");
+		app.getDefaultWindow().getContent().add(label);
+		String elementId = ComponentRegistry.getElementId(label);
+
+		registry.register(label);
+		assertSame(label, registry.get(app, elementId));
+		assertNull(registry.get(app, "c_unknown"));
+		assertNull(registry.get(createApp(), elementId));
+		assertEquals(1, registry.getLiveRegistrationCount());
+
+		registry.deregister(label);
+		assertNull(registry.get(app, elementId));
+		assertEquals(0, registry.getLiveRegistrationCount());
+		assertEquals(1, registry.getRegistrationCount());
+		assertEquals(1, registry.getDeregistrationCount());
+	}
+
+	public void testDeregisterAfterUnregistered() {
+		ComponentRegistry registry = new ComponentRegistry();
+		TestApp app = createApp();
+		Label label = new Label("a");
+		app.getDefaultWindow().getContent().add(label);
+		String elementId = ComponentRegistry.getElementId(label);
+		registry.register(label);
+
+		app.getDefaultWindow().getContent().remove(label);
+		registry.deregister(label);
+		assertNull(registry.get(app, elementId));
+		assertEquals(1, registry.getDeregistrationCount());
+	}
+
+	public void testInstancesAreSeparate() {
+		ComponentRegistry registry = new ComponentRegistry();
+		TestApp app1 = createApp();
+		Label label1 = new Label("1");
+		app1.getDefaultWindow().getContent().add(label1);
+		registry.register(label1);
+
+		TestApp app2 = createApp();
+		Label label2 = new Label("2");
+		app2.getDefaultWindow().getContent().add(label2);
+		registry.register(label2);
+
+		assertEquals(2, registry.getApplicationInstanceCount());
+		assertSame(label1, registry.get(app1, ComponentRegistry.getElementId(label1)));
+		assertSame(label2, registry.get(app2, ComponentRegistry.getElementId(label2)));
+	}
+}
@@ -0,0 +1,113 @@
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+package echopointng.util.test;
+
+import junit.framework.TestCase;
+import echopointng.util.WorkerPool;
+
+/**
+ * <code>WorkerPoolTest</code> tests that a <code>WorkerPool</code> stays
+ * within its thread limit and survives failing tasks.
+ */
+public class WorkerPoolTest extends TestCase {
+
+	/**
+	 * Counts the tasks that have run and lets a test wait for them
+	 */
+	private static class Counter {
+		private int count;
+
+		private synchronized void increment() {
+			count++;
+			notifyAll();
+		}
+
+		private synchronized boolean waitFor(int expected, long timeout) throws InterruptedException {
+			long waitUntil = System.currentTimeMillis() + timeout;
+			while (count < expected) {
+				long remaining = waitUntil - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	public void testSurvivesFailingTasks() throws Exception {
+		WorkerPool pool = new WorkerPool("test", 1);
+		final Counter counter = new Counter();
+		pool.execute(new Runnable() {
+			public void run() {
+				counter.increment();
+				throw new Error("task failure");
+			}
+		});
+		pool.execute(new Runnable() {
+			public void run() {
+				counter.increment();
+				throw new RuntimeException("task failure");
+			}
+		});
+		pool.execute(new Runnable() {
+			public void run() {
+				counter.increment();
+			}
+		});
+		assertTrue(counter.waitFor(3, 5000));
+		assertEquals(1, pool.getThreadCount());
+	}
+
+	public void testThreadLimit() throws Exception {
+		WorkerPool pool = new WorkerPool("test", 2);
+		final Counter counter = new Counter();
+		final Object gate = new Object();
+		for (int i = 0; i < 5; i++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					synchronized (gate) {
+						counter.increment();
+					}
+				}
+			});
+		}
+		assertTrue(pool.getThreadCount() <= 2);
+		assertTrue(counter.waitFor(5, 5000));
+		assertTrue(pool.getThreadCount() <= 2);
+	}
+
+	public void testMaximumThreadsValidated() {
+		try {
+			new WorkerPool("test", 0);
+			fail("a pool needs at least one thread");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -30,7 +30,8 @@ package echopointng.ui.resource;
 
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
+
+import echopointng.ui.util.JavaScriptBundleService;
 
 /** 
  * <code>Resources</code> contains names and common
@@ -39,19 +40,29 @@ import nextapp.echo2.webrender.service.JavaScriptService;
 
 public class Resources {
     /**
-     * The EchoPoint JavaScript library service.
+     * The EchoPoint JavaScript library service.  The drag and stretch 
+     * libraries are small and widely used, so they are bundled with it
+     * to save the browser separate requests for them.
      */
-    public static final Service EP_SCRIPT_SERVICE = JavaScriptService.forResource("EPNG.EP_JSLIB",
-    	"/echopointng/ui/resource/js/ep.js"); 
+    public static final Service EP_SCRIPT_SERVICE = JavaScriptBundleService.forResources("EPNG.EP_JSLIB",
+    	new String[] {
+    		"/echopointng/ui/resource/js/ep.js", 
+    		"/echopointng/ui/resource/js/epdrag.js", 
+    		"/echopointng/ui/resource/js/epstretch.js" 
+    	}); 
 
-    public static final Service EP_DRAG_SERVICE = JavaScriptService.forResource("EPNG.EP_DRAG",
-	"/echopointng/ui/resource/js/epdrag.js"); 
+    /**
+     * The drag library, which is part of <code>EP_SCRIPT_SERVICE</code>
+     */
+    public static final Service EP_DRAG_SERVICE = EP_SCRIPT_SERVICE; 
 
-    public static final Service EP_LOOKUP_SERVICE = JavaScriptService.forResource("EPNG.EP_LOOKUP",
+    public static final Service EP_LOOKUP_SERVICE = JavaScriptBundleService.forResource("EPNG.EP_LOOKUP",
 	"/echopointng/ui/resource/js/lookupcache.js"); 
 
-    public static final Service EP_STRETCH_SERVICE = JavaScriptService.forResource("EPNG.EP_STRETCH",
-	"/echopointng/ui/resource/js/epstretch.js"); 
+    /**
+     * The stretch library, which is part of <code>EP_SCRIPT_SERVICE</code>
+     */
+    public static final Service EP_STRETCH_SERVICE = EP_SCRIPT_SERVICE; 
     
     static {
         WebRenderServlet.getServiceRegistry().add(EP_SCRIPT_SERVICE);
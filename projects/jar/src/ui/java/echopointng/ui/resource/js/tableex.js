@@ -108,6 +108,12 @@ EPTableEx.MessageProcessor.process = function(messagePartElement) {
             case "dispose":
                 EPTableEx.MessageProcessor.processDispose(messagePartElement.childNodes[i]);
                 break;
+            case "remove-rows":
+                EPTableEx.MessageProcessor.processRemoveRows(messagePartElement.childNodes[i]);
+                break;
+            case "update-rows":
+                EPTableEx.MessageProcessor.processUpdateRows(messagePartElement.childNodes[i]);
+                break;
             }
         }
     }
@@ -126,6 +132,93 @@ EPTableEx.MessageProcessor.processDispose = function(disposeMessageElement) {
     }
 };
 
+/**
+ * Processes a <code>remove-rows</code> message, which removes the rows that
+ * have been deleted or updated on the server and renumbers the remaining rows,
+ * ready for the changed rows to be added back in by the DOM updates.
+ *
+ * @param removeMessageElement the <code>remove-rows</code> element to process
+ */
+EPTableEx.MessageProcessor.processRemoveRows = function(removeMessageElement) {
+    for (var item = removeMessageElement.firstChild; item; item = item.nextSibling) {
+        var table = EP.ObjectMap.get(item.getAttribute("eid"));
+        if (! table) {
+        	continue;
+        }
+        for (var op = item.firstChild; op; op = op.nextSibling) {
+        	if (op.nodeType == 1) {
+        		var first = parseInt(op.getAttribute("first"),10);
+        		var last = parseInt(op.getAttribute("last"),10);
+        		table.applyRowOperation(op.tagName, first, last);
+        	}
+        }
+    }
+};
+
+/**
+ * Processes an <code>update-rows</code> message, which wires up the rows
+ * that have been added by the DOM updates and sets the current selection.
+ *
+ * @param updateMessageElement the <code>update-rows</code> element to process
+ */
+EPTableEx.MessageProcessor.processUpdateRows = function(updateMessageElement) {
+    for (var item = updateMessageElement.firstChild; item; item = item.nextSibling) {
+        var table = EP.ObjectMap.get(item.getAttribute("eid"));
+        if (! table) {
+        	continue;
+        }
+        table.rowCount = parseInt(item.getAttribute("rowCount"),10);
+        
+	    var elems = item.getElementsByTagName('actionCausingCell');
+	    for(var i = 0; i < elems.length; i++) {
+	    	table.actionCausingCells[elems[i].getAttribute('row')] = elems[i].getAttribute('cells');	
+	    }
+	    elems = item.getElementsByTagName('selectionCausingCell');
+	    for(var i = 0; i < elems.length; i++) {
+	    	table.selectionCausingCells[elems[i].getAttribute('row')] = elems[i].getAttribute('cells');	
+	    }
+	    
+        var addedElements = item.getElementsByTagName("added");
+        for (var i = 0; i < addedElements.length; ++i) {
+        	var first = parseInt(addedElements[i].getAttribute("first"),10);
+        	var last = parseInt(addedElements[i].getAttribute("last"),10);
+        	for (var rowIndex = first; rowIndex <= last; ++rowIndex) {
+	            var trElement = table.getRowElement(rowIndex);
+	            if (table.rolloverEnabled) {
+	            	EP.Event.addHandler('mouseout',trElement,table);
+	            	EP.Event.addHandler('mouseover',trElement,table);
+	            }
+	            if (table.selectionEnabled) {
+	            	EP.Event.addHandler('click',trElement,table);
+	            }
+        	}
+        }
+        
+        var selectionElements = item.getElementsByTagName("selection");
+        if (table.selectionEnabled && selectionElements.length > 0) {
+        	var newSelection = new Array();
+	        var rowElements = selectionElements[0].getElementsByTagName("row");
+	        for (var i = 0; i < rowElements.length; ++i) {
+	            newSelection[parseInt(rowElements[i].getAttribute("index"),10)] = true;
+	        }
+	        for (var rowIndex = 0; rowIndex < table.rowCount; ++rowIndex) {
+	        	var selected = newSelection[rowIndex] == true;
+	        	if (table.isSelected(rowIndex) != selected) {
+	        		table.setSelected(rowIndex, selected);
+	        	}
+	        }
+        }
+        
+        if (table.scrollable && addedElements.length > 0) {
+        	table.initCells();
+	        for (var i = 0; i < addedElements.length; ++i) {
+	        	table.initContentStyles(parseInt(addedElements[i].getAttribute("first"),10),parseInt(addedElements[i].getAttribute("last"),10));
+	        }
+        	table.synchronizeTableColumns();
+        }
+    }
+};
+
 /**
  * Processes an <code>init</code> message to initialize the state of a 
  * TableEx component that is being added.
@@ -172,6 +265,9 @@ EPTableEx.MessageProcessor.processInit = function(initMessageElement) {
         table.resizeable = item.getAttribute("resizeable") == "true";
         table.resizeDragBarUsed = item.getAttribute("resizeDragBarUsed") == "true";
         table.resizeGrowsTable = item.getAttribute("resizeGrowsTable") == "true";
+        table.rowWindowStart = EP.DOM.getIntAttr(item,"rowWindowStart",0);
+        table.rowWindowSize = EP.DOM.getIntAttr(item,"rowWindowSize",-1);
+        table.totalRowCount = EP.DOM.getIntAttr(item,"totalRowCount",-1);
 
     	table.heightStretched = EP.DOM.getBooleanAttr(item,"heightStretched",false);
 	    if (table.heightStretched) {
@@ -253,6 +349,9 @@ EPTableEx.prototype.destroy = function() {
     	}
 	 	EP.Event.removeHandler('scroll',this.contentDivE);
 	 	EP.Event.removeHandler('resize',this.contentDivE);
+	 	if (this.rowWindowTimeout) {
+	 		window.clearTimeout(this.rowWindowTimeout);
+	 	}
 	 	
 	    if (EP.isGecko) {
 	  		EP.DocumentEvent.removeHandler('resize', 'EPTableEx');
@@ -354,6 +453,140 @@ EPTableEx.prototype.init = function() {
             }
         }
     }
+    if (this.scrollable && this.rowWindowSize >= 0) {
+    	this.initRowWindow();
+    }
+};
+
+/**
+ * The scroll positions of windowed tables, keyed by element id, so that they
+ * survive the table being re-rendered when its row window moves.
+ */
+EPTableEx.rowWindowScrollTops = {};
+
+/**
+ * Called to pad out the content table of a table that only has a window of its 
+ * rows, so that it scrolls as if all the rows were present.
+ */
+EPTableEx.prototype.initRowWindow = function() {
+	this.rowHeight = 0;
+	if (this.rowCount > 0) {
+		var trElement = document.getElementById(this.elementId + "_tr_0");
+		if (trElement) {
+			this.rowHeight = trElement.offsetHeight;
+		}
+	}
+	if (this.rowHeight <= 0) {
+		return;
+	}
+	var rowsAfter = Math.max(0, this.totalRowCount - this.rowWindowStart - this.rowCount);
+	this.contentTableE.style.marginTop = (this.rowWindowStart * this.rowHeight) + 'px';
+	this.contentTableE.style.marginBottom = (rowsAfter * this.rowHeight) + 'px';
+	var scrollTop = EPTableEx.rowWindowScrollTops[this.elementId];
+	if (scrollTop) {
+		this.contentDivE.scrollTop = scrollTop;
+	}
+};
+
+/**
+ * Called when a table with a row window is scrolled.  If the rows now in view 
+ * are not all in the window, the server is asked to move the window so that 
+ * they are in the middle of it.
+ */
+EPTableEx.prototype.onRowWindowScroll = function() {
+	if (! this.rowHeight) {
+		return;
+	}
+	EPTableEx.rowWindowScrollTops[this.elementId] = this.contentDivE.scrollTop;
+	var firstVisibleRow = Math.floor(this.contentDivE.scrollTop / this.rowHeight);
+	var visibleRowCount = Math.ceil(this.contentDivE.clientHeight / this.rowHeight);
+	if (firstVisibleRow >= this.rowWindowStart && firstVisibleRow + visibleRowCount <= this.rowWindowStart + this.rowCount) {
+		return;
+	}
+	var newStart = Math.max(0, firstVisibleRow - Math.floor((this.rowWindowSize - visibleRowCount) / 2));
+	if (this.rowWindowTimeout) {
+		window.clearTimeout(this.rowWindowTimeout);
+	}
+	var elementId = this.elementId;
+	// wait for the scrolling to settle before asking for the new rows
+	this.rowWindowTimeout = window.setTimeout(function() {
+	    EchoClientMessage.setPropertyValue(elementId, "rowWindowStart", newStart);
+	    EchoServerTransaction.connect();
+	}, 150);
+};
+
+/**
+ * Applies a single row operation from the server to the rows currently on the
+ * client.  Deleted and updated rows are removed and the ids of the rows after
+ * inserted or deleted ones are renumbered, along with the selection state and
+ * the action/selection causing cells.
+ *
+ * @param type one of "insert", "delete" or "update"
+ * @param first the first row of the operation
+ * @param last the last row of the operation
+ */
+EPTableEx.prototype.applyRowOperation = function(type, first, last) {
+	var count = last - first + 1;
+	var shift = type == "insert" ? count : (type == "delete" ? -count : 0);
+	var rows = this.tableE.rows;
+	for (var i = rows.length - 1; i >= 0; i--) {
+		var trElement = rows[i];
+		var rowIndex = this.getRowIndex(trElement);
+		if (rowIndex < 0 || rowIndex < first) {
+			continue;
+		}
+		if (type != "insert" && rowIndex <= last) {
+            if (this.rolloverEnabled) {
+ 				EP.Event.removeHandler('mouseout',trElement);
+			 	EP.Event.removeHandler('mouseover',trElement);
+            }
+            if (this.selectionEnabled) {
+			 	EP.Event.removeHandler('click',trElement);
+            }
+			trElement.parentNode.removeChild(trElement);
+		} else if (shift != 0) {
+			trElement.id = this.elementId + "_tr_" + (rowIndex + shift);
+		}
+	}
+	
+	while (this.selectionState.length < this.rowCount) {
+		this.selectionState[this.selectionState.length] = false;
+	}
+	var filler = new Array();
+	for (var i = 0; i < count; i++) {
+		filler[i] = false;
+	}
+	if (type == "insert") {
+		this.selectionState = this.selectionState.slice(0, first).concat(filler, this.selectionState.slice(first));
+	} else if (type == "delete") {
+		this.selectionState.splice(first, count);
+	} else {
+		this.selectionState = this.selectionState.slice(0, first).concat(filler, this.selectionState.slice(last + 1));
+	}
+	
+	this.actionCausingCells = this.shiftRowMap(this.actionCausingCells, type, first, last, shift);
+	this.selectionCausingCells = this.shiftRowMap(this.selectionCausingCells, type, first, last, shift);
+	this.rowCount += shift;
+	if (this.lastSelectedIndex >= first) {
+		this.lastSelectedIndex = -1;
+	}
+};
+
+/**
+ * Returns a copy of a map keyed by row index with the keys adjusted for a 
+ * row operation.  Entries for deleted and updated rows are dropped.
+ */
+EPTableEx.prototype.shiftRowMap = function(rowMap, type, first, last, shift) {
+	var newMap = {};
+	for (var key in rowMap) {
+		var rowIndex = parseInt(key,10);
+		if (rowIndex < first) {
+			newMap[key] = rowMap[key];
+		} else if (type == "insert" || rowIndex > last) {
+			newMap[rowIndex + shift] = rowMap[key];
+		}
+	}
+	return newMap;
 };
 
 /**
@@ -1393,6 +1626,9 @@ EPTableEx.prototype.synchroniseScrollPositionsTo = function(scrollX, divE, scrol
  */
 EPTableEx.prototype.onScroll = function(echoEvent) {
 	this.synchroniseScrollPositions();
+	if (this.rowWindowSize >= 0) {
+		this.onRowWindowScroll();
+	}
 	//this.reportOnTable();
 };
 
@@ -59,6 +59,9 @@ EchoPointTree.MessageProcessor.process = function(messagePartElement) {
 	            case "dispose":
 	                EchoPointTree.MessageProcessor.processDispose(messagePartElement.childNodes[i]);
 	                break;
+	            case "loadChildren":
+	                EchoPointTree.MessageProcessor.processLoadChildren(messagePartElement.childNodes[i]);
+	                break;
             }
         }
     }
@@ -94,6 +97,18 @@ EchoPointTree.MessageProcessor.processDispose = function(messageElement) {
     }
 };
 
+/**
+ * Processes a <code>loadChildren</code> message to fetch the children of the
+ * tree nodes whose placeholder rows have just been rendered.
+ *
+ * @param messageElement the <code>loadChildren</code> element to process
+ */
+EchoPointTree.MessageProcessor.processLoadChildren = function(messageElement) {
+	for (var item = messageElement.firstChild; item; item = item.nextSibling) {
+		EchoPointTree.loadChildren(item.getAttribute("eid"), item.getAttribute("path"), 0);
+	}
+};
+
 EchoPointTree.MessageProcessor.processScrollIntoView = function(messageElement) {
 	for (var item = messageElement.firstChild; item; item = item.nextSibling) {
 		var elementId = item.getAttribute("eid");
@@ -126,6 +141,122 @@ EchoPointTree.makeNodeId = function(elementId, cellType, treePath) {
 	return id;
 }
 
+/**
+ * The TreeChildren service requests currently outstanding, keyed by 
+ * element id, tree path and first child index. 
+ */
+EchoPointTree.pendingLoads = {};
+
+/**
+ * The number of milliseconds to wait before asking again for children that
+ * are still loading. 
+ */
+EchoPointTree.PENDING_RETRY_DELAY = 500;
+
+/**
+ * Asks the TreeChildren service for the rows that replace the more or 
+ * placeholder row of a tree node.
+ * 
+ * @param elementId - the id of the Tree
+ * @param treePath - the path id of the tree node
+ * @param start - the index of the first child to fetch, 0 for a placeholder row
+ */
+EchoPointTree.loadChildren = function(elementId, treePath, start) {
+	var key = elementId + '|' + start + '|' + treePath;
+	if (EchoPointTree.pendingLoads[key]) {
+		return;
+	}
+	EchoPointTree.pendingLoads[key] = true;
+	
+	var uri = EchoClientEngine.baseServerUri + "?serviceId=EPNG.TreeChildren&elementId=" + elementId 
+		+ "&path=" + encodeURIComponent(treePath) + "&start=" + start;
+	
+    var conn = new EchoHttpConnection(uri, "GET");
+    conn.elementId = elementId;
+    conn.treePath = treePath;
+    conn.start = start;
+    conn.key = key;
+    
+    conn.responseHandler = EchoPointTree.loadChildrenResponseHandler;
+    conn.invalidResponseHandler = EchoPointTree.loadChildrenInvalidResponseHandler;
+    conn.connect();
+};
+
+/**
+ * Processes a response from the TreeChildren service.  The XML structure is 
+ * something like :
+ * 
+ * |children status="ok|pending|sync|stale" shown="..."
+ * 	|----loading path="..." <-- a descendant with a placeholder row of its own
+ * 	|----table  <-- a tree row
+ * 	|----table
+ * ....
+ * 
+ * @param conn
+ *            the EchoHttpConnection containing the response information.
+ */
+EchoPointTree.loadChildrenResponseHandler = function(conn) {
+	delete EchoPointTree.pendingLoads[conn.key];
+	
+	var childrenElement = conn.getResponseXml().documentElement;
+	var status = childrenElement.getAttribute("status");
+	if (status == "pending") {
+		window.setTimeout(function() {
+			EchoPointTree.loadChildren(conn.elementId, conn.treePath, conn.start);
+		}, EchoPointTree.PENDING_RETRY_DELAY);
+		return;
+	}
+	if (status == "sync") {
+		EchoPointTree.loadChildrenBySync(conn);
+		return;
+	}
+	if (status != "ok") {
+		return; // the row has gone away
+	}
+	var auxRowE = document.getElementById('tree|' + conn.elementId + '|morerow||' + conn.treePath);
+	if (! auxRowE) {
+		return;
+	}
+	var loadingPaths = [];
+	for (var child = childrenElement.firstChild; child; child = child.nextSibling) {
+		if (child.nodeType != 1) {
+			continue;
+		}
+		if (child.nodeName == "loading") {
+			loadingPaths.push(child.getAttribute("path"));
+			continue;
+		}
+		// FireFox requires the XML to be in the XHTML namespace
+		child.setAttribute("xmlns", "http://www.w3.org/1999/xhtml");
+		// import the XTHML into our document structure
+        var rowE = EchoDomUtil.importNode(auxRowE.ownerDocument, child, true);
+		auxRowE.parentNode.insertBefore(rowE, auxRowE);
+	}
+	auxRowE.parentNode.removeChild(auxRowE);
+	if (conn.start > 0) {
+		// the server learns of the extra children with the next server message
+		EchoClientMessage.setPropertyValue(conn.elementId, "shownChildCount|" + conn.treePath, childrenElement.getAttribute("shown"));
+	}
+	
+	for (var i = 0; i < loadingPaths.length; i++) {
+		EchoPointTree.loadChildren(conn.elementId, loadingPaths[i], 0);
+	}
+};
+
+/**
+ * Processes an invalid response from the TreeChildren service by asking for
+ * the rows with a normal server action instead.
+ */
+EchoPointTree.loadChildrenInvalidResponseHandler = function(conn) {
+	delete EchoPointTree.pendingLoads[conn.key];
+	EchoPointTree.loadChildrenBySync(conn);
+};
+
+EchoPointTree.loadChildrenBySync = function(conn) {
+	EchoClientMessage.setActionValue(conn.elementId, conn.start == 0 ? "loaded" : "more", conn.treePath);
+	EchoServerTransaction.connect();
+};
+
 /**
  * Handles a click anywhere on the Tree as a whole then attempts to find
  * the specific node that was clicked and perform its appropriate action.
@@ -162,6 +293,13 @@ EchoPointTree.EventProcessor.onClick = function(e) {
 				EchoClientMessage.setActionValue(idArray[1], idArray[3], idArray[4]);
 				EchoServerTransaction.connect();
 			}
+			// or cells like this: "tree|c_99|more|100|[root][3]", which fetch the next page of children
+		    if (el.id && el.id.indexOf("|more|") > 0) {
+				EchoDomUtil.stopPropagation(e);
+				
+				var idArray = el.id.split("|");
+				EchoPointTree.loadChildren(idArray[1], idArray[4], parseInt(idArray[3], 10));
+			}
 		}
 		el = el.parentNode;
 	}
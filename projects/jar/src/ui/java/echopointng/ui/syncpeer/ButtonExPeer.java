@@ -81,7 +81,6 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.WindowUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -91,6 +90,7 @@ import echopointng.EPNG;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.ui.util.TriCellTable;
@@ -106,7 +106,7 @@ public class ButtonExPeer extends AbstractEchoPointPeer implements ActionProcess
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service BUTTON_SERVICE = JavaScriptService.forResource("EPNG.ButtonEx", "/echopointng/ui/resource/js/button.js");
+	public static final Service BUTTON_SERVICE = JavaScriptBundleService.forResource("EPNG.ButtonEx", "/echopointng/ui/resource/js/button.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(BUTTON_SERVICE);
@@ -43,7 +43,6 @@ import nextapp.echo2.webcontainer.propertyrender.ExtentRender;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -53,6 +52,7 @@ import echopointng.EPNG;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.HtmlTable;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -68,7 +68,7 @@ public class CalculatorPeer extends AbstractEchoPointPeer implements PropertyUpd
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service CALC_SERVICE = JavaScriptService.forResource("EPNG.Calculator", "/echopointng/ui/resource/js/calculator.js");
+	public static final Service CALC_SERVICE = JavaScriptBundleService.forResource("EPNG.Calculator", "/echopointng/ui/resource/js/calculator.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(CALC_SERVICE);
 	}
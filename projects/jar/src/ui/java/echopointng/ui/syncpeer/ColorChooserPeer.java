@@ -42,7 +42,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 
@@ -50,6 +49,7 @@ import echopointng.ColorChooser;
 import echopointng.EPNG;
 import echopointng.model.ColorSwatchModel;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 import echopointng.util.ColorKit;
 
@@ -63,7 +63,7 @@ public class ColorChooserPeer implements ComponentSynchronizePeer, ActionProcess
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service CC_SERVICE = JavaScriptService.forResource("EPNG.ColorChooser", "/echopointng/ui/resource/js/colorchooser.js");
+	public static final Service CC_SERVICE = JavaScriptBundleService.forResource("EPNG.ColorChooser", "/echopointng/ui/resource/js/colorchooser.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(CC_SERVICE);
@@ -43,12 +43,12 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 
 import echopointng.ComboBox;
 import echopointng.able.Widthable;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.util.QuoterKit;
@@ -63,7 +63,7 @@ public class ComboBoxPeer extends PopUpPeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service COMBOBOX_SERVICE = JavaScriptService.forResource("EPNG.ComboBox", "/echopointng/ui/resource/js/combobox.js");
+	public static final Service COMBOBOX_SERVICE = JavaScriptBundleService.forResource("EPNG.ComboBox", "/echopointng/ui/resource/js/combobox.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(COMBOBOX_SERVICE);
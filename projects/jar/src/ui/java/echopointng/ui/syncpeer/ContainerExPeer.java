@@ -45,7 +45,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -58,6 +57,7 @@ import echopointng.able.BackgroundImageable;
 import echopointng.able.Stretchable;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -69,7 +69,7 @@ public class ContainerExPeer extends AbstractEchoPointContainerPeer implements P
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service CONTAINEREX_SERVICE = JavaScriptService.forResource("EPNG.ContainerEx", "/echopointng/ui/resource/js/containerex.js");
+	public static final Service CONTAINEREX_SERVICE = JavaScriptBundleService.forResource("EPNG.ContainerEx", "/echopointng/ui/resource/js/containerex.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(CONTAINEREX_SERVICE);
 	}
@@ -48,7 +48,6 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -60,6 +59,7 @@ import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssRolloverStyleEx;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.LayoutStrut;
 import echopointng.ui.util.RenderingContext;
 import echopointng.util.FontKit;
@@ -72,7 +72,7 @@ public class DateChooserPeer extends AbstractEchoPointPeer implements ActionProc
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service DATECHOOSER_SERVICE = JavaScriptService.forResource("EPNG.DateChooser", "/echopointng/ui/resource/js/datechooser.js");
+	public static final Service DATECHOOSER_SERVICE = JavaScriptBundleService.forResource("EPNG.DateChooser", "/echopointng/ui/resource/js/datechooser.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(DATECHOOSER_SERVICE);
 	}
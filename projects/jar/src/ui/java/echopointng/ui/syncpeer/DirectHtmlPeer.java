@@ -37,12 +37,12 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Element;
 
 import echopointng.DirectHtml;
+import echopointng.ui.util.JavaScriptBundleService;
 
 /**
  * <code>ComponentSynchronizePeer</code> implementation for the
@@ -53,7 +53,7 @@ public class DirectHtmlPeer implements ComponentSynchronizePeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service DH_SERVICE = JavaScriptService.forResource("EPNG.DirectHtml", "/echopointng/ui/resource/js/directhtml.js");
+	public static final Service DH_SERVICE = JavaScriptBundleService.forResource("EPNG.DirectHtml", "/echopointng/ui/resource/js/directhtml.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(DH_SERVICE);
@@ -39,7 +39,6 @@ import nextapp.echo2.webcontainer.SynchronizePeerFactory;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -51,6 +50,7 @@ import echopointng.TitleBar;
 import echopointng.model.ExpansionGroup;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -62,7 +62,7 @@ public class ExpandableSectionPeer extends AbstractEchoPointContainerPeer implem
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service ES_SERVICE = JavaScriptService.forResource("EPNG.ExpandableSection", "/echopointng/ui/resource/js/expandablesection.js");
+	public static final Service ES_SERVICE = JavaScriptBundleService.forResource("EPNG.ExpandableSection", "/echopointng/ui/resource/js/expandablesection.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(ES_SERVICE);
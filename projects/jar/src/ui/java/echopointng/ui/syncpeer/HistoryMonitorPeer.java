@@ -42,7 +42,6 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -50,6 +49,7 @@ import org.w3c.dom.Element;
 import echopointng.HistoryMonitor;
 import echopointng.history.HistoryState;
 import echopointng.ui.resource.Resources;
+import echopointng.ui.util.JavaScriptBundleService;
 
 /**
  * The rendering peer for HistoryMonitor
@@ -60,7 +60,7 @@ public class HistoryMonitorPeer implements ComponentSynchronizePeer, ActionProce
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service HISTORY_MONITOR_SERVICE = JavaScriptService.forResource("EPNG.HistoryMonitor",
+	public static final Service HISTORY_MONITOR_SERVICE = JavaScriptBundleService.forResource("EPNG.HistoryMonitor",
 			"/echopointng/ui/resource/js/historymonitor.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(HISTORY_MONITOR_SERVICE);
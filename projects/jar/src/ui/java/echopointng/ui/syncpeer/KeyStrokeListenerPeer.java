@@ -36,13 +36,13 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import echopointng.KeyStrokeListener;
 import echopointng.ui.resource.Resources;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 
 /** 
@@ -54,7 +54,7 @@ public class KeyStrokeListenerPeer extends AbstractEchoPointPeer implements  Act
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service KEYSTROKE_SERVICE = JavaScriptService.forResource("EPNG.KeyStroke", "/echopointng/ui/resource/js/keystroke.js");
+	public static final Service KEYSTROKE_SERVICE = JavaScriptBundleService.forResource("EPNG.KeyStroke", "/echopointng/ui/resource/js/keystroke.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(KEYSTROKE_SERVICE);
 	}
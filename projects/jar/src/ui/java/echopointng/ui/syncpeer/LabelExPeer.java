@@ -88,7 +88,6 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -101,6 +100,7 @@ import echopointng.LabelEx;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssRolloverStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.ui.util.TriCellTable;
@@ -116,7 +116,7 @@ public class LabelExPeer extends AbstractEchoPointContainerPeer implements Actio
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service LABEL_SERVICE = JavaScriptService.forResource("EPNG.LabelEx", "/echopointng/ui/resource/js/labelex.js");
+	public static final Service LABEL_SERVICE = JavaScriptBundleService.forResource("EPNG.LabelEx", "/echopointng/ui/resource/js/labelex.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(LABEL_SERVICE);
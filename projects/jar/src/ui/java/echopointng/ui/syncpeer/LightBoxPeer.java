@@ -41,7 +41,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 
@@ -49,6 +48,7 @@ import echopointng.ComponentEx;
 import echopointng.EPNG;
 import echopointng.LightBox;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 
 /**
@@ -61,7 +61,7 @@ public class LightBoxPeer implements ComponentSynchronizePeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service LB_SERVICE = JavaScriptService.forResource("EPNG.LightBox", "/echopointng/ui/resource/js/lightbox.js");
+	public static final Service LB_SERVICE = JavaScriptBundleService.forResource("EPNG.LightBox", "/echopointng/ui/resource/js/lightbox.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(LB_SERVICE);
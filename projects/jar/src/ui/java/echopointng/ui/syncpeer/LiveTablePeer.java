@@ -55,7 +55,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -66,6 +65,7 @@ import echopointng.LiveTable;
 import echopointng.table.LiveTableRenderer;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 
 /**
@@ -76,7 +76,7 @@ public class LiveTablePeer extends AbstractEchoPointContainerPeer implements Act
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service LIVETABLE_SERVICE = JavaScriptService.forResource("EPNG.LiveTableJS", "/echopointng/ui/resource/js/livetable.js");
+	public static final Service LIVETABLE_SERVICE = JavaScriptBundleService.forResource("EPNG.LiveTableJS", "/echopointng/ui/resource/js/livetable.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(LIVETABLE_SERVICE);
@@ -46,7 +46,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -59,6 +58,7 @@ import echopointng.MenuItem;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.ui.util.TriCellTable;
@@ -71,7 +71,7 @@ public class MenuItemPeer extends AbstractEchoPointContainerPeer implements Acti
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service MENU_ITEM_SERVICE = JavaScriptService.forResource("EPNG.MenuItem", "/echopointng/ui/resource/js/menu.js");
+	public static final Service MENU_ITEM_SERVICE = JavaScriptBundleService.forResource("EPNG.MenuItem", "/echopointng/ui/resource/js/menu.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(MENU_ITEM_SERVICE);
@@ -41,7 +41,6 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -49,6 +48,7 @@ import org.w3c.dom.Element;
 import echopointng.EPNG;
 import echopointng.NativeWindow;
 import echopointng.ui.resource.Resources;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 
 /**
@@ -60,7 +60,7 @@ public class NativeWindowPeer implements ComponentSynchronizePeer, PropertyUpdat
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service NATIVE_WINDOW_SERVICE = JavaScriptService.forResource("EPNG.NativeWindow",
+	public static final Service NATIVE_WINDOW_SERVICE = JavaScriptBundleService.forResource("EPNG.NativeWindow",
 			"/echopointng/ui/resource/js/nativewindow.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(NATIVE_WINDOW_SERVICE);
@@ -44,7 +44,6 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -57,6 +56,7 @@ import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.HtmlTable;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.ui.util.StaticImageService;
@@ -71,7 +71,7 @@ public class PopUpPeer extends AbstractEchoPointContainerPeer implements Propert
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service POPUP_SERVICE = JavaScriptService.forResource("EPNG.PopUp", "/echopointng/ui/resource/js/popup.js");
+	public static final Service POPUP_SERVICE = JavaScriptBundleService.forResource("EPNG.PopUp", "/echopointng/ui/resource/js/popup.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(POPUP_SERVICE);
@@ -46,7 +46,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -62,6 +61,7 @@ import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.HtmlNodeLexer;
 import echopointng.ui.util.HtmlTable;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.LayoutStrut;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
@@ -72,7 +72,7 @@ public class RichTextAreaPeer extends AbstractEchoPointPeer implements PropertyU
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service RICH_TEXT_SERVICE = JavaScriptService.forResource("EPNG.RichTextArea", "/echopointng/ui/resource/js/rta.js");
+	public static final Service RICH_TEXT_SERVICE = JavaScriptBundleService.forResource("EPNG.RichTextArea", "/echopointng/ui/resource/js/rta.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(RICH_TEXT_SERVICE);
 	}
@@ -41,7 +41,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.ServiceRegistry;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.service.StaticBinaryService;
 import nextapp.echo2.webrender.util.DomUtil;
 
@@ -52,6 +51,7 @@ import echopointng.EPNG;
 import echopointng.Slider;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -63,7 +63,7 @@ public class SliderPeer extends AbstractEchoPointContainerPeer implements Proper
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service SLIDER_SERVICE = JavaScriptService.forResource("EPNG.Slider", "/echopointng/ui/resource/js/slider.js");
+	public static final Service SLIDER_SERVICE = JavaScriptBundleService.forResource("EPNG.Slider", "/echopointng/ui/resource/js/slider.js");
 
 	private static final Service SLIDER_HORZ_IMAGE = StaticBinaryService.forResource("EPNG.Slider.HorzImage", "image/gif",
 			"/echopointng/ui/resource/images/slider_horz_handle.gif");
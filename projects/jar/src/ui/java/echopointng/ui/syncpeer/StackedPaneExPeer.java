@@ -81,7 +81,6 @@ import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 
@@ -89,6 +88,7 @@ import echopointng.EPNG;
 import echopointng.StackedPaneEx;
 import echopointng.able.BackgroundImageable;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -101,7 +101,7 @@ public class StackedPaneExPeer implements ComponentSynchronizePeer, LazyRenderCo
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service STACKED_PANE_SERVICE = JavaScriptService.forResource("EP.StackedPaneEx",
+	public static final Service STACKED_PANE_SERVICE = JavaScriptBundleService.forResource("EP.StackedPaneEx",
 			"/echopointng/ui/resource/js/stackedpaneex.js");
 
 	static {
@@ -39,6 +39,7 @@ import echopointng.EPNG;
 import echopointng.ui.util.LayoutStrut;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
+import echopointng.ui.util.StaticImageService;
 
 /** 
  * <code>StrutPeer</code> is the peer class for <code>Strut</code>
@@ -52,7 +53,7 @@ public class StrutPeer extends AbstractEchoPointPeer {
 	public void renderHtml(RenderingContext rc, Node parentNode, Component component) {
 		Style fallbackStyle = EPNG.getFallBackStyle(component);
 		
-	   	String uri = rc.getContainerInstance().getServiceUri(LayoutStrut.PIXEL_SERVICE);
+	   	String uri = ((StaticImageService) LayoutStrut.PIXEL_SERVICE).getURI(rc.getContainerInstance());
     	Element imgE = rc.getServerMessage().getDocument().createElement("img");
         imgE.setAttribute("src", uri);
         
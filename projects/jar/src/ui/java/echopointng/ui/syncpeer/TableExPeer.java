@@ -61,6 +61,9 @@
 
 package echopointng.ui.syncpeer;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
@@ -69,10 +72,13 @@ import org.w3c.dom.Node;
 
 import echopointng.EPNG;
 import echopointng.TableEx;
+import echopointng.TreeTable;
 import echopointng.able.Stretchable;
 import echopointng.layout.TableLayoutDataEx;
+import echopointng.table.TableRowChanges;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.xhtml.XhtmlFragment;
@@ -98,6 +104,7 @@ import nextapp.echo2.webcontainer.DomUpdateSupport;
 import nextapp.echo2.webcontainer.PartialUpdateManager;
 import nextapp.echo2.webcontainer.PropertyUpdateProcessor;
 import nextapp.echo2.webcontainer.RenderContext;
+import nextapp.echo2.webcontainer.RenderState;
 import nextapp.echo2.webcontainer.ComponentSynchronizePeer;
 import nextapp.echo2.webcontainer.SynchronizePeerFactory;
 import nextapp.echo2.webcontainer.image.ImageRenderSupport;
@@ -114,7 +121,6 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 /**
@@ -123,10 +129,26 @@ import nextapp.echo2.webrender.util.DomUtil;
  */
 public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, DomUpdateSupport, PropertyUpdateProcessor, ImageRenderSupport {
 
+	/**
+	 * <code>TableExRenderState</code> remembers how many rows of a
+	 * <code>TableEx</code> are currently on the client.
+	 */
+	private static class TableExRenderState implements RenderState {
+
+		private int renderedRowCount;
+
+		private TableExRenderState(int renderedRowCount) {
+			this.renderedRowCount = renderedRowCount;
+		}
+	}
+
 	private static final String[] TABLE_INIT_KEYS = new String[] { "rollover-style", "selection-style" };
 
 	private static final String PROPERTY_SELECTION = "selection";
 
+	/** the property TableEx fires whenever it renders its cells again */
+	private static final String PROPERTY_REPAINT = "repaint";
+
 	private static final String IMAGE_ID_ROLLOVER_BACKGROUND = "rolloverBackground";
 
 	private static final String IMAGE_ID_SELECTION_BACKGROUND = "selectionBackground";
@@ -134,7 +156,7 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	private static final Service TABLEEX_SERVICE = JavaScriptService.forResource("EPNG.TableEx", "/echopointng/ui/resource/js/tableex.js");
+	private static final Service TABLEEX_SERVICE = JavaScriptBundleService.forResource("EPNG.TableEx", "/echopointng/ui/resource/js/tableex.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(TABLEEX_SERVICE);
@@ -244,6 +266,10 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 			}
 			ci.getUpdateManager().getClientUpdateManager().setComponentProperty(component, TableEx.COLUMN_WIDTHS_CHANGED_PROPERTY, widths);
 		}
+		if (TreeTable.ROW_WINDOW_START_CHANGED_PROPERTY.equals(propertyName)) {
+			String value = propertyElement.getAttribute(PropertyUpdateProcessor.PROPERTY_VALUE);
+			ci.getUpdateManager().getClientUpdateManager().setComponentProperty(component, TreeTable.ROW_WINDOW_START_CHANGED_PROPERTY, Integer.valueOf(value));
+		}
 	}
 
 	/**
@@ -294,6 +320,7 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 		rc.getServerMessage().addLibrary(Resources.EP_DRAG_SERVICE.getId());
 		rc.getServerMessage().addLibrary(TABLEEX_SERVICE.getId());
 		renderDisposeDirective(rc, (Table) component);
+		rc.getContainerInstance().setRenderState(component, null);
 	}
 
 	/**
@@ -320,13 +347,211 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 	 *      nextapp.echo2.app.update.ServerComponentUpdate, java.lang.String)
 	 */
 	public boolean renderUpdate(RenderContext rc, ServerComponentUpdate update, String targetId) {
-		Table table = (Table) update.getParent();
+		TableEx table = (TableEx) update.getParent();
+		RenderingContext renderingContext = new RenderingContext(rc, update, table);
+		Style fallbackStyle = EPNG.getFallBackStyle(table);
+		if (isRowUpdatePossible(renderingContext, update, table, fallbackStyle)) {
+			renderRowUpdates(renderingContext, table, fallbackStyle);
+			table.getRowChanges().clear();
+			// the children in rows that have not changed are still on the
+			// client, so let their own peers render any updates to them
+			return false;
+		}
 		renderDisposeDirective(rc, table);
 		DomUpdate.renderElementRemove(rc.getServerMessage(), ContainerInstance.getElementId(table));
 		renderAdd(rc, update, targetId, table);
 		return true;
 	}
 
+	/**
+	 * Returns true if the update can be rendered by replacing only the rows
+	 * that have been inserted, deleted or updated, rather than the whole
+	 * table.
+	 */
+	private boolean isRowUpdatePossible(RenderingContext rc, ServerComponentUpdate update, TableEx table, Style fallbackStyle) {
+		TableRowChanges rowChanges = table.getRowChanges();
+		if (rowChanges.isFull()) {
+			return false;
+		}
+		String[] propertyNames = update.getUpdatedPropertyNames();
+		for (int i = 0; i < propertyNames.length; i++) {
+			if (!PROPERTY_REPAINT.equals(propertyNames[i]) && !Table.SELECTION_CHANGED_PROPERTY.equals(propertyNames[i])) {
+				return false;
+			}
+		}
+		int rowCount = table.getModel().getRowCount();
+		TableExRenderState renderState = (TableExRenderState) rc.getContainerInstance().getRenderState(table);
+		if (renderState == null || renderState.renderedRowCount + rowChanges.getRowCountDelta() != rowCount) {
+			// the changes do not describe the rows that are on the client
+			return false;
+		}
+		if (rowChanges.getOperationCount() > 0) {
+			// the empty table is rendered differently
+			if (rowCount == 0 || renderState.renderedRowCount == 0) {
+				return false;
+			}
+		}
+		int[] changedRows = rowChanges.getChangedRows();
+		if (changedRows.length * 2 > rowCount) {
+			// its cheaper to just send the whole thing
+			return false;
+		}
+		boolean scrollable = rc.getRP(TableEx.PROPERTY_SCROLLABLE, fallbackStyle, false);
+		if (scrollable && changedRows.length > 0 && changedRows[0] == 0) {
+			// the first row sets the column widths of scrollable tables
+			return false;
+		}
+		//
+		// any new children, or children with new layout data, must be in the
+		// rows we are going to render
+		Set changedRowComponents = new HashSet();
+		int columnCount = table.getColumnModel().getColumnCount();
+		for (int i = 0; i < changedRows.length; i++) {
+			for (int columnIndex = 0; columnIndex < columnCount; ++columnIndex) {
+				Object cellContent = table.getCellContent(columnIndex, changedRows[i]);
+				if (cellContent instanceof Component) {
+					changedRowComponents.add(cellContent);
+				}
+			}
+		}
+		Component[] children = update.getAddedChildren();
+		for (int i = 0; children != null && i < children.length; i++) {
+			if (!changedRowComponents.contains(children[i])) {
+				return false;
+			}
+		}
+		children = update.getUpdatedLayoutDataChildren();
+		for (int i = 0; children != null && i < children.length; i++) {
+			if (!changedRowComponents.contains(children[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Renders the rows that have changed since the table was last rendered.
+	 * Deleted and updated rows are removed and the remaining rows renumbered
+	 * on the client before the DOM updates are made, then the inserted and
+	 * updated rows are added in place and wired up afterwards. The selection
+	 * is always sent since it may have moved with the rows.
+	 */
+	private void renderRowUpdates(RenderingContext rc, TableEx table, Style fallbackStyle) {
+		ServerMessage serverMessage = rc.getServerMessage();
+		serverMessage.addLibrary(Resources.EP_SCRIPT_SERVICE.getId());
+		serverMessage.addLibrary(Resources.EP_DRAG_SERVICE.getId());
+		serverMessage.addLibrary(TABLEEX_SERVICE.getId());
+		Document document = serverMessage.getDocument();
+		String elementId = ContainerInstance.getElementId(table);
+		TableRowChanges rowChanges = table.getRowChanges();
+		int rowCount = table.getModel().getRowCount();
+
+		if (rowChanges.getOperationCount() > 0) {
+			Element itemizedUpdateElement = serverMessage.getItemizedDirective(ServerMessage.GROUP_ID_PREREMOVE, "EPTableEx.MessageProcessor",
+					"remove-rows", new String[0], new String[0]);
+			Element itemElement = document.createElement("item");
+			itemElement.setAttribute("eid", elementId);
+			for (int i = 0; i < rowChanges.getOperationCount(); i++) {
+				String operation;
+				switch (rowChanges.getOperationType(i)) {
+				case TableRowChanges.INSERT:
+					operation = "insert";
+					break;
+				case TableRowChanges.DELETE:
+					operation = "delete";
+					break;
+				default:
+					operation = "update";
+				}
+				Element operationElement = document.createElement(operation);
+				operationElement.setAttribute("first", String.valueOf(rowChanges.getFirstRow(i)));
+				operationElement.setAttribute("last", String.valueOf(rowChanges.getLastRow(i)));
+				itemElement.appendChild(operationElement);
+			}
+			itemizedUpdateElement.appendChild(itemElement);
+		}
+
+		Element itemizedUpdateElement = serverMessage.getItemizedDirective(ServerMessage.GROUP_ID_POSTUPDATE, "EPTableEx.MessageProcessor",
+				"update-rows", new String[0], new String[0]);
+		Element itemXML = document.createElement("item");
+		itemXML.setAttribute("eid", elementId);
+		itemXML.setAttribute("rowCount", String.valueOf(rowCount));
+		itemizedUpdateElement.appendChild(itemXML);
+
+		boolean scrollable = rc.getRP(TableEx.PROPERTY_SCROLLABLE, fallbackStyle, false);
+		String tbodyId = elementId + (scrollable ? "_contentTbody" : "_tbody");
+		Insets tableInsets = (Insets) rc.getRP(Table.PROPERTY_INSETS, fallbackStyle);
+		String defaultInsetsAttributeValue = tableInsets == null ? "0px" : InsetsRender.renderCssAttributeValue(tableInsets);
+
+		int[] changedRows = rowChanges.getChangedRows();
+		int runStart = 0;
+		while (runStart < changedRows.length) {
+			int runEnd = runStart;
+			while (runEnd + 1 < changedRows.length && changedRows[runEnd + 1] == changedRows[runEnd] + 1) {
+				runEnd++;
+			}
+			int firstRow = changedRows[runStart];
+			int lastRow = changedRows[runEnd];
+
+			Element scratchTbodyE = document.createElement("tbody");
+			for (int rowIndex = firstRow; rowIndex <= lastRow; rowIndex++) {
+				renderRow(rc, scratchTbodyE, table, rowIndex, defaultInsetsAttributeValue, itemXML, fallbackStyle);
+			}
+			DocumentFragment htmlFragment = document.createDocumentFragment();
+			while (scratchTbodyE.getFirstChild() != null) {
+				htmlFragment.appendChild(scratchTbodyE.getFirstChild());
+			}
+			String siblingId = null;
+			if (lastRow + 1 < rowCount) {
+				siblingId = elementId + "_tr_" + (lastRow + 1);
+			} else if (!scrollable && table.isFooterVisible()) {
+				siblingId = elementId + "_tr_footer";
+			}
+			Element domAddElement = DomUpdate.renderElementAdd(serverMessage);
+			if (siblingId == null) {
+				DomUpdate.renderElementAddContent(serverMessage, domAddElement, tbodyId, htmlFragment);
+			} else {
+				DomUpdate.renderElementAddContent(serverMessage, domAddElement, tbodyId, siblingId, htmlFragment);
+			}
+
+			Element addedElement = document.createElement("added");
+			addedElement.setAttribute("first", String.valueOf(firstRow));
+			addedElement.setAttribute("last", String.valueOf(lastRow));
+			itemXML.appendChild(addedElement);
+			runStart = runEnd + 1;
+		}
+
+		if (rc.getRP(Table.PROPERTY_SELECTION_ENABLED, fallbackStyle, false)) {
+			itemXML.appendChild(renderSelection(document, table));
+		}
+		rc.getContainerInstance().setRenderState(table, new TableExRenderState(rowCount));
+	}
+
+	/**
+	 * Renders the selected rows of the table as a <code>selection</code>
+	 * element.
+	 */
+	private Element renderSelection(Document document, TableEx table) {
+		ListSelectionModel selectionModel = table.getSelectionModel();
+		Element selectionElement = document.createElement("selection");
+		int minimumIndex = selectionModel.getMinSelectedIndex();
+		if (minimumIndex == -1) {
+			return selectionElement;
+		}
+		int maximumIndex = selectionModel.getMaxSelectedIndex();
+		if (maximumIndex > table.getModel().getRowCount() - 1) {
+			maximumIndex = table.getModel().getRowCount() - 1;
+		}
+		for (int i = minimumIndex; i <= maximumIndex; ++i) {
+			if (selectionModel.isSelectedIndex(i)) {
+				Element rowElement = document.createElement("row");
+				rowElement.setAttribute("index", Integer.toString(i));
+				selectionElement.appendChild(rowElement);
+			}
+		}
+		return selectionElement;
+	}
+
 	/**
 	 * @see nextapp.echo2.webcontainer.DomUpdateSupport#renderHtml(nextapp.echo2.webcontainer.RenderContext,
 	 *      nextapp.echo2.app.update.ServerComponentUpdate, org.w3c.dom.Node,
@@ -431,6 +656,7 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 				contentTableE.appendChild(colgroupE);
 			}
 			Element contentTbodyElement = document.createElement("tbody");
+			contentTbodyElement.setAttribute("id", elementId + "_contentTbody");
 
 			for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
 				renderRow(rc, contentTbodyElement, table, rowIndex, defaultInsetsAttributeValue, itemXML, fallbackStyle);
@@ -506,6 +732,9 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 				renderRow(rc, tbodyElement, table, TableEx.FOOTER_ROW, defaultInsetsAttributeValue, itemXML, fallbackStyle);
 			}
 		}
+		// the client now has every row
+		table.getRowChanges().clear();
+		rc.getContainerInstance().setRenderState(table, new TableExRenderState(table.getModel().getRowCount()));
 	}
 
 	private Element renderResizeableHeaderFooterAreas(RenderingContext rc, TableEx table, Style fallbackStyle, Border border,
@@ -872,20 +1101,7 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 				itemElement.setAttribute("selection-mode", "multiple");
 			}
 			if (selectionModel.getMinSelectedIndex() != -1) {
-				Element selectionElement = document.createElement("selection");
-				int minimumIndex = selectionModel.getMinSelectedIndex();
-				int maximumIndex = selectionModel.getMaxSelectedIndex();
-				if (maximumIndex > table.getModel().getRowCount() - 1) {
-					maximumIndex = table.getModel().getRowCount() - 1;
-				}
-				for (int i = minimumIndex; i <= maximumIndex; ++i) {
-					if (selectionModel.isSelectedIndex(i)) {
-						Element rowElement = document.createElement("row");
-						rowElement.setAttribute("index", Integer.toString(i));
-						selectionElement.appendChild(rowElement);
-					}
-				}
-				itemElement.appendChild(selectionElement);
+				itemElement.appendChild(renderSelection(document, table));
 			}
 		}
 
@@ -903,6 +1119,14 @@ public class TableExPeer implements ActionProcessor, ComponentSynchronizePeer, D
 		itemElement.setAttribute("ignoreMetaKeys", String.valueOf(ignoreMetaKeys));
 		itemElement.setAttribute("footer-visible", String.valueOf(isFooterVisible));
 
+		// a TreeTable may only send a window of its rows
+		if (table instanceof TreeTable && ((TreeTable) table).getRowWindowSize() >= 0) {
+			TreeTable treeTable = (TreeTable) table;
+			itemElement.setAttribute("rowWindowStart", String.valueOf(treeTable.getRowWindowStart()));
+			itemElement.setAttribute("rowWindowSize", String.valueOf(treeTable.getRowWindowSize()));
+			itemElement.setAttribute("totalRowCount", String.valueOf(treeTable.getTotalRowCount()));
+		}
+
 		// Stretchable properties
 		itemElement.setAttribute("heightStretched", String.valueOf(rc.getRP(Stretchable.PROPERTY_HEIGHT_STRETCHED, false)));
 		itemElement.setAttribute("minimumStretchedHeight", getExtentPixels(rc.getRP(Stretchable.PROPERTY_MINIMUM_STRETCHED_HEIGHT, null)));
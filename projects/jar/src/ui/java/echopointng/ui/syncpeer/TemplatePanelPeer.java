@@ -29,7 +29,9 @@
 package echopointng.ui.syncpeer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import nextapp.echo2.app.ApplicationInstance;
 import nextapp.echo2.app.Component;
@@ -48,7 +50,6 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -69,6 +70,7 @@ import echopointng.ui.resource.Resources;
 import echopointng.ui.template.TemplateCompiler;
 import echopointng.ui.template.TemplateCompilerLoader;
 import echopointng.ui.util.CssStyleEx;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 import echopointng.ui.util.io.StringInputStream;
@@ -84,15 +86,16 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service TEMPLATE_JS_SERVICE = JavaScriptService.forResource("EPNG.TemplatePanel",
+	public static final Service TEMPLATE_JS_SERVICE = JavaScriptBundleService.forResource("EPNG.TemplatePanel",
 			"/echopointng/ui/resource/js/templatepanel.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(TEMPLATE_JS_SERVICE);
 	}
 
 	/**
-	 * A cache of templates previously encountered. As the XHTML results are
-	 * cached it will save time compiling them again.  <code>SoftReference</code>'s are not
+	 * A cache of templates previously encountered. As the compiled and
+	 * pre-processed XHTML results are cached it will save time compiling them
+	 * again.  <code>SoftReference</code>'s are not
 	 * used by default.
 	 * <p>
 	 * You can change the default "time to live" and "default access timeout"
@@ -106,6 +109,12 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	 * <p>
 	 * You should however consider using <code>TemplateCachingHints</code> to provide these
 	 * caching values on a case by case basis.
+	 * <p>
+	 * The cache is unbounded by default. If you have many distinct templates
+	 * you can limit it by calling
+	 * <code>TemplatePanelPeer.COMPILED_TEMPLATE_CACHE.setMaximumSize(xxx)</code>
+	 * and watch how well it is doing via its hit, miss and load time
+	 * statistics.
 	 * 
 	 * @see TemplateCachingHints
 	 * @see java.lang.ref.SoftReference
@@ -247,14 +256,14 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	// =========================================================================
 
 	private static class CompilationResult {
-		private Element compiledXHTML;
+		private TemplatePlan templatePlan;
 
 		private boolean wasCompiled;
 
 		private long compilationTime;
 
-		CompilationResult(Element compiledXHTML, boolean wasCompiled) {
-			this.compiledXHTML = compiledXHTML;
+		CompilationResult(TemplatePlan templatePlan, boolean wasCompiled) {
+			this.templatePlan = templatePlan;
 			this.wasCompiled = wasCompiled;
 			this.compilationTime = 0;
 		}
@@ -292,6 +301,143 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		Element[] externalScripts;
 	}
 
+	/**
+	 * <code>TemplatePlan</code> is the pre-processed form of a compiled
+	 * template that is kept in the <code>COMPILED_TEMPLATE_CACHE</code>. It is
+	 * never changed once it has been made.
+	 * <p>
+	 * The HTML fixups are applied once when the plan is made and the position
+	 * of each component and text marker is recorded as a path of child
+	 * indexes. Rendering then imports the markup into the rendering Document
+	 * and goes straight to the markers, rather than searching the whole tree
+	 * for them on every render. Likewise the only &lt;style&gt; elements
+	 * left to hoist are those the children render at the component slots.
+	 */
+	private static class TemplatePlan {
+		private Element markupE;
+
+		private Element[] externalStyles;
+
+		private Element[] inlineStyles;
+
+		private Element[] externalScripts;
+
+		private ComponentSlot[] componentSlots;
+
+		private TextSlot[] textSlots;
+	}
+
+	/**
+	 * A <code>&lt;component&gt;</code> (or form element) marker within a
+	 * <code>TemplatePlan</code>
+	 */
+	private static class ComponentSlot {
+		private int[] path;
+
+		private String componentName;
+
+		private String styleValue;
+
+		private String styleNameValue;
+
+		private String textValue;
+	}
+
+	/**
+	 * A <code>&lt;text&gt;</code> marker within a <code>TemplatePlan</code>
+	 */
+	private static class TextSlot {
+		private int[] path;
+
+		private String textName;
+	}
+
+	/**
+	 * Makes a <code>TemplatePlan</code> out of compiled template XHTML. The
+	 * compiled XHTML itself is left untouched.
+	 */
+	private static TemplatePlan createTemplatePlan(Element compiledXHTML) {
+		TemplatePlan plan = new TemplatePlan();
+		TemplateResult fixedUp = transmogrifyMarkup((Element) compiledXHTML.cloneNode(true));
+		plan.markupE = fixedUp.markupE;
+		plan.externalStyles = fixedUp.externalStyles;
+		plan.inlineStyles = fixedUp.inlineStyles;
+		plan.externalScripts = fixedUp.externalScripts;
+
+		Element componentElements[] = getElementsByTags(plan.markupE, new String[] { "component", "input", "button", "select" });
+		plan.componentSlots = new ComponentSlot[componentElements.length];
+		for (int i = 0; i < componentElements.length; i++) {
+			Element componentElement = componentElements[i];
+			ComponentSlot slot = new ComponentSlot();
+			slot.path = getNodePath(plan.markupE, componentElement);
+			//
+			// lookup by name first and then by id after that
+			slot.componentName = componentElement.getAttribute("name");
+			if (slot.componentName.length() == 0) {
+				slot.componentName = componentElement.getAttribute("id");
+			}
+			slot.styleValue = componentElement.getAttribute("style");
+			slot.styleNameValue = componentElement.getAttribute("styleName");
+			slot.textValue = getChildText(componentElement);
+			if (slot.textValue.length() == 0) {
+				slot.textValue = componentElement.getAttribute("value");
+			}
+			plan.componentSlots[i] = slot;
+		}
+
+		Element textElements[] = getElementsByTag(plan.markupE, "text");
+		plan.textSlots = new TextSlot[textElements.length];
+		for (int i = 0; i < textElements.length; i++) {
+			TextSlot slot = new TextSlot();
+			slot.path = getNodePath(plan.markupE, textElements[i]);
+			slot.textName = textElements[i].getAttribute("name");
+			plan.textSlots[i] = slot;
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns the child indexes that lead from the root Element to the node
+	 */
+	private static int[] getNodePath(Element rootE, Node node) {
+		List indexes = new ArrayList();
+		while (node != rootE) {
+			int index = 0;
+			for (Node sibling = node.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+				index++;
+			}
+			indexes.add(new Integer(index));
+			node = node.getParentNode();
+		}
+		int[] path = new int[indexes.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = ((Integer) indexes.get(path.length - 1 - i)).intValue();
+		}
+		return path;
+	}
+
+	/**
+	 * Follows a path of child indexes down from the root Element
+	 */
+	private static Node getNodeAtPath(Element rootE, int[] path) {
+		Node node = rootE;
+		for (int i = 0; i < path.length; i++) {
+			node = node.getChildNodes().item(path[i]);
+		}
+		return node;
+	}
+
+	/**
+	 * Imports copies of the elements into the rendering Document
+	 */
+	private static Element[] importElements(Document document, Element[] elements) {
+		Element[] imported = new Element[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			imported[i] = (Element) document.importNode(elements[i], true);
+		}
+		return imported;
+	}
+
 	/**
 	 * This is asked to render the tempate data and return a W3C DOM Element
 	 * that can be imported into the current TemplatePanel rendering DOM tree.
@@ -304,8 +450,8 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		TemplateDataSource tds = (TemplateDataSource) rc.getRP(TemplatePanel.PROPERTY_TEMPLATE_DATA_SOURCE);
 		try {
 			CompilationResult compileResult = getCompiledTemplate(rc, tds);
-			Element markup = compileResult.compiledXHTML;
-			if (markup == null)
+			TemplatePlan plan = compileResult.templatePlan;
+			if (plan == null)
 				return null;
 
 			boolean doStyleProcessing = compileResult.wasCompiled || (!templatePanel.isStyleApplied());
@@ -313,34 +459,41 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 			// make sure the new markup is now part of the original
 			// rendering Document. Otherwise further child rendering
 			// issues could occur.
-			markup = (Element) rc.getDocument().importNode(markup, true);
+			Element markup = (Element) rc.getDocument().importNode(plan.markupE, true);
 			//
-			// now find all the <component> tags and replace them with
-			// the contents of named components
-			Element componentElements[] = getElementsByTags(markup, new String[] { "component", "input", "button", "select" });
+			// find all the <component> and <text> markers via their
+			// pre-computed paths, before any of them are replaced
+			Element componentElements[] = new Element[plan.componentSlots.length];
+			for (int i = 0; i < componentElements.length; i++) {
+				componentElements[i] = (Element) getNodeAtPath(markup, plan.componentSlots[i].path);
+			}
+			Element textElements[] = new Element[plan.textSlots.length];
+			for (int i = 0; i < textElements.length; i++) {
+				textElements[i] = (Element) getNodeAtPath(markup, plan.textSlots[i].path);
+			}
+			//
+			// now replace all the <component> tags with
+			// the contents of named components. Any <style> elements
+			// the children render are collected from their own markup
+			// at the component slots, since the rest of the markup had
+			// its styles taken out when the plan was made
+			List childStyles = new ArrayList();
 			for (int i = 0; i < componentElements.length; i++) {
 				Element componentElement = componentElements[i];
-				String componentName = componentElement.getAttribute("name");
-				String componentId = componentElement.getAttribute("id");
-				String componentStyleValue = componentElement.getAttribute("style");
-				String componentStyleNameValue = componentElement.getAttribute("styleName");
+				ComponentSlot slot = plan.componentSlots[i];
+				String componentName = slot.componentName;
 
-				//
-				// lookup by name first and then by id after that
-				if (componentName.length() == 0) {
-					componentName = componentId;
-				}
 				Component child = templatePanel.getNamedComponent(componentName);
 				Element newComponentElement;
 				if (child != null) {
 					// apply any style attribute to the component first
 					if (doStyleProcessing) {
 						// apply styleName=xxx" by calling setStyleName() if present
-						if (componentStyleNameValue != null && componentStyleNameValue.length() > 0) {
-							child.setStyleName(componentStyleNameValue);
+						if (slot.styleNameValue.length() > 0) {
+							child.setStyleName(slot.styleNameValue);
 						}
 						// apply style="xxx" if applicable
-						applyStyle(templatePanel, child, componentStyleValue);
+						applyStyle(templatePanel, child, slot.styleValue);
 						templatePanel.setStyleApplied(true);
 
 						//
@@ -348,13 +501,9 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 						// method and they want
 						// component text setting then do it.
 						if (rc.getRP(TemplatePanel.PROPERTY_INVOKE_SETTEXT, false)) {
-							String textToBeSet = getChildText(componentElement);
-							if (textToBeSet.length() == 0) {
-								textToBeSet = componentElement.getAttribute("value");
-							}
-							if (textToBeSet.length() > 0) {
+							if (slot.textValue.length() > 0) {
 								ReflectionKit
-										.invokeIfPresent("setText", new Class[] { String.class }, Void.TYPE, child, new Object[] { textToBeSet });
+										.invokeIfPresent("setText", new Class[] { String.class }, Void.TYPE, child, new Object[] { slot.textValue });
 							}
 						}
 					}
@@ -379,17 +528,19 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 				if (newComponentElement != null) {
 					Element componentContainerElement = (Element) componentElement.getParentNode();
 					componentContainerElement.replaceChild(newComponentElement, componentElement);
+					if (child != null) {
+						collectStyleElements(newComponentElement, childStyles);
+					}
 				}
 			}
 
 			//
-			// now find all the <text> tags and replace them with
+			// now replace all the <text> tags with
 			// the text subsitution values
 			TemplateTextSubstitution textSubstitution = (TemplateTextSubstitution) rc.getRP(TemplatePanel.PROPERTY_TEMPLATE_TEXT_SUBSTITUTION);
-			Element textElements[] = getElementsByTag(markup, "text");
 			for (int i = 0; i < textElements.length; i++) {
 				Element textMarkerElement = textElements[i];
-				String textName = textMarkerElement.getAttribute("name");
+				String textName = plan.textSlots[i].textName;
 				String textValue = (textSubstitution == null ? "" : textSubstitution.getSubstitutionText(textName));
 
 				Element textContainerElement = (Element) textMarkerElement.getParentNode();
@@ -397,11 +548,25 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 				textContainerElement.replaceChild(newText, textMarkerElement);
 			}
 			//
-			// now we may have to re-parent the DOM tree as we dont want
-			// extra BODY tags turning up in the output if the template is
-			// a full XHTML document or a BODY snippet
+			// the HTML fixups were done when the plan was made, so we
+			// only need copies of the extracted head elements, plus any
+			// <style> elements the child components rendered, which
+			// must be taken out of the markup in the same way
 			//
-			TemplateResult transResult = transmogrifyMarkup(markup);
+			TemplateResult transResult = new TemplateResult(markup);
+			transResult.externalStyles = importElements(rc.getDocument(), plan.externalStyles);
+			transResult.inlineStyles = importElements(rc.getDocument(), plan.inlineStyles);
+			transResult.externalScripts = importElements(rc.getDocument(), plan.externalScripts);
+			if (childStyles.size() > 0) {
+				Element[] inlineStyles = new Element[transResult.inlineStyles.length + childStyles.size()];
+				System.arraycopy(transResult.inlineStyles, 0, inlineStyles, 0, transResult.inlineStyles.length);
+				for (int i = 0; i < childStyles.size(); i++) {
+					Element styleE = (Element) childStyles.get(i);
+					styleE.getParentNode().removeChild(styleE);
+					inlineStyles[transResult.inlineStyles.length + i] = styleE;
+				}
+				transResult.inlineStyles = inlineStyles;
+			}
 			return transResult;
 		} catch (Exception e) {
 			String errorStr = "TemplateDataSource " + tds.getCanonicalName() + " could not be compiled : " + e.toString();
@@ -414,11 +579,59 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		}
 	}
 
+	/**
+	 * <code>TemplateCompilation</code> represents a compilation of a template
+	 * that is in progress. Other threads that want the same template wait for
+	 * it rather than compiling it again themselves.
+	 */
+	private static class TemplateCompilation {
+		private TemplatePlan templatePlan;
+
+		private Exception failure;
+
+		private boolean done;
+
+		private synchronized void complete(TemplatePlan templatePlan, Exception failure) {
+			this.templatePlan = templatePlan;
+			this.failure = failure;
+			this.done = true;
+			notifyAll();
+		}
+
+		private synchronized TemplatePlan await() throws Exception {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return templatePlan;
+		}
+	}
+
+	/**
+	 * The template compilations currently in progress keyed by the canonical
+	 * name of their <code>TemplateDataSource</code>.
+	 */
+	private static final Map COMPILATIONS_IN_PROGRESS = new HashMap();
+
 	/**
 	 * Looks into the cache to see if we already have the compiled template data
 	 * and if not, finds a compiler to compile it.
+	 * <p>
+	 * Only one thread compiles a given cacheable template at a time. Other
+	 * threads that miss the cache for the same canonical name at the same time
+	 * wait for that compilation to finish and share its result.
 	 */
-	private CompilationResult getCompiledTemplate(final RenderingContext rc, TemplateDataSource tds) throws Exception {
+	private static CompilationResult getCompiledTemplate(RenderContext rc, TemplateDataSource tds) throws Exception {
 		CompilationResult compilationResult;
 		if (tds == null) {
 			return new CompilationResult(null, false);
@@ -427,16 +640,78 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 
 		String canonicalName = tds.getCanonicalName();
 		TemplateCachingHints hints = tds.getCachingHints();
-		Element compiledXHTML;
+		TemplatePlan templatePlan;
+		// we never put it in the cache if there are no hints
+		if (hints == null) {
+			templatePlan = compileTemplateData(rc, tds);
+			compilationResult = new CompilationResult(templatePlan, true);
+			compilationResult.compilationTime = System.currentTimeMillis() - startMS;
+			return compilationResult;
+		}
 		// do we have a copy of the Element in our cache
-		if (hints != null) {
-			compiledXHTML = (Element) COMPILED_TEMPLATE_CACHE.get(canonicalName, hints.getLastModified());
-			if (compiledXHTML != null) {
-				compilationResult = new CompilationResult(compiledXHTML, false);
-				compilationResult.compilationTime = System.currentTimeMillis() - startMS;
-				return compilationResult;
+		templatePlan = (TemplatePlan) COMPILED_TEMPLATE_CACHE.get(canonicalName, hints.getLastModified());
+		if (templatePlan != null) {
+			compilationResult = new CompilationResult(templatePlan, false);
+			compilationResult.compilationTime = System.currentTimeMillis() - startMS;
+			return compilationResult;
+		}
+		//
+		// is some other thread already compiling it?  If so we wait for
+		// it rather than compiling it again ourselves
+		TemplateCompilation compilation;
+		boolean compileHere = false;
+		synchronized (COMPILATIONS_IN_PROGRESS) {
+			compilation = (TemplateCompilation) COMPILATIONS_IN_PROGRESS.get(canonicalName);
+			if (compilation == null) {
+				compilation = new TemplateCompilation();
+				COMPILATIONS_IN_PROGRESS.put(canonicalName, compilation);
+				compileHere = true;
 			}
 		}
+		if (!compileHere) {
+			templatePlan = compilation.await();
+			compilationResult = new CompilationResult(templatePlan, true);
+			compilationResult.compilationTime = System.currentTimeMillis() - startMS;
+			return compilationResult;
+		}
+		try {
+			// it may have been put while we were getting here
+			templatePlan = (TemplatePlan) COMPILED_TEMPLATE_CACHE.get(canonicalName, hints.getLastModified());
+			boolean wasCompiled = templatePlan == null;
+			if (wasCompiled) {
+				templatePlan = compileTemplateData(rc, tds);
+
+				long ato = hints.getAccessTimeout();
+				long ttl = hints.getTimeToLive();
+				long version = hints.getLastModified();
+				COMPILED_TEMPLATE_CACHE.put(canonicalName, templatePlan, ttl, ato, version);
+			}
+			compilation.complete(templatePlan, null);
+
+			compilationResult = new CompilationResult(templatePlan, wasCompiled);
+			compilationResult.compilationTime = System.currentTimeMillis() - startMS;
+			if (wasCompiled) {
+				COMPILED_TEMPLATE_CACHE.recordLoad(compilationResult.compilationTime);
+			}
+			return compilationResult;
+		} catch (Exception e) {
+			compilation.complete(null, e);
+			throw e;
+		} catch (Error e) {
+			compilation.complete(null, new RuntimeException(e.toString(), e));
+			throw e;
+		} finally {
+			synchronized (COMPILATIONS_IN_PROGRESS) {
+				COMPILATIONS_IN_PROGRESS.remove(canonicalName);
+			}
+		}
+	}
+
+	/**
+	 * Finds a template compiler for the content type of the template data and
+	 * compiles it into a <code>TemplatePlan</code>.
+	 */
+	private static TemplatePlan compileTemplateData(RenderContext rc, TemplateDataSource tds) throws Exception {
 		//
 		// find a tempate compiler that will compile the given
 		// content type
@@ -446,19 +721,84 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		if (compiler == null) {
 			throw new IllegalStateException("A TemplateCompiler cannot be found for content type : " + tds.getContentType());
 		}
-		compiledXHTML = compiler.compileTemplateDataIntoXHTML(rc, tds);
-
-		// we put it into the cache if they say its OK.  We never put it if there are no hints
-		if (hints != null) {
-			long ato = hints.getAccessTimeout();
-			long ttl = hints.getTimeToLive();
-			long version = hints.getLastModified();
-			COMPILED_TEMPLATE_CACHE.put(canonicalName, compiledXHTML, ttl, ato, version);
+		Element compiledXHTML = compiler.compileTemplateDataIntoXHTML(rc, tds);
+		if (compiledXHTML == null) {
+			return null;
 		}
+		return createTemplatePlan(compiledXHTML);
+	}
 
-		compilationResult = new CompilationResult(compiledXHTML, true);
-		compilationResult.compilationTime = System.currentTimeMillis() - startMS;
-		return compilationResult;
+	/**
+	 * Compiles the given templates in parallel and places them into the
+	 * <code>COMPILED_TEMPLATE_CACHE</code>, so that the first render of each
+	 * template does not have to pay for its compilation. This is typically
+	 * called at application startup.
+	 * <p>
+	 * Only templates that have <code>TemplateCachingHints</code> are cached
+	 * and hence only they are compiled. Templates are compiled without a
+	 * <code>RenderContext</code> so template compilers that need one, such as
+	 * the JSP compiler, cannot be pre-compiled. Templates that fail to compile
+	 * are skipped and will report their error when they are first rendered.
+	 * 
+	 * @param dataSources -
+	 *            the templates to compile
+	 * @param threadCount -
+	 *            the number of threads to compile with
+	 * @return the number of templates that were compiled and cached
+	 */
+	public static int precompileTemplates(final TemplateDataSource[] dataSources, int threadCount) {
+		if (dataSources == null || dataSources.length == 0) {
+			return 0;
+		}
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		final int[] counters = new int[2]; // next index, compiled count
+		Runnable compiler = new Runnable() {
+			public void run() {
+				Thread.currentThread().setContextClassLoader(contextClassLoader);
+				while (true) {
+					TemplateDataSource tds;
+					synchronized (counters) {
+						if (counters[0] >= dataSources.length) {
+							return;
+						}
+						tds = dataSources[counters[0]++];
+					}
+					if (tds == null || tds.getCachingHints() == null) {
+						continue;
+					}
+					try {
+						CompilationResult compilationResult = getCompiledTemplate(null, tds);
+						if (compilationResult.templatePlan != null) {
+							synchronized (counters) {
+								counters[1]++;
+							}
+						}
+					} catch (Exception e) {
+						// it will be reported when the template is rendered
+					}
+				}
+			}
+		};
+		threadCount = Math.max(1, Math.min(threadCount, dataSources.length));
+		Thread[] threads = new Thread[threadCount - 1];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(compiler, "TemplatePanelPeer.precompileTemplates-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		// the calling thread does its share of the work as well
+		compiler.run();
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		synchronized (counters) {
+			return counters[1];
+		}
 	}
 
 	/**
@@ -472,7 +812,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	 * @param markup
 	 * @return
 	 */
-	private TemplateResult transmogrifyMarkup(Element markup) {
+	private static TemplateResult transmogrifyMarkup(Element markup) {
 		Element heads[] = getElementsByTag(markup, "head");
 		Element bodys[] = getElementsByTag(markup, "body");
 		if (markup.getTagName().equals("body") || markup.getTagName().equals("html") || bodys.length > 0) {
@@ -534,7 +874,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		return transResult;
 	}
 
-	private Element[] getAllStylesFromMarkup(Element markupBody, Element heads[]) {
+	private static Element[] getAllStylesFromMarkup(Element markupBody, Element heads[]) {
 		List styleList = new ArrayList();
 		Element[] styles;
 		for (int i = 0; i < heads.length; i++) {
@@ -566,7 +906,22 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	/**
 	 * Returns all the Element children of parent with the specified tag name
 	 */
-	private Element[] getElementsByTag(Element parent, String tagName) {
+	/**
+	 * Adds the element, if it is a &lt;style&gt; element, or else the
+	 * &lt;style&gt; elements within it to the list
+	 */
+	private static void collectStyleElements(Element element, List styleElements) {
+		if ("style".equalsIgnoreCase(element.getTagName())) {
+			styleElements.add(element);
+			return;
+		}
+		NodeList nodeList = element.getElementsByTagName("style");
+		for (int i = 0; i < nodeList.getLength(); i++) {
+			styleElements.add(nodeList.item(i));
+		}
+	}
+
+	private static Element[] getElementsByTag(Element parent, String tagName) {
 		NodeList nodeList = parent.getElementsByTagName(tagName);
 		Element elements[] = new Element[nodeList.getLength()];
 		for (int i = 0; i < elements.length; i++) {
@@ -575,7 +930,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		return elements;
 	}
 
-	private Element[] getElementsByTags(Element parent, String[] tagNames) {
+	private static Element[] getElementsByTags(Element parent, String[] tagNames) {
 		List elementsList = new ArrayList();
 		for (int i = 0; i < tagNames.length; i++) {
 			NodeList nodeList = parent.getElementsByTagName(tagNames[i]);
@@ -590,7 +945,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	/**
 	 * Returns all the top level Node children of parent
 	 */
-	private Node[] getChildNodes(Element parentE) {
+	private static Node[] getChildNodes(Element parentE) {
 		NodeList nodeList = parentE.getChildNodes();
 		int len = nodeList.getLength();
 		Node nodes[] = new Node[len];
@@ -600,7 +955,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 		return nodes;
 	}
 
-	private String getChildText(Element parentE) {
+	private static String getChildText(Element parentE) {
 		StringBuffer sb = new StringBuffer();
 		Node[] nodes = getChildNodes(parentE);
 		for (int i = 0; i < nodes.length; i++) {
@@ -615,7 +970,7 @@ public class TemplatePanelPeer extends AbstractEchoPointContainerPeer {
 	 * Changes the parent of the children of sourceElement into a new element of
 	 * type tag.
 	 */
-	private Element reparentElement(Element sourceElement, String tag) {
+	private static Element reparentElement(Element sourceElement, String tag) {
 		Document doc = sourceElement.getOwnerDocument();
 		Element newParent = doc.createElement(tag);
 		NamedNodeMap attrs = sourceElement.getAttributes();
@@ -96,7 +96,6 @@ import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
 import nextapp.echo2.webrender.servermessage.WindowUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Document;
@@ -116,6 +115,7 @@ import echopointng.ui.resource.Resources;
 import echopointng.ui.util.AblePartialUpdater;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 
 /**
@@ -129,7 +129,7 @@ public class TextFieldExPeer implements ActionProcessor, ComponentSynchronizePee
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	static final Service TEXT_COMPONENT_SERVICE = JavaScriptService.forResource("EPNG.TextFieldEx", "/echopointng/ui/resource/js/textfieldex.js");
+	static final Service TEXT_COMPONENT_SERVICE = JavaScriptBundleService.forResource("EPNG.TextFieldEx", "/echopointng/ui/resource/js/textfieldex.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(TEXT_COMPONENT_SERVICE);
 	}
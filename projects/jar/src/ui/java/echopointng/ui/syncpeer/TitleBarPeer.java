@@ -44,7 +44,6 @@ import nextapp.echo2.webcontainer.propertyrender.AlignmentRender;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Element;
@@ -57,6 +56,7 @@ import echopointng.ui.util.CssRolloverStyleEx;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.HtmlTable;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.Render;
 import echopointng.ui.util.RenderingContext;
 
@@ -68,7 +68,7 @@ public class TitleBarPeer extends AbstractEchoPointContainerPeer implements Prop
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service TITLEBAR_SERVICE = JavaScriptService.forResource("EPNG.TitleBar", "/echopointng/ui/resource/js/titlebar.js");
+	public static final Service TITLEBAR_SERVICE = JavaScriptBundleService.forResource("EPNG.TitleBar", "/echopointng/ui/resource/js/titlebar.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(TITLEBAR_SERVICE);
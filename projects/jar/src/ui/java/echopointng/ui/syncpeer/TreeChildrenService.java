@@ -0,0 +1,311 @@
+package echopointng.ui.syncpeer;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import nextapp.echo2.app.ApplicationInstance;
+import nextapp.echo2.app.Component;
+import nextapp.echo2.webcontainer.ContainerInstance;
+import nextapp.echo2.webcontainer.RenderContext;
+import nextapp.echo2.webrender.Connection;
+import nextapp.echo2.webrender.ContentType;
+import nextapp.echo2.webrender.ServerMessage;
+import nextapp.echo2.webrender.Service;
+import nextapp.echo2.webrender.ServiceRegistry;
+import nextapp.echo2.webrender.WebRenderServlet;
+import nextapp.echo2.webrender.output.HtmlDocument;
+import nextapp.echo2.webrender.util.DomUtil;
+
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+
+import echopointng.EPNG;
+import echopointng.Tree;
+import echopointng.tree.TreeModel;
+import echopointng.tree.TreePath;
+import echopointng.ui.util.RenderingContext;
+
+/** 
+ * <code>TreeChildrenService</code> is used to provide the rows of the next
+ * page of children of a <code>Tree</code> node, or of children that have 
+ * been loaded in the background, in an asynchronous manner.
+ * <p>
+ * The response is a <code>children</code> element whose <code>status</code>
+ * attribute is one of :
+ * <ul>
+ * <li>ok - the tree rows follow and replace the more or placeholder row</li>
+ * <li>pending - the children are still loading and the client should ask again
+ * a little later</li>
+ * <li>sync - the rows cannot be rendered here and the client should ask for 
+ * them with a normal server action instead</li>
+ * <li>stale - the more or placeholder row is no longer on the client</li>
+ * </ul>
+ * Rows that contain cell components can only be rendered as part of a 
+ * normal server update, which is why <code>sync</code> exists.
+ * <p>
+ * The service never waits for children to load.  It changes the render 
+ * state the <code>TreePeer</code> keeps for the rows on the client, since the
+ * rows it sends are on the client afterwards, but it never changes the state
+ * of the <code>Tree</code> component or its model.  When a further page of 
+ * children is rendered the <code>shown</code> attribute holds the new number
+ * of shown children, which the client reports back as a property update with
+ * its next server message.
+ */
+public class TreeChildrenService implements Service {
+
+	/**
+	 * The singleton <code>TreeChildrenService</code>
+	 */
+	public static final TreeChildrenService INSTANCE;
+	static {
+		INSTANCE = new TreeChildrenService();
+		ServiceRegistry serviceRegistry = WebRenderServlet.getServiceRegistry();
+		serviceRegistry.add(TreeChildrenService.INSTANCE);
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#getId()
+	 */
+	public String getId() {
+		return "EPNG.TreeChildren";
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#getVersion()
+	 */
+	public int getVersion() {
+		return DO_NOT_CACHE;
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#service(nextapp.echo2.webrender.Connection)
+	 */
+	public void service(Connection conn) throws IOException {
+		HttpServletRequest request = conn.getRequest();
+		String elementId = request.getParameter("elementId");
+		String pathId = request.getParameter("path");
+		String start = request.getParameter("start");
+		int firstChildIndex = -1;
+		if (start != null) {
+			try {
+				firstChildIndex = Integer.parseInt(start);
+			} catch (NumberFormatException e) {
+			}
+		}
+		if (elementId == null || pathId == null || firstChildIndex < 0) {
+			conn.getResponse().sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		ContainerInstance ci = (ContainerInstance) conn.getUserInstance();
+		if (ci == null) {
+			//
+			// a normal server action deals with the session having expired
+			writeStatus(conn, "sync");
+			return;
+		}
+		synchronized (ci) {
+			Component component = ci.getComponentByElementId(elementId);
+			if (!(component instanceof Tree) || ((Tree) component).getModel() == null) {
+				writeStatus(conn, "stale");
+				return;
+			}
+			Tree tree = (Tree) component;
+			TreePath path = parsePath(pathId, tree.getModel());
+			if (path == null) {
+				writeStatus(conn, "stale");
+				return;
+			}
+			ApplicationInstance.setActive(ci.getApplicationInstance());
+			try {
+				serviceChildren(conn, ci, tree, path, firstChildIndex);
+			} finally {
+				ApplicationInstance.setActive(null);
+			}
+		}
+	}
+
+	/**
+	 * Returns the TreePath identified by the path id or null if any of its
+	 * nodes can no longer be found.
+	 */
+	private static TreePath parsePath(String pathId, TreeModel model) {
+		if (pathId == null || model.getRoot() == null) {
+			return null;
+		}
+		TreePath path;
+		try {
+			path = TreePeer.parsePathId(pathId, model);
+		} catch (RuntimeException e) {
+			return null;
+		}
+		Object[] nodes = path.getPath();
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] == null) {
+				return null;
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Renders the tree rows that replace the more or placeholder row of the
+	 * given path.  It must be called while holding the lock on the 
+	 * <code>ContainerInstance</code>.
+	 */
+	private void serviceChildren(Connection conn, ContainerInstance ci, Tree tree, TreePath path, int firstChildIndex) throws IOException {
+		TreePeer.TreeRenderState treeRenderState = (TreePeer.TreeRenderState) ci.getRenderState(tree);
+		if (treeRenderState == null || !tree.isRenderVisible() || !tree.isExpanded(path)) {
+			writeStatus(conn, "stale");
+			return;
+		}
+		if (!treeRenderState.hasRenderedPaths() || tree.getComponentCount() > 0) {
+			writeStatus(conn, "sync");
+			return;
+		}
+		if (treeRenderState.getAuxiliaryRowIndex(path) != firstChildIndex) {
+			writeStatus(conn, "stale");
+			return;
+		}
+		if (tree.needsLoadingChildren(path)) {
+			//
+			// only a server update starts a load
+			writeStatus(conn, "sync");
+			return;
+		}
+		if (tree.isLoadingChildren(path)) {
+			writeStatus(conn, "pending");
+			return;
+		}
+		TreeModel model = tree.getModel();
+		int shownCount = tree.getShownChildCount(path);
+		if (firstChildIndex > 0) {
+			int childCount = model.getChildCount(path.getLastPathComponent());
+			shownCount = Math.min(childCount, firstChildIndex + tree.getChildPageSize());
+		}
+
+		ServiceRenderContext serviceRenderContext = new ServiceRenderContext(conn, ci);
+		RenderingContext rc = new RenderingContext(serviceRenderContext, null, tree);
+		TreeRenderer treeRenderer = new TreeRenderer(rc, new TreePeer.RowIdCallBack(), tree, EPNG.getFallBackStyle(tree), 
+			treeRenderState.getImageManager());
+		DocumentFragment rows = rc.getDocument().createDocumentFragment();
+		TreePeer.renderChildPage(rc, treeRenderer, treeRenderState, model, tree, path, firstChildIndex, shownCount, rows);
+
+		Transformer transformer;
+		try {
+			transformer = DomUtil.getTransformerFactory().newTransformer();
+		} catch (TransformerException ex) {
+			throw new IOException("Unable to create XML transformer: " + ex);
+		}
+		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+		conn.setContentType(ContentType.TEXT_XML);
+		PrintWriter out = conn.getWriter();
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		out.write("<children xmlns=\"");
+		out.write(HtmlDocument.XHTML_1_0_NAMESPACE_URI);
+		out.write("\" status=\"ok\" shown=\"");
+		out.write(String.valueOf(shownCount));
+		out.write("\">");
+		//
+		// expanded descendants can have placeholder rows of their own
+		for (Iterator iter = treeRenderState.getLoadingPaths().iterator(); iter.hasNext();) {
+			TreePath loadingPath = (TreePath) iter.next();
+			out.write("<loading path=\"");
+			out.write(TreeRenderer.createPathId(loadingPath, model));
+			out.write("\"/>");
+		}
+		treeRenderState.getLoadingPaths().clear();
+		StringWriter rowWriter = new StringWriter();
+		for (Node row = rows.getFirstChild(); row != null; row = row.getNextSibling()) {
+			try {
+				transformer.transform(new DOMSource(row), new StreamResult(rowWriter));
+			} catch (TransformerException ex) {
+				throw new IOException("Unable to render Tree rows : " + ex);
+			}
+		}
+		out.write(rowWriter.toString());
+		out.write("</children>");
+		out.flush();
+	}
+
+	private static void writeStatus(Connection conn, String status) throws IOException {
+		conn.setContentType(ContentType.TEXT_XML);
+		PrintWriter out = conn.getWriter();
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		out.write("<children xmlns=\"");
+		out.write(HtmlDocument.XHTML_1_0_NAMESPACE_URI);
+		out.write("\" status=\"");
+		out.write(status);
+		out.write("\"/>");
+		out.flush();
+	}
+
+	/**
+	 * <code>ServiceRenderContext</code> lets the tree rows be rendered
+	 * outside of a server message.  The rows are created in the document of a
+	 * <code>ServerMessage</code> that is never sent.
+	 */
+	private static class ServiceRenderContext implements RenderContext {
+
+		private Connection conn;
+		private ContainerInstance ci;
+		private ServerMessage serverMessage = new ServerMessage();
+
+		private ServiceRenderContext(Connection conn, ContainerInstance ci) {
+			this.conn = conn;
+			this.ci = ci;
+		}
+
+		public Connection getConnection() {
+			return conn;
+		}
+
+		public ContainerInstance getContainerInstance() {
+			return ci;
+		}
+
+		public ServerMessage getServerMessage() {
+			return serverMessage;
+		}
+	}
+}
@@ -31,7 +31,14 @@ package echopointng.ui.syncpeer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import nextapp.echo2.app.Component;
 import nextapp.echo2.app.Style;
@@ -39,6 +46,7 @@ import nextapp.echo2.app.update.ServerComponentUpdate;
 import nextapp.echo2.webcontainer.ActionProcessor;
 import nextapp.echo2.webcontainer.ContainerInstance;
 import nextapp.echo2.webcontainer.PartialUpdateParticipant;
+import nextapp.echo2.webcontainer.PropertyUpdateProcessor;
 import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webcontainer.RenderState;
 import nextapp.echo2.webrender.ServerMessage;
@@ -46,7 +54,7 @@ import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
 import nextapp.echo2.webrender.output.CssStyle;
 import nextapp.echo2.webrender.servermessage.DomUpdate;
-import nextapp.echo2.webrender.service.JavaScriptService;
+import nextapp.echo2.webrender.util.DomUtil;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
@@ -60,38 +68,167 @@ import echopointng.tree.TreePath;
 import echopointng.ui.resource.Resources;
 import echopointng.ui.util.CssStyleEx;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.JavaScriptBundleService;
 import echopointng.ui.util.RenderingContext;
 import echopointng.util.TokenizerKit;
 
 /**
  * Synchronization peer for <code>echopointng.Tree</code> components.
  */
-public class TreePeer extends AbstractEchoPointContainerPeer implements ActionProcessor {
+public class TreePeer extends AbstractEchoPointContainerPeer implements ActionProcessor, PropertyUpdateProcessor {
 
 	/**
 	 * Service to provide supporting Tree JavaScript library.
 	 */
-	public static final Service TREE_SCRIPT_SERVICE = JavaScriptService.forResource("Echopoint.Tree", "/echopointng/ui/resource/js/tree.js");
+	public static final Service TREE_SCRIPT_SERVICE = JavaScriptBundleService.forResource("Echopoint.Tree", "/echopointng/ui/resource/js/tree.js");
 
 	static {
 		WebRenderServlet.getServiceRegistry().add(TREE_SCRIPT_SERVICE);
+		WebRenderServlet.getServiceRegistry().add(TreeChildrenService.INSTANCE);
 	}
 
 	/**
 	 * <code>TreeRenderState</code> is used to contain render state for
 	 * a component.
 	 */
-	private static class TreeRenderState implements RenderState {
-
-		private Collection lastRenderedPaths;
+	static class TreeRenderState implements RenderState {
+
+		/** the TreePaths of the tree rows currently on the client */
+		private Set renderedPaths;
+		/** maps a TreePath to the List of its child TreePaths currently on the client */
+		private Map renderedChildren;
+		/** 
+		 * maps a TreePath to the Integer index of the first of its children that is
+		 * not on the client, for each TreePath followed by a more or placeholder row 
+		 */
+		private Map auxiliaryRows;
+		/** the TreePaths whose placeholder rows have been rendered in this update */
+		private List loadingPaths = new ArrayList();
 		private ImageManager imageManager = new ImageManager();
 		
-		private Collection getLastRenderedPaths() {
-			return lastRenderedPaths;
+		ImageManager getImageManager() {
+			return imageManager;
+		}
+		
+		List getLoadingPaths() {
+			return loadingPaths;
+		}
+		
+		boolean hasRenderedPaths() {
+			return renderedPaths != null;
+		}
+		
+		private void resetRenderedPaths() {
+			renderedPaths = new HashSet();
+			renderedChildren = new HashMap();
+			auxiliaryRows = new HashMap();
+		}
+		
+		private void clearRenderedPaths() {
+			renderedPaths = null;
+			renderedChildren = null;
+			auxiliaryRows = null;
+		}
+		
+		private void addRenderedPath(TreePath path) {
+			if (renderedPaths == null) {
+				return;
+			}
+			renderedPaths.add(path);
+			TreePath parentPath = path.getParentPath();
+			if (parentPath != null) {
+				List children = (List) renderedChildren.get(parentPath);
+				if (children == null) {
+					children = new ArrayList();
+					renderedChildren.put(parentPath, children);
+				}
+				children.add(path);
+			}
+		}
+		
+		private void addAuxiliaryRow(TreePath path, int firstChildIndex) {
+			if (auxiliaryRows != null) {
+				auxiliaryRows.put(path, new Integer(firstChildIndex));
+			}
+		}
+		
+		/**
+		 * Returns the index of the first child that is not on the client
+		 * for a TreePath followed by a more or placeholder row, or -1 if it
+		 * has no such row.
+		 */
+		int getAuxiliaryRowIndex(TreePath path) {
+			Integer index = auxiliaryRows == null ? null : (Integer) auxiliaryRows.get(path);
+			return index == null ? -1 : index.intValue();
+		}
+		
+		private boolean removeAuxiliaryRow(TreePath path) {
+			return auxiliaryRows != null && auxiliaryRows.remove(path) != null;
 		}
 		
-		private void setLastRenderedPaths(Collection paths) {
-			this.lastRenderedPaths = paths;
+		/**
+		 * Returns the element id of the rendered row that follows the given 
+		 * path and all its rendered descendants, or null if there is none.
+		 */
+		private String getNextRowIdAfterDescendants(Tree tree, TreePath path) {
+			for (TreePath parentPath = path.getParentPath(); parentPath != null; parentPath = parentPath.getParentPath()) {
+				List siblings = (List) renderedChildren.get(parentPath);
+				if (siblings != null) {
+					int index = siblings.indexOf(path);
+					if (index != -1 && index + 1 < siblings.size()) {
+						return createRowId(tree, (TreePath) siblings.get(index + 1));
+					}
+				}
+				if (auxiliaryRows.containsKey(parentPath)) {
+					return createAuxiliaryRowId(tree, parentPath);
+				}
+				path = parentPath;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * <code>RowIdCallBack</code> gives the tree rows and their cells the
+	 * identifiers that the client uses to route events.
+	 */
+	static class RowIdCallBack implements TreeRenderer.EventSupportCallBack {
+
+		public String onExpandoCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode, TreePath treeNodePath) {
+			return addToggleEventId(rc, cssStyle, tree, treeNode, treeNodePath);
+		}
+
+		public String onNodeComponentCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
+				TreePath treeNodePath) {
+			return null;
+		}
+
+		public String onNodeIconCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
+				TreePath treeNodePath) {
+			return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "icon");
+		}
+
+		public String onNodeTextCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
+				TreePath treeNodePath) {
+			return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "text");
+		}
+
+		public void onTreeRow(RenderingContext rc, CssStyle cssStyle, Element treeElement, Tree tree, TreePath treeNodePath) {
+			treeElement.setAttribute("id", createRowId(tree, treeNodePath));
+		}
+	}
+	
+	/**
+	 * <code>RowUpdate</code> is a tree row, or the block of tree rows
+	 * beneath a changed branch, that is to be re-rendered.
+	 */
+	private static class RowUpdate {
+		private TreePath path;
+		private boolean branch;
+		
+		private RowUpdate(TreePath path, boolean branch) {
+			this.path = path;
+			this.branch = branch;
 		}
 	}
 
@@ -103,7 +240,9 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 		partialUpdateManager.add(Tree.NODE_CHANGED_PROPERTY, new PartialUpdateParticipant() {
 
 			public boolean canRenderProperty(RenderContext rc, ServerComponentUpdate update) {
-				return true;
+				// we need to know what tree rows are on the client
+				RenderState renderState = retreiveRenderState(rc, update.getParent());
+				return renderState instanceof TreeRenderState && ((TreeRenderState) renderState).hasRenderedPaths();
 			}
 
 			public void renderProperty(RenderContext rc, ServerComponentUpdate update) {
@@ -174,6 +313,32 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 		itemizedUpdateElement.appendChild(itemElement);
 	}
 	
+	/**
+	 * Renders a directive to the outgoing <code>ServerMessage</code> to tell the tree to fetch
+	 * the children of the nodes whose placeholder rows have just been rendered.
+	 * 
+	 * @param rc the relevant <code>RenderContext</code>
+	 * @param tree the tree
+	 * @param treeRenderState the render state holding the placeholder paths
+	 */
+	private void renderLoadChildrenDirective(RenderContext rc, Tree tree, TreeRenderState treeRenderState) {
+		List loadingPaths = treeRenderState.loadingPaths;
+		if (loadingPaths.isEmpty()) {
+			return;
+		}
+		TreeModel model = (TreeModel) tree.getRenderProperty(Tree.PROPERTY_MODEL);
+		Element itemizedUpdateElement = rc.getServerMessage().getItemizedDirective(ServerMessage.GROUP_ID_POSTUPDATE,
+			"EchoPointTree.MessageProcessor", "loadChildren", new String[] {}, new String[] {});
+		for (Iterator iter = loadingPaths.iterator(); iter.hasNext();) {
+			TreePath path = (TreePath) iter.next();
+			Element itemElement = rc.getServerMessage().getDocument().createElement("item");
+			itemElement.setAttribute("eid", ContainerInstance.getElementId(tree));
+			itemElement.setAttribute("path", TreeRenderer.createPathId(path, model));
+			itemizedUpdateElement.appendChild(itemElement);
+		}
+		loadingPaths.clear();
+	}
+	
 	/**
 	 * Renders a directive to the outgoing <code>ServerMessage</code> to tell the tree to make a specific
 	 * tree node come into view
@@ -219,7 +384,7 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 			scrollIntoViewTreePath = new TreePath(expandedTargetPath.getParentPath(),peerNode);
 		} else {
 			// we dont have a peer so make it the last child if we have one of those
-			cc = model.getChildCount(expandedTargetNode);
+			cc = tree.getShownChildCount(expandedTargetPath);
 			if (cc-1 > 0) {
 				Object childNode = model.getChild(expandedTargetNode, cc-1);
 				scrollIntoViewTreePath = new TreePath(expandedTargetPath,childNode);
@@ -261,59 +426,25 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 		outerTreeDiv.setAttribute("id", rc.getElementId());
 		outerTreeDiv.setAttribute("style", style.renderInline());
 		
-		TreeRenderer.EventSupportCallBack callback = new TreeRenderer.EventSupportCallBack() {
-			/**
-			 * @see echopointng.ui.syncpeer.TreeRenderer.EventSupportCallBack#onExpandoCell(nextapp.echo2.webrender.output.CssStyle,
-			 *      org.w3c.dom.Element, echopointng.Tree, java.lang.Object)
-			 */
-			public String onExpandoCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode, TreePath treeNodePath) {
-				return addToggleEventId(rc, cssStyle, tree, treeNode, treeNodePath);
-			}
-
-			/**
-			 * @see echopointng.ui.syncpeer.TreeRenderer.EventSupportCallBack#onNodeComponentCell(nextapp.echo2.webrender.output.CssStyle,
-			 *      org.w3c.dom.Element, echopointng.Tree, java.lang.Object)
-			 */
-			public String onNodeComponentCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return null;
-			}
-
-			/**
-			 * @see echopointng.ui.syncpeer.TreeRenderer.EventSupportCallBack#onNodeIconCell(nextapp.echo2.webrender.output.CssStyle,
-			 *      org.w3c.dom.Element, echopointng.Tree, java.lang.Object)
-			 */
-			public String onNodeIconCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "icon");
-			}
-
-			/**
-			 * @see echopointng.ui.syncpeer.TreeRenderer.EventSupportCallBack#onNodeTextCell(nextapp.echo2.webrender.output.CssStyle,
-			 *      org.w3c.dom.Element, echopointng.Tree, java.lang.Object)
-			 */
-			public String onNodeTextCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "text");
-			}
-
-			/**
-			 * @see echopointng.ui.syncpeer.TreeRenderer.EventSupportCallBack#onTreeRow(nextapp.echo2.webrender.output.CssStyle,
-			 *      org.w3c.dom.Element, echopointng.Tree)
-			 */
-			public void onTreeRow(RenderingContext rc, CssStyle cssStyle, Element treeElement, Tree tree, TreePath treeNodePath) {
-				outerTreeDiv.appendChild(treeElement);
-				String eventElementId = createEventId(tree, "treerow", "", null, treeNodePath);
-				treeElement.setAttribute("id", eventElementId);
+		TreeRenderer treeRenderer = new TreeRenderer(rc, new RowIdCallBack(), tree, fallbackStyle, treeRenderState.imageManager);
+		treeRenderState.resetRenderedPaths();
+		TreeModel model = (TreeModel) tree.getRenderProperty(Tree.PROPERTY_MODEL);
+		Object root = model == null ? null : model.getRoot();
+		if (root != null) {
+			TreePath rootPath = new TreePath(root);
+			if (rc.getRP(Tree.PROPERTY_ROOT_VISIBLE, fallbackStyle, true)) {
+				outerTreeDiv.appendChild(treeRenderer.renderTreeRow(root, rootPath));
+				treeRenderState.addRenderedPath(rootPath);
 			}
-		};
-		TreeRenderer treeRenderer = new TreeRenderer(rc, callback, tree, fallbackStyle, treeRenderState.imageManager);
-		treeRenderer.renderTree();
+			renderChildRows(rc, treeRenderer, treeRenderState, model, tree, rootPath, 0, outerTreeDiv);
+		}
 		tree.getDirtyPaths().clear();
+		tree.getChangedBranchPaths().clear();
+		renderLoadChildrenDirective(rc, tree, treeRenderState);
 		
-		// save a copy of the newly rendered tree paths
-		if (rc.getRP(Tree.PROPERTY_PARTIAL_UPDATE_SUPPORT, fallbackStyle, true)) {
-			treeRenderState.setLastRenderedPaths(treeRenderer.compileVisiblePaths());
+		// only keep the newly rendered tree paths if they are needed for partial updates
+		if (! rc.getRP(Tree.PROPERTY_PARTIAL_UPDATE_SUPPORT, fallbackStyle, true)) {
+			treeRenderState.clearRenderedPaths();
 		}
 	}
 
@@ -355,143 +486,228 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 	}
 
 	
+	/**
+	 * Renders only the tree rows that have changed since the last render.
+	 * <p>
+	 * The rows beneath each changed branch (a node that has been expanded,
+	 * collapsed or had children inserted or removed) are removed and rendered
+	 * afresh, and each dirty row outside those branches is replaced on its
+	 * own. The size of the update is therefore proportional to the change
+	 * rather than to the size of the Tree.
+	 */
 	private void renderNodeDiffs(RenderingContext rc, Tree tree) {
 		
-		TreeRenderer.EventSupportCallBack callback = new TreeRenderer.EventSupportCallBack() {
-
-			public String onExpandoCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode, TreePath treeNodePath) {
-				return addToggleEventId(rc, cssStyle, tree, treeNode, treeNodePath);
-			}
-
-			public String onNodeComponentCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return null;
-			}
-
-			public String onNodeIconCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "icon");
-			}
-
-			public String onNodeTextCell(RenderingContext rc, CssStyle cssStyle, Element cellElement, Tree tree, Object treeNode,
-					TreePath treeNodePath) {
-				return addSelectEventId(rc, cssStyle, tree, treeNode, treeNodePath, "text");
-			}
-
-			public void onTreeRow(RenderingContext rc, CssStyle cssStyle, Element treeElement, Tree tree, TreePath treeNodePath) {
-				String eventElementId = createEventId(tree, "treerow", "", null, treeNodePath);
-				treeElement.setAttribute("id", eventElementId);
-			}
-		};
-		
 		TreeRenderState treeRenderState = setupTreeImageRenderState(rc, tree);
 		
 		Style fallbackStyle = EPNG.getFallBackStyle(tree);
 		
-		TreeRenderer treeRenderer = new TreeRenderer(rc, callback, tree, fallbackStyle, treeRenderState.imageManager);
-		
-		// First get old tree structure
-		Collection oldPaths = treeRenderState.getLastRenderedPaths();
-		
-		// Now get the current tree structure
-		ArrayList newPaths = treeRenderer.compileVisiblePaths();
+		TreeRenderer treeRenderer = new TreeRenderer(rc, new RowIdCallBack(), tree, fallbackStyle, treeRenderState.imageManager);
+		final TreeModel model = (TreeModel) tree.getRenderProperty(Tree.PROPERTY_MODEL);
 		
-		// Added node paths exist in the new structure but not the old
-		// Don't use newPaths.removeAll(oldPaths) as we need newPaths later
-		ArrayList addedPaths = new ArrayList();
-		
-		for (Iterator iter = newPaths.iterator(); iter.hasNext();) {
+		// Only the top most changed branches matter as they include any below them
+		Set branchPaths = new HashSet();
+		for (Iterator iter = tree.getChangedBranchPaths().iterator(); iter.hasNext();) {
 			TreePath path = (TreePath) iter.next();
-			if (!oldPaths.contains(path)) {
-				addedPaths.add(path);
+			if (!hasAncestorIn(path, tree.getChangedBranchPaths())) {
+				branchPaths.add(path);
 			}
 		}
 		
-		
 		/*
-		 * REMOVALS and DIRTY PATHS
+		 * REMOVALS
 		 */
-		
-		// Removed paths exist in the old structure but not the new
-		oldPaths.removeAll(newPaths);
-		
-		// Paths that are dirty, but are not already in the removed or added paths lists, need to be removed and re-added
-		// Dirty paths must be visible in the new structure
-		Collection dirtyPaths = tree.getDirtyPaths();
-		dirtyPaths.retainAll(newPaths);
-		dirtyPaths.removeAll(addedPaths);
-		
-		
-		for (Iterator iter = dirtyPaths.iterator(); iter.hasNext();) {
+		List rowUpdates = new ArrayList();
+		for (Iterator iter = branchPaths.iterator(); iter.hasNext();) {
 			TreePath path = (TreePath) iter.next();
-			oldPaths.add(path);
-			addedPaths.add(path);
+			removeRenderedDescendants(rc, tree, treeRenderState, path);
+			if (path.getParentPath() == null || treeRenderState.renderedPaths.contains(path)) {
+				rowUpdates.add(new RowUpdate(path, true));
+			}
 		}
-		
-		// Remove out of date paths
-		for (Iterator iter = oldPaths.iterator(); iter.hasNext();) {
+		for (Iterator iter = tree.getDirtyPaths().iterator(); iter.hasNext();) {
 			TreePath path = (TreePath) iter.next();
-			DomUpdate.renderElementRemove(rc.getServerMessage(), createEventId(tree, "treerow", "", null, path));
+			if (treeRenderState.renderedPaths.contains(path) && !hasAncestorIn(path, branchPaths)) {
+				DomUpdate.renderElementRemove(rc.getServerMessage(), createRowId(tree, path));
+				rowUpdates.add(new RowUpdate(path, false));
+			}
 		}
 		
-		
 		/*
 		 * ADDITIONS
+		 * 
+		 * Echo2 uses the standard DOM insertBefore() semantics, so the updates are made from the 
+		 * bottom of the Tree upwards.  That way the row each update is inserted before is
+		 * always already on the client.  The rows beneath a branch come after the branch row itself.
 		 */
-		if (addedPaths.size() > 0) {
+		Collections.sort(rowUpdates, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				RowUpdate update1 = (RowUpdate) o1;
+				RowUpdate update2 = (RowUpdate) o2;
+				int order = compareRenderOrder(model, update1.path, update2.path);
+				if (order == 0) {
+					order = (update1.branch ? 1 : 0) - (update2.branch ? 1 : 0);
+				}
+				return -order;
+			}
+		});
+		if (rowUpdates.size() > 0) {
 			Document doc = rc.getServerMessage().getDocument();
 			Element domAddElement = DomUpdate.renderElementAdd(rc.getServerMessage());
 			
-			for (Iterator iter = addedPaths.iterator(); iter.hasNext();) {
+			for (Iterator iter = rowUpdates.iterator(); iter.hasNext();) {
+				RowUpdate rowUpdate = (RowUpdate) iter.next();
+				TreePath path = rowUpdate.path;
 				
-				TreePath path = (TreePath) iter.next();
-	
-				// Render the node at this path
 				DocumentFragment docFrag = doc.createDocumentFragment();
-				docFrag.appendChild(treeRenderer.renderTreeRow(path.getLastPathComponent(), path));
-				
-				
-				/*
-				 * Echo2 uses the standard DOM insertBefore() semantics. However this does not quite
-				 * suit as as we would rather an insertAfter() mechanism.  None the less we need
-				 * to move forward to find a "solid" table row to use as the sibling for the
-				 * insertBefore() operation.  If we cannot find one going forwards, then it must require a
-				 * parent appendChild() operation instead.
-				 */
-				TreePath siblingPath = null;
-				
-				for (int k = newPaths.indexOf(path) + 1; k < newPaths.size() && siblingPath == null; k++) {
-					
-					siblingPath = (TreePath) newPaths.get(k);
-					
-					// if the sibling is already in the tree then its a spot for the new node to be inserted
-					if (!addedPaths.contains(siblingPath)) {
-						DomUpdate.renderElementAddContent(rc.getServerMessage(), domAddElement, rc.getElementId(),
-							createEventId(tree, "treerow", "", null, siblingPath), docFrag);
+				String siblingId;
+				if (rowUpdate.branch) {
+					if (renderChildRows(rc, treeRenderer, treeRenderState, model, tree, path, 0, docFrag) == 0) {
+						continue;
+					}
+					siblingId = treeRenderState.getNextRowIdAfterDescendants(tree, path);
+				} else {
+					docFrag.appendChild(treeRenderer.renderTreeRow(path.getLastPathComponent(), path));
+					List children = (List) treeRenderState.renderedChildren.get(path);
+					if (children != null && children.size() > 0) {
+						siblingId = createRowId(tree, (TreePath) children.get(0));
+					} else if (treeRenderState.getAuxiliaryRowIndex(path) != -1) {
+						siblingId = createAuxiliaryRowId(tree, path);
 					} else {
-						siblingPath = null;
+						siblingId = treeRenderState.getNextRowIdAfterDescendants(tree, path);
 					}
-					
 				}
 				
-				// If we have navigated forward without finding a spot to put the new row
-				// just append it at the end of the Tree.
-				if (siblingPath == null) {
+				// If there is no row after the new rows, just append them at the end of the Tree.
+				if (siblingId != null) {
+					DomUpdate.renderElementAddContent(rc.getServerMessage(), domAddElement, rc.getElementId(),
+						siblingId, docFrag);
+				} else {
 					DomUpdate.renderElementAddContent(rc.getServerMessage(), domAddElement, rc.getElementId(), docFrag);
 				}
-				
-				// Remove added node path so it can now be used as a sibling by later additions
-				iter.remove();
 			}
 		}
 		
-		// keep only one copy of the lastest tree structure
-		treeRenderState.setLastRenderedPaths(newPaths);
 		tree.getDirtyPaths().clear();
+		tree.getChangedBranchPaths().clear();
 		
+		renderLoadChildrenDirective(rc, tree, treeRenderState);
 		renderScrollIntoViewDirective(rc, tree);
 	}
 	
+	/**
+	 * Returns true if any proper ancestor of the path is in the given collection 
+	 */
+	private static boolean hasAncestorIn(TreePath path, Collection paths) {
+		for (TreePath parentPath = path.getParentPath(); parentPath != null; parentPath = parentPath.getParentPath()) {
+			if (paths.contains(parentPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Compares two visible TreePaths by the order in which their tree rows are rendered.
+	 */
+	private static int compareRenderOrder(TreeModel model, TreePath path1, TreePath path2) {
+		Object[] nodes1 = path1.getPath();
+		Object[] nodes2 = path2.getPath();
+		int length = Math.min(nodes1.length, nodes2.length);
+		for (int i = 1; i < length; i++) {
+			if (!nodes1[i].equals(nodes2[i])) {
+				return model.getIndexOfChild(nodes1[i - 1], nodes1[i]) - model.getIndexOfChild(nodes2[i - 1], nodes2[i]);
+			}
+		}
+		// an ancestor comes before its descendants
+		return nodes1.length - nodes2.length;
+	}
+	
+	/**
+	 * Removes the tree rows of all the rendered descendants of the given path from the client.
+	 */
+	private void removeRenderedDescendants(RenderingContext rc, Tree tree, TreeRenderState treeRenderState, TreePath path) {
+		if (treeRenderState.removeAuxiliaryRow(path)) {
+			DomUpdate.renderElementRemove(rc.getServerMessage(), createAuxiliaryRowId(tree, path));
+		}
+		List children = (List) treeRenderState.renderedChildren.remove(path);
+		if (children == null) {
+			return;
+		}
+		for (Iterator iter = children.iterator(); iter.hasNext();) {
+			TreePath childPath = (TreePath) iter.next();
+			DomUpdate.renderElementRemove(rc.getServerMessage(), createRowId(tree, childPath));
+			treeRenderState.renderedPaths.remove(childPath);
+			removeRenderedDescendants(rc, tree, treeRenderState, childPath);
+		}
+	}
+	
+	/**
+	 * Renders the tree rows of the shown descendants of the given path into
+	 * the parent node, starting with the child at <code>firstChildIndex</code>,
+	 * and records them as rendered.  If not all the children are shown a row 
+	 * to fetch the next page is rendered after them, and if the children are 
+	 * still loading a placeholder row is rendered instead of them.  It does 
+	 * not touch nodes that are not expanded.
+	 * 
+	 * @return the number of tree rows rendered
+	 */
+	static int renderChildRows(RenderingContext rc, TreeRenderer treeRenderer, TreeRenderState treeRenderState, TreeModel model, Tree tree, TreePath path, int firstChildIndex, Node parent) {
+		return renderChildRows(rc, treeRenderer, treeRenderState, model, tree, path, firstChildIndex, -1, true, parent);
+	}
+
+	/**
+	 * Renders the children of the given path from <code>firstChildIndex</code>
+	 * up to <code>shownCount</code> in the same way as 
+	 * <code>renderChildRows()</code>, but without changing the state of the
+	 * <code>Tree</code>.  Expanded descendants whose children have not started
+	 * loading get a placeholder row.  This is used to render a page of 
+	 * children outside of a server update.
+	 * 
+	 * @return the number of tree rows rendered
+	 */
+	static int renderChildPage(RenderingContext rc, TreeRenderer treeRenderer, TreeRenderState treeRenderState, TreeModel model, Tree tree, TreePath path, int firstChildIndex, int shownCount, Node parent) {
+		return renderChildRows(rc, treeRenderer, treeRenderState, model, tree, path, firstChildIndex, shownCount, false, parent);
+	}
+
+	private static int renderChildRows(RenderingContext rc, TreeRenderer treeRenderer, TreeRenderState treeRenderState, TreeModel model, Tree tree, TreePath path, int firstChildIndex, int shownCount, boolean startLoading, Node parent) {
+		Object node = path.getLastPathComponent();
+		if (model.isLeaf(node) || !tree.isExpanded(path)) {
+			return 0;
+		}
+		Style fallbackStyle = EPNG.getFallBackStyle(tree);
+		if (startLoading) {
+			tree.startLoadingChildren(path);
+		}
+		if (tree.isLoadingChildren(path) || tree.needsLoadingChildren(path)) {
+			String text = (String) rc.getRP(Tree.PROPERTY_LOADING_CHILDREN_TEXT, fallbackStyle);
+			parent.appendChild(treeRenderer.renderAuxiliaryRow(path, text, createAuxiliaryRowId(tree, path), null));
+			treeRenderState.addAuxiliaryRow(path, 0);
+			treeRenderState.loadingPaths.add(path);
+			return 1;
+		}
+		if (shownCount < 0) {
+			shownCount = tree.getShownChildCount(path);
+		}
+		int rowCount = 0;
+		for (int i = firstChildIndex; i < shownCount; i++) {
+			Object childNode = model.getChild(node, i);
+			TreePath childPath = new TreePath(path, childNode);
+			parent.appendChild(treeRenderer.renderTreeRow(childNode, childPath));
+			treeRenderState.addRenderedPath(childPath);
+			rowCount += 1 + renderChildRows(rc, treeRenderer, treeRenderState, model, tree, childPath, 0, -1, startLoading, parent);
+		}
+		int childCount = model.getChildCount(node);
+		if (shownCount < childCount) {
+			String text = (String) rc.getRP(Tree.PROPERTY_MORE_CHILDREN_TEXT, fallbackStyle);
+			text = text + " (" + shownCount + " / " + childCount + ")";
+			String cellId = tree.isRenderEnabled() ? createMoreEventId(tree, path, shownCount) : null;
+			parent.appendChild(treeRenderer.renderAuxiliaryRow(path, text, createAuxiliaryRowId(tree, path), cellId));
+			treeRenderState.addAuxiliaryRow(path, shownCount);
+			rowCount++;
+		}
+		return rowCount;
+	}
+	
 	
 	/**
 	 * The events can be expansion or contraction events as well as selection events
@@ -509,7 +725,43 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 		String actionName = actionElement.getAttribute(ActionProcessor.ACTION_NAME);
 		String actionValue = actionElement.getAttribute(ActionProcessor.ACTION_VALUE);
 		// its a tree path
-		String[] paths = TokenizerKit.tokenize(actionValue, "[]");
+		TreePath nodePath = parsePathId(actionValue, model);
+		ci.getUpdateManager().getClientUpdateManager().setComponentAction(component, actionName, nodePath);
+	}
+
+
+	/**
+	 * The client reports how many children of a node it is showing after
+	 * fetching further pages of them from the <code>TreeChildrenService</code>.
+	 * 
+	 * @see nextapp.echo2.webcontainer.PropertyUpdateProcessor#processPropertyUpdate(nextapp.echo2.webcontainer.ContainerInstance,
+	 *      nextapp.echo2.app.Component, org.w3c.dom.Element)
+	 */
+	public void processPropertyUpdate(ContainerInstance ci, Component component, Element propertyElement) {
+		Tree tree = (Tree) component;
+		TreeModel model = (TreeModel) tree.getRenderProperty(Tree.PROPERTY_MODEL);
+		String propertyName = propertyElement.getAttribute(PropertyUpdateProcessor.PROPERTY_NAME);
+		if (model == null || !propertyName.startsWith(Tree.INPUT_SHOWN_CHILD_COUNT + "|")) {
+			return;
+		}
+		String pathId = propertyName.substring(Tree.INPUT_SHOWN_CHILD_COUNT.length() + 1);
+		Integer shownCount;
+		try {
+			shownCount = Integer.valueOf(DomUtil.getElementText(propertyElement));
+		} catch (NumberFormatException e) {
+			return;
+		}
+		TreePath nodePath = parsePathId(pathId, model);
+		ci.getUpdateManager().getClientUpdateManager().setComponentProperty(component, Tree.INPUT_SHOWN_CHILD_COUNT, 
+				new Object[] { nodePath, shownCount });
+	}
+
+	/**
+	 * Returns the TreePath identified by a path id created by 
+	 * <code>TreeRenderer.createPathId()</code>.
+	 */
+	static TreePath parsePathId(String pathId, TreeModel model) {
+		String[] paths = TokenizerKit.tokenize(pathId, "[]");
 		Object[] nodes = new Object[paths.length];
 		for (int i = 0; i < paths.length; i++) {
 			if (i == 0) {
@@ -518,17 +770,15 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 				nodes[i] = model.getNodeById(paths[i]);
 			}
 		}
-		TreePath nodePath = new TreePath(nodes);
-		ci.getUpdateManager().getClientUpdateManager().setComponentAction(component, actionName, nodePath);
+		return new TreePath(nodes);
 	}
 
-
 	/**
 	 * Adds the event handler id for toggling the nodes expanded or contracted.
 	 * The entire tree has a single click handler - an id is needed on a toogle
 	 * cell so the tree's click handler knows what to do when it is clicked.
 	 */
-	private String addToggleEventId(RenderingContext rc, CssStyle cssStyle, Tree tree, Object treeNode, TreePath treeNodePath) {
+	private static String addToggleEventId(RenderingContext rc, CssStyle cssStyle, Tree tree, Object treeNode, TreePath treeNodePath) {
 		String eventElementId = createEventId(tree, "expando", "toggle", treeNode, treeNodePath);
 		if (tree.isRenderEnabled()) {
 			cssStyle.setAttribute("cursor", "pointer");
@@ -541,7 +791,7 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 	 * The entire tree has a single click handler - an id is needed on a select
 	 * cell so the tree's click handler knows what to do when it is clicked.
 	 */
-	private String addSelectEventId(RenderingContext rc, CssStyle cssStyle, Tree tree, Object treeNode, TreePath treeNodePath, String cellType) {
+	private static String addSelectEventId(RenderingContext rc, CssStyle cssStyle, Tree tree, Object treeNode, TreePath treeNodePath, String cellType) {
 		String eventElementId = createEventId(tree, cellType, "select", treeNode, treeNodePath);
 		if (tree.isRenderEnabled()) {
 			cssStyle.setAttribute("cursor", "pointer");
@@ -552,7 +802,7 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 	/**
 	 * Creates a identifier to unique identify a node and its containing Tree.
 	 */
-	private String createEventId(Tree tree, String cellType, String baseAction, Object treeNode, TreePath treeNodePath) {
+	private static String createEventId(Tree tree, String cellType, String baseAction, Object treeNode, TreePath treeNodePath) {
 		TreeModel model = (TreeModel) tree.getRenderProperty(Tree.PROPERTY_MODEL);
 
 		String pathId = TreeRenderer.createPathId(treeNodePath, model);
@@ -561,4 +811,28 @@ public class TreePeer extends AbstractEchoPointContainerPeer implements ActionPr
 		return eventElementId;
 	}
 
+	/**
+	 * Creates the identifier of the tree row for a node.
+	 */
+	static String createRowId(Tree tree, TreePath treeNodePath) {
+		return createEventId(tree, "treerow", "", null, treeNodePath);
+	}
+
+	/**
+	 * Creates the identifier of the more or placeholder row that follows the
+	 * shown children of a node.
+	 */
+	static String createAuxiliaryRowId(Tree tree, TreePath treeNodePath) {
+		return createEventId(tree, "morerow", "", null, treeNodePath);
+	}
+
+	/**
+	 * Creates the identifier of the cell that fetches the next page of children
+	 * of a node.  The index of the first child on that page is carried in the 
+	 * action part of the identifier.
+	 */
+	static String createMoreEventId(Tree tree, TreePath treeNodePath, int firstChildIndex) {
+		return createEventId(tree, "more", String.valueOf(firstChildIndex), null, treeNodePath);
+	}
+
 }
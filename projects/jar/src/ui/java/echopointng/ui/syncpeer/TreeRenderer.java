@@ -29,6 +29,7 @@
 
 package echopointng.ui.syncpeer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Stack;
 
@@ -38,6 +39,7 @@ import nextapp.echo2.app.Component;
 import nextapp.echo2.app.Font;
 import nextapp.echo2.app.ImageReference;
 import nextapp.echo2.app.Label;
+import nextapp.echo2.app.ResourceImageReference;
 import nextapp.echo2.app.Style;
 import nextapp.echo2.webcontainer.ComponentSynchronizePeer;
 import nextapp.echo2.webcontainer.DomUpdateSupport;
@@ -52,13 +54,17 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import echopointng.Tree;
+import echopointng.tree.DefaultTreeIcons;
 import echopointng.tree.TreeCellRenderer;
 import echopointng.tree.TreeIcons;
 import echopointng.tree.TreeModel;
 import echopointng.tree.TreePath;
 import echopointng.ui.util.HtmlTable;
 import echopointng.ui.util.ImageManager;
+import echopointng.ui.util.LayoutStrut;
 import echopointng.ui.util.RenderingContext;
+import echopointng.ui.util.SpriteSheet;
+import echopointng.ui.util.StaticImageService;
 import echopointng.xhtml.XhtmlFragment;
 
 /**
@@ -399,6 +405,79 @@ public class TreeRenderer  {
         FontRender.renderToStyle(cssStyle, font);
         return cssStyle;
 	}	
+	/**
+	 * <code>DefaultIconSprites</code> holds the default tree icons combined 
+	 * into one image, so that a tree using them only needs one image request. 
+	 * The sheet is built when the class is first used, so later lookups need
+	 * no locking.
+	 */
+	private static class DefaultIconSprites {
+		/** the sprite sheet or null if it could not be built */
+		private static final SpriteSheet SPRITES = build();
+
+		/**
+		 * Builds the sprite sheet of the default tree icons or returns null if 
+		 * it could not be built, in which case the icons are served singly.
+		 */
+		private static SpriteSheet build() {
+			ImageReference[] icons = new ImageReference[] {
+					DefaultTreeIcons.treeEmpty, DefaultTreeIcons.treeFolder, DefaultTreeIcons.treeFolderOpen, 
+					DefaultTreeIcons.treeLeaf, DefaultTreeIcons.treeJoin, DefaultTreeIcons.treeJoinBottom, 
+					DefaultTreeIcons.treeLine, DefaultTreeIcons.treeMinus, DefaultTreeIcons.treeMinusBottom, 
+					DefaultTreeIcons.treePlus, DefaultTreeIcons.treePlusBottom, DefaultTreeIcons.treeRoot };
+			ArrayList resourceIcons = new ArrayList();
+			for (int i = 0; i < icons.length; i++) {
+				if (icons[i] instanceof ResourceImageReference) {
+					resourceIcons.add(icons[i]);
+				}
+			}
+			try {
+				return new SpriteSheet("EPNG.TreeIconSprites", 
+						(ResourceImageReference[]) resourceIcons.toArray(new ResourceImageReference[resourceIcons.size()]));
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sprite sheet of the default tree icons or null if it 
+	 * could not be built, in which case the icons are served singly.
+	 */
+	private static SpriteSheet getDefaultIconSprites() {
+		return DefaultIconSprites.SPRITES;
+	}
+	
+	/**
+	 * Returns the sprite for an icon or null if its not one of the default icons
+	 */
+	private static SpriteSheet.Sprite getIconSprite(ImageReference imageRef) {
+		SpriteSheet sprites = getDefaultIconSprites();
+		return sprites == null ? null : sprites.getSprite(imageRef);
+	}
+	
+	/**
+	 * Creates an 'img' element for an icon.  Default icons are drawn from the 
+	 * sprite sheet as the background of a transparent image.
+	 */
+	private Element createIconImgE(CssStyle cssStyle, ImageReference imageRef) {
+		SpriteSheet.Sprite sprite = getIconSprite(imageRef);
+		if (sprite == null) {
+			return ImageManager.createImgE(rc, cssStyle, imageRef);
+		}
+		if (cssStyle == null) {
+			cssStyle = new CssStyle();
+		}
+		sprite.renderBackgroundToStyle(rc.getContainerInstance(), cssStyle);
+		cssStyle.setAttribute("border", "none");
+		cssStyle.setAttribute("width", sprite.getWidth() + "px");
+		cssStyle.setAttribute("height", sprite.getHeight() + "px");
+		Element imgE = rc.getServerMessage().getDocument().createElement("img");
+		imgE.setAttribute("src", ((StaticImageService) LayoutStrut.PIXEL_SERVICE).getURI(rc.getContainerInstance()));
+		imgE.setAttribute("style", cssStyle.renderInline());
+		return imgE;
+	}
+	
 	/**
 	 * Renders an image into the cell TD
 	 */
@@ -410,7 +489,7 @@ public class TreeRenderer  {
 				cssStyle.setAttribute("width", cellImageRef.getWidth().toString());
 			if (cellImageRef.getHeight() != null)
 				cssStyle.setAttribute("height", cellImageRef.getHeight().toString());
-			Element imgE = ImageManager.createImgE(rc, cssStyle,cellImageRef);
+			Element imgE = createIconImgE(cssStyle,cellImageRef);
 			cellTD.appendChild(imgE);
 		}
 	}
@@ -439,7 +518,7 @@ public class TreeRenderer  {
 		if (icon != null) {
 			// keep a reference
 			imageManager.addImage(icon);
-			Element imgE = ImageManager.createImgE(rc,null,icon);
+			Element imgE = createIconImgE(null,icon);
 			cellTD.appendChild(imgE);
 		}
 		CssStyle cssStyle = createStyleFromTree(tree);
@@ -451,7 +530,11 @@ public class TreeRenderer  {
 	 * Renders an image into the background of a style
 	 */
 	private void renderBackgroundImageIntoStyle(ImageReference cellImageRef, CssStyle cssStyle) {
-		if (cellImageRef != null) {
+		SpriteSheet.Sprite sprite = getIconSprite(cellImageRef);
+		if (sprite != null && sprite.isRepeatableY()) {
+			sprite.renderBackgroundToStyle(rc.getContainerInstance(), cssStyle);
+			cssStyle.setAttribute("background-repeat","repeat-y");
+		} else if (cellImageRef != null) {
 			String iconUri = ImageManager.getURI(rc,cellImageRef);
 			cssStyle.setAttribute("background-image","url(" + iconUri + ")");
 			cssStyle.setAttribute("background-repeat","repeat-y");
@@ -472,15 +555,21 @@ public class TreeRenderer  {
 		if (cellImageRef != null) {
 			imageManager.addImage(cellImageRef);
 			
-			String iconUri = ImageManager.getURI(rc,cellImageRef);
-			cssStyle.setAttribute("background-image","url(" + iconUri + ")");
+			SpriteSheet.Sprite sprite = getIconSprite(cellImageRef);
+			if (sprite != null && sprite.isRepeatableY()) {
+				sprite.renderBackgroundToStyle(rc.getContainerInstance(), cssStyle);
+				cssStyle.setAttribute("background-repeat","repeat-y");
+			} else {
+				String iconUri = ImageManager.getURI(rc,cellImageRef);
+				cssStyle.setAttribute("background-image","url(" + iconUri + ")");
+			}
 			if (cellImageRef.getWidth() != null) {
 				cssStyle.setAttribute("width", cellImageRef.getWidth().toString());
 			}
 			//if (cellImageRef.getHeight() != null) {
 			//	cssStyle.setAttribute("height", cellImageRef.getHeight().toString());
 			//}
-			Element imgE = ImageManager.createImgE(rc,null,cellImageRef);
+			Element imgE = createIconImgE(null,cellImageRef);
 			cellTD.appendChild(imgE);
 		}
 		if (cssStyle.hasAttributes()) {
@@ -674,40 +763,6 @@ public class TreeRenderer  {
 		}
 	}
 	
-	/**
-	 * Called to render the nodes of The Tree recursively.  It must be careful not to "tocuh" any
-	 * nodes that are not expanded or are leafs.  This prevents unnecessary model access.
-	 */
-	private void renderTreeRecursive(Object parentTreeNode, TreePath parentTreePath) {
-		//
-		// is it the root node, cause that is special
-		boolean renderParent = true;
-		if (parentTreeNode.equals(treeModel.getRoot())) {
-			if (! isRootVisible) {
-				renderParent = false;
-			}
-		}
-		if (renderParent) {
-			renderTreeRow(parentTreeNode,parentTreePath);
-		}
-		
-		if (! treeModel.isLeaf(parentTreeNode) && tree.isExpanded(parentTreePath)) {
-			int cc =  treeModel.getChildCount(parentTreeNode);
-			for (int i = 0; i < cc; i++) {
-				Object nodeTreeChild = treeModel.getChild(parentTreeNode,i);
-				renderTreeRecursive(nodeTreeChild, new TreePath(parentTreePath,nodeTreeChild));
-			}
-		}
-	}
-	
-	/**
-	 * This is called to render a given Tree as a series of tree rows.  
-	 */
-	public void renderTree() {
-		Object root = treeModel.getRoot();
-		renderTreeRecursive(root,new TreePath(root));
-	}	
-	
 	/**
 	 * This is called to render a given Tree node as tree row.  It returns the Element
 	 * containing the renderer tree row.
@@ -769,36 +824,72 @@ public class TreeRenderer  {
 		return treeRowTable.getTABLE();
 	}
 
-	
+
 	/**
-	 * Returns an ordered list of TreePaths. Used when rendering to determine deltas.
+	 * This is called to render the row that follows the shown children of a 
+	 * tree node, either to fetch the next page of them or as a placeholder while 
+	 * they are loading.  It returns the Element containing the rendered row.
 	 * 
-	 * @return ArrayList of TreePaths in the order they would be rendered.
+	 * @param parentTreePath - the path of the node whose children the row stands for
+	 * @param text - the text of the row
+	 * @param rowId - the identifier of the row
+	 * @param cellId - the identifier of the cell that fetches the next page or
+	 *            null if the row cannot be clicked
 	 */
-	protected ArrayList compileVisiblePaths() {
-		Object root = treeModel.getRoot();
-		ArrayList paths = new ArrayList();
-		compileVisiblePaths(paths, root, new TreePath(root));
-		return paths;
-	}
-	
-	private void compileVisiblePaths(ArrayList paths, Object node, TreePath path) {
-		
-		// Root node has a special flag that determines if it is rendered
-		boolean renderNode = !(node.equals(treeModel.getRoot()) && !isRootVisible);
-		
-		if (renderNode) {
-			paths.add(path);
+	public Element renderAuxiliaryRow(TreePath parentTreePath, String text, String rowId, String cellId) {
+		HtmlTable treeRowTable = new HtmlTable(rc.getDocument(),false,DEBUG_TABLE_BORDER,0,0);
+		treeRowTable.newTRnoTD();
+		Element cellTD;
+		//
+		// the row gets the same spacer cells as the children of the node
+		Stack cellCommandStack  = new Stack();
+		if (treeModel.getRoot().equals(parentTreePath.getLastPathComponent())) {
+			if (isRootVisible && showRootHandles) {
+				cellCommandStack.push("empty");
+			}
+		} else {
+			cellCommandStack.push(isLastSibling(parentTreePath) ? "empty" : "line");
+			createCellCommandsStack(cellCommandStack,parentTreePath);
 		}
-		
-		if (!treeModel.isLeaf(node) && tree.isExpanded(path)) {
+		while (! cellCommandStack.isEmpty()) {
+			cellTD = treeRowTable.newTD();
 			
-			int cc =  treeModel.getChildCount(node);
-			for (int i = 0; i < cc; i++) {
-				Object childNode = treeModel.getChild(node, i);
-				compileVisiblePaths(paths, childNode, new TreePath(path, childNode));
+			String cellCommand = (String) cellCommandStack.pop();
+			if (cellCommand.equals("line")) {
+				renderBackgroundLineCell(cellTD);
+			} else {
+				renderEmptyCell(cellTD);
 			}
 		}
+		//
+		// it is always the last row of its parent
+		ImageReference icon = treeIcons.getIcon(showLines ? TreeIcons.ICON_JOINBOTTOM : TreeIcons.ICON_JOINNOLINE);
+		imageManager.addImage(icon);
+		cellTD = treeRowTable.newTD();
+		CssStyle cellStyle = createStyleFromTree(tree);
+		renderCellImageSetWidths(cellStyle,icon,cellTD);
+		cellTD.setAttribute("style",cellStyle.renderInline());
+		cellTD.setAttribute("nowrap","nowrap");
 		
+		cellTD = treeRowTable.newTD();
+		cellStyle = createStyleFromTree(tree);
+		AlignmentRender.renderToStyle(cellStyle,BOTTOM_VERT_ALIGNMENT);
+		cellStyle.setAttribute("font-style","italic");
+		cellStyle.setAttribute("width","100%");
+		if (cellId != null) {
+			cellStyle.setAttribute("cursor","pointer");
+			cellTD.setAttribute("id",cellId);
+		}
+		cellTD.setAttribute("style",cellStyle.renderInline());
+		cellTD.setAttribute("nowrap","nowrap");
+		DomUtil.setElementText(cellTD,text == null ? "" : text);
+
+		CssStyle cssTreeStyle = new CssStyle();
+		cssTreeStyle.setAttribute("border-collapse","collapse");
+		treeRowTable.getTABLE().setAttribute("border",""+DEBUG_TABLE_BORDER);
+		treeRowTable.getTABLE().setAttribute("width","100%");
+		treeRowTable.getTABLE().setAttribute("id",rowId);
+		treeRowTable.getTABLE().setAttribute("style",cssTreeStyle.renderInline());
+		return treeRowTable.getTABLE();
 	}
 }
@@ -36,7 +36,6 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.Element;
 
@@ -47,6 +46,7 @@ import echopointng.command.CssStyleRemove;
 import echopointng.command.CssStyleRemoveFrom;
 import echopointng.command.CssStyleSheetAdd;
 import echopointng.ui.resource.Resources;
+import echopointng.ui.util.JavaScriptBundleService;
 
 /**
  * A <code>CommandSynchronizePeer</code> implementation for CSS Style
@@ -57,7 +57,7 @@ public class CssStyleCommandPeer implements CommandSynchronizePeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service CSS_COMMAND_SERVICE = JavaScriptService.forResource("EPNG.CssCommand", "/echopointng/ui/resource/js/csscommand.js");
+	public static final Service CSS_COMMAND_SERVICE = JavaScriptBundleService.forResource("EPNG.CssCommand", "/echopointng/ui/resource/js/csscommand.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(CSS_COMMAND_SERVICE);
 	}
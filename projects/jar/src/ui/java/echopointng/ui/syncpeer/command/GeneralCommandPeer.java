@@ -36,7 +36,6 @@ import nextapp.echo2.webcontainer.RenderContext;
 import nextapp.echo2.webrender.ServerMessage;
 import nextapp.echo2.webrender.Service;
 import nextapp.echo2.webrender.WebRenderServlet;
-import nextapp.echo2.webrender.service.JavaScriptService;
 
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Element;
@@ -46,6 +45,7 @@ import echopointng.command.JavaScriptEval;
 import echopointng.command.JavaScriptInclude;
 import echopointng.command.Print;
 import echopointng.ui.resource.Resources;
+import echopointng.ui.util.JavaScriptBundleService;
 
 /**
  * A <code>CommandSynchronizePeer</code> implementation for general
@@ -56,7 +56,7 @@ public class GeneralCommandPeer implements CommandSynchronizePeer {
 	/**
 	 * Service to provide supporting JavaScript library.
 	 */
-	public static final Service COMMAND_SERVICE = JavaScriptService.forResource("EPNG.Command", "/echopointng/ui/resource/js/command.js");
+	public static final Service COMMAND_SERVICE = JavaScriptBundleService.forResource("EPNG.Command", "/echopointng/ui/resource/js/command.js");
 	static {
 		WebRenderServlet.getServiceRegistry().add(COMMAND_SERVICE);
 	}
@@ -39,6 +39,7 @@ import nextapp.echo2.app.Component;
 import nextapp.echo2.app.FillImage;
 import nextapp.echo2.app.HttpImageReference;
 import nextapp.echo2.app.ImageReference;
+import nextapp.echo2.app.ResourceImageReference;
 import nextapp.echo2.app.StreamImageReference;
 import nextapp.echo2.webcontainer.ContainerInstance;
 import nextapp.echo2.webcontainer.RenderContext;
@@ -125,7 +126,12 @@ public class ImageManager implements RenderState {
 			 *      ImageReference)
 			 */
 			public String getImageURI(ContainerInstance containerInstance, ImageReference imageReference) {
-				if (imageReference instanceof StreamImageReference) {
+				if (imageReference != null && imageReference.getClass() == ResourceImageReference.class) {
+					// resource images are the same for everyone so they are
+					// served once, with a long lived fingerprinted URI
+					return StaticImageService.forImage((ResourceImageReference) imageReference).getURI(containerInstance);
+
+				} else if (imageReference instanceof StreamImageReference) {
 					containerInstance.getIdTable().register(imageReference);
 					return StreamImageService.INSTANCE.createUri(containerInstance, imageReference.getRenderId());
 
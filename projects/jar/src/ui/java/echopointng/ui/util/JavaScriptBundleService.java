@@ -0,0 +1,224 @@
+package echopointng.ui.util;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import nextapp.echo2.webrender.Connection;
+import nextapp.echo2.webrender.Service;
+import nextapp.echo2.webrender.util.JavaScriptCompressor;
+import nextapp.echo2.webrender.util.Resource;
+
+/**
+ * <code>JavaScriptBundleService</code> serves one or more JavaScript
+ * resources as a single library.
+ * <p>
+ * The resources are concatenated and compressed once, when the service is
+ * created, and the plain, gzip and deflate encoded forms are all kept in
+ * memory so that nothing needs to be done per request other than picking
+ * the encoding the client accepts.
+ * <p>
+ * The identifier of the service ends with a hash of its content, which is
+ * also sent as a strong ETag, so the library can be cached by the browser
+ * for a long time and a new version of the scripts is simply a new service
+ * identifier.
+ */
+public class JavaScriptBundleService implements Service {
+
+	/** How long, in seconds, browsers may cache a bundle */
+	public static final int CACHE_MAX_AGE = 365 * 24 * 60 * 60;
+
+	/**
+	 * Creates a <code>JavaScriptBundleService</code> that serves a single
+	 * JavaScript resource.
+	 * 
+	 * @param id -
+	 *            the base identifier of the service
+	 * @param resourceName -
+	 *            the name of the JavaScript resource
+	 * @return a new <code>JavaScriptBundleService</code>
+	 */
+	public static JavaScriptBundleService forResource(String id, String resourceName) {
+		return forResources(id, new String[] { resourceName });
+	}
+
+	/**
+	 * Creates a <code>JavaScriptBundleService</code> that serves a number of
+	 * JavaScript resources, in the given order, as one library.
+	 * 
+	 * @param id -
+	 *            the base identifier of the service
+	 * @param resourceNames -
+	 *            the names of the JavaScript resources
+	 * @return a new <code>JavaScriptBundleService</code>
+	 */
+	public static JavaScriptBundleService forResources(String id, String[] resourceNames) {
+		StringBuffer content = new StringBuffer();
+		for (int i = 0; i < resourceNames.length; i++) {
+			content.append(Resource.getResourceAsString(resourceNames[i]));
+			// protect against scripts that do not end their last statement
+			content.append("\n;\n");
+		}
+		return new JavaScriptBundleService(id, content.toString());
+	}
+
+	private String id;
+
+	private String etag;
+
+	private byte[] plainContent;
+
+	private byte[] gzipContent;
+
+	private byte[] deflateContent;
+
+	/**
+	 * Constructs a <code>JavaScriptBundleService</code> that serves the given
+	 * JavaScript content, which will be compressed.
+	 * 
+	 * @param id -
+	 *            the base identifier of the service
+	 * @param content -
+	 *            the JavaScript content
+	 */
+	public JavaScriptBundleService(String id, String content) {
+		try {
+			plainContent = JavaScriptCompressor.compress(content).getBytes("UTF-8");
+			String hash = hash(plainContent);
+			this.id = id + "." + hash.substring(0, 12);
+			this.etag = "\"" + hash + "\"";
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream out = new GZIPOutputStream(bytes);
+			out.write(plainContent);
+			out.close();
+			gzipContent = bytes.toByteArray();
+
+			bytes = new ByteArrayOutputStream();
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			out = new DeflaterOutputStream(bytes, deflater);
+			out.write(plainContent);
+			out.close();
+			deflater.end();
+			deflateContent = bytes.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Exception compressing JavaScript source.", e);
+		}
+	}
+
+	private static String hash(byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available : " + e);
+		}
+		byte[] hash = digest.digest(content);
+		StringBuffer sb = new StringBuffer(hash.length * 2);
+		for (int i = 0; i < hash.length; i++) {
+			sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#getId()
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#getVersion()
+	 */
+	public int getVersion() {
+		return 0;
+	}
+
+	/**
+	 * @return the ETag sent with the bundle
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return the size in bytes of the compressed, but not encoded, bundle
+	 */
+	public int getContentLength() {
+		return plainContent.length;
+	}
+
+	/**
+	 * @see nextapp.echo2.webrender.Service#service(nextapp.echo2.webrender.Connection)
+	 */
+	public void service(Connection conn) throws IOException {
+		HttpServletRequest request = conn.getRequest();
+		HttpServletResponse response = conn.getResponse();
+		// the id changes with the content so it can be cached for a long time
+		response.setHeader("Cache-Control", "public, max-age=" + CACHE_MAX_AGE);
+		response.setDateHeader("Expires", System.currentTimeMillis() + CACHE_MAX_AGE * 1000L);
+		response.setHeader("ETag", etag);
+		response.setHeader("Vary", "Accept-Encoding");
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null && ifNoneMatch.indexOf(etag) != -1) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] content = plainContent;
+		String userAgent = request.getHeader("user-agent");
+		String acceptEncoding = request.getHeader("accept-encoding");
+		// like JavaScriptService, dont trust MSIE to decode the library
+		if (acceptEncoding != null && (userAgent == null || userAgent.indexOf("MSIE") == -1)) {
+			if (acceptEncoding.indexOf("gzip") != -1) {
+				response.setHeader("Content-Encoding", "gzip");
+				content = gzipContent;
+			} else if (acceptEncoding.indexOf("deflate") != -1) {
+				response.setHeader("Content-Encoding", "deflate");
+				content = deflateContent;
+			}
+		}
+		response.setContentType("text/plain; charset=UTF-8");
+		response.setContentLength(content.length);
+		conn.getOutputStream().write(content);
+	}
+}
@@ -45,7 +45,7 @@ public class LayoutStrut {
      * @return an transparent IMG element sized according
      */
     public static Element createStrut(RenderContext rc, Extent width, Extent height) {
-    	String uri = rc.getContainerInstance().getServiceUri(PIXEL_SERVICE);
+    	String uri = ((StaticImageService) PIXEL_SERVICE).getURI(rc.getContainerInstance());
     	Element img = rc.getServerMessage().getDocument().createElement("img");
         img.setAttribute("src", uri);
         
@@ -0,0 +1,249 @@
+package echopointng.ui.util;
+/* 
+ * This file is part of the Echo Point Project.  This project is a collection
+ * of Components that have extended the Echo Web Application Framework.
+ *
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import nextapp.echo2.app.Extent;
+import nextapp.echo2.app.ImageReference;
+import nextapp.echo2.app.ResourceImageReference;
+import nextapp.echo2.webcontainer.ContainerInstance;
+import nextapp.echo2.webrender.WebRenderServlet;
+import nextapp.echo2.webrender.output.CssStyle;
+import echopointng.image.PngEncoder;
+
+/**
+ * <code>SpriteSheet</code> combines a set of small resource images into a
+ * single PNG image, so that the browser can fetch them all with one
+ * request. Each image is then shown by using the sheet as a CSS background
+ * image, offset to the position of the image within it.
+ * <p>
+ * The images are placed side by side, top aligned, so a sprite whose height
+ * is the height of the sheet can also be repeated vertically.
+ * <p>
+ * The sheet is served via a <code>StaticImageService</code> and hence is
+ * fingerprinted and cached by the browser for as long as it stays the same.
+ */
+public class SpriteSheet {
+
+	/**
+	 * <code>Sprite</code> is the position of one image within a
+	 * <code>SpriteSheet</code>
+	 */
+	public static class Sprite {
+
+		private SpriteSheet sheet;
+
+		private int x;
+
+		private int width;
+
+		private int height;
+
+		private Sprite(SpriteSheet sheet, int x, int width, int height) {
+			this.sheet = sheet;
+			this.x = x;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * @return the SpriteSheet the sprite is in
+		 */
+		public SpriteSheet getSheet() {
+			return sheet;
+		}
+
+		/**
+		 * @return the horizontal offset of the sprite within its sheet
+		 */
+		public int getX() {
+			return x;
+		}
+
+		/**
+		 * @return the width of the sprite in pixels
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * @return the height of the sprite in pixels
+		 */
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return true if the sprite can be repeated vertically, which is
+		 *         the case if it is as high as its sheet
+		 */
+		public boolean isRepeatableY() {
+			return height == sheet.height;
+		}
+
+		/**
+		 * Renders the sprite as the background image of a style.
+		 * 
+		 * @param containerInstance -
+		 *            the ContainerInstance in play
+		 * @param style -
+		 *            the style to render into
+		 */
+		public void renderBackgroundToStyle(ContainerInstance containerInstance, CssStyle style) {
+			style.setAttribute("background-image", "url(" + sheet.getURI(containerInstance) + ")");
+			style.setAttribute("background-position", (-x) + "px 0px");
+			style.setAttribute("background-repeat", "no-repeat");
+		}
+	}
+
+	private String id;
+
+	private Map spriteMap = new HashMap();
+
+	private int height;
+
+	private StaticImageService service;
+
+	/**
+	 * Constructs a <code>SpriteSheet</code> from a set of
+	 * <code>ResourceImageReference</code>s. Images that refer to the same
+	 * resource are only placed in the sheet once.
+	 * 
+	 * @param id -
+	 *            the id of the service that serves the sheet
+	 * @param imageRefs -
+	 *            the images to combine
+	 * @throws IOException -
+	 *             if the images cannot be read
+	 */
+	public SpriteSheet(String id, ResourceImageReference[] imageRefs) throws IOException {
+		this.id = id;
+		Map images = new HashMap();
+		String[] resources = new String[imageRefs.length];
+		int count = 0;
+		int width = 0;
+		for (int i = 0; i < imageRefs.length; i++) {
+			String resource = imageRefs[i].getResource();
+			if (images.containsKey(resource)) {
+				continue;
+			}
+			BufferedImage image = readImage(imageRefs[i]);
+			images.put(resource, image);
+			resources[count++] = resource;
+			width += image.getWidth();
+			height = Math.max(height, image.getHeight());
+		}
+		BufferedImage sheetImage = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_ARGB);
+		int x = 0;
+		for (int i = 0; i < count; i++) {
+			BufferedImage image = (BufferedImage) images.get(resources[i]);
+			int imageWidth = image.getWidth();
+			int imageHeight = image.getHeight();
+			int[] pixels = image.getRGB(0, 0, imageWidth, imageHeight, null, 0, imageWidth);
+			sheetImage.setRGB(x, 0, imageWidth, imageHeight, pixels, 0, imageWidth);
+			spriteMap.put(resources[i], new Sprite(this, x, imageWidth, imageHeight));
+			x += imageWidth;
+		}
+		PngEncoder encoder = new PngEncoder();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		encoder.encode(sheetImage, bytes);
+		service = new StaticImageService(id, encoder.getContentType(), bytes.toByteArray());
+		WebRenderServlet.getServiceRegistry().add(service);
+	}
+
+	private static BufferedImage readImage(ResourceImageReference imageRef) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		imageRef.render(bytes);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+		if (image == null) {
+			throw new IOException("The image resource cannot be decoded : " + imageRef.getResource());
+		}
+		return image;
+	}
+
+	/**
+	 * @return the id of the service that serves the sheet
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the height in pixels of the sheet
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the fingerprinted URI of the sheet image
+	 * 
+	 * @param containerInstance -
+	 *            the ContainerInstance in play
+	 * @return the URI of the sheet image
+	 */
+	public String getURI(ContainerInstance containerInstance) {
+		return service.getURI(containerInstance);
+	}
+
+	/**
+	 * Returns the <code>Sprite</code> for an image, if it is in the sheet.
+	 * Only plain <code>ResourceImageReference</code>s can be in a sheet and
+	 * any explicit size of the image must match its actual size.
+	 * 
+	 * @param imageRef -
+	 *            the image in question, which may be null
+	 * @return the Sprite for the image or null if it is not in the sheet
+	 */
+	public Sprite getSprite(ImageReference imageRef) {
+		if (imageRef == null || imageRef.getClass() != ResourceImageReference.class) {
+			return null;
+		}
+		Sprite sprite = (Sprite) spriteMap.get(((ResourceImageReference) imageRef).getResource());
+		if (sprite == null) {
+			return null;
+		}
+		if (imageRef.getWidth() != null && !imageRef.getWidth().equals(new Extent(sprite.width))) {
+			return null;
+		}
+		if (imageRef.getHeight() != null && !imageRef.getHeight().equals(new Extent(sprite.height))) {
+			return null;
+		}
+		return sprite;
+	}
+}
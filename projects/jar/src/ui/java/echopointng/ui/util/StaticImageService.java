@@ -27,20 +27,44 @@ package echopointng.ui.util;
  * the provisions above, a recipient may use your version of this file under
  * the terms of any one of the MPL, the GPL or the LGPL.
  */
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import nextapp.echo2.app.Extent;
 import nextapp.echo2.app.ResourceImageReference;
+import nextapp.echo2.webcontainer.ContainerInstance;
 import nextapp.echo2.webrender.Connection;
 import nextapp.echo2.webrender.Service;
+import nextapp.echo2.webrender.WebRenderServlet;
 
 /**
  * <code>StaticImageService</code> provides a static service
  * wrapper for a given resource based image reference.
+ * <p>
+ * The image is read into memory the first time it is needed and a hash
+ * of its content is used as its fingerprint.  URIs created via 
+ * <code>getURI()</code> carry the fingerprint, and requests for them are 
+ * told that the image can be cached forever, since a changed image will 
+ * have a different URI.  All requests are sent the fingerprint as an ETag.
  */
 
 public class StaticImageService implements Service {
     
+    /** How long, in seconds, browsers may cache a fingerprinted image */
+    public static final int CACHE_MAX_AGE = 365 * 24 * 60 * 60;
+    
+    private static final String FINGERPRINT_PARAMETER = "v";
+    
+    /** the shared services by resource name */
+    private static final Map resourceServices = new HashMap();
+    
     public static StaticImageService forResource(String id, String resourceName) {
         ResourceImageReference imageRef = new ResourceImageReference(resourceName);
         return new StaticImageService(id, imageRef);
@@ -51,13 +75,104 @@ public class StaticImageService implements Service {
         return new StaticImageService(id, imageRef);
     }
     
+    /**
+     * Returns a shared <code>StaticImageService</code> for the resource
+     * of the given <code>ResourceImageReference</code>, creating and
+     * registering it if need be.  This allows resource images to be 
+     * served and cached once for all users, rather than per user.
+     * 
+     * @param imageRef - the image reference in question
+     * @return the shared service for the image's resource
+     */
+    public static StaticImageService forImage(ResourceImageReference imageRef) {
+        synchronized (resourceServices) {
+            StaticImageService service = (StaticImageService) resourceServices.get(imageRef.getResource());
+            if (service == null) {
+                service = new StaticImageService("EPNG.StaticImage." + imageRef.getResource(), imageRef);
+                WebRenderServlet.getServiceRegistry().add(service);
+                resourceServices.put(imageRef.getResource(), service);
+            }
+            return service;
+        }
+    }
+    
     private String id;
     private ResourceImageReference imageRef;
+    private String contentType;
+    private byte[] content;
+    private String fingerprint;
     
     public StaticImageService(String id, ResourceImageReference imageRef) {
         super();
         this.id = id;
         this.imageRef = imageRef;
+        this.contentType = imageRef.getContentType();
+    }
+    
+    /**
+     * Constructs a <code>StaticImageService</code> that serves already 
+     * encoded image data.
+     * 
+     * @param id - the id of the service
+     * @param contentType - the content type of the image data
+     * @param content - the encoded image data
+     */
+    public StaticImageService(String id, String contentType, byte[] content) {
+        super();
+        this.id = id;
+        this.contentType = contentType;
+        setContent(content);
+    }
+    
+    /**
+     * Reads the image into memory if it has not been already
+     */
+    private synchronized void ensureContent() {
+        if (content == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                imageRef.render(bytes);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read image resource : " + imageRef.getResource(), e);
+            }
+            setContent(bytes.toByteArray());
+        }
+    }
+    
+    private void setContent(byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available : " + e);
+        }
+        byte[] hash = digest.digest(content);
+        StringBuffer sb = new StringBuffer(hash.length * 2);
+        for (int i = 0; i < hash.length; i++) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        this.fingerprint = sb.toString();
+        this.content = content;
+    }
+    
+    /**
+     * @return a hash of the content of the image
+     */
+    public String getFingerprint() {
+        ensureContent();
+        return fingerprint;
+    }
+    
+    /**
+     * Returns a URI for the image that includes its fingerprint, which 
+     * allows browsers to cache it forever.
+     * 
+     * @param containerInstance - the ContainerInstance in play
+     * @return a fingerprinted URI for the image
+     */
+    public String getURI(ContainerInstance containerInstance) {
+        return containerInstance.getServiceUri(this, new String[] { FINGERPRINT_PARAMETER }, new String[] { getFingerprint() });
     }
     
     /**
@@ -78,7 +193,23 @@ public class StaticImageService implements Service {
      * @see nextapp.echo2.webrender.server.Service#service(nextapp.echo2.webrender.server.Connection)
      */
     public void service(Connection conn) throws IOException {
-        conn.getResponse().setContentType(imageRef.getContentType());
-        imageRef.render(conn.getResponse().getOutputStream());
+        ensureContent();
+        HttpServletRequest request = conn.getRequest();
+        HttpServletResponse response = conn.getResponse();
+        String etag = "\"" + fingerprint + "\"";
+        response.setHeader("ETag", etag);
+        if (fingerprint.equals(request.getParameter(FINGERPRINT_PARAMETER))) {
+            // the URI changes with the image so it can be cached for ever
+            response.setHeader("Cache-Control", "public, max-age=" + CACHE_MAX_AGE);
+            response.setDateHeader("Expires", System.currentTimeMillis() + CACHE_MAX_AGE * 1000L);
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.indexOf(etag) != -1) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(contentType);
+        response.setContentLength(content.length);
+        conn.getOutputStream().write(content);
     }
 }